@@ -0,0 +1,117 @@
+import java.util.Random;
+import javax.swing.SwingUtilities;
+
+// Bakes the ambient occlusion of n random boxes (packed densely enough to
+// occlude each other), and reports the time of a full bake and the number
+// of rays cast per second.  Then moves one box at a time, rebaking after
+// each move, and reports the time and the number of faces of each
+// incremental bake.  Finally, checks that the shades left by the
+// incremental bakes are those of a full bake of the final scene.
+// Then does the same through a Scene (which bakes in the background),
+// dragging a selection of boxes as SceneViewer does.
+//
+// Run with, e.g.,
+//    java -cp bin:bench AmbientOcclusionBenchmark 20000 100
+public class AmbientOcclusionBenchmark {
+
+	private static final int RAYS_PER_FACE = 16;
+
+	public static void main( String[] args ) throws Exception {
+		int n = args.length > 0 ? Integer.parseInt( args[0] ) : 20000;
+		int numberOfMoves = args.length > 1 ? Integer.parseInt( args[1] ) : 100;
+		Random random = new Random( 1 );
+		BoxStore boxes = new BoxStore();
+		float side = 1.5f * (float)Math.cbrt( n );
+		for ( int i = 0; i < n; ++i ) {
+			float x = random.nextFloat()*side, y = random.nextFloat()*side, z = random.nextFloat()*side;
+			boxes.add( x, y, z, x + 0.5f + 0.5f*random.nextFloat(), y + 0.5f + 0.5f*random.nextFloat(), z + 0.5f + 0.5f*random.nextFloat(), 0xffffffff );
+		}
+		System.out.printf( "%d boxes, %d processors%n", n, Runtime.getRuntime().availableProcessors() );
+
+		AmbientOcclusion ao = new AmbientOcclusion( boxes );
+		for ( int pass = 0; pass < 3; ++pass ) {
+			ao.invalidate();
+			AmbientOcclusion.Bake bake = ao.prepareBake();
+			bake.run();
+			ao.applyBake( bake );
+		}
+		long faces = ao.getNumberOfFacesBaked();
+		double seconds = ao.getBakeTime() * 1e-9;
+		System.out.printf( "full bake: %.1f ms, %d faces, %.2f million rays/s%n",
+			seconds * 1e3, faces, faces * RAYS_PER_FACE / seconds * 1e-6 );
+
+		long totalTime = 0, totalFaces = 0;
+		for ( int m = 0; m < numberOfMoves; ++m ) {
+			int i = random.nextInt( n );
+			ao.boxChanged( i );
+			boxes.translate( i, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f );
+			ao.boxChanged( i );
+			AmbientOcclusion.Bake bake = ao.prepareBake();
+			bake.run();
+			ao.applyBake( bake );
+			totalTime += ao.getBakeTime();
+			totalFaces += ao.getNumberOfFacesBaked();
+		}
+		System.out.printf( "after moving one box: %.2f ms per bake, %d faces rebaked (of %d)%n",
+			totalTime * 1e-6 / numberOfMoves, totalFaces / numberOfMoves, 6 * n );
+
+		System.out.printf( "incremental vs. full bake: %d of %d faces differ%n", countDifferences( boxes, ao ), 6 * n );
+
+		// the scene is owned by the event dispatch thread, where its bakes are applied
+		final Scene scene = new Scene();
+		for ( int i = 0; i < n; ++i ) {
+			int handle = scene.addColoredBox(
+				new AlignedBox3D( new Point3D( boxes.minX[i], boxes.minY[i], boxes.minZ[i] ), new Point3D( boxes.maxX[i], boxes.maxY[i], boxes.maxZ[i] ) ),
+				1, 1, 1, 1
+			);
+			if ( random.nextInt( 1000 ) == 0 )
+				scene.setSelectionStateOfBox( handle, true );
+		}
+		SwingUtilities.invokeAndWait( new Runnable() {
+			public void run() {
+				scene.setUseAmbientOcclusion( true );
+			}
+		} );
+		waitForBakes( scene );
+		for ( int m = 0; m < numberOfMoves; ++m ) {
+			final Vector3D translation = new Vector3D( 4*random.nextFloat() - 2, 4*random.nextFloat() - 2, 4*random.nextFloat() - 2 );
+			SwingUtilities.invokeAndWait( new Runnable() {
+				public void run() {
+					scene.translateSelection( translation );
+				}
+			} );
+			waitForBakes( scene );
+		}
+		System.out.printf( "after dragging %d selected boxes in a scene: %d of %d faces differ from a full bake%n",
+			scene.getNumberOfSelectedBoxes(), countDifferences( scene.boxes, scene.ambientOcclusion ), 6 * n );
+	}
+
+	// Waits until the scene's background bakes have caught up with its changes
+	private static void waitForBakes( final Scene scene ) throws Exception {
+		final boolean [] isUpToDate = new boolean[ 1 ];
+		while ( true ) {
+			SwingUtilities.invokeAndWait( new Runnable() {
+				public void run() {
+					isUpToDate[0] = scene.isAmbientOcclusionUpToDate();
+				}
+			} );
+			if ( isUpToDate[0] )
+				return;
+			Thread.sleep( 5 );
+		}
+	}
+
+	// Returns the number of faces whose shades differ from a full bake
+	private static int countDifferences( BoxStore boxes, AmbientOcclusion ao ) {
+		AmbientOcclusion reference = new AmbientOcclusion( boxes );
+		AmbientOcclusion.Bake bake = reference.prepareBake();
+		bake.run();
+		reference.applyBake( bake );
+		int differences = 0;
+		for ( int i = 0; i < boxes.size(); ++i )
+			for ( int f = 0; f < AmbientOcclusion.FACES_PER_BOX; ++f )
+				if ( boxes.isAlive( i ) && ao.getShade( i, f ) != reference.getShade( i, f ) )
+					++differences;
+		return differences;
+	}
+}
@@ -0,0 +1,77 @@
+import java.util.Random;
+
+// Moves and deletes random boxes of a large scene, reading the bounds
+// of the scene after each change (as happens while dragging a box with
+// the bounding box displayed), and compares the BoundsTree with
+// rescanning every box.
+//
+// Run with, e.g.,
+//    java -cp bin:bench BoundsBenchmark 1000000
+public class BoundsBenchmark {
+
+	static AlignedBox3D rescan( BoxStore boxes, AlignedBox3D box ) {
+		box.clear();
+		for ( int i = 0; i < boxes.size(); ++i ) {
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			box.bound( boxes.minX[i], boxes.minY[i], boxes.minZ[i] );
+			box.bound( boxes.maxX[i], boxes.maxY[i], boxes.maxZ[i] );
+		}
+		return box;
+	}
+
+	static boolean same( AlignedBox3D a, AlignedBox3D b ) {
+		if ( a.isEmpty() || b.isEmpty() )
+			return a.isEmpty() == b.isEmpty();
+		return a.getMin().x() == b.getMin().x() && a.getMin().y() == b.getMin().y() && a.getMin().z() == b.getMin().z()
+			&& a.getMax().x() == b.getMax().x() && a.getMax().y() == b.getMax().y() && a.getMax().z() == b.getMax().z();
+	}
+
+	public static void main( String[] args ) {
+		int n = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+		int numberOfChanges = 2000;
+		Random random = new Random( 1 );
+		BoxStore boxes = new BoxStore();
+		BoundsTree tree = new BoundsTree( boxes );
+		for ( int i = 0; i < n; ++i ) {
+			float x = random.nextFloat()*100, y = random.nextFloat()*100, z = random.nextFloat()*100;
+			boxes.add( x, y, z, x+1, y+1, z+1, 0xFFFFFFFF );
+			tree.boxChanged( i );
+		}
+
+		AlignedBox3D expected = new AlignedBox3D(), actual = new AlignedBox3D();
+		int mismatches = 0;
+		long rescanTime = 0, treeTime = 0;
+		for ( int k = 0; k < numberOfChanges; ++k ) {
+			int i = random.nextInt( boxes.size() );
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			if ( k % 10 == 0 ) {
+				boxes.remove( i );
+			}
+			else {
+				// sometimes push a box out to extend the bounds, sometimes pull it back in
+				float d = ( random.nextFloat() - 0.5f ) * ( k % 3 == 0 ? 400 : 4 );
+				boxes.translate( i, d, -d, d );
+			}
+			long t0 = System.nanoTime();
+			tree.boxChanged( i );
+			tree.getBounds( actual );
+			long t1 = System.nanoTime();
+			rescan( boxes, expected );
+			long t2 = System.nanoTime();
+			treeTime += t1-t0;
+			rescanTime += t2-t1;
+			if ( ! same( expected, actual ) ) ++mismatches;
+		}
+		System.out.printf( "%d boxes: rescan %.3f ms, BoundsTree %.2f us per change (%d mismatches)%n",
+			n, rescanTime*1e-6/numberOfChanges, treeTime*1e-3/numberOfChanges, mismatches );
+
+		boxes.compact();
+		long t0 = System.nanoTime();
+		tree.rebuild();
+		long t1 = System.nanoTime();
+		System.out.printf( "rebuild after compaction: %.1f ms, %s%n",
+			(t1-t0)*1e-6, same( rescan( boxes, expected ), tree.getBounds( actual ) ) ? "ok" : "MISMATCH" );
+	}
+}
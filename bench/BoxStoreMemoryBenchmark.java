@@ -0,0 +1,53 @@
+
+import java.util.Vector;
+
+// Measures the heap footprint of a scene's boxes, comparing the
+// original one-object-per-box layout (a Vector of ColoredBox, each
+// holding an AlignedBox3D) with the structure-of-arrays BoxStore.
+//
+// Run with, e.g.,
+//    java -Xmx2g -cp bin:bench BoxStoreMemoryBenchmark 500000
+public class BoxStoreMemoryBenchmark {
+
+	// The layout that Scene used before BoxStore was introduced.
+	static class LegacyColoredBox {
+		public AlignedBox3D box;
+		public float r=1, g=1, b=1, a=1;
+		public boolean isSelected = false;
+
+		public LegacyColoredBox( AlignedBox3D alignedBox3D, float red, float green, float blue, float alpha ) {
+			box = new AlignedBox3D( alignedBox3D.getMin(), alignedBox3D.getMax() );
+			r = red; g = green; b = blue; a = alpha;
+		}
+	}
+
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for ( int i = 0; i < 4; ++i ) {
+			System.gc();
+			try { Thread.sleep( 50 ); } catch ( InterruptedException e ) { }
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public static void main( String[] args ) {
+		int n = args.length > 0 ? Integer.parseInt( args[0] ) : 500000;
+		AlignedBox3D template = new AlignedBox3D( new Point3D(0,0,0), new Point3D(1,1,1) );
+
+		long before = usedHeap();
+		Vector< LegacyColoredBox > legacy = new Vector< LegacyColoredBox >();
+		for ( int i = 0; i < n; ++i )
+			legacy.addElement( new LegacyColoredBox( template, 0.5f, 0.5f, 0.5f, 0.5f ) );
+		legacy.trimToSize();
+		long after = usedHeap();
+		System.out.println( "Vector<ColoredBox>: " + (after-before)/(double)n + " bytes per box (" + legacy.size() + " boxes)" );
+		legacy = null;
+
+		before = usedHeap();
+		BoxStore store = new BoxStore();
+		for ( int i = 0; i < n; ++i )
+			store.add( i, 0, 0, i+1, 1, 1, BoxStore.packColor( 0.5f, 0.5f, 0.5f, 0.5f ) );
+		after = usedHeap();
+		System.out.println( "BoxStore:           " + (after-before)/(double)n + " bytes per box (" + store.size() + " boxes, capacity " + store.capacity() + ")" );
+	}
+}
@@ -0,0 +1,67 @@
+
+import java.util.Random;
+
+// Measures frustum culling with the LooseOctree, and checks that it finds
+// exactly the boxes found by testing every box against the frustum.
+//
+// Run with, e.g.,
+//    java -cp bin:bench CullingBenchmark 200000
+public class CullingBenchmark {
+
+	public static void main( String[] args ) {
+		int n = args.length > 0 ? Integer.parseInt( args[0] ) : 200000;
+		Random random = new Random( 1 );
+		float side = (float)Math.cbrt( n ) * 2;
+		BoxStore boxes = new BoxStore();
+		LooseOctree octree = new LooseOctree( boxes );
+		for ( int i = 0; i < n; ++i ) {
+			float x = random.nextFloat()*side, y = random.nextFloat()*side, z = random.nextFloat()*side;
+			float s = 0.25f + random.nextFloat()*( random.nextInt(100) == 0 ? side/4 : 1 );
+			boxes.add( x, y, z, x+s, y+s, z+s, 0xFFFFFFFF );
+		}
+
+		long tb = System.nanoTime();
+		octree.build();
+		System.out.printf( "build: %.1f ms, %d nodes%n", (System.nanoTime()-tb)*1e-6, octree.getNumberOfNodes() );
+
+		Camera3D camera = new Camera3D();
+		camera.setViewportDimensions( 800, 600 );
+		Frustum frustum = new Frustum();
+
+		for ( int view = 0; view < 6; ++view ) {
+			camera.position = new Point3D( random.nextFloat()*side, random.nextFloat()*side, random.nextFloat()*side );
+			camera.lookAt( new Point3D( random.nextFloat()*side, random.nextFloat()*side, random.nextFloat()*side ) );
+			frustum.setFromCamera( camera );
+
+			if ( view == 3 ) {
+				// move some boxes around
+				for ( int i = 0; i < n; i += 13 ) {
+					boxes.translate( i, random.nextFloat()*4-2, random.nextFloat()*4-2, random.nextFloat()*4-2 );
+					octree.boxMoved( i );
+				}
+			}
+
+			long t0 = System.nanoTime();
+			int expected = 0;
+			boolean [] isVisible = new boolean[ n ];
+			for ( int i = 0; i < n; ++i ) {
+				if ( frustum.intersectsBox( boxes.minX[i], boxes.minY[i], boxes.minZ[i], boxes.maxX[i], boxes.maxY[i], boxes.maxZ[i] ) ) {
+					isVisible[i] = true;
+					++expected;
+				}
+			}
+			long t1 = System.nanoTime();
+			octree.cull( frustum );
+			long t2 = System.nanoTime();
+
+			int mismatches = Math.abs( expected - octree.getNumberOfVisibleItems() );
+			for ( int k = 0; k < octree.getNumberOfVisibleItems(); ++k )
+				if ( ! isVisible[ octree.getVisibleItems()[k] ] ) ++mismatches;
+			System.out.printf(
+				"view %d: %d visible, %d culled | brute force %.2f ms, octree %.2f ms (%d nodes visited) | %d mismatches%n",
+				view, octree.getNumberOfVisibleItems(), octree.getNumberOfCulledItems(),
+				(t1-t0)*1e-6, (t2-t1)*1e-6, octree.getNumberOfNodesVisited(), mismatches
+			);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+import java.util.Random;
+import java.util.Vector;
+import javax.swing.SwingUtilities;
+
+// Deletes a random subset of the boxes of a large scene, one at a time
+// (as SceneViewer.deleteSelection() does), and compares the time taken
+// with what removing the same number of elements from a Vector costs.
+// Afterward, checks that handles to deleted boxes are detected as stale,
+// that the other handles still refer to the same boxes, and that
+// picking still agrees with a linear scan.
+//
+// Run with, e.g.,
+//    java -cp bin:bench DeletionBenchmark 1000000 100000
+public class DeletionBenchmark {
+
+	public static void main( final String[] args ) throws Exception {
+		// The scene is owned by the event dispatch thread,
+		// where background compactions are applied.
+		SwingUtilities.invokeAndWait( new Runnable() {
+			public void run() {
+				benchmark(
+					args.length > 0 ? Integer.parseInt( args[0] ) : 1000000,
+					args.length > 1 ? Integer.parseInt( args[1] ) : 100000
+				);
+			}
+		} );
+		// let the pending compaction, if any, be applied
+		Thread.sleep( 500 );
+		SwingUtilities.invokeAndWait( new Runnable() { public void run() { } } );
+		System.exit( 0 );
+	}
+
+	static void benchmark( int n, int numberOfDeletions ) {
+		Random random = new Random( 1 );
+		float side = (float)Math.cbrt( n ) * 2;
+		Scene scene = new Scene();
+		int [] handles = new int[ n ];
+		float [] xOfBox = new float[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			float x = random.nextFloat()*side, y = random.nextFloat()*side, z = random.nextFloat()*side;
+			handles[i] = scene.addColoredBox(
+				new AlignedBox3D( new Point3D( x, y, z ), new Point3D( x+1, y+1, z+1 ) ),
+				1, 1, 1, 1
+			);
+			xOfBox[i] = x;
+		}
+
+		// choose which boxes to delete
+		boolean [] isDeleted = new boolean[ n ];
+		int [] toDelete = new int[ numberOfDeletions ];
+		for ( int k = 0; k < numberOfDeletions; ) {
+			int i = random.nextInt( n );
+			if ( ! isDeleted[i] ) {
+				isDeleted[i] = true;
+				toDelete[ k++ ] = i;
+			}
+		}
+
+		// make sure the acceleration structures are built before timing
+		Ray3D ray = new Ray3D( new Point3D( side*0.5f, side*0.5f, side*3 ), new Vector3D( 0, 0, -1 ) );
+		scene.getIntersectedBox( ray, new Point3D(), new Vector3D() );
+
+		long t0 = System.nanoTime();
+		for ( int k = 0; k < numberOfDeletions; ++k )
+			scene.deleteBox( handles[ toDelete[k] ] );
+		long t1 = System.nanoTime();
+		scene.compact();
+		long t2 = System.nanoTime();
+		System.out.printf( "Scene: %d deletions out of %d boxes: %.1f ms, then compaction %.1f ms%n",
+			numberOfDeletions, n, (t1-t0)*1e-6, (t2-t1)*1e-6 );
+
+		// Same deletions, in bulk, on a copy of the scene
+		Scene copy = new Scene();
+		int [] handlesInCopy = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			handlesInCopy[i] = copy.addColoredBox(
+				new AlignedBox3D( new Point3D( xOfBox[i], 0, 0 ), new Point3D( xOfBox[i]+1, 1, 1 ) ),
+				1, 1, 1, 1
+			);
+		copy.getIntersectedBox( ray, new Point3D(), new Vector3D() );
+		int [] handlesToDelete = new int[ numberOfDeletions ];
+		for ( int k = 0; k < numberOfDeletions; ++k )
+			handlesToDelete[k] = handlesInCopy[ toDelete[k] ];
+		long t5 = System.nanoTime();
+		int [] newIndexOfOldIndex = copy.deleteBoxes( handlesToDelete );
+		long t6 = System.nanoTime();
+		int survivors = 0;
+		for ( int i = 0; i < newIndexOfOldIndex.length; ++i )
+			if ( newIndexOfOldIndex[i] >= 0 ) ++survivors;
+		System.out.printf( "Scene.deleteBoxes(): %.1f ms, %d boxes left%n", (t6-t5)*1e-6, survivors );
+
+		// The old implementation stored the boxes in a Vector, and removed
+		// them with removeElementAt(); time a sample, and extrapolate.
+		Vector<Object> vector = new Vector<Object>( n );
+		Object element = new Object();
+		for ( int i = 0; i < n; ++i )
+			vector.add( element );
+		int sample = Math.min( numberOfDeletions, 2000 );
+		long t3 = System.nanoTime();
+		for ( int k = 0; k < sample; ++k )
+			vector.removeElementAt( random.nextInt( vector.size() ) );
+		long t4 = System.nanoTime();
+		System.out.printf( "Vector.removeElementAt: %.3f ms per deletion, so about %.1f s for %d deletions%n",
+			(t4-t3)*1e-6/sample, (t4-t3)*1e-9/sample*numberOfDeletions, numberOfDeletions );
+
+		// check handles
+		int errors = 0;
+		for ( int i = 0; i < n; ++i ) {
+			if ( isDeleted[i] ) {
+				if ( scene.isValid( handles[i] ) ) ++errors;
+			}
+			else if ( scene.getBox( handles[i] ) == null || scene.getBox( handles[i] ).getMin().x() != xOfBox[i] ) {
+				++errors;
+			}
+		}
+		// reusing slots must not revive stale handles
+		for ( int k = 0; k < numberOfDeletions; ++k )
+			scene.addColoredBox( new AlignedBox3D( new Point3D( 0, 0, 0 ), new Point3D( 1, 1, 1 ) ), 1, 1, 1, 1 );
+		for ( int k = 0; k < numberOfDeletions; ++k )
+			if ( scene.isValid( handles[ toDelete[k] ] ) ) ++errors;
+		System.out.println( "Handle errors: " + errors );
+
+		// check picking against a linear scan
+		int mismatches = 0;
+		Point3D p = new Point3D(); Vector3D v = new Vector3D();
+		Point3D q = new Point3D(); Vector3D w = new Vector3D();
+		AlignedBox3D box = new AlignedBox3D();
+		for ( int r = 0; r < 500; ++r ) {
+			Point3D origin = new Point3D( side*0.5f, side*0.5f, side*3 );
+			Point3D target = new Point3D( random.nextFloat()*side, random.nextFloat()*side, random.nextFloat()*side );
+			ray = new Ray3D( origin, Point3D.diff( target, origin ) );
+			int picked = scene.getIntersectedBox( ray, p, v );
+			int expected = BoxStore.NO_BOX;
+			float bestDistance = Float.POSITIVE_INFINITY;
+			for ( int i = 0; i < scene.boxes.size(); ++i ) {
+				if ( scene.boxes.isAlive( i ) && scene.boxes.getBox( i, box ).intersects( ray, q, w ) ) {
+					float d = Point3D.diff( origin, q ).length();
+					if ( d < bestDistance ) {
+						bestDistance = d;
+						expected = scene.boxes.handleAt( i );
+					}
+				}
+			}
+			if ( picked != expected ) ++mismatches;
+		}
+		System.out.println( "Picking mismatches: " + mismatches );
+
+		// a frustum containing everything: the octree must return every live box once
+		Frustum everything = new Frustum();
+		for ( int k = 0; k < 6; ++k )
+			everything.planes[ 4*k + 3 ] = 1;
+		scene.octree.cull( everything );
+		boolean [] seen = new boolean[ scene.boxes.size() ];
+		int duplicates = 0;
+		for ( int k = 0; k < scene.octree.getNumberOfVisibleItems(); ++k ) {
+			int i = scene.octree.getVisibleItems()[k];
+			if ( seen[i] || ! scene.boxes.isAlive( i ) ) ++duplicates;
+			seen[i] = true;
+		}
+		System.out.println( "Octree: " + scene.octree.getNumberOfVisibleItems() + " boxes found, "
+			+ scene.getNumberOfBoxes() + " expected, " + duplicates + " errors" );
+	}
+}
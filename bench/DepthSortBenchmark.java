@@ -0,0 +1,113 @@
+import java.util.Random;
+
+// Orbits the camera around a scene of random boxes by the given number
+// of pixels per frame, as when the user drags the mouse, and reports the time taken to
+// keep the boxes sorted from back to front with a DepthSorter, compared
+// to sorting them from scratch (which the sorter also does after the
+// camera jumps to the other side of the scene).  The order is checked
+// after every frame.
+//
+// Run with, e.g.,
+//    java -cp bin:bench DepthSortBenchmark 1000000 1
+public class DepthSortBenchmark {
+
+	static float distance2( BoxStore boxes, int i, Point3D eye ) {
+		float dx = 0.5f*(boxes.minX[i]+boxes.maxX[i]) - eye.x();
+		float dy = 0.5f*(boxes.minY[i]+boxes.maxY[i]) - eye.y();
+		float dz = 0.5f*(boxes.minZ[i]+boxes.maxZ[i]) - eye.z();
+		return dx*dx + dy*dy + dz*dz;
+	}
+
+	// Checks that the boxes are sorted by decreasing distance
+	static boolean isSorted( DepthSorter sorter, BoxStore boxes, Point3D eye ) {
+		int [] order = sorter.getOrder();
+		if ( sorter.getNumberOfSortedBoxes() != boxes.size() )
+			return false;
+		for ( int k = 1; k < sorter.getNumberOfSortedBoxes(); ++k )
+			if ( distance2( boxes, order[k-1], eye ) < distance2( boxes, order[k], eye ) )
+				return false;
+		return true;
+	}
+
+	public static void main( String[] args ) {
+		int n = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+		int numberOfFrames = 100;
+		int pixelsPerFrame = args.length > 1 ? Integer.parseInt( args[1] ) : 1;
+
+		Random random = new Random( 1 );
+		float side = (float)Math.cbrt( n ) * 1.25f;
+		Scene scene = new Scene();
+		for ( int i = 0; i < n; ++i ) {
+			float x = random.nextFloat()*side, y = random.nextFloat()*side, z = random.nextFloat()*side;
+			scene.addColoredBox(
+				new AlignedBox3D( new Point3D( x, y, z ), new Point3D( x+1, y+1, z+1 ) ),
+				random.nextFloat(), random.nextFloat(), random.nextFloat(), 0.5f
+			);
+		}
+		Camera3D camera = new Camera3D();
+		camera.setViewportDimensions( 800, 600 );
+		camera.setSceneRadius( side * (float)Math.sqrt( 3 ) / 2 );
+		camera.reset();
+		camera.lookAt( new Point3D( side/2, side/2, side/2 ) );
+
+		DepthSorter sorter = new DepthSorter( scene.boxes );
+		long t0 = System.nanoTime();
+		sorter.sort( camera.position );
+		long t1 = System.nanoTime();
+		System.out.printf( "%d boxes, first sort: %.2f ms (radix sorted: %b), %s%n",
+			n, (t1-t0)*1e-6, sorter.wasRadixSorted(),
+			isSorted( sorter, scene.boxes, camera.position ) ? "ok" : "NOT SORTED" );
+
+		long sortTime = 0, moves = 0;
+		int radixSorts = 0;
+		boolean ok = true;
+		for ( int f = 0; f < numberOfFrames; ++f ) {
+			camera.orbit( 400, 300, 400 + pixelsPerFrame, 300 );
+			long t2 = System.nanoTime();
+			sorter.sort( camera.position );
+			sortTime += System.nanoTime() - t2;
+			moves += sorter.getNumberOfMoves();
+			if ( sorter.wasRadixSorted() )
+				++radixSorts;
+			ok = ok && isSorted( sorter, scene.boxes, camera.position );
+		}
+		System.out.printf( "orbiting %d pixels per frame: %.2f ms per sort, %.2f moves per box, %d radix sorts, %s%n",
+			pixelsPerFrame, sortTime*1e-6/numberOfFrames, (double)moves/numberOfFrames/n, radixSorts,
+			ok ? "ok" : "NOT SORTED" );
+
+		// jump to the other side of the scene
+		camera.orbit( 0, 300, 400, 300 );
+		long t3 = System.nanoTime();
+		sorter.sort( camera.position );
+		long t4 = System.nanoTime();
+		System.out.printf( "after a jump: %.2f ms (radix sorted: %b), %s%n",
+			(t4-t3)*1e-6, sorter.wasRadixSorted(),
+			isSorted( sorter, scene.boxes, camera.position ) ? "ok" : "NOT SORTED" );
+
+		// with the camera still, move a few boxes between frames, as when editing
+		int numberOfEdits = 100;
+		long editSortTime = 0, editMoves = 0;
+		ok = true;
+		for ( int e = 0; e < numberOfEdits; ++e ) {
+			int box = scene.boxes.handleAt( random.nextInt( n ) );
+			scene.translateBox( box, new Vector3D( random.nextFloat()-0.5f, random.nextFloat()-0.5f, random.nextFloat()-0.5f ) );
+			long t7 = System.nanoTime();
+			sorter.sort( camera.position );
+			editSortTime += System.nanoTime() - t7;
+			editMoves += sorter.getNumberOfMoves();
+			ok = ok && ! sorter.wasRadixSorted();
+		}
+		System.out.printf( "camera still, one box moved per frame: %.2f ms per sort, %.1f moves per sort, %s%n",
+			editSortTime*1e-6/numberOfEdits, (double)editMoves/numberOfEdits,
+			ok && isSorted( sorter, scene.boxes, camera.position ) ? "ok (insertion sorted)" : "NOT SORTED, or radix sorted" );
+
+		// for comparison, a general-purpose sort of the same keys
+		long [] keys = new long[ n ];
+		long t5 = System.nanoTime();
+		for ( int i = 0; i < n; ++i )
+			keys[i] = ( (long)Float.floatToRawIntBits( distance2( scene.boxes, i, camera.position ) ) << 32 ) | i;
+		java.util.Arrays.sort( keys );
+		long t6 = System.nanoTime();
+		System.out.printf( "Arrays.sort() from scratch: %.2f ms%n", (t6-t5)*1e-6 );
+	}
+}
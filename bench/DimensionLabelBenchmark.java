@@ -0,0 +1,83 @@
+import java.util.Random;
+
+// Lays out the dimension labels of n random boxes while orbiting the
+// camera (so that every frame needs a new layout), and reports the time
+// per layout, the number of candidate boxes (in front of the camera and
+// on screen) and of labels placed without overlap.  Then reports the
+// time of update() when nothing has changed, and compares the time to
+// project the centers of the boxes one at a time with
+// Camera3D.computePixel() and all at once with computePixels().
+//
+// Run with, e.g.,
+//    java -cp bin:bench DimensionLabelBenchmark 5000
+public class DimensionLabelBenchmark {
+
+	public static void main( String[] args ) {
+		int n = args.length > 0 ? Integer.parseInt( args[0] ) : 5000;
+		int numberOfFrames = args.length > 1 ? Integer.parseInt( args[1] ) : 1000;
+		Random random = new Random( 1 );
+		BoxStore boxes = new BoxStore();
+		float side = 4 * (float)Math.cbrt( n );
+		for ( int i = 0; i < n; ++i ) {
+			float x = random.nextFloat()*side, y = random.nextFloat()*side, z = random.nextFloat()*side;
+			boxes.add( x, y, z, x + 0.5f + random.nextInt( 4 ), y + 0.5f + random.nextInt( 4 ), z + 0.5f, 0xffffffff );
+		}
+		Camera3D camera = new Camera3D();
+		camera.setViewportDimensions( 1280, 800 );
+		camera.setSceneRadius( side );
+		camera.reset();
+		Point3D center = new Point3D( side/2, side/2, side/2 );
+		camera.position = Point3D.sum( camera.position, new Vector3D( center ) );
+		camera.lookAt( center );
+
+		DimensionLabels labels = new DimensionLabels( boxes );
+		for ( int pass = 0; pass < 2; ++pass ) {
+			long labelsPlaced = 0, candidates = 0;
+			long t0 = System.nanoTime();
+			for ( int f = 0; f < numberOfFrames; ++f ) {
+				camera.orbit( 0, 0, 2, 0 );
+				labels.update( camera );
+				labelsPlaced += labels.getNumberOfLabels();
+				candidates += labels.getNumberOfCandidates();
+			}
+			long t1 = System.nanoTime();
+			if ( pass == 1 )
+				System.out.printf( "%d boxes, orbiting: %.3f ms per layout, %d candidates, %d labels placed%n",
+					n, (t1-t0)*1e-6/numberOfFrames, candidates / numberOfFrames, labelsPlaced / numberOfFrames );
+		}
+
+		long t0 = System.nanoTime();
+		for ( int f = 0; f < numberOfFrames; ++f )
+			labels.update( camera );
+		long t1 = System.nanoTime();
+		System.out.printf( "camera still: %.4f ms per update (laid out again: %b)%n",
+			(t1-t0)*1e-6/numberOfFrames, labels.wasLaidOut() );
+
+		float [] points = new float[ 3*n ];
+		for ( int i = 0; i < n; ++i ) {
+			points[3*i] = 0.5f*( boxes.minX[i] + boxes.maxX[i] );
+			points[3*i+1] = 0.5f*( boxes.minY[i] + boxes.maxY[i] );
+			points[3*i+2] = 0.5f*( boxes.minZ[i] + boxes.maxZ[i] );
+		}
+		int [] pixel = new int[ 2 ], pixels = new int[ 2*n ];
+		float [] depths = new float[ n ];
+		for ( int pass = 0; pass < 2; ++pass ) {
+			long sum = 0;
+			long t2 = System.nanoTime();
+			for ( int f = 0; f < numberOfFrames; ++f )
+				for ( int i = 0; i < n; ++i ) {
+					camera.computePixel( new Point3D( points[3*i], points[3*i+1], points[3*i+2] ), pixel );
+					sum += pixel[0];
+				}
+			long t3 = System.nanoTime();
+			for ( int f = 0; f < numberOfFrames; ++f ) {
+				camera.computePixels( points, n, pixels, depths );
+				sum += pixels[0];
+			}
+			long t4 = System.nanoTime();
+			if ( pass == 1 )
+				System.out.printf( "projecting %d centers: %.3f ms one at a time, %.3f ms at once (%d)%n",
+					n, (t3-t2)*1e-6/numberOfFrames, (t4-t3)*1e-6/numberOfFrames, sum % 10 );
+		}
+	}
+}
@@ -0,0 +1,81 @@
+import java.util.Random;
+import javax.media.opengl.GL;
+
+// Drags a few selected boxes in scenes of growing size (against a GL that
+// only counts calls), redrawing the whole scene at every mouse event, or
+// drawing only the selection over a LayerCache of the other boxes, as
+// SceneViewer does while dragging.  Reports the time and the number of
+// GL calls per frame: with the cache, they should depend on the number
+// of selected boxes rather than on the size of the scene (the copy of the
+// layer itself is a framebuffer blit or, without framebuffer objects, as
+// with this GL, a couple of glDrawPixels, done by the GPU).
+//
+// Run with, e.g.,
+//    java -cp bin:bench DragBenchmark 1000000 10
+public class DragBenchmark {
+
+	public static void main( String[] args ) {
+		int maxBoxes = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+		int numberOfSelectedBoxes = args.length > 1 ? Integer.parseInt( args[1] ) : 10;
+		int numberOfFrames = 20;
+		GLCallCounter counter = new GLCallCounter( null );
+		GL gl = counter.getGL();
+
+		for ( int n = 10000; n <= maxBoxes; n *= 10 ) {
+			Random random = new Random( 1 );
+			float side = (float)Math.cbrt( n ) * 1.25f;
+			Scene scene = new Scene();
+			for ( int i = 0; i < n; ++i ) {
+				float x = random.nextFloat()*side, y = random.nextFloat()*side, z = random.nextFloat()*side;
+				scene.addColoredBox(
+					new AlignedBox3D( new Point3D( x, y, z ), new Point3D( x+1, y+1, z+1 ) ),
+					random.nextFloat(), random.nextFloat(), random.nextFloat(), 0.5f
+				);
+			}
+			for ( int k = 0; k < numberOfSelectedBoxes; ++k )
+				scene.setSelectionStateOfBox( scene.boxes.handleAt( random.nextInt( n ) ), true );
+			scene.setUseRetainedMode( false );
+			scene.contextCreated( gl );
+
+			Camera3D camera = new Camera3D();
+			camera.setViewportDimensions( 800, 600 );
+			camera.setSceneRadius( side * (float)Math.sqrt( 3 ) / 2 );
+			camera.reset();
+			camera.lookAt( new Point3D( side/2, side/2, side/2 ) );
+
+			for ( int mode = 0; mode < 2; ++mode ) {
+				LayerCache layer = new LayerCache();
+				long calls = 0, firstFrameCalls = 0;
+				long t0 = System.nanoTime(), firstFrameTime = 0;
+				for ( int f = 0; f <= numberOfFrames; ++f ) {
+					long t2 = System.nanoTime();
+					scene.translateSelection( new Vector3D( 0.1f, 0, 0 ) );
+					counter.beginFrame();
+					if ( mode == 0 )
+						scene.drawScene( gl, camera, BoxStore.NO_BOX, false );
+					else {
+						if ( ! ( layer.matches( camera ) && layer.restore( gl ) ) ) {
+							scene.drawUnselectedBoxes( gl, camera, false );
+							layer.capture( gl, camera );
+						}
+						scene.drawSelectedBoxes( gl, camera, BoxStore.NO_BOX, false );
+					}
+					counter.endFrame();
+					if ( f == 0 ) {
+						// the first frame of the drag, which captures the layer
+						firstFrameTime = System.nanoTime() - t2;
+						firstFrameCalls = counter.getNumberOfCalls();
+						t0 = System.nanoTime();
+					}
+					else
+						calls += counter.getNumberOfCalls();
+				}
+				long t1 = System.nanoTime();
+				System.out.printf( "%8d boxes, %d selected, %s: first frame %9d GL calls, %8.2f ms; then %9d GL calls, %8.2f ms per frame%n",
+					n, numberOfSelectedBoxes, mode == 0 ? "whole scene " : "cached layer",
+					firstFrameCalls, firstFrameTime*1e-6,
+					calls / numberOfFrames, (t1-t0)*1e-6/numberOfFrames );
+			}
+		}
+	}
+}
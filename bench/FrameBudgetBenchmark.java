@@ -0,0 +1,60 @@
+import java.util.Random;
+import javax.media.opengl.GL;
+
+// Draws a large scene in immediate mode (against a GL that only counts
+// calls), without a time budget and with a few budgets, as is done while
+// the camera is moved, and reports the number of boxes drawn and deferred
+// and the time achieved per frame.  The achieved time should stay close
+// to the budget, whatever the size of the scene.
+//
+// Run with, e.g.,
+//    java -cp bin:bench FrameBudgetBenchmark 1000000
+public class FrameBudgetBenchmark {
+
+	public static void main( String[] args ) {
+		int n = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+		float [] budgets = { 0, 5, 10, 30, 100 };
+		int numberOfFrames = 10;
+		GLCallCounter counter = new GLCallCounter( null );
+		GL gl = counter.getGL();
+
+		Random random = new Random( 1 );
+		float side = (float)Math.cbrt( n ) * 1.25f; // boxes fill about half of the volume
+		Scene scene = new Scene();
+		for ( int i = 0; i < n; ++i ) {
+			float x = random.nextFloat()*side, y = random.nextFloat()*side, z = random.nextFloat()*side;
+			scene.addColoredBox(
+				new AlignedBox3D( new Point3D( x, y, z ), new Point3D( x+1, y+1, z+1 ) ),
+				random.nextFloat(), random.nextFloat(), random.nextFloat(), 0.5f
+			);
+		}
+		scene.setUseRetainedMode( false );
+
+		// look at the whole scene
+		Camera3D camera = new Camera3D();
+		camera.setViewportDimensions( 800, 600 );
+		camera.setSceneRadius( side * (float)Math.sqrt( 3 ) / 2 );
+		camera.reset();
+		camera.lookAt( new Point3D( side/2, side/2, side/2 ) );
+
+		for ( int b = 0; b < budgets.length; ++b ) {
+			scene.drawScene( gl, camera, BoxStore.NO_BOX, false, budgets[b] ); // warm up
+			long calls = 0;
+			float worstTime = 0;
+			long t0 = System.nanoTime();
+			for ( int f = 0; f < numberOfFrames; ++f ) {
+				long t1 = System.nanoTime();
+				counter.beginFrame();
+				scene.drawScene( gl, camera, BoxStore.NO_BOX, false, budgets[b] );
+				counter.endFrame();
+				worstTime = Math.max( worstTime, ( System.nanoTime() - t1 ) * 1e-6f );
+				calls += counter.getNumberOfCalls();
+			}
+			long t2 = System.nanoTime();
+			System.out.printf( "%d boxes, budget %s: %7d drawn, %7d deferred, %9d GL calls, %8.2f ms per frame (worst %.2f ms)%n",
+				n, budgets[b] == 0 ? "none  " : String.format( "%3.0f ms", budgets[b] ),
+				scene.getNumberOfBoxesDrawn(), scene.getNumberOfBoxesDeferred(),
+				calls / numberOfFrames, (t2-t0)*1e-6/numberOfFrames, worstTime );
+		}
+	}
+}
@@ -0,0 +1,89 @@
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+// Simulates a high-rate mouse: for a few seconds, every millisecond,
+// an input event requests an update (as mouseMoved() does for picking)
+// and a redraw, against a client whose frames take a given time.
+// Reports the number of input events, of updates and frames actually
+// done, and of requests coalesced or dropped by the FrameScheduler.
+// Then measures the frame rate in continuous mode, and checks that
+// nothing is drawn once the input stops.
+//
+// Run with, e.g.,
+//    java -cp bin:bench FrameSchedulerBenchmark 5
+public class FrameSchedulerBenchmark {
+
+	static int numberOfUpdates = 0, numberOfFrames = 0;
+	static int frameTimeInMilliseconds;
+
+	static void busyWait( int milliseconds ) {
+		long end = System.nanoTime() + milliseconds * 1000000L;
+		while ( System.nanoTime() < end )
+			;
+	}
+
+	public static void main( String[] args ) throws Exception {
+		frameTimeInMilliseconds = args.length > 0 ? Integer.parseInt( args[0] ) : 5;
+		final int durationInMilliseconds = 3000;
+		final FrameScheduler [] scheduler = new FrameScheduler[1];
+		final int [] numberOfEvents = new int[1];
+
+		SwingUtilities.invokeAndWait( new Runnable() {
+			public void run() {
+				scheduler[0] = new FrameScheduler( new FrameScheduler.Client() {
+					public void update() {
+						++numberOfUpdates;
+						busyWait( 1 ); // picking
+					}
+					public void draw() {
+						++numberOfFrames;
+						busyWait( frameTimeInMilliseconds );
+					}
+				});
+				final Timer mouse = new Timer( 1, null );
+				final long end = System.nanoTime() + durationInMilliseconds * 1000000L;
+				mouse.addActionListener( new ActionListener() {
+					public void actionPerformed( ActionEvent e ) {
+						if ( System.nanoTime() > end ) {
+							mouse.stop();
+							return;
+						}
+						++numberOfEvents[0];
+						scheduler[0].requestUpdate();
+						scheduler[0].requestRedraw();
+					}
+				});
+				mouse.setCoalesce( false );
+				mouse.start();
+			}
+		});
+		Thread.sleep( durationInMilliseconds + 500 );
+
+		SwingUtilities.invokeAndWait( new Runnable() {
+			public void run() {
+				FrameScheduler s = scheduler[0];
+				System.out.printf( "frame interval %d ms, frames of %d ms, over %d ms of input:%n",
+					s.getFrameInterval(), frameTimeInMilliseconds, durationInMilliseconds );
+				System.out.printf( "  %d input events -> %d updates (%d dropped), %d frames (%d redraw requests coalesced), idle afterward: %b%n",
+					numberOfEvents[0], numberOfUpdates, s.getNumberOfDroppedUpdates(),
+					numberOfFrames, s.getNumberOfCoalescedRedraws(), s.isIdle() );
+				s.resetStatistics();
+				s.setContinuous( true );
+			}
+		});
+		Thread.sleep( 2000 );
+		SwingUtilities.invokeAndWait( new Runnable() {
+			public void run() {
+				System.out.printf( "  continuous mode: %d fps%n", scheduler[0].getFramesPerSecond() );
+				scheduler[0].setContinuous( false );
+			}
+		});
+		Thread.sleep( 200 );
+		int framesAfter = numberOfFrames;
+		Thread.sleep( 1000 );
+		System.out.printf( "  after leaving continuous mode: %d frames drawn in 1 s%n", numberOfFrames - framesAfter );
+		System.exit( 0 );
+	}
+}
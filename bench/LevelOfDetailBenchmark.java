@@ -0,0 +1,105 @@
+import java.util.Random;
+import javax.media.opengl.GL;
+
+// Draws scenes of growing size, zoomed out so that the whole scene
+// covers the given number of pixels (in radius) in an 800x600 viewport,
+// with and without level of detail (against a GL that only counts calls),
+// and reports the number of boxes and cluster proxies drawn and the time
+// per frame.  With level of detail, the cost per frame should stay
+// roughly constant as the scene grows.
+// Also measures the cost of editing a box while the clusters are in use.
+//
+// So that the times measure the drawing rather than the JIT compiler,
+// each mode first draws WARM_UP_FRAMES frames of the smallest scene,
+// which are not reported, and then a few more frames of each scene
+// before it is measured.
+//
+// Run with, e.g.,
+//    java -cp bin:bench LevelOfDetailBenchmark 1000000 100
+public class LevelOfDetailBenchmark {
+
+	private static final int WARM_UP_FRAMES = 50;
+	private static final int WARM_UP_FRAMES_PER_SCENE = 3;
+
+	private static Scene makeScene( int n, Random random ) {
+		float side = (float)Math.cbrt( n ) * 1.25f; // boxes fill about half of the volume
+		Scene scene = new Scene();
+		for ( int i = 0; i < n; ++i ) {
+			float x = random.nextFloat()*side, y = random.nextFloat()*side, z = random.nextFloat()*side;
+			scene.addColoredBox(
+				new AlignedBox3D( new Point3D( x, y, z ), new Point3D( x+1, y+1, z+1 ) ),
+				random.nextFloat(), random.nextFloat(), random.nextFloat(), 0.5f
+			);
+		}
+		scene.setUseRetainedMode( false );
+		return scene;
+	}
+
+	// Looks at the scene of n boxes from far enough for it to cover
+	// radiusInPixels (the viewport's radius being 300 pixels)
+	private static Camera3D makeCamera( int n, float radiusInPixels ) {
+		float side = (float)Math.cbrt( n ) * 1.25f;
+		Camera3D camera = new Camera3D();
+		camera.setViewportDimensions( 800, 600 );
+		float radius = side * (float)Math.sqrt( 3 ) / 2;
+		float distance = radius / (float)Math.tan( Camera3D.fieldOfViewInDegrees / 2 / 180 * Math.PI ) * 300 / radiusInPixels;
+		Point3D center = new Point3D( side/2, side/2, side/2 );
+		camera.position = Point3D.sum( center, new Vector3D( 0, 0, distance ) );
+		camera.target = center;
+		return camera;
+	}
+
+	public static void main( String[] args ) {
+		int maxBoxes = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+		float radiusInPixels = args.length > 1 ? Float.parseFloat( args[1] ) : 100;
+		int numberOfFrames = 10;
+		GLCallCounter counter = new GLCallCounter( null );
+		GL gl = counter.getGL();
+
+		Scene warmUpScene = makeScene( 10000, new Random( 2 ) );
+		Camera3D warmUpCamera = makeCamera( 10000, radiusInPixels );
+		for ( int mode = 0; mode < 2; ++mode ) {
+			warmUpScene.setUseLevelOfDetail( mode == 1 );
+			for ( int f = 0; f < WARM_UP_FRAMES; ++f )
+				warmUpScene.drawScene( gl, warmUpCamera, BoxStore.NO_BOX, false );
+		}
+		warmUpScene = null;
+
+		for ( int n = 10000; n <= maxBoxes; n *= 10 ) {
+			Random random = new Random( 1 );
+			Scene scene = makeScene( n, random );
+			Camera3D camera = makeCamera( n, radiusInPixels );
+
+			for ( int mode = 0; mode < 2; ++mode ) {
+				scene.setUseLevelOfDetail( mode == 1 );
+				// build the structures
+				for ( int f = 0; f < WARM_UP_FRAMES_PER_SCENE; ++f )
+					scene.drawScene( gl, camera, BoxStore.NO_BOX, false );
+				long calls = 0;
+				long t0 = System.nanoTime();
+				for ( int f = 0; f < numberOfFrames; ++f ) {
+					counter.beginFrame();
+					scene.drawScene( gl, camera, BoxStore.NO_BOX, false );
+					counter.endFrame();
+					calls += counter.getNumberOfCalls();
+				}
+				long t1 = System.nanoTime();
+				System.out.printf( "%8d boxes, %s: %7d boxes and %6d clusters drawn, %9d GL calls, %8.2f ms per frame%n",
+					n, mode == 0 ? "all boxes     " : "level of detail",
+					scene.getNumberOfBoxesDrawn(), scene.getNumberOfClustersDrawn(),
+					calls / numberOfFrames, (t1-t0)*1e-6/numberOfFrames );
+			}
+
+			// edit boxes between frames
+			int numberOfEdits = 1000;
+			long t0 = System.nanoTime();
+			for ( int k = 0; k < numberOfEdits; ++k ) {
+				int box = scene.boxes.handleAt( random.nextInt( scene.boxes.size() ) );
+				scene.translateBox( box, new Vector3D( 1, 0, 0 ) );
+				scene.setColorOfBox( box, 1, 0, 0 );
+			}
+			long t1 = System.nanoTime();
+			System.out.printf( "%8d boxes: %.2f us per edit (all structures)%n", n, (t1-t0)*1e-3/numberOfEdits );
+		}
+	}
+}
@@ -0,0 +1,103 @@
+import java.util.Random;
+import javax.media.opengl.GL;
+
+// Draws a scene from 4 cameras, as SceneViewer does with a 2x2 layout
+// (against a GL that only counts calls): one camera sees the whole scene,
+// and the 3 others are closer, looking at parts of it.  Reports, per view,
+// the time, the boxes drawn and culled, and the GL calls.
+// In retained mode, also compares the cost of a frame while a box is being
+// edited, when the views share one Scene (the box is refreshed, and its
+// vertices uploaded, once) and when each view has its own copy of the
+// scene, as 4 independent renderers would (with 4 copies of the buffers).
+//
+// Run with, e.g.,
+//    java -cp bin:bench MultiViewBenchmark 1000000
+public class MultiViewBenchmark {
+
+	static Scene makeScene( int n, float side ) {
+		Random random = new Random( 1 );
+		Scene scene = new Scene();
+		for ( int i = 0; i < n; ++i ) {
+			float x = random.nextFloat()*side, y = random.nextFloat()*side, z = random.nextFloat()*side;
+			scene.addColoredBox(
+				new AlignedBox3D( new Point3D( x, y, z ), new Point3D( x+1, y+1, z+1 ) ),
+				random.nextFloat(), random.nextFloat(), random.nextFloat(), 0.5f
+			);
+		}
+		return scene;
+	}
+
+	public static void main( String[] args ) {
+		int n = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+		int numberOfFrames = 5;
+		GLCallCounter counter = new GLCallCounter( null );
+		GL gl = counter.getGL();
+		float side = (float)Math.cbrt( n ) * 1.25f;
+		Point3D center = new Point3D( side/2, side/2, side/2 );
+
+		Camera3D [] cameras = new Camera3D[ 4 ];
+		for ( int v = 0; v < 4; ++v ) {
+			cameras[v] = new Camera3D();
+			cameras[v].setViewportDimensions( 400, 300 );
+			cameras[v].setSceneRadius( v == 0 ? side : side / 4 );
+			cameras[v].reset();
+			// the 3 close-ups look at different corners of the scene
+			Vector3D offset = v == 0 ? new Vector3D( 0, 0, 0 )
+				: new Vector3D( v == 1 ? -side/4 : side/4, v == 2 ? -side/4 : side/4, 0 );
+			cameras[v].position = Point3D.sum( cameras[v].position, Vector3D.sum( new Vector3D( center ), offset ) );
+			cameras[v].lookAt( Point3D.sum( center, offset ) );
+		}
+
+		Scene scene = makeScene( n, side );
+		scene.contextCreated( gl );
+		for ( int mode = 0; mode < 2; ++mode ) {
+			scene.setUseRetainedMode( mode == 1 );
+			for ( int v = 0; v < 4; ++v )
+				scene.drawScene( gl, cameras[v], BoxStore.NO_BOX, false ); // warm up
+			System.out.println( mode == 0 ? "immediate mode, culled per view:" : "retained mode, shared buffers:" );
+			for ( int v = 0; v < 4; ++v ) {
+				long calls = 0;
+				long t0 = System.nanoTime();
+				for ( int f = 0; f < numberOfFrames; ++f ) {
+					counter.beginFrame();
+					scene.drawScene( gl, cameras[v], BoxStore.NO_BOX, false );
+					counter.endFrame();
+					calls += counter.getNumberOfCalls();
+				}
+				long t1 = System.nanoTime();
+				System.out.printf( "  view %d: %8.2f ms, %7d drawn, %7d culled, %9d GL calls%n",
+					v+1, (t1-t0)*1e-6/numberOfFrames,
+					scene.getNumberOfBoxesDrawn(), scene.getNumberOfBoxesCulled(), calls / numberOfFrames );
+			}
+		}
+
+		// editing a box while 4 views are drawn in retained mode
+		Scene [] copies = new Scene[ 4 ];
+		for ( int v = 0; v < 4; ++v ) {
+			copies[v] = v == 0 ? scene : makeScene( n, side );
+			copies[v].setUseRetainedMode( true );
+			copies[v].contextCreated( gl );
+			copies[v].drawScene( gl, cameras[v], BoxStore.NO_BOX, false );
+		}
+		for ( int shared = 1; shared >= 0; --shared ) {
+			long calls = 0;
+			long t0 = System.nanoTime();
+			for ( int f = 0; f < numberOfFrames; ++f ) {
+				for ( int v = 0; v < 4; ++v ) {
+					Scene s = shared == 1 ? scene : copies[v];
+					// the edit is applied once per scene
+					if ( v == 0 || shared == 0 )
+						s.translateBox( s.boxes.handleAt( f * 1000 ), new Vector3D( 0.1f, 0, 0 ) );
+					counter.beginFrame();
+					s.drawScene( gl, cameras[v], BoxStore.NO_BOX, false );
+					counter.endFrame();
+					calls += counter.getNumberOfCalls();
+				}
+			}
+			long t1 = System.nanoTime();
+			System.out.printf( "retained mode, 4 views, one box edited per frame, %s: %.2f ms per frame, %d GL calls per frame%n",
+				shared == 1 ? "one shared scene  " : "one scene per view",
+				(t1-t0)*1e-6/numberOfFrames, calls / numberOfFrames );
+		}
+	}
+}
@@ -0,0 +1,75 @@
+import javax.media.opengl.GL;
+import com.sun.opengl.util.GLUT;
+
+// Draws a 2D overlay of many small widgets (each a filled and outlined
+// rectangle, a filled and outlined circle, a line, and an arc with arrow
+// heads) with OpenGL2DInterface, against a GL that only counts calls,
+// first with one glBegin()/glEnd() (or glRecti()) per primitive, then in
+// batch mode.  Reports the time and the GL calls per frame.  Then reports
+// the GL calls for drawing a radial menu with 8 items.
+//
+// Run with, e.g.,
+//    java -cp bin:bench Overlay2DBenchmark 1000
+public class Overlay2DBenchmark {
+
+	static void drawWidgets( GL gl, OpenGL2DInterface g, int n ) {
+		for ( int i = 0; i < n; ++i ) {
+			int x = 20 + ( i % 40 ) * 48, y = 20 + ( i / 40 ) * 48;
+			g.setColor( gl, 0, 0, 0, 0.6f );
+			g.fillRect( gl, x, y, 40, 20 );
+			g.drawCircle( gl, x + 20, y + 32, 8, true );
+			g.setColor( gl, 1, 1, 1, 1 );
+			g.drawRect( gl, x, y, 40, 20 );
+			g.drawCircle( gl, x + 20, y + 32, 8, false );
+			g.drawLine( gl, x, y + 44, x + 40, y + 44 );
+			g.drawArc( gl, x + 20, y + 10, 14, 0.5f, 2, false, true, true, 4 );
+		}
+	}
+
+	public static void main( String[] args ) {
+		int n = args.length > 0 ? Integer.parseInt( args[0] ) : 1000;
+		int numberOfFrames = 50;
+		GLCallCounter counter = new GLCallCounter( null );
+		GL gl = counter.getGL();
+		OpenGL2DInterface g = new OpenGL2DInterface();
+		g.pushProjection( gl, 1920, 1080 );
+
+		for ( int batched = 0; batched < 2; ++batched ) {
+			for ( int f = 0; f < numberOfFrames; ++f ) { // warm up
+				if ( batched == 1 ) g.beginBatch( gl );
+				drawWidgets( gl, g, n );
+				if ( batched == 1 ) g.endBatch( gl );
+			}
+			g.resetStatistics();
+			long calls = 0, drawCalls = 0;
+			long t0 = System.nanoTime();
+			for ( int f = 0; f < numberOfFrames; ++f ) {
+				counter.beginFrame();
+				if ( batched == 1 ) g.beginBatch( gl );
+				drawWidgets( gl, g, n );
+				if ( batched == 1 ) g.endBatch( gl );
+				counter.endFrame();
+				calls += counter.getNumberOfCalls();
+				drawCalls += counter.getCount( GLCallCounter.DRAW_CALLS );
+			}
+			long t1 = System.nanoTime();
+			System.out.printf( "%s: %d widgets, %6.2f ms per frame, %8d GL calls, %6d draw calls (%d primitives, %d draws, %d flushes)%n",
+				batched == 1 ? "batched  " : "immediate", n, (t1-t0)*1e-6/numberOfFrames,
+				calls / numberOfFrames, drawCalls / numberOfFrames,
+				g.getNumberOfPrimitives() / numberOfFrames, g.getNumberOfDrawCalls() / numberOfFrames,
+				g.getNumberOfFlushes() / numberOfFrames );
+		}
+		g.popProjection( gl );
+
+		RadialMenuWidget menu = new RadialMenuWidget();
+		for ( int i = 1; i <= 8; ++i )
+			menu.setItemLabel( i, "Item " + i );
+		menu.pressEvent( 400, 300 );
+		GLUT glut = new GLUT();
+		counter.beginFrame();
+		menu.draw( gl, glut, 800, 600 );
+		counter.endFrame();
+		System.out.printf( "radial menu: %d GL calls, %d draw calls%n",
+			counter.getNumberOfCalls(), counter.getCount( GLCallCounter.DRAW_CALLS ) );
+	}
+}
@@ -0,0 +1,89 @@
+
+import java.util.Random;
+
+// Compares picking with a linear scan over all boxes against
+// picking with the BoundingVolumeHierarchy, and checks that
+// both return the same box.
+//
+// Run with, e.g.,
+//    java -cp bin:bench PickingBenchmark 200000
+public class PickingBenchmark {
+
+	static int linearPick( BoxStore boxes, Ray3D ray, Point3D point, Vector3D normal ) {
+		AlignedBox3D box = new AlignedBox3D();
+		Point3D candidatePoint = new Point3D();
+		Vector3D candidateNormal = new Vector3D();
+		int best = -1;
+		float bestDistance = Float.POSITIVE_INFINITY;
+		for ( int i = 0; i < boxes.size(); ++i ) {
+			if ( boxes.getBox( i, box ).intersects( ray, candidatePoint, candidateNormal ) ) {
+				float d = Point3D.diff( ray.origin, candidatePoint ).length();
+				if ( d < bestDistance ) {
+					bestDistance = d;
+					best = i;
+					point.copy( candidatePoint );
+					normal.copy( candidateNormal );
+				}
+			}
+		}
+		return best;
+	}
+
+	public static void main( String[] args ) {
+		int n = args.length > 0 ? Integer.parseInt( args[0] ) : 200000;
+		int numberOfRays = 2000;
+		Random random = new Random( 1 );
+
+		// boxes scattered in a cube whose volume grows with n
+		float side = (float)Math.cbrt( n ) * 2;
+		BoxStore boxes = new BoxStore();
+		for ( int i = 0; i < n; ++i ) {
+			float x = random.nextFloat()*side, y = random.nextFloat()*side, z = random.nextFloat()*side;
+			float s = 0.25f + random.nextFloat();
+			boxes.add( x, y, z, x+s, y+s, z+s, 0xFFFFFFFF );
+		}
+		Ray3D [] rays = new Ray3D[ numberOfRays ];
+		for ( int r = 0; r < numberOfRays; ++r ) {
+			Point3D origin = new Point3D( side*0.5f, side*0.5f, side*3 );
+			Point3D target = new Point3D( random.nextFloat()*side, random.nextFloat()*side, random.nextFloat()*side );
+			rays[r] = new Ray3D( origin, Point3D.diff( target, origin ) );
+		}
+
+		BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy( boxes );
+		long t0 = System.nanoTime();
+		bvh.build();
+		long t1 = System.nanoTime();
+		System.out.printf( "%d boxes: build %.1f ms, %d nodes%n", n, (t1-t0)*1e-6, bvh.getNumberOfNodes() );
+
+		Point3D p = new Point3D(); Vector3D v = new Vector3D();
+		int mismatches = 0;
+		long linearTime = 0, bvhTime = 0;
+		for ( int round = 0; round < 2; ++round ) {
+			linearTime = bvhTime = 0;
+			mismatches = 0;
+			for ( int r = 0; r < numberOfRays; ++r ) {
+				long a = System.nanoTime();
+				int expected = linearPick( boxes, rays[r], p, v );
+				long b = System.nanoTime();
+				int actual = bvh.intersect( rays[r], p, v );
+				long c = System.nanoTime();
+				linearTime += b-a;
+				bvhTime += c-b;
+				if ( expected != actual ) ++mismatches;
+			}
+		}
+		System.out.printf( "linear scan: %.3f ms per pick%n", linearTime*1e-6/numberOfRays );
+		System.out.printf( "BVH:         %.4f ms per pick (%d mismatches)%n", bvhTime*1e-6/numberOfRays, mismatches );
+
+		// move some boxes, and check that refitting keeps results exact
+		for ( int i = 0; i < n; i += 97 ) {
+			boxes.translate( i, side*0.1f, 0, 0 );
+			bvh.boxMoved( i );
+		}
+		mismatches = 0;
+		for ( int r = 0; r < numberOfRays; ++r )
+			if ( linearPick( boxes, rays[r], p, v ) != bvh.intersect( rays[r], p, v ) ) ++mismatches;
+		System.out.printf( "after refit: degradation %.3f, builds %d, %d mismatches%n",
+			bvh.getRefitDegradation(), bvh.getNumberOfBuilds(), mismatches );
+	}
+}
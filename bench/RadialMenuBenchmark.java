@@ -0,0 +1,112 @@
+import javax.media.opengl.GL;
+import com.sun.opengl.util.GLUT;
+
+// Measures the cost of the radial menu while it is open, against a GL
+// that only counts calls: the GL calls of the first frame (which compiles
+// the menu's display list), and the time and GL calls of later frames,
+// as the selection changes.  Then measures the time per dragEvent(), and
+// checks the item it selects against the former computation (asin() of
+// the angle, then a search for the closest enabled item) over a grid of
+// mouse positions, with some items empty.  Positions exactly on the axes
+// or diagonals (the centers of items) are counted apart: when the item
+// there is empty, the two closest items are tied, and either may win.
+//
+// Run with, e.g.,
+//    java -cp bin:bench RadialMenuBenchmark
+public class RadialMenuBenchmark {
+
+	// The former selection, from RadialMenuWidget.dragEvent()
+	static int referenceSelection( int dx, int dy, boolean [] isShown ) {
+		float radius = (float)Math.sqrt( dx*dx + dy*dy );
+		if ( radius <= RadialMenuWidget.radiusOfNeutralZone )
+			return RadialMenuWidget.CENTRAL_ITEM;
+		float theta = (float)Math.asin( dy / radius );
+		if ( dx < 0 ) theta = (float)Math.PI - theta;
+		theta += 5 * (float)Math.PI / 8;
+		if ( theta > 2*Math.PI ) theta -= 2*(float)Math.PI;
+		int item = 1 + (int)( theta / ((float)Math.PI / 4) );
+		if ( ! isShown[ item ] ) {
+			float minDifference = 4*(float)Math.PI;
+			int itemWithMinDifference = RadialMenuWidget.CENTRAL_ITEM;
+			for ( int candidateItem = 1; candidateItem <= 8; ++candidateItem ) {
+				if ( isShown[ candidateItem ] ) {
+					float candidateItemTheta = (candidateItem-1) * ((float)Math.PI/4) + (float)Math.PI/8;
+					float candidateDifference = Math.abs( candidateItemTheta - theta );
+					if ( candidateDifference > Math.PI )
+						candidateDifference = 2*(float)Math.PI - candidateDifference;
+					if ( candidateDifference < minDifference ) {
+						minDifference = candidateDifference;
+						itemWithMinDifference = candidateItem;
+					}
+				}
+			}
+			item = itemWithMinDifference;
+		}
+		return item;
+	}
+
+	public static void main( String[] args ) {
+		GLCallCounter counter = new GLCallCounter( null );
+		GL gl = counter.getGL();
+		GLUT glut = new GLUT();
+		OpenGL2DInterface.getStrokeText().contextCreated( gl );
+
+		// as in SceneViewer, with items 6 and 8 empty
+		RadialMenuWidget menu = new RadialMenuWidget();
+		String [] labels = { "", "Create Box", "Set Color to Red", "Set Color to Yellow", "Set Color to Green", "Set Color to Blue", "", "Delete Box", "" };
+		boolean [] isShown = new boolean[ 9 ];
+		for ( int i = 1; i <= 8; ++i ) {
+			menu.setItemLabel( i, labels[i] );
+			isShown[i] = labels[i].length() > 0;
+		}
+		menu.pressEvent( 400, 300 );
+
+		counter.beginFrame();
+		menu.draw( gl, glut, 800, 600 );
+		counter.endFrame();
+		System.out.printf( "first frame: %d GL calls, %d draw calls%n",
+			counter.getNumberOfCalls(), counter.getCount( GLCallCounter.DRAW_CALLS ) );
+
+		int numberOfFrames = 100000;
+		for ( int pass = 0; pass < 2; ++pass ) {
+			long calls = 0;
+			long t0 = System.nanoTime();
+			for ( int f = 0; f < numberOfFrames; ++f ) {
+				// circle around the center, changing the selection
+				double angle = f * 0.01;
+				menu.dragEvent( 400 + (int)( 50*Math.cos( angle ) ), 300 + (int)( 50*Math.sin( angle ) ) );
+				counter.beginFrame();
+				menu.draw( gl, glut, 800, 600 );
+				counter.endFrame();
+				calls += counter.getNumberOfCalls();
+			}
+			long t1 = System.nanoTime();
+			if ( pass == 1 )
+				System.out.printf( "later frames: %.2f us per frame (with a dragEvent()), %d GL calls%n",
+					(t1-t0)*1e-3/numberOfFrames, calls / numberOfFrames );
+		}
+
+		int numberOfMismatches = 0, numberOfTies = 0, numberOfEvents = 0;
+		long t0 = System.nanoTime();
+		for ( int dy = -200; dy <= 200; ++dy ) {
+			for ( int dx = -200; dx <= 200; ++dx ) {
+				menu.dragEvent( 400 + dx, 300 + dy );
+				++numberOfEvents;
+			}
+		}
+		long t1 = System.nanoTime();
+		for ( int dy = -200; dy <= 200; ++dy ) {
+			for ( int dx = -200; dx <= 200; ++dx ) {
+				menu.dragEvent( 400 + dx, 300 + dy );
+				if ( menu.getSelection() != referenceSelection( dx, dy, isShown ) ) {
+					if ( dx == 0 || dy == 0 || Math.abs( dx ) == Math.abs( dy ) )
+						++numberOfTies;
+					else
+						++numberOfMismatches;
+				}
+			}
+		}
+		System.out.printf( "dragEvent: %.1f ns per event; %d of %d positions select another item than before (and %d tied positions)%n",
+			(t1-t0)*1.0/numberOfEvents, numberOfMismatches, numberOfEvents, numberOfTies );
+	}
+}
@@ -0,0 +1,122 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+
+// Saves n random boxes to a scene file in a temporary directory, serves it
+// with a RenderServer, and requests width x height snapshots of it from
+// 1, 2, 4, ... up to maxClients concurrent clients, each asking for
+// requestsPerClient views from around the scene.  Reports the latency of
+// the first request (which loads the scene), then, for each number of
+// clients, the median, 95th percentile and maximal latency, and the
+// throughput in requests and megapixels per second.
+//
+// Run with, e.g.,
+//    java -cp bin:bench RenderServerBenchmark 20000 640 480 20 16
+public class RenderServerBenchmark {
+
+	public static void main( String[] args ) throws Exception {
+		System.setProperty( "java.awt.headless", "true" );
+		int n = args.length > 0 ? Integer.parseInt( args[0] ) : 20000;
+		final int width = args.length > 1 ? Integer.parseInt( args[1] ) : 640;
+		final int height = args.length > 2 ? Integer.parseInt( args[2] ) : 480;
+		final int requestsPerClient = args.length > 3 ? Integer.parseInt( args[3] ) : 20;
+		int maxClients = args.length > 4 ? Integer.parseInt( args[4] ) : 16;
+
+		Random random = new Random( 1 );
+		Scene scene = new Scene();
+		final float side = 4 * (float)Math.cbrt( n );
+		for ( int i = 0; i < n; ++i ) {
+			float x = random.nextFloat()*side, y = random.nextFloat()*side, z = random.nextFloat()*side;
+			scene.addColoredBox(
+				new AlignedBox3D( new Point3D( x, y, z ), new Point3D( x + 0.5f + random.nextInt( 3 ), y + 0.5f + random.nextInt( 3 ), z + 0.5f + random.nextInt( 3 ) ) ),
+				0.2f + 0.8f*random.nextFloat(), 0.2f + 0.8f*random.nextFloat(), 0.2f + 0.8f*random.nextFloat(), 1
+			);
+		}
+		File directory = File.createTempFile( "scenes", "" );
+		directory.delete();
+		directory.mkdir();
+		File file = new File( directory, "boxes.scene" );
+		SceneFile.save( scene, file );
+
+		RenderServer server = new RenderServer( directory, 0, RenderServer.DEFAULT_CACHE_SIZE );
+		server.start();
+		final String base = "http://localhost:" + server.getPort() + "/render?scene=boxes.scene&width=" + width + "&height=" + height;
+		System.out.printf( "%d boxes (%d KB file), %dx%d pixels, %d processors, %s%n",
+			n, file.length() / 1024, width, height, Runtime.getRuntime().availableProcessors(),
+			server.isUsingVirtualThreads() ? "virtual threads" : "platform threads" );
+
+		long t0 = System.nanoTime();
+		byte [] png = get( base );
+		long t1 = System.nanoTime();
+		System.out.printf( "first request (loads the scene): %.1f ms, %d KB PNG%n", (t1-t0)*1e-6, png.length / 1024 );
+		for ( int k = 0; k < 20; ++k )
+			get( base + view( k, side ) );
+
+		for ( int clients = 1; ; clients *= 2 ) {
+			clients = Math.min( clients, maxClients );
+			final long [] latencies = new long[ clients * requestsPerClient ];
+			Thread [] threads = new Thread[ clients ];
+			for ( int c = 0; c < clients; ++c ) {
+				final int client = c;
+				threads[c] = new Thread( new Runnable() {
+					public void run() {
+						try {
+							for ( int r = 0; r < requestsPerClient; ++r ) {
+								long start = System.nanoTime();
+								get( base + view( client * requestsPerClient + r, side ) );
+								latencies[ client * requestsPerClient + r ] = System.nanoTime() - start;
+							}
+						}
+						catch ( Exception e ) {
+							throw new RuntimeException( e );
+						}
+					}
+				} );
+			}
+			long start = System.nanoTime();
+			for ( Thread t : threads )
+				t.start();
+			for ( Thread t : threads )
+				t.join();
+			double seconds = ( System.nanoTime() - start ) * 1e-9;
+			Arrays.sort( latencies );
+			int count = latencies.length;
+			System.out.printf( "%2d clients: latency median %.1f ms, 95th percentile %.1f ms, max %.1f ms; %.1f requests/s, %.1f megapixels/s%n",
+				clients, latencies[ count / 2 ] * 1e-6, latencies[ (int)( count * 0.95 ) ] * 1e-6, latencies[ count - 1 ] * 1e-6,
+				count / seconds, (double)count * width * height / seconds * 1e-6 );
+			if ( clients == maxClients )
+				break;
+		}
+		System.out.printf( "%d requests, %d errors, %d scene loads, %d cache hits%n",
+			server.getNumberOfRequests(), server.getNumberOfErrors(), server.getNumberOfScenesLoaded(), server.getNumberOfCacheHits() );
+		server.stop( 0 );
+		file.delete();
+		directory.delete();
+	}
+
+	// Camera parameters for the k-th view, orbiting around the scene's center
+	private static String view( int k, float side ) {
+		double angle = k * 0.1;
+		float c = side / 2, distance = 2.5f * side;
+		return String.format( "&position=%f,%f,%f&target=%f,%f,%f&up=0,1,0",
+			c + distance * (float)Math.sin( angle ), c + 0.3f * distance, c + distance * (float)Math.cos( angle ), c, c, c );
+	}
+
+	private static byte [] get( String url ) throws Exception {
+		HttpURLConnection connection = (HttpURLConnection)new URL( url ).openConnection();
+		if ( connection.getResponseCode() != 200 )
+			throw new RuntimeException( url + ": " + connection.getResponseCode() + " " + connection.getResponseMessage() );
+		InputStream in = connection.getInputStream();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte [] buffer = new byte[ 64 * 1024 ];
+		int length;
+		while ( ( length = in.read( buffer ) ) > 0 )
+			bytes.write( buffer, 0, length );
+		in.close();
+		return bytes.toByteArray();
+	}
+}
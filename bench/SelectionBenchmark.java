@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+// Checks SelectionSet against java.util.BitSet on random sets of
+// various densities, and compares the cost of building a selection
+// one click at a time with the List<Integer> (and its contains()
+// test) that SceneViewer used to keep.
+//
+// Run with, e.g.,
+//    java -cp bin:bench SelectionBenchmark 1000000
+public class SelectionBenchmark {
+
+	static SelectionSet randomSet( Random random, BitSet reference, int range, double density ) {
+		SelectionSet set = new SelectionSet();
+		int n = (int)( range * density );
+		for ( int k = 0; k < n; ++k ) {
+			int x = random.nextInt( range );
+			set.add( x );
+			reference.set( x );
+		}
+		// remove some, so that containers also shrink
+		for ( int k = 0; k < n / 4; ++k ) {
+			int x = random.nextInt( range );
+			set.remove( x );
+			reference.clear( x );
+		}
+		return set;
+	}
+
+	static int compare( SelectionSet set, BitSet reference ) {
+		int errors = 0;
+		if ( set.size() != reference.cardinality() ) ++errors;
+		int [] members = set.toArray();
+		if ( members.length != reference.cardinality() ) ++errors;
+		int k = 0;
+		for ( int x = reference.nextSetBit( 0 ); x >= 0; x = reference.nextSetBit( x+1 ), ++k ) {
+			if ( k >= members.length || members[k] != x ) { ++errors; break; }
+			if ( ! set.contains( x ) ) ++errors;
+		}
+		// iteration with next()
+		int x = set.next( 0 ), y = reference.nextSetBit( 0 );
+		while ( x >= 0 || y >= 0 ) {
+			if ( x != y ) { ++errors; break; }
+			x = set.next( x+1 );
+			y = reference.nextSetBit( y+1 );
+		}
+		return errors;
+	}
+
+	public static void main( String[] args ) {
+		int range = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+		Random random = new Random( 1 );
+
+		int errors = 0;
+		double [] densities = { 0.0001, 0.01, 0.1, 0.5 };
+		for ( double da : densities ) {
+			for ( double db : densities ) {
+				BitSet ra = new BitSet(), rb = new BitSet();
+				SelectionSet a = randomSet( random, ra, range, da );
+				SelectionSet b = randomSet( random, rb, range, db );
+				errors += compare( a, ra ) + compare( b, rb );
+
+				SelectionSet union = new SelectionSet( a ); union.or( b );
+				BitSet rUnion = (BitSet)ra.clone(); rUnion.or( rb );
+				SelectionSet intersection = new SelectionSet( a ); intersection.and( b );
+				BitSet rIntersection = (BitSet)ra.clone(); rIntersection.and( rb );
+				SelectionSet difference = new SelectionSet( a ); difference.andNot( b );
+				BitSet rDifference = (BitSet)ra.clone(); rDifference.andNot( rb );
+				errors += compare( union, rUnion ) + compare( intersection, rIntersection ) + compare( difference, rDifference );
+			}
+		}
+		System.out.println( "SelectionSet errors: " + errors );
+
+		// Select boxes one at a time, as with shift-clicks
+		int n = Math.min( range, 100000 );
+		int [] clicks = new int[ n ];
+		for ( int k = 0; k < n; ++k )
+			clicks[k] = random.nextInt( range );
+
+		long t0 = System.nanoTime();
+		List<Integer> list = new ArrayList<Integer>();
+		for ( int k = 0; k < n; ++k )
+			if ( ! list.contains( clicks[k] ) )
+				list.add( clicks[k] );
+		long t1 = System.nanoTime();
+		SelectionSet set = new SelectionSet();
+		for ( int k = 0; k < n; ++k )
+			set.add( clicks[k] );
+		long t2 = System.nanoTime();
+		int found = 0;
+		for ( int x = 0; x < range; ++x )
+			if ( set.contains( x ) ) ++found;
+		long t3 = System.nanoTime();
+		System.out.printf( "%d clicks: List %.1f ms, SelectionSet %.1f ms (%d members)%n",
+			n, (t1-t0)*1e-6, (t2-t1)*1e-6, set.size() );
+		System.out.printf( "contains(): %.1f ns per test (%d found)%n", (t3-t2)/(double)range, found );
+	}
+}
@@ -0,0 +1,55 @@
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+// Measures the cost, in time and in bytes allocated, of one ray-box test
+// with AlignedBox3D.intersects() (slab method) and with the original
+// AlignedBox3D.intersectsUsingBoundingSphereAndPlanes().
+//
+// Run with, e.g.,
+//    java -cp bin:bench SlabIntersectionBenchmark
+public class SlabIntersectionBenchmark {
+
+	static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+			.getThreadAllocatedBytes( Thread.currentThread().getId() );
+	}
+
+	public static void main( String[] args ) {
+		int numberOfBoxes = 4096, numberOfRays = 256;
+		Random random = new Random( 1 );
+		AlignedBox3D [] boxes = new AlignedBox3D[ numberOfBoxes ];
+		for ( int i = 0; i < numberOfBoxes; ++i ) {
+			float x = random.nextFloat()*20-10, y = random.nextFloat()*20-10, z = random.nextFloat()*20-10;
+			float s = 0.5f + random.nextFloat()*2;
+			boxes[i] = new AlignedBox3D( new Point3D(x,y,z), new Point3D(x+s,y+s,z+s) );
+		}
+		Ray3D [] rays = new Ray3D[ numberOfRays ];
+		for ( int r = 0; r < numberOfRays; ++r ) {
+			Point3D origin = new Point3D( 0, 0, 40 );
+			rays[r] = new Ray3D( origin, Point3D.diff( new Point3D( random.nextFloat()*20-10, random.nextFloat()*20-10, 0 ), origin ) );
+		}
+		Point3D point = new Point3D();
+		Vector3D normal = new Vector3D();
+		long tests = (long)numberOfBoxes * numberOfRays;
+
+		for ( int round = 0; round < 5; ++round ) {
+			int hits = 0, agreements = 0;
+			long bytes0 = allocatedBytes(), t0 = System.nanoTime();
+			for ( Ray3D ray : rays )
+				for ( AlignedBox3D box : boxes )
+					if ( box.intersectsUsingBoundingSphereAndPlanes( ray, point, normal ) ) ++hits;
+			long t1 = System.nanoTime(), bytes1 = allocatedBytes();
+			for ( Ray3D ray : rays )
+				for ( AlignedBox3D box : boxes )
+					if ( box.intersects( ray, point, normal ) ) ++agreements;
+			long t2 = System.nanoTime(), bytes2 = allocatedBytes();
+			System.out.printf(
+				"sphere+planes: %6.1f ns/test %6.1f bytes/test | slab: %5.1f ns/test %5.2f bytes/test | hits %d vs %d%n",
+				(t1-t0)/(double)tests, (bytes1-bytes0)/(double)tests,
+				(t2-t1)/(double)tests, (bytes2-bytes1)/(double)tests,
+				hits, agreements
+			);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+// Renders n random boxes with SoftwareRenderer, at width x height pixels,
+// while orbiting the camera, with 1, 2, 4, ... threads up to the number of
+// processors, and reports the time per frame (and of each pass) and the
+// throughput in megapixels per second.
+//
+// Then checks the image against ray casting: for a sample of pixels, the
+// box hit by Camera3D.computeRay() through the pixel's center must be the
+// box whose color was drawn there (pixels on the edges of boxes may differ).
+//
+// Run with, e.g.,
+//    java -cp bin:bench SoftwareRenderBenchmark 20000 1280 800
+public class SoftwareRenderBenchmark {
+
+	public static void main( String[] args ) {
+		int n = args.length > 0 ? Integer.parseInt( args[0] ) : 20000;
+		int width = args.length > 1 ? Integer.parseInt( args[1] ) : 1280;
+		int height = args.length > 2 ? Integer.parseInt( args[2] ) : 800;
+		int numberOfFrames = args.length > 3 ? Integer.parseInt( args[3] ) : 100;
+
+		Random random = new Random( 1 );
+		Scene scene = new Scene();
+		float side = 4 * (float)Math.cbrt( n );
+		for ( int i = 0; i < n; ++i ) {
+			float x = random.nextFloat()*side, y = random.nextFloat()*side, z = random.nextFloat()*side;
+			scene.addColoredBox(
+				new AlignedBox3D( new Point3D( x, y, z ), new Point3D( x + 0.5f + random.nextInt( 3 ), y + 0.5f + random.nextInt( 3 ), z + 0.5f + random.nextInt( 3 ) ) ),
+				0.2f + 0.8f*random.nextFloat(), 0.2f + 0.8f*random.nextFloat(), 0.2f + 0.8f*random.nextFloat(), 1
+			);
+		}
+		Camera3D camera = new Camera3D();
+		camera.setViewportDimensions( width, height );
+		camera.setSceneRadius( side );
+		camera.reset();
+		Point3D center = new Point3D( side/2, side/2, side/2 );
+		camera.position = Point3D.sum( camera.position, new Vector3D( center ) );
+		camera.lookAt( center );
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		System.out.printf( "%d boxes, %dx%d pixels, %d processors%n", n, width, height, processors );
+		BufferedImage image = null;
+		for ( int threads = 1; ; threads *= 2 ) {
+			threads = Math.min( threads, processors );
+			SoftwareRenderer renderer = new SoftwareRenderer( scene, threads );
+			for ( int pass = 0; pass < 2; ++pass ) {
+				long setupTime = 0, rasterTime = 0, triangles = 0;
+				long t0 = System.nanoTime();
+				for ( int f = 0; f < numberOfFrames; ++f ) {
+					camera.orbit( 0, 0, 2, 0 );
+					image = renderer.render( camera, image );
+					setupTime += renderer.getSetupTime();
+					rasterTime += renderer.getRasterTime();
+					triangles += renderer.getNumberOfTriangles();
+				}
+				long t1 = System.nanoTime();
+				if ( pass == 1 ) {
+					double seconds = (t1-t0)*1e-9;
+					System.out.printf( "%2d threads: %.2f ms per frame (setup %.2f ms, raster %.2f ms), %d triangles, %.1f megapixels/s%n",
+						threads, seconds*1e3/numberOfFrames, setupTime*1e-6/numberOfFrames, rasterTime*1e-6/numberOfFrames,
+						triangles / numberOfFrames, (double)width*height*numberOfFrames / seconds * 1e-6 );
+				}
+			}
+			if ( threads == processors )
+				break;
+		}
+
+		// compare with ray casting
+		image = new SoftwareRenderer( scene ).render( camera, image );
+		int samples = 0, mismatches = 0, covered = 0;
+		for ( int y = 0; y < height; y += 7 ) {
+			for ( int x = 0; x < width; x += 7 ) {
+				Ray3D ray = camera.computeRay( x, y );
+				int box = scene.getIntersectedBox( ray, new Point3D(), new Vector3D() );
+				int expected = box == BoxStore.NO_BOX ? 0 : scene.boxes.rgba[ scene.boxes.indexOf( box ) ] >>> 8;
+				int actual = image.getRGB( x, y ) & 0xffffff;
+				++samples;
+				if ( expected != 0 )
+					++covered;
+				if ( actual != expected )
+					++mismatches;
+			}
+		}
+		System.out.printf( "ray casting: %d of %d sampled pixels differ (%d covered by boxes)%n", mismatches, samples, covered );
+	}
+}
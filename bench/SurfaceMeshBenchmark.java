@@ -0,0 +1,97 @@
+import java.util.Random;
+
+// Builds a scene of boxes stacked face to face (a solid block of boxes,
+// with one color per layer, as grown by SceneViewer.createNewBox()),
+// and reports the number of quads in the SurfaceMesh compared to the
+// number of faces of the boxes, the time to build the mesh, and the time
+// to update it after moving, recoloring and deleting single boxes.
+// The mesh updated incrementally is checked against a mesh built from
+// scratch, by comparing the number of quads and the visible area.
+//
+// Run with, e.g.,
+//    java -cp bin:bench SurfaceMeshBenchmark 64
+public class SurfaceMeshBenchmark {
+
+	// Returns the total area of the quads of the mesh
+	static double area( SurfaceMesh mesh ) {
+		int n = mesh.getNumberOfQuads();
+		float [] v = new float[ 12 * n ];
+		int [] colors = new int[ n ];
+		mesh.getQuads( v, colors );
+		double total = 0;
+		for ( int q = 0; q < n; ++q ) {
+			int p = 12 * q;
+			// the quads are rectangles: multiply the lengths of two sides
+			double ax = v[p+3]-v[p], ay = v[p+4]-v[p+1], az = v[p+5]-v[p+2];
+			double bx = v[p+9]-v[p], by = v[p+10]-v[p+1], bz = v[p+11]-v[p+2];
+			total += Math.sqrt( ax*ax + ay*ay + az*az ) * Math.sqrt( bx*bx + by*by + bz*bz );
+		}
+		return total;
+	}
+
+	// Builds a mesh from scratch, and compares it with the given one
+	static boolean check( Scene scene, SurfaceMesh mesh ) {
+		SurfaceMesh fresh = new SurfaceMesh( scene.boxes );
+		fresh.update();
+		mesh.update();
+		return fresh.getNumberOfQuads() == mesh.getNumberOfQuads()
+			&& Math.abs( area( fresh ) - area( mesh ) ) < 1e-3;
+	}
+
+	public static void main( String[] args ) {
+		int side = args.length > 0 ? Integer.parseInt( args[0] ) : 64;
+		int height = 16;
+		float size = ColoredBox.DEFAULT_SIZE;
+		Random random = new Random( 1 );
+		Scene scene = new Scene();
+		int [] handles = new int[ side * side * height ];
+		int n = 0;
+		for ( int y = 0; y < height; ++y ) {
+			float r = random.nextFloat(), g = random.nextFloat(), b = random.nextFloat();
+			for ( int x = 0; x < side; ++x ) {
+				for ( int z = 0; z < side; ++z ) {
+					// the max corner is computed by adding the size, as in createNewBox()
+					Point3D min = new Point3D( x*size, y*size, z*size );
+					Point3D max = Point3D.sum( min, new Vector3D( size, size, size ) );
+					handles[ n++ ] = scene.addColoredBox( new AlignedBox3D( min, max ), r, g, b, 1 );
+				}
+			}
+		}
+		SurfaceMesh mesh = scene.surfaceMesh;
+		long t0 = System.nanoTime();
+		mesh.update();
+		long t1 = System.nanoTime();
+		double expectedArea = 2.0 * ( side*side + 2*side*height ) * size * size;
+		System.out.printf( "%d boxes (%d faces): %d quads in %d regions, built in %.1f ms, area %s%n",
+			n, 6*n, mesh.getNumberOfQuads(), mesh.getNumberOfRegions(), (t1-t0)*1e-6,
+			Math.abs( area( mesh ) - expectedArea ) < 1e-3 ? "ok" : "WRONG" );
+
+		int numberOfChanges = 1000;
+		long moveTime = 0, colorTime = 0, deleteTime = 0;
+		int regionsRebuilt = 0;
+		for ( int k = 0; k < numberOfChanges; ++k ) {
+			int box = handles[ random.nextInt( n ) ];
+			if ( ! scene.isValid( box ) )
+				continue;
+			scene.translateBox( box, new Vector3D( 0, 0.5f*size, 0 ) );
+			long t2 = System.nanoTime();
+			mesh.update();
+			long t3 = System.nanoTime();
+			regionsRebuilt += mesh.getNumberOfRegionsRebuilt();
+			scene.setColorOfBox( box, 1, 0, 0 );
+			mesh.update();
+			long t4 = System.nanoTime();
+			scene.deleteBox( box );
+			mesh.update();
+			long t5 = System.nanoTime();
+			moveTime += t3-t2;
+			colorTime += t4-t3;
+			deleteTime += t5-t4;
+		}
+		System.out.printf( "per change: move %.2f ms (%.1f regions rebuilt), recolor %.2f ms, delete %.2f ms%n",
+			moveTime*1e-6/numberOfChanges, (double)regionsRebuilt/numberOfChanges,
+			colorTime*1e-6/numberOfChanges, deleteTime*1e-6/numberOfChanges );
+		System.out.println( "after changes: " + mesh.getNumberOfQuads() + " quads, "
+			+ ( check( scene, mesh ) ? "same as rebuilt from scratch" : "MISMATCH with mesh rebuilt from scratch" ) );
+	}
+}
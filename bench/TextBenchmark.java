@@ -0,0 +1,60 @@
+import javax.media.opengl.GL;
+import com.sun.opengl.util.GLUT;
+
+// Draws a text-heavy overlay with OpenGL2DInterface.drawString(), against
+// a GL that only counts calls: a number of labels that are the same at
+// every frame (as those of a radial menu, or of boxes), plus a few
+// statistics lines that change at every frame.  Reports the time, the GL
+// calls, and the calls to glutStrokeCharacter() per frame (each of which
+// issues several line strips, of about a dozen vertices in total), first
+// without the cache of StrokeText, then with it.  With more labels than
+// the cache holds, they should be drawn from the glyphs' display lists
+// rather than compiled again at every frame.
+//
+// Run with, e.g.,
+//    java -cp bin:bench TextBenchmark 200
+public class TextBenchmark {
+
+	public static void main( String[] args ) {
+		int numberOfLabels = args.length > 0 ? Integer.parseInt( args[0] ) : 200;
+		int numberOfFrames = 100;
+		GLCallCounter counter = new GLCallCounter( null );
+		GL gl = counter.getGL();
+		GLUT glut = new GLUT();
+		OpenGL2DInterface g = new OpenGL2DInterface();
+		StrokeText text = OpenGL2DInterface.getStrokeText();
+		text.contextCreated( gl );
+		g.pushProjection( gl, 1920, 1080 );
+
+		String [] labels = new String[ numberOfLabels ];
+		for ( int i = 0; i < numberOfLabels; ++i )
+			labels[i] = "Box " + i + " (1.0 x 2.5 x 0.5)";
+
+		for ( int cached = 0; cached < 2; ++cached ) {
+			text.setUseCache( cached == 1 );
+			long calls = 0, glyphs = 0, compiled = 0;
+			long t0 = 0;
+			for ( int f = -numberOfFrames; f < numberOfFrames; ++f ) { // the first half warms up
+				if ( f == 0 ) {
+					text.resetStatistics();
+					t0 = System.nanoTime();
+				}
+				counter.beginFrame();
+				text.beginFrame();
+				for ( int i = 0; i < numberOfLabels; ++i )
+					g.drawString( gl, glut, 10 + 200*(i%9), 20 + 20*(i/9), labels[i], 12, OpenGL2DInterface.FONT_ASCENT );
+				for ( int i = 0; i < 4; ++i )
+					g.drawString( gl, glut, 10, 1000 + 16*i, String.format( "line %d: %d ms, %d boxes", i, f, f*1000 ), 14, OpenGL2DInterface.FONT_ASCENT );
+				counter.endFrame();
+				if ( f >= 0 )
+					calls += counter.getNumberOfCalls();
+			}
+			long t1 = System.nanoTime();
+			System.out.printf( "%s: %d labels, %6.3f ms per frame, %6d GL calls, %6d glyphs stroked, %4d strings compiled and %4d not cached per frame%n",
+				cached == 1 ? "cached  " : "uncached", numberOfLabels + 4, (t1-t0)*1e-6/numberOfFrames,
+				calls / numberOfFrames, text.getNumberOfGlyphsStroked() / numberOfFrames,
+				text.getNumberOfStringsCompiled() / numberOfFrames, text.getNumberOfStringsNotCached() / numberOfFrames );
+		}
+		g.popProjection( gl );
+	}
+}
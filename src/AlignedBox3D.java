@@ -23,6 +23,16 @@ public class AlignedBox3D {
 	public boolean isEmpty() { return isEmpty; }
 	public void clear() { isEmpty = true; }
 
+	public void set(
+		float minX, float minY, float minZ,
+		float maxX, float maxY, float maxZ
+	) {
+		assert minX <= maxX && minY <= maxY && minZ <= maxZ : "bounds error";
+		p0.p[0] = minX; p0.p[1] = minY; p0.p[2] = minZ;
+		p1.p[0] = maxX; p1.p[1] = maxY; p1.p[2] = maxZ;
+		isEmpty = false;
+	}
+
 	public Point3D getMin() { return p0; }
 	public Point3D getMax() { return p1; }
 	public Vector3D getDiagonal() { return Point3D.diff(p1,p0); }
@@ -32,26 +42,30 @@ public class AlignedBox3D {
 
 	// Enlarge the box as necessary to contain the given point
 	public void bound( Point3D p ) {
+		bound( p.x(), p.y(), p.z() );
+	}
+	public void bound( float x, float y, float z ) {
 		if ( isEmpty ) {
-			p0.copy(p);
-			p1.copy(p);
+			p0.p[0] = p1.p[0] = x;
+			p0.p[1] = p1.p[1] = y;
+			p0.p[2] = p1.p[2] = z;
 			isEmpty = false;
 		}
 		else {
-			if ( p.x() < p0.x() )
-				p0.p[0] = p.x();
-			else if ( p.x() > p1.x() )
-				p1.p[0] = p.x();
-
-			if ( p.y() < p0.y() )
-				p0.p[1] = p.y();
-			else if ( p.y() > p1.y() )
-				p1.p[1] = p.y();
-
-			if ( p.z() < p0.z() )
-				p0.p[2] = p.z();
-			else if ( p.z() > p1.z() )
-				p1.p[2] = p.z();
+			if ( x < p0.x() )
+				p0.p[0] = x;
+			else if ( x > p1.x() )
+				p1.p[0] = x;
+
+			if ( y < p0.y() )
+				p0.p[1] = y;
+			else if ( y > p1.y() )
+				p1.p[1] = y;
+
+			if ( z < p0.z() )
+				p0.p[2] = z;
+			else if ( z > p1.z() )
+				p1.p[2] = z;
 		}
 	}
 
@@ -99,6 +113,106 @@ public class AlignedBox3D {
 		Ray3D ray, // input
 		Point3D intersection, // output
 		Vector3D normalAtIntersection // output
+	) {
+		float t = intersectSlab(
+			p0.x(), p0.y(), p0.z(), p1.x(), p1.y(), p1.z(),
+			ray, normalAtIntersection
+		);
+		if ( t == Float.POSITIVE_INFINITY )
+			return false;
+		intersection.p[0] = ray.origin.x() + t * ray.direction.x();
+		intersection.p[1] = ray.origin.y() + t * ray.direction.y();
+		intersection.p[2] = ray.origin.z() + t * ray.direction.z();
+		return true;
+	}
+
+	// Intersects a ray with the box (x0,y0,z0)-(x1,y1,z1) using the
+	// "slab" method: the ray is clipped against the pair of planes
+	// bounding the box along each axis, and it hits the box if
+	// the three resulting intervals overlap.
+	// Returns the distance along the ray to the point where it enters
+	// the box (or, if the ray originates inside the box, where it exits it),
+	// and the normal of the face at that point;
+	// or returns +infinity (leaving the normal untouched) if there is no intersection.
+	// Nothing is allocated.
+	static public float intersectSlab(
+		float x0, float y0, float z0,
+		float x1, float y1, float z1,
+		Ray3D ray, // input
+		Vector3D normalAtIntersection // output
+	) {
+		float [] o = ray.origin.p;
+		float [] inv = ray.inverseDirection;
+
+		float [] d = ray.direction.v;
+
+		// A ray parallel to a pair of planes is within their slab along its
+		// whole length, or nowhere.  (Computing ( x0 - o[0] ) * inv[0]
+		// would give NaN if the ray's origin were exactly on one of the
+		// planes, since inv[0] is infinite.)  Like the original test, the
+		// planes themselves are part of the box.
+		float nearX, farX, nearY, farY, nearZ, farZ, ta, tb;
+		if ( d[0] != 0 ) {
+			ta = ( x0 - o[0] ) * inv[0]; tb = ( x1 - o[0] ) * inv[0];
+			nearX = Math.min( ta, tb ); farX = Math.max( ta, tb );
+		}
+		else if ( x0 <= o[0] && o[0] <= x1 ) {
+			nearX = Float.NEGATIVE_INFINITY; farX = Float.POSITIVE_INFINITY;
+		}
+		else return Float.POSITIVE_INFINITY;
+		if ( d[1] != 0 ) {
+			ta = ( y0 - o[1] ) * inv[1]; tb = ( y1 - o[1] ) * inv[1];
+			nearY = Math.min( ta, tb ); farY = Math.max( ta, tb );
+		}
+		else if ( y0 <= o[1] && o[1] <= y1 ) {
+			nearY = Float.NEGATIVE_INFINITY; farY = Float.POSITIVE_INFINITY;
+		}
+		else return Float.POSITIVE_INFINITY;
+		if ( d[2] != 0 ) {
+			ta = ( z0 - o[2] ) * inv[2]; tb = ( z1 - o[2] ) * inv[2];
+			nearZ = Math.min( ta, tb ); farZ = Math.max( ta, tb );
+		}
+		else if ( z0 <= o[2] && o[2] <= z1 ) {
+			nearZ = Float.NEGATIVE_INFINITY; farZ = Float.POSITIVE_INFINITY;
+		}
+		else return Float.POSITIVE_INFINITY;
+
+		float tNear = Math.max( nearX, Math.max( nearY, nearZ ) );
+		float tFar = Math.min( farX, Math.min( farY, farZ ) );
+
+		// (tFar is infinite only if the ray's direction is zero.)
+		if ( !( tNear <= tFar && tFar >= 0 && tFar < Float.POSITIVE_INFINITY ) )
+			return Float.POSITIVE_INFINITY;
+
+		if ( tNear >= 0 ) {
+			// The ray enters through a face whose normal opposes the ray's direction.
+			int axis = tNear == nearX ? 0 : ( tNear == nearY ? 1 : 2 );
+			normalAtIntersection.copy(
+				axis == 0 ? -Math.signum( d[0] ) : 0,
+				axis == 1 ? -Math.signum( d[1] ) : 0,
+				axis == 2 ? -Math.signum( d[2] ) : 0
+			);
+			return tNear;
+		}
+		// The ray originates inside the box, and exits through a face
+		// whose normal points along the ray's direction.
+		int axis = tFar == farX ? 0 : ( tFar == farY ? 1 : 2 );
+		normalAtIntersection.copy(
+			axis == 0 ? Math.signum( d[0] ) : 0,
+			axis == 1 ? Math.signum( d[1] ) : 0,
+			axis == 2 ? Math.signum( d[2] ) : 0
+		);
+		return tFar;
+	}
+
+	// This is the original intersection test, which first tests
+	// the ray against a bounding sphere, and then against each face.
+	// It allocates several temporary objects per call;
+	// intersects() is equivalent (up to rounding) and faster.
+	public boolean intersectsUsingBoundingSphereAndPlanes(
+		Ray3D ray, // input
+		Point3D intersection, // output
+		Vector3D normalAtIntersection // output
 	) {
 		// We compute a bounding sphere for the box.
 		// If the ray intersects the bounding sphere,
@@ -0,0 +1,470 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Ambient occlusion baked per face of the boxes of a BoxStore: each face
+// gets a shade, stored in a byte, from 255 (its box's own color) down to
+// 255*(1-strength) (for a face entirely covered by nearby boxes), that
+// renderers multiply the box's color by.
+//
+// A face is shaded by casting rays from a grid of points on the face,
+// in fixed directions distributed over the hemisphere above the face
+// (cosine-weighted, so that rays near the normal count more), against
+// the boxes, with a bounding volume hierarchy.  The shade decreases with
+// the fraction of rays that hit a box within a given radius.  The rays
+// are the same at every bake, so rebaking an unchanged face gives the
+// same shade.
+//
+// Only the faces near the changes made since the last bake are rebaked:
+// clients report the regions of space that changed (the old and new
+// bounds of a box that moved, the bounds of a box that was added or
+// removed), and a face is rebaked if its hemisphere, i.e. the space
+// within the radius above it, overlaps one of those regions.
+//
+// As with BoxStore.Compaction, baking is done in three steps, so that
+// the rays can be cast by a background thread: prepareBake() and
+// applyBake() must be called by the thread that owns the store, and
+// Bake.run() may be called by any thread in between.  The rays are cast
+// in parallel, with fork/join, against a mirror of the store that only
+// bakes touch: each bake brings the mirror up to date with the boxes
+// changed since the previous one, and refits the mirror's bounding volume
+// hierarchy rather than building a new one (unless the indices of the
+// boxes have changed, e.g. after compaction, in which case the mirror is
+// replaced by a new copy of the store).  Hence every bake prepared must be
+// run, and bakes must be run one at a time, in the order they were
+// prepared.
+public class AmbientOcclusion {
+
+	public static final int FACES_PER_BOX = 6;
+
+	// The faces of a box are numbered -x, +x, -y, +y, -z, +z: face f is
+	// perpendicular to axis f/2, on the box's maximal side if f is odd.
+	// Their corners (numbered as in AlignedBox3D.getCorner()) are given
+	// counterclockwise as seen from outside, as in Scene.drawBox().
+	public static final int [] FACE_CORNERS = {
+		4, 6, 2, 0,
+		3, 7, 5, 1,
+		0, 1, 5, 4,
+		6, 7, 3, 2,
+		1, 0, 2, 3,
+		6, 4, 5, 7
+	};
+
+	private static final int SAMPLES_PER_SIDE = 4;
+	private static final int RAYS_PER_FACE = SAMPLES_PER_SIDE * SAMPLES_PER_SIDE;
+
+	// Rays start this far above their face, so that they do not
+	// hit the face's own box, but do start inside a box lying against it.
+	private static final float RAY_OFFSET = 1e-3f;
+
+	// Beyond this many changed regions, they are merged into one
+	private static final int MAX_DIRTY_REGIONS = 64;
+
+	// Beyond this fraction of the boxes changed, the mirror is
+	// replaced by a new copy of the store rather than updated
+	private static final float MAX_FRACTION_OF_CHANGED_BOXES = 0.25f;
+
+	// Faces shaded by each fork/join task
+	private static final int FACES_PER_TASK = 512;
+
+	// The directions of the rays, as (u,v,n) components in the frame of
+	// a face, where n is along the face's outward normal
+	private static final float [] RAY_DIRECTIONS = new float[ 3 * RAYS_PER_FACE ];
+	static {
+		for ( int a = 0; a < SAMPLES_PER_SIDE; ++a ) {
+			for ( int b = 0; b < SAMPLES_PER_SIDE; ++b ) {
+				int k = a * SAMPLES_PER_SIDE + b;
+				double angle = 2 * Math.PI * ( a + 0.5 ) / SAMPLES_PER_SIDE;
+				double r2 = ( b + 0.5 ) / SAMPLES_PER_SIDE;
+				double r = Math.sqrt( r2 );
+				RAY_DIRECTIONS[ 3*k ] = (float)( r * Math.cos( angle ) );
+				RAY_DIRECTIONS[ 3*k+1 ] = (float)( r * Math.sin( angle ) );
+				RAY_DIRECTIONS[ 3*k+2 ] = (float)Math.sqrt( 1 - r2 );
+			}
+		}
+	}
+
+	private final BoxStore boxes;
+
+	private float radius = 4 * ColoredBox.DEFAULT_SIZE;
+	private float strength = 0.75f;
+
+	// FACES_PER_BOX shades per box index (unsigned; -1 is 255)
+	private byte [] shadeOfFace = new byte[ 0 ];
+
+	// The regions changed since the last call to prepareBake(),
+	// as (minX,minY,minZ,maxX,maxY,maxZ)
+	private float [] dirtyRegions = new float[ 6 * MAX_DIRTY_REGIONS ];
+	private int numberOfDirtyRegions = 0;
+	private boolean isEverythingDirty = true;
+
+	// Incremented when the indices of the boxes change,
+	// which makes the bakes in progress out of date
+	private int generation = 0;
+
+	// The boxes whose bounds changed, or that were removed, since the last
+	// call to prepareBake() (possibly more than once each), unless the
+	// mirror must be replaced by a new copy of the store
+	private int [] changedBoxes = new int[ 64 ];
+	private int numberOfChangedBoxes = 0;
+	private boolean mustCopyStore = true;
+	// the size of the store when the last bake was prepared
+	private int sizeOfMirror = 0;
+
+	// Only used by Bake.run()
+	private BoxStore mirror = null;
+	private BoundingVolumeHierarchy mirrorTree = null;
+
+	// the range of boxes [start,end) whose shades were changed by the last
+	// call to applyBake()
+	private int changedBoxesStart = 0, changedBoxesEnd = 0;
+
+	// statistics about the last bake applied
+	private int numberOfFacesBaked = 0;
+	private long bakeTime = 0; // in nanoseconds
+
+	public AmbientOcclusion( BoxStore boxes ) {
+		this.boxes = boxes;
+	}
+
+	public float getRadius() { return radius; }
+	public float getStrength() { return strength; }
+
+	// The radius within which boxes occlude a face, in world space units
+	public void setRadius( float radius ) {
+		this.radius = radius;
+		invalidate();
+	}
+
+	// The fraction of its brightness that a fully occluded face loses
+	public void setStrength( float strength ) {
+		this.strength = strength;
+		invalidate();
+	}
+
+	// Returns the shade of the given face of the box with the given index,
+	// from 0 to 255 (unoccluded, or not baked yet).
+	public int getShade( int index, int face ) {
+		int k = FACES_PER_BOX * index + face;
+		return k < shadeOfFace.length ? shadeOfFace[ k ] & 0xFF : 255;
+	}
+
+	// Returns the given 0xRRGGBB color multiplied by the given shade.
+	public static int shadeColor( int rgb, int shade ) {
+		int r = ( ( rgb >>> 16 ) & 0xFF ) * shade / 255;
+		int g = ( ( rgb >>> 8 ) & 0xFF ) * shade / 255;
+		int b = ( rgb & 0xFF ) * shade / 255;
+		return ( r << 16 ) | ( g << 8 ) | b;
+	}
+
+	public boolean isDirty() { return isEverythingDirty || numberOfDirtyRegions > 0; }
+
+	// Forces all faces to be rebaked, from a new copy of the store
+	// (e.g. if changes to the store were not reported).
+	public void invalidate() {
+		isEverythingDirty = true;
+		mustCopyStore = true;
+	}
+
+	// Must be called after all the boxes have been removed from the store.
+	public void clear() {
+		shadeOfFace = new byte[ 0 ];
+		numberOfDirtyRegions = 0;
+		invalidate();
+		++generation;
+	}
+
+	// Must be called with the bounds of the box with the given index
+	// before and after it is moved or resized, and after it is added
+	// or removed.
+	public void boxChanged( int index ) {
+		regionChanged(
+			boxes.minX[index], boxes.minY[index], boxes.minZ[index],
+			boxes.maxX[index], boxes.maxY[index], boxes.maxZ[index]
+		);
+		if ( mustCopyStore || index >= sizeOfMirror )
+			return;
+		if ( numberOfChangedBoxes > MAX_FRACTION_OF_CHANGED_BOXES * sizeOfMirror ) {
+			mustCopyStore = true;
+			return;
+		}
+		if ( numberOfChangedBoxes == changedBoxes.length )
+			changedBoxes = Arrays.copyOf( changedBoxes, 2 * numberOfChangedBoxes );
+		changedBoxes[ numberOfChangedBoxes++ ] = index;
+	}
+
+	public void regionChanged(
+		float x0, float y0, float z0,
+		float x1, float y1, float z1
+	) {
+		if ( isEverythingDirty )
+			return;
+		if ( numberOfDirtyRegions == MAX_DIRTY_REGIONS ) {
+			// merge all the regions into the first one
+			float [] r = dirtyRegions;
+			for ( int k = 1; k < numberOfDirtyRegions; ++k ) {
+				for ( int j = 0; j < 3; ++j ) {
+					r[j] = Math.min( r[j], r[6*k+j] );
+					r[3+j] = Math.max( r[3+j], r[6*k+3+j] );
+				}
+			}
+			numberOfDirtyRegions = 1;
+		}
+		int o = 6 * numberOfDirtyRegions++;
+		dirtyRegions[o  ] = x0; dirtyRegions[o+1] = y0; dirtyRegions[o+2] = z0;
+		dirtyRegions[o+3] = x1; dirtyRegions[o+4] = y1; dirtyRegions[o+5] = z1;
+	}
+
+	// Must be called after the store has been compacted,
+	// with the array returned by BoxStore.compact().
+	public void remap( int [] newIndexOfOldIndex ) {
+		byte [] newShades = new byte[ shadeOfFace.length ];
+		Arrays.fill( newShades, (byte)-1 );
+		for ( int i = 0; i < newIndexOfOldIndex.length && FACES_PER_BOX * i < shadeOfFace.length; ++i ) {
+			int j = newIndexOfOldIndex[i];
+			if ( j >= 0 )
+				System.arraycopy( shadeOfFace, FACES_PER_BOX * i, newShades, FACES_PER_BOX * j, FACES_PER_BOX );
+		}
+		shadeOfFace = newShades;
+		mustCopyStore = true;
+		++generation;
+	}
+
+	public int getChangedBoxesStart() { return changedBoxesStart; }
+	public int getChangedBoxesEnd() { return changedBoxesEnd; }
+	public int getNumberOfFacesBaked() { return numberOfFacesBaked; }
+	public long getBakeTime() { return bakeTime; }
+
+	public class Bake implements Runnable {
+		private final int expectedGeneration = generation;
+		private final float bakeRadius = radius, bakeStrength = strength;
+		private final boolean bakeEverything = isEverythingDirty;
+		private final float [] regions = Arrays.copyOf( dirtyRegions, 6 * numberOfDirtyRegions );
+		private final int numberOfRegions = numberOfDirtyRegions;
+
+		// Either a new copy of the store, or the changes to make to the
+		// mirror: its new size, and the bounds (or removal) of the boxes
+		// that changed, and of those appended since the last bake
+		private final BoxStore copyOfStore;
+		private final int newSize;
+		private final int [] changedIndices;
+		private final float [] changedBounds;
+		private final boolean [] isChangedBoxAlive;
+
+		private BoxStore store;
+		private BoundingVolumeHierarchy tree;
+		// the faces baked (as FACES_PER_BOX * index + face), and their shades
+		private int [] faces;
+		private byte [] shades;
+		private int numberOfFaces = 0;
+		private long duration = 0;
+		private boolean isDone = false;
+
+		private Bake() {
+			newSize = boxes.size();
+			if ( mustCopyStore ) {
+				copyOfStore = boxes.copy();
+				changedIndices = null;
+				changedBounds = null;
+				isChangedBoxAlive = null;
+				return;
+			}
+			copyOfStore = null;
+			int n = numberOfChangedBoxes + newSize - sizeOfMirror;
+			changedIndices = new int[ n ];
+			changedBounds = new float[ 6 * n ];
+			isChangedBoxAlive = new boolean[ n ];
+			for ( int k = 0; k < n; ++k ) {
+				int i = k < numberOfChangedBoxes ? changedBoxes[k] : sizeOfMirror + k - numberOfChangedBoxes;
+				changedIndices[k] = i;
+				isChangedBoxAlive[k] = boxes.isAlive( i );
+				changedBounds[6*k  ] = boxes.minX[i]; changedBounds[6*k+1] = boxes.minY[i]; changedBounds[6*k+2] = boxes.minZ[i];
+				changedBounds[6*k+3] = boxes.maxX[i]; changedBounds[6*k+4] = boxes.maxY[i]; changedBounds[6*k+5] = boxes.maxZ[i];
+			}
+		}
+
+		public void run() {
+			long startTime = System.nanoTime();
+			updateMirror();
+			store = mirror;
+			tree = mirrorTree;
+			findFaces();
+			shades = new byte[ numberOfFaces ];
+			if ( numberOfFaces > 0 )
+				ForkJoinPool.commonPool().invoke( new BakeTask( this, 0, numberOfFaces ) );
+			tree = null;
+			duration = System.nanoTime() - startTime;
+			isDone = true;
+		}
+
+		private void updateMirror() {
+			if ( copyOfStore != null ) {
+				mirror = copyOfStore;
+				mirrorTree = new BoundingVolumeHierarchy( mirror );
+			}
+			else {
+				for ( int i = mirror.size(); i < newSize; ++i ) {
+					mirror.add( 0, 0, 0, 0, 0, 0, 0 );
+					mirrorTree.boxAdded( i );
+				}
+				for ( int k = 0; k < changedIndices.length; ++k ) {
+					int i = changedIndices[k];
+					if ( ! mirror.isAlive( i ) )
+						continue;
+					if ( ! isChangedBoxAlive[k] ) {
+						mirror.remove( i );
+						continue;
+					}
+					mirror.setBounds(
+						i,
+						changedBounds[6*k  ], changedBounds[6*k+1], changedBounds[6*k+2],
+						changedBounds[6*k+3], changedBounds[6*k+4], changedBounds[6*k+5]
+					);
+					mirrorTree.boxMoved( i );
+				}
+			}
+			mirrorTree.buildIfNeeded();
+		}
+
+		// Finds the faces whose hemisphere overlaps a changed region.
+		private void findFaces() {
+			int n = store.size();
+			faces = new int[ FACES_PER_BOX * n ];
+			float r = bakeRadius;
+			for ( int i = 0; i < n; ++i ) {
+				if ( ! store.isAlive( i ) )
+					continue;
+				float x0 = store.minX[i], y0 = store.minY[i], z0 = store.minZ[i];
+				float x1 = store.maxX[i], y1 = store.maxY[i], z1 = store.maxZ[i];
+				if ( bakeEverything ) {
+					for ( int f = 0; f < FACES_PER_BOX; ++f )
+						faces[ numberOfFaces++ ] = FACES_PER_BOX * i + f;
+					continue;
+				}
+				// the hemispheres of all the faces are within the box expanded by the radius
+				if ( ! overlapsRegion( x0-r, y0-r, z0-r, x1+r, y1+r, z1+r ) )
+					continue;
+				for ( int f = 0; f < FACES_PER_BOX; ++f ) {
+					int axis = f >> 1;
+					boolean isMax = ( f & 1 ) != 0;
+					float a0 = x0-r, b0 = y0-r, c0 = z0-r, a1 = x1+r, b1 = y1+r, c1 = z1+r;
+					if ( axis == 0 ) { if ( isMax ) a0 = x1; else a1 = x0; }
+					else if ( axis == 1 ) { if ( isMax ) b0 = y1; else b1 = y0; }
+					else { if ( isMax ) c0 = z1; else c1 = z0; }
+					if ( overlapsRegion( a0, b0, c0, a1, b1, c1 ) )
+						faces[ numberOfFaces++ ] = FACES_PER_BOX * i + f;
+				}
+			}
+		}
+
+		private boolean overlapsRegion(
+			float x0, float y0, float z0,
+			float x1, float y1, float z1
+		) {
+			for ( int k = 0; k < numberOfRegions; ++k ) {
+				int o = 6 * k;
+				if (
+					x0 <= regions[o+3] && regions[o] <= x1
+					&& y0 <= regions[o+4] && regions[o+1] <= y1
+					&& z0 <= regions[o+5] && regions[o+2] <= z1
+				)
+					return true;
+			}
+			return false;
+		}
+
+		// Returns the shade of the given face of the given box.
+		private byte bakeFace( int i, int face, Ray3D ray, Vector3D normal, int [] stack ) {
+			int axis = face >> 1, u = ( axis + 1 ) % 3, v = ( axis + 2 ) % 3;
+			float sign = ( face & 1 ) != 0 ? 1 : -1;
+			float [] min = { store.minX[i], store.minY[i], store.minZ[i] };
+			float [] max = { store.maxX[i], store.maxY[i], store.maxZ[i] };
+			float [] o = ray.origin.p;
+			float [] d = ray.direction.v;
+			o[axis] = ( sign > 0 ? max[axis] : min[axis] ) + sign * RAY_OFFSET;
+			int hits = 0;
+			for ( int a = 0; a < SAMPLES_PER_SIDE; ++a ) {
+				for ( int b = 0; b < SAMPLES_PER_SIDE; ++b ) {
+					o[u] = min[u] + ( a + 0.5f ) / SAMPLES_PER_SIDE * ( max[u] - min[u] );
+					o[v] = min[v] + ( b + 0.5f ) / SAMPLES_PER_SIDE * ( max[v] - min[v] );
+					// pair the points with the directions in a scrambled order
+					int k = ( 7 * ( a * SAMPLES_PER_SIDE + b ) ) % RAYS_PER_FACE;
+					d[u] = RAY_DIRECTIONS[ 3*k ];
+					d[v] = RAY_DIRECTIONS[ 3*k+1 ];
+					d[axis] = sign * RAY_DIRECTIONS[ 3*k+2 ];
+					ray.updateInverseDirection();
+					if ( tree.intersectsAny( ray, bakeRadius, normal, stack ) )
+						++hits;
+				}
+			}
+			return (byte)Math.round( 255 * ( 1 - bakeStrength * hits / (float)RAYS_PER_FACE ) );
+		}
+	}
+
+	private static class BakeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final Bake bake;
+		final int start, end; // faces [start,end) of the bake
+		BakeTask( Bake bake, int start, int end ) {
+			this.bake = bake; this.start = start; this.end = end;
+		}
+		protected void compute() {
+			if ( end - start > FACES_PER_TASK ) {
+				int middle = ( start + end ) >>> 1;
+				invokeAll( new BakeTask( bake, start, middle ), new BakeTask( bake, middle, end ) );
+				return;
+			}
+			Ray3D ray = new Ray3D();
+			Vector3D normal = new Vector3D();
+			int [] stack = new int[ bake.tree.getDepth() + 1 ];
+			for ( int k = start; k < end; ++k ) {
+				int face = bake.faces[k];
+				bake.shades[k] = bake.bakeFace( face / FACES_PER_BOX, face % FACES_PER_BOX, ray, normal, stack );
+			}
+		}
+	}
+
+	// Takes the changes to the store and the changed regions (which are
+	// then forgotten), from which Bake.run() computes the new shades.
+	public Bake prepareBake() {
+		Bake b = new Bake();
+		isEverythingDirty = false;
+		numberOfDirtyRegions = 0;
+		numberOfChangedBoxes = 0;
+		mustCopyStore = false;
+		sizeOfMirror = b.newSize;
+		return b;
+	}
+
+	// Stores the shades computed by the given bake, and returns true;
+	// or, if the indices of the boxes have changed since the bake was
+	// prepared, marks its regions as changed again, and returns false.
+	public boolean applyBake( Bake b ) {
+		changedBoxesStart = changedBoxesEnd = 0;
+		if ( ! b.isDone || b.expectedGeneration != generation ) {
+			if ( b.bakeEverything )
+				invalidate();
+			for ( int k = 0; k < b.numberOfRegions; ++k ) {
+				int o = 6 * k;
+				regionChanged( b.regions[o], b.regions[o+1], b.regions[o+2], b.regions[o+3], b.regions[o+4], b.regions[o+5] );
+			}
+			return false;
+		}
+		int required = FACES_PER_BOX * b.newSize;
+		if ( shadeOfFace.length < required ) {
+			int oldLength = shadeOfFace.length;
+			shadeOfFace = Arrays.copyOf( shadeOfFace, Math.max( required, FACES_PER_BOX * boxes.capacity() ) );
+			Arrays.fill( shadeOfFace, oldLength, shadeOfFace.length, (byte)-1 );
+		}
+		for ( int k = 0; k < b.numberOfFaces; ++k )
+			shadeOfFace[ b.faces[k] ] = b.shades[k];
+		if ( b.numberOfFaces > 0 ) {
+			changedBoxesStart = b.faces[0] / FACES_PER_BOX;
+			changedBoxesEnd = b.faces[ b.numberOfFaces - 1 ] / FACES_PER_BOX + 1;
+		}
+		numberOfFacesBaked = b.numberOfFaces;
+		bakeTime = b.duration;
+		return true;
+	}
+
+}
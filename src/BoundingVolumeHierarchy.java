@@ -0,0 +1,614 @@
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A bounding volume hierarchy (BVH) over the boxes of a BoxStore,
+// used to find the box hit by a ray in logarithmic rather than linear time.
+//
+// The tree is built with the surface area heuristic (SAH), evaluated
+// over a fixed number of bins per axis, and the build of large subtrees
+// is split across threads with fork/join.
+//
+// When boxes are moved or resized, the tree is "refit": the bounds of
+// the affected leaf and its ancestors are updated, without changing the
+// tree's topology.  This is cheap, but each refit can make the tree
+// less efficient, so we track the total surface area of all nodes,
+// and rebuild the tree (lazily, at the next query) once that total
+// has grown by more than a given factor since the last build.
+//
+// Boxes appended to the store after the last build are tested
+// linearly, until there are enough of them to justify a rebuild.
+// Boxes removed from the store stay in the tree, but are skipped,
+// and compacting the store requires calling remap().
+public class BoundingVolumeHierarchy {
+
+	private static final int MAX_ITEMS_PER_LEAF = 4;
+	private static final int NUMBER_OF_BINS = 16;
+
+	// Subtrees with fewer items than this are built sequentially.
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	// Maximum number of boxes that may be appended to the store
+	// before we rebuild the tree.
+	private static final int MAX_PENDING_ITEMS = 64;
+
+	// The tree is rebuilt once refitting has made the total surface
+	// area of its nodes grow by more than this factor.
+	private float rebuildThreshold = 2.0f;
+
+	private final BoxStore boxes;
+
+	private boolean isDirty = true;
+
+	// Boxes with indices in [0,numberOfIndexedItems) are in the tree.
+	private int numberOfIndexedItems = 0;
+
+	// The nodes, stored as parallel arrays.
+	// Node 0 is the root.
+	// An interior node has two children; a leaf has
+	// nodeLeft == -1, and contains the nodeCount items
+	// found in items[nodeFirst],...,items[nodeFirst+nodeCount-1].
+	private int numberOfNodes = 0;
+	private float [] nodeMinX = new float[0], nodeMinY = new float[0], nodeMinZ = new float[0];
+	private float [] nodeMaxX = new float[0], nodeMaxY = new float[0], nodeMaxZ = new float[0];
+	private int [] nodeLeft = new int[0];
+	private int [] nodeRight = new int[0];
+	private int [] nodeParent = new int[0];
+	private int [] nodeFirst = new int[0];
+	private int [] nodeCount = new int[0];
+
+	// indices of boxes, ordered so that each leaf's items are contiguous
+	private int [] items = new int[0];
+	// maps a box index to the leaf containing it
+	private int [] leafOfItem = new int[0];
+
+	// centroids of the boxes, only used during a build
+	private float [] centroidX, centroidY, centroidZ;
+
+	private final AtomicInteger nodeCounter = new AtomicInteger();
+
+	// sum of the surface areas of all nodes
+	private double totalArea = 0;
+	private double totalAreaAfterBuild = 0;
+
+	private int numberOfBuilds = 0;
+
+	// number of nodes on the longest path from the root to a leaf
+	private int depth = 0;
+
+	// Used to avoid allocating anything per box tested.
+	private Vector3D candidateNormal = new Vector3D();
+	private int [] stack = new int[ 64 ];
+
+	public BoundingVolumeHierarchy( BoxStore boxes ) {
+		this.boxes = boxes;
+	}
+
+	public void setRebuildThreshold( float factor ) { rebuildThreshold = factor; }
+	public float getRebuildThreshold() { return rebuildThreshold; }
+
+	public int getNumberOfNodes() { return numberOfNodes; }
+	public int getNumberOfBuilds() { return numberOfBuilds; }
+	public int getDepth() { return depth; }
+
+	// Returns the factor by which refitting has increased the total
+	// surface area of the nodes since the last build (1 if no refits).
+	public float getRefitDegradation() {
+		return totalAreaAfterBuild > 0 ? (float)( totalArea / totalAreaAfterBuild ) : 1;
+	}
+
+	// Forces a rebuild at the next query.
+	public void invalidate() {
+		isDirty = true;
+	}
+
+	// Rebuilds the tree now if it is due for a rebuild
+	// (which intersect() does by itself, but intersectsAny() does not).
+	public void buildIfNeeded() {
+		if ( isDirty )
+			build();
+	}
+
+	// Must be called after a box has been appended to the store.
+	public void boxAdded( int index ) {
+		if ( boxes.size() - numberOfIndexedItems > MAX_PENDING_ITEMS )
+			isDirty = true;
+	}
+
+	// Must be called after the store has been compacted,
+	// with the array returned by BoxStore.compact().
+	// The tree's topology is kept, only the indices are updated.
+	public void remap( int [] newIndexOfOldIndex ) {
+		if ( newIndexOfOldIndex == null || isDirty )
+			return;
+		int [] newLeafOfItem = new int[ leafOfItem.length ];
+		for ( int node = 0; node < numberOfNodes; ++node ) {
+			if ( nodeLeft[node] >= 0 )
+				continue;
+			// squeeze the removed boxes out of the leaf's items
+			int end = nodeFirst[node] + nodeCount[node];
+			int j = nodeFirst[node];
+			for ( int k = nodeFirst[node]; k < end; ++k ) {
+				int i = newIndexOfOldIndex[ items[k] ];
+				if ( i >= 0 ) {
+					items[j++] = i;
+					newLeafOfItem[i] = node;
+				}
+			}
+			nodeCount[node] = j - nodeFirst[node];
+		}
+		leafOfItem = newLeafOfItem;
+		int n = 0;
+		for ( int i = 0; i < numberOfIndexedItems; ++i )
+			if ( newIndexOfOldIndex[i] >= 0 )
+				++n;
+		numberOfIndexedItems = n;
+	}
+
+	// Must be called after the bounds of a box have changed.
+	public void boxMoved( int index ) {
+		if ( isDirty || index >= numberOfIndexedItems )
+			return;
+		int node = leafOfItem[ index ];
+		while ( node >= 0 ) {
+			float x0 = nodeMinX[node], y0 = nodeMinY[node], z0 = nodeMinZ[node];
+			float x1 = nodeMaxX[node], y1 = nodeMaxY[node], z1 = nodeMaxZ[node];
+			double oldArea = area( x0, y0, z0, x1, y1, z1 );
+			if ( nodeLeft[node] < 0 )
+				computeLeafBounds( node );
+			else
+				computeInteriorBounds( node );
+			totalArea += area( node ) - oldArea;
+			if (
+				x0 == nodeMinX[node] && y0 == nodeMinY[node] && z0 == nodeMinZ[node]
+				&& x1 == nodeMaxX[node] && y1 == nodeMaxY[node] && z1 == nodeMaxZ[node]
+			) {
+				// the ancestors' bounds cannot change either
+				break;
+			}
+			node = nodeParent[node];
+		}
+		if ( totalArea > rebuildThreshold * totalAreaAfterBuild )
+			isDirty = true;
+	}
+
+	private static double area(
+		float x0, float y0, float z0,
+		float x1, float y1, float z1
+	) {
+		double dx = x1-x0, dy = y1-y0, dz = z1-z0;
+		return 2 * ( dx*dy + dy*dz + dz*dx );
+	}
+	private double area( int node ) {
+		return area(
+			nodeMinX[node], nodeMinY[node], nodeMinZ[node],
+			nodeMaxX[node], nodeMaxY[node], nodeMaxZ[node]
+		);
+	}
+
+	private void computeLeafBounds( int node ) {
+		float x0 = Float.POSITIVE_INFINITY, y0 = Float.POSITIVE_INFINITY, z0 = Float.POSITIVE_INFINITY;
+		float x1 = Float.NEGATIVE_INFINITY, y1 = Float.NEGATIVE_INFINITY, z1 = Float.NEGATIVE_INFINITY;
+		int end = nodeFirst[node] + nodeCount[node];
+		for ( int k = nodeFirst[node]; k < end; ++k ) {
+			int i = items[k];
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			if ( boxes.minX[i] < x0 ) x0 = boxes.minX[i];
+			if ( boxes.minY[i] < y0 ) y0 = boxes.minY[i];
+			if ( boxes.minZ[i] < z0 ) z0 = boxes.minZ[i];
+			if ( boxes.maxX[i] > x1 ) x1 = boxes.maxX[i];
+			if ( boxes.maxY[i] > y1 ) y1 = boxes.maxY[i];
+			if ( boxes.maxZ[i] > z1 ) z1 = boxes.maxZ[i];
+		}
+		nodeMinX[node] = x0; nodeMinY[node] = y0; nodeMinZ[node] = z0;
+		nodeMaxX[node] = x1; nodeMaxY[node] = y1; nodeMaxZ[node] = z1;
+	}
+
+	private void computeInteriorBounds( int node ) {
+		int a = nodeLeft[node], b = nodeRight[node];
+		nodeMinX[node] = Math.min( nodeMinX[a], nodeMinX[b] );
+		nodeMinY[node] = Math.min( nodeMinY[a], nodeMinY[b] );
+		nodeMinZ[node] = Math.min( nodeMinZ[a], nodeMinZ[b] );
+		nodeMaxX[node] = Math.max( nodeMaxX[a], nodeMaxX[b] );
+		nodeMaxY[node] = Math.max( nodeMaxY[a], nodeMaxY[b] );
+		nodeMaxZ[node] = Math.max( nodeMaxZ[a], nodeMaxZ[b] );
+	}
+
+	public void build() {
+		numberOfIndexedItems = boxes.size();
+		int n = boxes.getNumberOfBoxes();
+
+		int maxNodes = Math.max( 1, 2*n - 1 );
+		if ( nodeMinX.length < maxNodes ) {
+			nodeMinX = new float[ maxNodes ]; nodeMinY = new float[ maxNodes ]; nodeMinZ = new float[ maxNodes ];
+			nodeMaxX = new float[ maxNodes ]; nodeMaxY = new float[ maxNodes ]; nodeMaxZ = new float[ maxNodes ];
+			nodeLeft = new int[ maxNodes ];
+			nodeRight = new int[ maxNodes ];
+			nodeParent = new int[ maxNodes ];
+			nodeFirst = new int[ maxNodes ];
+			nodeCount = new int[ maxNodes ];
+		}
+		if ( items.length < n )
+			items = new int[ n ];
+		if ( leafOfItem.length < numberOfIndexedItems )
+			leafOfItem = new int[ numberOfIndexedItems ];
+		centroidX = new float[ numberOfIndexedItems ];
+		centroidY = new float[ numberOfIndexedItems ];
+		centroidZ = new float[ numberOfIndexedItems ];
+		int k = 0;
+		for ( int i = 0; i < numberOfIndexedItems; ++i ) {
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			items[k++] = i;
+			centroidX[i] = 0.5f * ( boxes.minX[i] + boxes.maxX[i] );
+			centroidY[i] = 0.5f * ( boxes.minY[i] + boxes.maxY[i] );
+			centroidZ[i] = 0.5f * ( boxes.minZ[i] + boxes.maxZ[i] );
+		}
+
+		nodeCounter.set( 1 );
+		if ( n == 0 ) {
+			makeLeaf( 0, 0, 0, -1 );
+			nodeMinX[0] = nodeMinY[0] = nodeMinZ[0] = Float.POSITIVE_INFINITY;
+			nodeMaxX[0] = nodeMaxY[0] = nodeMaxZ[0] = Float.NEGATIVE_INFINITY;
+		}
+		else if ( n < PARALLEL_THRESHOLD ) {
+			buildNode( 0, 0, n, -1, false );
+		}
+		else {
+			ForkJoinPool.commonPool().invoke( new BuildTask( 0, 0, n, -1 ) );
+		}
+		numberOfNodes = nodeCounter.get();
+		centroidX = centroidY = centroidZ = null;
+
+		totalArea = 0;
+		if ( n > 0 )
+			for ( int node = 0; node < numberOfNodes; ++node )
+				totalArea += area( node );
+		totalAreaAfterBuild = totalArea;
+
+		// children are numbered after their parent
+		int [] depthOfNode = new int[ numberOfNodes ];
+		depthOfNode[0] = depth = 1;
+		for ( int node = 1; node < numberOfNodes; ++node ) {
+			depthOfNode[node] = depthOfNode[ nodeParent[node] ] + 1;
+			depth = Math.max( depth, depthOfNode[node] );
+		}
+		isDirty = false;
+		++numberOfBuilds;
+	}
+
+	private class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final int node, start, end, parent;
+		BuildTask( int node, int start, int end, int parent ) {
+			this.node = node; this.start = start; this.end = end; this.parent = parent;
+		}
+		protected void compute() {
+			buildNode( node, start, end, parent, true );
+		}
+	}
+
+	private void makeLeaf( int node, int start, int end, int parent ) {
+		nodeLeft[node] = nodeRight[node] = -1;
+		nodeParent[node] = parent;
+		nodeFirst[node] = start;
+		nodeCount[node] = end - start;
+		for ( int k = start; k < end; ++k )
+			leafOfItem[ items[k] ] = node;
+	}
+
+	// Builds the subtree for the items in items[start,end).
+	// If ``parallel'' is true, large subtrees are forked as separate tasks.
+	private void buildNode( int node, int start, int end, int parent, boolean parallel ) {
+		int count = end - start;
+
+		// bounds of the boxes, and of their centroids
+		float x0 = Float.POSITIVE_INFINITY, y0 = Float.POSITIVE_INFINITY, z0 = Float.POSITIVE_INFINITY;
+		float x1 = Float.NEGATIVE_INFINITY, y1 = Float.NEGATIVE_INFINITY, z1 = Float.NEGATIVE_INFINITY;
+		float cx0 = Float.POSITIVE_INFINITY, cy0 = Float.POSITIVE_INFINITY, cz0 = Float.POSITIVE_INFINITY;
+		float cx1 = Float.NEGATIVE_INFINITY, cy1 = Float.NEGATIVE_INFINITY, cz1 = Float.NEGATIVE_INFINITY;
+		for ( int k = start; k < end; ++k ) {
+			int i = items[k];
+			if ( boxes.minX[i] < x0 ) x0 = boxes.minX[i];
+			if ( boxes.minY[i] < y0 ) y0 = boxes.minY[i];
+			if ( boxes.minZ[i] < z0 ) z0 = boxes.minZ[i];
+			if ( boxes.maxX[i] > x1 ) x1 = boxes.maxX[i];
+			if ( boxes.maxY[i] > y1 ) y1 = boxes.maxY[i];
+			if ( boxes.maxZ[i] > z1 ) z1 = boxes.maxZ[i];
+			if ( centroidX[i] < cx0 ) cx0 = centroidX[i];
+			if ( centroidY[i] < cy0 ) cy0 = centroidY[i];
+			if ( centroidZ[i] < cz0 ) cz0 = centroidZ[i];
+			if ( centroidX[i] > cx1 ) cx1 = centroidX[i];
+			if ( centroidY[i] > cy1 ) cy1 = centroidY[i];
+			if ( centroidZ[i] > cz1 ) cz1 = centroidZ[i];
+		}
+		nodeMinX[node] = x0; nodeMinY[node] = y0; nodeMinZ[node] = z0;
+		nodeMaxX[node] = x1; nodeMaxY[node] = y1; nodeMaxZ[node] = z1;
+
+		if ( count <= 2 ) {
+			makeLeaf( node, start, end, parent );
+			return;
+		}
+
+		// Evaluate the SAH for every split between bins, along every axis.
+		int bestAxis = -1;
+		int bestSplit = -1; // bins [0,bestSplit] go to the left child
+		double bestCost = Double.POSITIVE_INFINITY;
+		float [] binMin = new float[ 3*NUMBER_OF_BINS ];
+		float [] binMax = new float[ 3*NUMBER_OF_BINS ];
+		int [] binCount = new int[ NUMBER_OF_BINS ];
+		double [] leftArea = new double[ NUMBER_OF_BINS ];
+		int [] leftCount = new int[ NUMBER_OF_BINS ];
+		for ( int axis = 0; axis < 3; ++axis ) {
+			float cmin = axis == 0 ? cx0 : ( axis == 1 ? cy0 : cz0 );
+			float cmax = axis == 0 ? cx1 : ( axis == 1 ? cy1 : cz1 );
+			if ( !( cmax > cmin ) )
+				continue;
+			float [] centroid = axis == 0 ? centroidX : ( axis == 1 ? centroidY : centroidZ );
+			float scale = NUMBER_OF_BINS / ( cmax - cmin );
+
+			java.util.Arrays.fill( binCount, 0 );
+			java.util.Arrays.fill( binMin, Float.POSITIVE_INFINITY );
+			java.util.Arrays.fill( binMax, Float.NEGATIVE_INFINITY );
+			for ( int k = start; k < end; ++k ) {
+				int i = items[k];
+				int b = Math.min( NUMBER_OF_BINS - 1, (int)( ( centroid[i] - cmin ) * scale ) );
+				++binCount[b];
+				b *= 3;
+				if ( boxes.minX[i] < binMin[b  ] ) binMin[b  ] = boxes.minX[i];
+				if ( boxes.minY[i] < binMin[b+1] ) binMin[b+1] = boxes.minY[i];
+				if ( boxes.minZ[i] < binMin[b+2] ) binMin[b+2] = boxes.minZ[i];
+				if ( boxes.maxX[i] > binMax[b  ] ) binMax[b  ] = boxes.maxX[i];
+				if ( boxes.maxY[i] > binMax[b+1] ) binMax[b+1] = boxes.maxY[i];
+				if ( boxes.maxZ[i] > binMax[b+2] ) binMax[b+2] = boxes.maxZ[i];
+			}
+
+			// sweep from the left ...
+			float ax0 = Float.POSITIVE_INFINITY, ay0 = Float.POSITIVE_INFINITY, az0 = Float.POSITIVE_INFINITY;
+			float ax1 = Float.NEGATIVE_INFINITY, ay1 = Float.NEGATIVE_INFINITY, az1 = Float.NEGATIVE_INFINITY;
+			int n = 0;
+			for ( int b = 0; b < NUMBER_OF_BINS - 1; ++b ) {
+				n += binCount[b];
+				ax0 = Math.min( ax0, binMin[3*b] ); ay0 = Math.min( ay0, binMin[3*b+1] ); az0 = Math.min( az0, binMin[3*b+2] );
+				ax1 = Math.max( ax1, binMax[3*b] ); ay1 = Math.max( ay1, binMax[3*b+1] ); az1 = Math.max( az1, binMax[3*b+2] );
+				leftCount[b] = n;
+				leftArea[b] = n > 0 ? area( ax0, ay0, az0, ax1, ay1, az1 ) : 0;
+			}
+			// ... then from the right, evaluating the cost of each split
+			ax0 = ay0 = az0 = Float.POSITIVE_INFINITY;
+			ax1 = ay1 = az1 = Float.NEGATIVE_INFINITY;
+			n = 0;
+			for ( int b = NUMBER_OF_BINS - 1; b > 0; --b ) {
+				n += binCount[b];
+				ax0 = Math.min( ax0, binMin[3*b] ); ay0 = Math.min( ay0, binMin[3*b+1] ); az0 = Math.min( az0, binMin[3*b+2] );
+				ax1 = Math.max( ax1, binMax[3*b] ); ay1 = Math.max( ay1, binMax[3*b+1] ); az1 = Math.max( az1, binMax[3*b+2] );
+				if ( n == 0 || leftCount[b-1] == 0 )
+					continue;
+				double cost = leftCount[b-1] * leftArea[b-1] + n * area( ax0, ay0, az0, ax1, ay1, az1 );
+				if ( cost < bestCost ) {
+					bestCost = cost;
+					bestAxis = axis;
+					bestSplit = b-1;
+				}
+			}
+		}
+
+		// The cost of a leaf is proportional to count*area(node),
+		// and the cost of a split to (leftCount*leftArea + rightCount*rightArea).
+		// (We ignore the constant cost of traversing a node.)
+		if ( count <= MAX_ITEMS_PER_LEAF && !( bestCost < count * area( node ) ) ) {
+			makeLeaf( node, start, end, parent );
+			return;
+		}
+
+		int mid;
+		if ( bestAxis >= 0 ) {
+			float cmin = bestAxis == 0 ? cx0 : ( bestAxis == 1 ? cy0 : cz0 );
+			float cmax = bestAxis == 0 ? cx1 : ( bestAxis == 1 ? cy1 : cz1 );
+			float [] centroid = bestAxis == 0 ? centroidX : ( bestAxis == 1 ? centroidY : centroidZ );
+			float scale = NUMBER_OF_BINS / ( cmax - cmin );
+			int i = start, j = end - 1;
+			while ( i <= j ) {
+				int b = Math.min( NUMBER_OF_BINS - 1, (int)( ( centroid[items[i]] - cmin ) * scale ) );
+				if ( b <= bestSplit ) {
+					++i;
+				}
+				else {
+					int tmp = items[i]; items[i] = items[j]; items[j] = tmp;
+					--j;
+				}
+			}
+			mid = i;
+		}
+		else {
+			// All centroids coincide; split the items arbitrarily.
+			mid = start + count / 2;
+		}
+		if ( mid == start || mid == end )
+			mid = start + count / 2;
+
+		int left = nodeCounter.getAndAdd( 2 );
+		int right = left + 1;
+		nodeLeft[node] = left;
+		nodeRight[node] = right;
+		nodeParent[node] = parent;
+		nodeFirst[node] = 0;
+		nodeCount[node] = 0;
+
+		if ( parallel && count > PARALLEL_THRESHOLD ) {
+			RecursiveAction.invokeAll(
+				new BuildTask( left, start, mid, node ),
+				new BuildTask( right, mid, end, node )
+			);
+		}
+		else {
+			buildNode( left, start, mid, node, false );
+			buildNode( right, mid, end, node, false );
+		}
+	}
+
+	// Returns the distance along the ray to where it enters the node,
+	// or +infinity if the ray misses the node.
+	private float intersectNode(
+		int node,
+		float ox, float oy, float oz,
+		float ix, float iy, float iz, // inverse of the ray's direction
+		float maxDistance
+	) {
+		// If the ray is parallel to an axis, the inverse is +infinity (see
+		// Ray3D.updateInverseDirection()), and a product is NaN only if the
+		// origin is on one of the planes, in which case the ray is within
+		// the slab: the NaN is replaced by -infinity for the min plane, and
+		// by +infinity for the max plane.
+		float t0 = ( nodeMinX[node] - ox ) * ix, t1 = ( nodeMaxX[node] - ox ) * ix;
+		if ( t0 != t0 ) t0 = Float.NEGATIVE_INFINITY;
+		if ( t1 != t1 ) t1 = Float.POSITIVE_INFINITY;
+		float tmin = t0 < t1 ? t0 : t1, tmax = t0 < t1 ? t1 : t0;
+		t0 = ( nodeMinY[node] - oy ) * iy; t1 = ( nodeMaxY[node] - oy ) * iy;
+		if ( t0 != t0 ) t0 = Float.NEGATIVE_INFINITY;
+		if ( t1 != t1 ) t1 = Float.POSITIVE_INFINITY;
+		tmin = Math.max( tmin, t0 < t1 ? t0 : t1 ); tmax = Math.min( tmax, t0 < t1 ? t1 : t0 );
+		t0 = ( nodeMinZ[node] - oz ) * iz; t1 = ( nodeMaxZ[node] - oz ) * iz;
+		if ( t0 != t0 ) t0 = Float.NEGATIVE_INFINITY;
+		if ( t1 != t1 ) t1 = Float.POSITIVE_INFINITY;
+		tmin = Math.max( tmin, t0 < t1 ? t0 : t1 ); tmax = Math.min( tmax, t0 < t1 ? t1 : t0 );
+		if ( tmax >= tmin && tmax >= 0 && tmin <= maxDistance )
+			return tmin;
+		return Float.POSITIVE_INFINITY;
+	}
+
+	// Returns the index of the box closest to the ray's origin
+	// that the ray intersects, or -1 if there is none.
+	// Semantics are the same as for Scene.getIntersectedBox(),
+	// except that an index rather than a handle is returned.
+	public int intersect(
+		Ray3D ray, // input
+		Point3D intersectionPoint, // output
+		Vector3D normalAtIntersection // output
+	) {
+		if ( isDirty )
+			build();
+
+		int indexOfIntersectedBox = -1;
+		float distanceToIntersection = Float.POSITIVE_INFINITY;
+
+		float ox = ray.origin.x(), oy = ray.origin.y(), oz = ray.origin.z();
+		float ix = ray.inverseDirection[0], iy = ray.inverseDirection[1], iz = ray.inverseDirection[2];
+
+		int stackSize = 0;
+		if ( numberOfIndexedItems > 0 )
+			stack[ stackSize++ ] = 0;
+		while ( stackSize > 0 ) {
+			int node = stack[ --stackSize ];
+			if ( intersectNode( node, ox, oy, oz, ix, iy, iz, distanceToIntersection ) == Float.POSITIVE_INFINITY )
+				continue;
+			if ( nodeLeft[node] < 0 ) {
+				int end = nodeFirst[node] + nodeCount[node];
+				for ( int k = nodeFirst[node]; k < end; ++k ) {
+					int i = items[k];
+					if ( ! boxes.isAlive( i ) )
+						continue;
+					float d = intersectBox( i, ray );
+					if ( d < distanceToIntersection ) {
+						distanceToIntersection = d;
+						indexOfIntersectedBox = i;
+						normalAtIntersection.copy( candidateNormal );
+					}
+				}
+			}
+			else {
+				// Push the farther child first, so the nearer one is visited first.
+				int a = nodeLeft[node], b = nodeRight[node];
+				float ta = intersectNode( a, ox, oy, oz, ix, iy, iz, distanceToIntersection );
+				float tb = intersectNode( b, ox, oy, oz, ix, iy, iz, distanceToIntersection );
+				if ( stackSize + 2 > stack.length )
+					stack = java.util.Arrays.copyOf( stack, 2*stack.length );
+				if ( ta <= tb ) {
+					if ( tb != Float.POSITIVE_INFINITY ) stack[ stackSize++ ] = b;
+					if ( ta != Float.POSITIVE_INFINITY ) stack[ stackSize++ ] = a;
+				}
+				else {
+					if ( ta != Float.POSITIVE_INFINITY ) stack[ stackSize++ ] = a;
+					stack[ stackSize++ ] = b;
+				}
+			}
+		}
+
+		// boxes appended since the last build
+		for ( int i = numberOfIndexedItems; i < boxes.size(); ++i ) {
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			float d = intersectBox( i, ray );
+			if ( d < distanceToIntersection ) {
+				distanceToIntersection = d;
+				indexOfIntersectedBox = i;
+				normalAtIntersection.copy( candidateNormal );
+			}
+		}
+		if ( indexOfIntersectedBox >= 0 ) {
+			intersectionPoint.p[0] = ox + distanceToIntersection * ray.direction.x();
+			intersectionPoint.p[1] = oy + distanceToIntersection * ray.direction.y();
+			intersectionPoint.p[2] = oz + distanceToIntersection * ray.direction.z();
+		}
+		return indexOfIntersectedBox;
+	}
+
+	// Returns true if the ray hits a box within maxDistance of its origin
+	// (or starts inside a box).  Unlike intersect(), this does not rebuild
+	// the tree, nor allocate or modify anything but its arguments, so it
+	// may be called by several threads at once, once the tree is up to date
+	// (see build()), as long as the boxes do not change.  Each thread must
+	// pass its own normal and stack, of at least getDepth()+1 entries.
+	public boolean intersectsAny(
+		Ray3D ray, float maxDistance,
+		Vector3D normal, // used as scratch space
+		int [] stack
+	) {
+		float ox = ray.origin.x(), oy = ray.origin.y(), oz = ray.origin.z();
+		float ix = ray.inverseDirection[0], iy = ray.inverseDirection[1], iz = ray.inverseDirection[2];
+
+		int stackSize = 0;
+		if ( numberOfIndexedItems > 0 )
+			stack[ stackSize++ ] = 0;
+		while ( stackSize > 0 ) {
+			int node = stack[ --stackSize ];
+			if ( intersectNode( node, ox, oy, oz, ix, iy, iz, maxDistance ) == Float.POSITIVE_INFINITY )
+				continue;
+			if ( nodeLeft[node] < 0 ) {
+				int end = nodeFirst[node] + nodeCount[node];
+				for ( int k = nodeFirst[node]; k < end; ++k ) {
+					int i = items[k];
+					if ( boxes.isAlive( i ) && intersectBox( i, ray, normal ) <= maxDistance )
+						return true;
+				}
+			}
+			else {
+				stack[ stackSize++ ] = nodeRight[node];
+				stack[ stackSize++ ] = nodeLeft[node];
+			}
+		}
+		for ( int i = numberOfIndexedItems; i < boxes.size(); ++i )
+			if ( boxes.isAlive( i ) && intersectBox( i, ray, normal ) <= maxDistance )
+				return true;
+		return false;
+	}
+
+	// Returns the distance to the intersection with the given box
+	// (storing the normal there in candidateNormal)
+	// or +infinity if there is none.
+	private float intersectBox( int i, Ray3D ray ) {
+		return intersectBox( i, ray, candidateNormal );
+	}
+
+	private float intersectBox( int i, Ray3D ray, Vector3D normal ) {
+		return AlignedBox3D.intersectSlab(
+			boxes.minX[i], boxes.minY[i], boxes.minZ[i],
+			boxes.maxX[i], boxes.maxY[i], boxes.maxZ[i],
+			ray, normal
+		);
+	}
+
+}
+
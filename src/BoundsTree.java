@@ -0,0 +1,122 @@
+
+// Maintains the bounds of all the (live) boxes of a BoxStore,
+// so that they can be read in constant time, and updated in
+// logarithmic time when a box changes.
+//
+// The boxes are grouped in blocks of consecutive indices, and
+// a "tournament tree" (a complete binary tree, stored implicitly in
+// arrays as in a binary heap) is built over the blocks:
+// each leaf stores the bounds of the boxes in its block,
+// and each interior node the union of the bounds of its two children.
+// When a box changes, its block's bounds are recomputed, and the
+// change is propagated up to the root.  Grouping the boxes in blocks
+// makes the tree small (about 6 bytes per box) at the cost of a
+// short scan of the block per update.
+public class BoundsTree {
+
+	private static final int BOXES_PER_BLOCK = 8;
+
+	private final BoxStore boxes;
+
+	// number of leaves, a power of 2
+	private int numberOfLeaves = 0;
+
+	// Node k has children 2k and 2k+1; the root is node 1,
+	// and the leaf for block b is node numberOfLeaves+b.
+	// An empty node has min = +infinity and max = -infinity.
+	private float [] minX = new float[0], minY = new float[0], minZ = new float[0];
+	private float [] maxX = new float[0], maxY = new float[0], maxZ = new float[0];
+
+	public BoundsTree( BoxStore boxes ) {
+		this.boxes = boxes;
+		rebuild();
+	}
+
+	// Recomputes the whole tree, in linear time.
+	// Must be called after the store has been compacted or cleared.
+	public void rebuild() {
+		int numberOfBlocks = ( boxes.capacity() + BOXES_PER_BLOCK - 1 ) / BOXES_PER_BLOCK;
+		numberOfLeaves = 1;
+		while ( numberOfLeaves < numberOfBlocks )
+			numberOfLeaves *= 2;
+		int numberOfNodes = 2 * numberOfLeaves;
+		if ( minX.length != numberOfNodes ) {
+			minX = new float[ numberOfNodes ]; minY = new float[ numberOfNodes ]; minZ = new float[ numberOfNodes ];
+			maxX = new float[ numberOfNodes ]; maxY = new float[ numberOfNodes ]; maxZ = new float[ numberOfNodes ];
+		}
+		for ( int b = 0; b < numberOfLeaves; ++b )
+			computeLeaf( numberOfLeaves + b );
+		for ( int node = numberOfLeaves - 1; node >= 1; --node )
+			computeInteriorNode( node );
+	}
+
+	// Must be called after the box with the given index has been
+	// added, removed, moved or resized.
+	public void boxChanged( int index ) {
+		int block = index / BOXES_PER_BLOCK;
+		if ( block >= numberOfLeaves ) {
+			// the store has grown beyond the tree
+			rebuild();
+			return;
+		}
+		int node = numberOfLeaves + block;
+		computeLeaf( node );
+		for ( node >>= 1; node >= 1; node >>= 1 ) {
+			float x0 = minX[node], y0 = minY[node], z0 = minZ[node];
+			float x1 = maxX[node], y1 = maxY[node], z1 = maxZ[node];
+			computeInteriorNode( node );
+			if (
+				x0 == minX[node] && y0 == minY[node] && z0 == minZ[node]
+				&& x1 == maxX[node] && y1 == maxY[node] && z1 == maxZ[node]
+			) {
+				// the ancestors cannot change either
+				break;
+			}
+		}
+	}
+
+	private void computeLeaf( int node ) {
+		float x0 = Float.POSITIVE_INFINITY, y0 = Float.POSITIVE_INFINITY, z0 = Float.POSITIVE_INFINITY;
+		float x1 = Float.NEGATIVE_INFINITY, y1 = Float.NEGATIVE_INFINITY, z1 = Float.NEGATIVE_INFINITY;
+		int first = ( node - numberOfLeaves ) * BOXES_PER_BLOCK;
+		int end = Math.min( first + BOXES_PER_BLOCK, boxes.size() );
+		for ( int i = first; i < end; ++i ) {
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			if ( boxes.minX[i] < x0 ) x0 = boxes.minX[i];
+			if ( boxes.minY[i] < y0 ) y0 = boxes.minY[i];
+			if ( boxes.minZ[i] < z0 ) z0 = boxes.minZ[i];
+			if ( boxes.maxX[i] > x1 ) x1 = boxes.maxX[i];
+			if ( boxes.maxY[i] > y1 ) y1 = boxes.maxY[i];
+			if ( boxes.maxZ[i] > z1 ) z1 = boxes.maxZ[i];
+		}
+		minX[node] = x0; minY[node] = y0; minZ[node] = z0;
+		maxX[node] = x1; maxY[node] = y1; maxZ[node] = z1;
+	}
+
+	private void computeInteriorNode( int node ) {
+		int a = 2*node, b = a+1;
+		minX[node] = Math.min( minX[a], minX[b] );
+		minY[node] = Math.min( minY[a], minY[b] );
+		minZ[node] = Math.min( minZ[a], minZ[b] );
+		maxX[node] = Math.max( maxX[a], maxX[b] );
+		maxY[node] = Math.max( maxY[a], maxY[b] );
+		maxZ[node] = Math.max( maxZ[a], maxZ[b] );
+	}
+
+	public boolean isEmpty() {
+		return !( minX[1] <= maxX[1] );
+	}
+
+	// Copies the bounds of all the boxes into the given box (which is
+	// cleared if there are no boxes), and returns it.
+	public AlignedBox3D getBounds( AlignedBox3D box ) {
+		if ( isEmpty() )
+			box.clear();
+		else
+			box.set( minX[1], minY[1], minZ[1], maxX[1], maxY[1], maxZ[1] );
+		return box;
+	}
+
+}
+
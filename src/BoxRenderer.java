@@ -0,0 +1,383 @@
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import javax.media.opengl.GL;
+import com.sun.opengl.util.BufferUtil;
+
+// Draws all the boxes of a BoxStore with a handful of OpenGL calls,
+// rather than with glBegin()/glVertex()/glEnd() per box.
+//
+// The 8 corners of every box, and their colors, are packed into
+// vertex arrays, which are copied into vertex buffer objects (VBOs)
+// when the OpenGL implementation supports them.  The faces and the
+// edges of the boxes are drawn from two index arrays, which only depend
+// on the number of boxes.  The box with index i in the store occupies
+// vertices [8i,8i+8), and removed boxes are collapsed to a point.
+//
+// When boxes change, only the range of boxes between the first and the
+// last changed box is refreshed and uploaded before the next draw.
+//
+// Boxes can also be drawn in a given order (e.g. from back to front, for
+// transparency), from a third index array that is refilled and uploaded
+// at every such draw.
+public class BoxRenderer {
+
+	private static final int VERTICES_PER_BOX = 8;
+	private static final int INDICES_PER_BOX = 24;
+
+	// The corners of the 6 faces of a box, as quads.
+	// The corner indices are interpreted as in AlignedBox3D.getCorner(),
+	// and the faces are counterclockwise when seen from outside, as in
+	// Scene.drawBox().
+	// Each face ends with a different corner, whose color is the color of
+	// the whole face with flat shading (GL_FLAT uses the last vertex of
+	// each quad), so that faces can be shaded differently (see
+	// AmbientOcclusion) although they share their corners.
+	private static final int [] FACE_CORNERS = {
+		0, 1, 5, 4,
+		6, 4, 5, 7,
+		6, 7, 3, 2,
+		1, 0, 2, 3,
+		3, 7, 5, 1,
+		4, 6, 2, 0
+	};
+
+	// For each corner, the face (numbered as in AmbientOcclusion)
+	// that takes its color, or -1 for none
+	private static final int [] FACE_OF_CORNER = { 0, 1, 3, 4, 2, -1, -1, 5 };
+
+	// The 12 edges of a box, as pairs of corners
+	private static final int [] EDGE_CORNERS = {
+		0, 1,  2, 3,  4, 5,  6, 7,
+		0, 2,  1, 3,  4, 6,  5, 7,
+		0, 4,  1, 5,  2, 6,  3, 7
+	};
+
+	// indices into bufferIds
+	private static final int VERTEX_BUFFER = 0, COLOR_BUFFER = 1, FACE_BUFFER = 2, EDGE_BUFFER = 3, ORDERED_BUFFER = 4;
+	private static final int NUMBER_OF_BUFFERS = 5;
+
+	private final BoxStore boxes;
+
+	// number of boxes that the arrays can hold
+	private int capacity = 0;
+
+	// copies of the data, in memory, from which the buffer objects are
+	// updated (or drawn from directly, if buffer objects are unavailable)
+	private FloatBuffer vertices;
+	private ByteBuffer colors; // RGBA, one byte per component
+	private IntBuffer faceIndices;
+	private IntBuffer edgeIndices;
+	private IntBuffer orderedIndices; // refilled by each call to drawInOrder()
+	private int [] stagingIndices = new int[ 256 * INDICES_PER_BOX ];
+
+	// Ranges of boxes [start,end) whose vertices or colors must be refreshed
+	private int dirtyVerticesStart = 0, dirtyVerticesEnd = 0;
+	private int dirtyColorsStart = 0, dirtyColorsEnd = 0;
+
+	// if not null, the shades by which the colors of the faces are multiplied
+	private AmbientOcclusion ambientOcclusion = null;
+	// whether the colors in the arrays are shaded: not while drawing
+	// wireframes, whose edges (with flat shading, the color of their last
+	// corner) would otherwise take the shades of arbitrary faces
+	private boolean areFacesShaded = false;
+
+	private boolean useBufferObjects = false;
+	// true once the buffer objects have been created and allocated
+	// with the current capacity
+	private boolean areBufferObjectsAllocated = false;
+	private int [] bufferIds = new int[ NUMBER_OF_BUFFERS ];
+
+	// statistics about the last call to draw()
+	private int numberOfBoxesUploaded = 0;
+	private int numberOfBoxesDrawn = 0;
+
+	public BoxRenderer( BoxStore boxes ) {
+		this.boxes = boxes;
+	}
+
+	// Must be called after the bounds of a box have changed,
+	// or after it has been added or removed.
+	public void boxChanged( int index ) {
+		if ( dirtyVerticesStart == dirtyVerticesEnd ) {
+			dirtyVerticesStart = index;
+			dirtyVerticesEnd = index + 1;
+		}
+		else {
+			dirtyVerticesStart = Math.min( dirtyVerticesStart, index );
+			dirtyVerticesEnd = Math.max( dirtyVerticesEnd, index + 1 );
+		}
+		colorChanged( index );
+	}
+
+	// Must be called after the color of a box has changed.
+	public void colorChanged( int index ) {
+		if ( dirtyColorsStart == dirtyColorsEnd ) {
+			dirtyColorsStart = index;
+			dirtyColorsEnd = index + 1;
+		}
+		else {
+			dirtyColorsStart = Math.min( dirtyColorsStart, index );
+			dirtyColorsEnd = Math.max( dirtyColorsEnd, index + 1 );
+		}
+	}
+
+	// Shades the faces of the boxes with the given ambient occlusion,
+	// or not at all if it is null.  colorChanged() must be called for the
+	// boxes whose shades change.
+	public void setAmbientOcclusion( AmbientOcclusion ao ) {
+		ambientOcclusion = ao;
+		dirtyColorsStart = 0;
+		dirtyColorsEnd = Math.max( 1, boxes.size() );
+	}
+
+	// Must be called when many boxes have changed
+	// (e.g. after compacting the store).
+	public void invalidate() {
+		dirtyVerticesStart = dirtyColorsStart = 0;
+		dirtyVerticesEnd = dirtyColorsEnd = Math.max( 1, boxes.size() );
+	}
+
+	// Must be called when the OpenGL context has been (re)created,
+	// since the buffer objects belonged to the old context.
+	public void contextCreated( GL gl ) {
+		useBufferObjects = gl.isFunctionAvailable( "glGenBuffers" )
+			&& gl.isFunctionAvailable( "glBindBuffer" )
+			&& gl.isFunctionAvailable( "glBufferData" );
+		areBufferObjectsAllocated = false;
+		invalidate();
+	}
+
+	public boolean isUsingBufferObjects() { return useBufferObjects; }
+	public int getNumberOfBoxesUploaded() { return numberOfBoxesUploaded; }
+	public int getNumberOfBoxesDrawn() { return numberOfBoxesDrawn; }
+
+	private void allocate( int newCapacity ) {
+		capacity = newCapacity;
+		vertices = BufferUtil.newFloatBuffer( capacity * VERTICES_PER_BOX * 3 );
+		colors = BufferUtil.newByteBuffer( capacity * VERTICES_PER_BOX * 4 );
+		faceIndices = BufferUtil.newIntBuffer( capacity * INDICES_PER_BOX );
+		edgeIndices = BufferUtil.newIntBuffer( capacity * INDICES_PER_BOX );
+		for ( int i = 0; i < capacity; ++i ) {
+			for ( int k = 0; k < INDICES_PER_BOX; ++k ) {
+				faceIndices.put( i*VERTICES_PER_BOX + FACE_CORNERS[k] );
+				edgeIndices.put( i*VERTICES_PER_BOX + EDGE_CORNERS[k] );
+			}
+		}
+		faceIndices.rewind();
+		edgeIndices.rewind();
+		orderedIndices = BufferUtil.newIntBuffer( capacity * INDICES_PER_BOX );
+		areBufferObjectsAllocated = false;
+		invalidate();
+	}
+
+	// Copies the corners of boxes [start,end) into the vertex array
+	private void fillVertices( int start, int end ) {
+		int position = start * VERTICES_PER_BOX * 3;
+		for ( int i = start; i < end; ++i ) {
+			if ( i >= boxes.size() || ! boxes.isAlive( i ) ) {
+				for ( int k = 0; k < VERTICES_PER_BOX * 3; ++k )
+					vertices.put( position++, 0 );
+				continue;
+			}
+			float x0 = boxes.minX[i], y0 = boxes.minY[i], z0 = boxes.minZ[i];
+			float x1 = boxes.maxX[i], y1 = boxes.maxY[i], z1 = boxes.maxZ[i];
+			for ( int corner = 0; corner < VERTICES_PER_BOX; ++corner ) {
+				vertices.put( position++, (corner & 1) != 0 ? x1 : x0 );
+				vertices.put( position++, (corner & 2) != 0 ? y1 : y0 );
+				vertices.put( position++, (corner & 4) != 0 ? z1 : z0 );
+			}
+		}
+	}
+
+	private void fillColors( int start, int end ) {
+		int position = start * VERTICES_PER_BOX * 4;
+		for ( int i = start; i < end; ++i ) {
+			int c = i < boxes.size() ? boxes.rgba[i] : 0;
+			byte r = (byte)( c >>> 24 ), g = (byte)( c >>> 16 ), b = (byte)( c >>> 8 ), a = (byte)c;
+			for ( int corner = 0; corner < VERTICES_PER_BOX; ++corner ) {
+				int face = FACE_OF_CORNER[ corner ];
+				if ( areFacesShaded && face >= 0 && i < boxes.size() ) {
+					int rgb = AmbientOcclusion.shadeColor( c >>> 8, ambientOcclusion.getShade( i, face ) );
+					colors.put( position++, (byte)( rgb >>> 16 ) );
+					colors.put( position++, (byte)( rgb >>> 8 ) );
+					colors.put( position++, (byte)rgb );
+					colors.put( position++, a );
+					continue;
+				}
+				colors.put( position++, r );
+				colors.put( position++, g );
+				colors.put( position++, b );
+				colors.put( position++, a );
+			}
+		}
+	}
+
+	// Brings the arrays (and buffer objects) up to date with the store,
+	// for drawing solid boxes or wireframes.
+	private void update( GL gl, boolean drawAsWireframe ) {
+		if ( boxes.size() > capacity )
+			allocate( Math.max( 1024, Math.max( boxes.size(), 2 * capacity ) ) );
+		boolean shadeFaces = ambientOcclusion != null && ! drawAsWireframe;
+		if ( shadeFaces != areFacesShaded ) {
+			areFacesShaded = shadeFaces;
+			dirtyColorsStart = 0;
+			dirtyColorsEnd = Math.max( 1, boxes.size() );
+		}
+
+		int vertexStart = dirtyVerticesStart, vertexEnd = Math.min( dirtyVerticesEnd, capacity );
+		int colorStart = dirtyColorsStart, colorEnd = Math.min( dirtyColorsEnd, capacity );
+		if ( vertexStart < vertexEnd )
+			fillVertices( vertexStart, vertexEnd );
+		if ( colorStart < colorEnd )
+			fillColors( colorStart, colorEnd );
+		dirtyVerticesStart = dirtyVerticesEnd = 0;
+		dirtyColorsStart = dirtyColorsEnd = 0;
+
+		numberOfBoxesUploaded = 0;
+		if ( ! useBufferObjects )
+			return;
+		if ( ! areBufferObjectsAllocated ) {
+			if ( bufferIds[0] == 0 )
+				gl.glGenBuffers( NUMBER_OF_BUFFERS, bufferIds, 0 );
+			gl.glBindBuffer( GL.GL_ARRAY_BUFFER, bufferIds[ VERTEX_BUFFER ] );
+			gl.glBufferData( GL.GL_ARRAY_BUFFER, vertices.capacity() * BufferUtil.SIZEOF_FLOAT, vertices, GL.GL_DYNAMIC_DRAW );
+			gl.glBindBuffer( GL.GL_ARRAY_BUFFER, bufferIds[ COLOR_BUFFER ] );
+			gl.glBufferData( GL.GL_ARRAY_BUFFER, colors.capacity(), colors, GL.GL_DYNAMIC_DRAW );
+			gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+			gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, bufferIds[ FACE_BUFFER ] );
+			gl.glBufferData( GL.GL_ELEMENT_ARRAY_BUFFER, faceIndices.capacity() * BufferUtil.SIZEOF_INT, faceIndices, GL.GL_STATIC_DRAW );
+			gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, bufferIds[ EDGE_BUFFER ] );
+			gl.glBufferData( GL.GL_ELEMENT_ARRAY_BUFFER, edgeIndices.capacity() * BufferUtil.SIZEOF_INT, edgeIndices, GL.GL_STATIC_DRAW );
+			gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, 0 );
+			areBufferObjectsAllocated = true;
+			numberOfBoxesUploaded = capacity;
+			return;
+		}
+		if ( vertexStart < vertexEnd ) {
+			int floatsPerBox = VERTICES_PER_BOX * 3;
+			gl.glBindBuffer( GL.GL_ARRAY_BUFFER, bufferIds[ VERTEX_BUFFER ] );
+			vertices.position( vertexStart * floatsPerBox );
+			gl.glBufferSubData(
+				GL.GL_ARRAY_BUFFER,
+				vertexStart * floatsPerBox * BufferUtil.SIZEOF_FLOAT,
+				( vertexEnd - vertexStart ) * floatsPerBox * BufferUtil.SIZEOF_FLOAT,
+				vertices
+			);
+			vertices.rewind();
+			numberOfBoxesUploaded = vertexEnd - vertexStart;
+		}
+		if ( colorStart < colorEnd ) {
+			int bytesPerBox = VERTICES_PER_BOX * 4;
+			gl.glBindBuffer( GL.GL_ARRAY_BUFFER, bufferIds[ COLOR_BUFFER ] );
+			colors.position( colorStart * bytesPerBox );
+			gl.glBufferSubData(
+				GL.GL_ARRAY_BUFFER,
+				colorStart * bytesPerBox,
+				( colorEnd - colorStart ) * bytesPerBox,
+				colors
+			);
+			colors.rewind();
+			numberOfBoxesUploaded = Math.max( numberOfBoxesUploaded, colorEnd - colorStart );
+		}
+		gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+	}
+
+	// Draws all the boxes, as solid boxes or as wireframes,
+	// with the current blending and depth state.
+	public void draw( GL gl, boolean drawAsWireframe ) {
+		update( gl, drawAsWireframe );
+		numberOfBoxesDrawn = boxes.getNumberOfBoxes();
+		int count = boxes.size() * INDICES_PER_BOX;
+		if ( count == 0 )
+			return;
+		drawElements(
+			gl, drawAsWireframe ? GL.GL_LINES : GL.GL_QUADS, count,
+			drawAsWireframe ? EDGE_BUFFER : FACE_BUFFER,
+			drawAsWireframe ? edgeIndices : faceIndices
+		);
+	}
+
+	// Draws the boxes order[0,n) (skipping removed boxes), in that order,
+	// as solid boxes or as wireframes.
+	public void drawInOrder( GL gl, boolean drawAsWireframe, int [] order, int n ) {
+		drawInOrder( gl, drawAsWireframe, order, 0, n );
+	}
+
+	// Draws the boxes order[start,end) (skipping removed boxes), in that order.
+	public void drawInOrder( GL gl, boolean drawAsWireframe, int [] order, int start, int end ) {
+		update( gl, drawAsWireframe );
+		if ( capacity == 0 ) {
+			numberOfBoxesDrawn = 0;
+			return;
+		}
+		int [] corners = drawAsWireframe ? EDGE_CORNERS : FACE_CORNERS;
+		orderedIndices.clear();
+		numberOfBoxesDrawn = 0;
+		// the indices are gathered in an array, and copied in bulk
+		// (which is much faster than putting them one by one)
+		int [] staging = stagingIndices;
+		int m = 0;
+		for ( int k = start; k < end; ++k ) {
+			int i = order[k];
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			if ( m == staging.length ) {
+				orderedIndices.put( staging, 0, m );
+				m = 0;
+			}
+			int firstVertex = i * VERTICES_PER_BOX;
+			for ( int c = 0; c < INDICES_PER_BOX; ++c )
+				staging[ m++ ] = firstVertex + corners[c];
+			++numberOfBoxesDrawn;
+		}
+		orderedIndices.put( staging, 0, m );
+		orderedIndices.flip();
+		int count = orderedIndices.limit();
+		if ( count == 0 )
+			return;
+		if ( useBufferObjects ) {
+			gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, bufferIds[ ORDERED_BUFFER ] );
+			gl.glBufferData( GL.GL_ELEMENT_ARRAY_BUFFER, count * BufferUtil.SIZEOF_INT, orderedIndices, GL.GL_STREAM_DRAW );
+			gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, 0 );
+		}
+		drawElements( gl, drawAsWireframe ? GL.GL_LINES : GL.GL_QUADS, count, ORDERED_BUFFER, orderedIndices );
+	}
+
+	// Draws count indices from the given index buffer object,
+	// or from the given array if buffer objects are not used.
+	private void drawElements( GL gl, int mode, int count, int indexBuffer, IntBuffer indices ) {
+		gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
+		gl.glEnableClientState( GL.GL_COLOR_ARRAY );
+		if ( useBufferObjects ) {
+			gl.glBindBuffer( GL.GL_ARRAY_BUFFER, bufferIds[ VERTEX_BUFFER ] );
+			gl.glVertexPointer( 3, GL.GL_FLOAT, 0, 0L );
+			gl.glBindBuffer( GL.GL_ARRAY_BUFFER, bufferIds[ COLOR_BUFFER ] );
+			gl.glColorPointer( 4, GL.GL_UNSIGNED_BYTE, 0, 0L );
+			gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+			gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, bufferIds[ indexBuffer ] );
+			gl.glDrawElements( mode, count, GL.GL_UNSIGNED_INT, 0L );
+			gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, 0 );
+		}
+		else {
+			gl.glVertexPointer( 3, GL.GL_FLOAT, 0, vertices );
+			gl.glColorPointer( 4, GL.GL_UNSIGNED_BYTE, 0, colors );
+			gl.glDrawElements( mode, count, GL.GL_UNSIGNED_INT, indices );
+		}
+		gl.glDisableClientState( GL.GL_COLOR_ARRAY );
+		gl.glDisableClientState( GL.GL_VERTEX_ARRAY );
+	}
+
+	// Frees the buffer objects; the renderer can still be used afterward.
+	public void dispose( GL gl ) {
+		if ( bufferIds[0] != 0 ) {
+			gl.glDeleteBuffers( NUMBER_OF_BUFFERS, bufferIds, 0 );
+			bufferIds = new int[ NUMBER_OF_BUFFERS ];
+		}
+		areBufferObjectsAllocated = false;
+		invalidate();
+	}
+
+}
+
@@ -0,0 +1,409 @@
+
+import java.util.Arrays;
+
+// This class stores a list of colored, axis-aligned boxes.
+// Rather than allocating one object per box (plus an AlignedBox3D,
+// two Point3D and their float arrays), the boxes are stored as
+// parallel arrays of primitives, one array per attribute
+// (a "structure of arrays").
+//
+// Clients identify a box by a "handle", which remains valid until the
+// box is removed, regardless of other boxes being added or removed.
+// Internally, each handle refers to a slot, which maps to the box's
+// current position (its "index") in the parallel arrays.
+// Each slot also has a generation number, which is incremented
+// when the slot's box is removed, and which is encoded in the handle;
+// hence a stale handle (to a removed box) can be detected,
+// even if its slot has since been reused.
+//
+// Removing a box takes constant time: its entry in the arrays is simply
+// marked as dead (leaving a "tombstone").  Dead entries are squeezed
+// out by compact(), which changes the indices (but not the handles)
+// of the remaining boxes.
+//
+// The arrays are public so that clients that loop over many boxes
+// (e.g. for drawing or picking) can read them directly; such clients
+// must skip the entries for which isAlive() returns false.
+// Note that the arrays are reallocated when the store grows,
+// so clients should not hold on to them across calls to add().
+public class BoxStore {
+
+	public static final int NO_BOX = -1;
+
+	// A handle packs a slot number in its low bits, and the slot's
+	// generation in the bits above.  Generations are in [1,MAX_GENERATION],
+	// so that handles are always positive; a slot is reused at most
+	// MAX_GENERATION times (see freeSlot()).
+	private static final int SLOT_BITS = 24;
+	private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+	private static final int MAX_GENERATION = 127;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// number of entries in the arrays, including dead ones
+	private int size = 0;
+	private int numberOfDeadEntries = 0;
+
+	// Incremented by every change to the store,
+	// so that clients can detect changes.
+	private int modificationCount = 0;
+
+	// the two diagonally opposite corners of each box
+	public float [] minX = new float[ INITIAL_CAPACITY ];
+	public float [] minY = new float[ INITIAL_CAPACITY ];
+	public float [] minZ = new float[ INITIAL_CAPACITY ];
+	public float [] maxX = new float[ INITIAL_CAPACITY ];
+	public float [] maxY = new float[ INITIAL_CAPACITY ];
+	public float [] maxZ = new float[ INITIAL_CAPACITY ];
+
+	// The color and alpha of each box, packed as 0xRRGGBBAA
+	public int [] rgba = new int[ INITIAL_CAPACITY ];
+
+	// the slot of each entry
+	private int [] slotOfIndex = new int[ INITIAL_CAPACITY ];
+
+	// One bit per entry, cleared for dead entries
+	private long [] aliveBits = new long[ 1 ];
+
+	// For each slot, the index of its entry (or -1 if the slot is free),
+	// and its current generation.
+	private int [] indexOfSlot = new int[ INITIAL_CAPACITY ];
+	private int [] generationOfSlot = new int[ INITIAL_CAPACITY ];
+	private int numberOfSlots = 0;
+
+	// a stack of free slots
+	private int [] freeSlots = new int[ INITIAL_CAPACITY ];
+	private int numberOfFreeSlots = 0;
+
+	public BoxStore() {
+	}
+
+	// Returns the number of entries in the arrays, including dead ones.
+	// Loops over the boxes should run from 0 to size()-1, skipping dead entries.
+	public int size() { return size; }
+
+	// Returns the number of (live) boxes.
+	public int getNumberOfBoxes() { return size - numberOfDeadEntries; }
+
+	public int getNumberOfDeadEntries() { return numberOfDeadEntries; }
+
+	public int capacity() { return minX.length; }
+
+	public int getModificationCount() { return modificationCount; }
+
+	private void ensureCapacity( int minCapacity ) {
+		if ( minCapacity <= minX.length )
+			return;
+		int newCapacity = Math.max( minCapacity, minX.length + (minX.length >> 1) );
+		minX = Arrays.copyOf( minX, newCapacity );
+		minY = Arrays.copyOf( minY, newCapacity );
+		minZ = Arrays.copyOf( minZ, newCapacity );
+		maxX = Arrays.copyOf( maxX, newCapacity );
+		maxY = Arrays.copyOf( maxY, newCapacity );
+		maxZ = Arrays.copyOf( maxZ, newCapacity );
+		rgba = Arrays.copyOf( rgba, newCapacity );
+		slotOfIndex = Arrays.copyOf( slotOfIndex, newCapacity );
+		aliveBits = Arrays.copyOf( aliveBits, (newCapacity + 63) >> 6 );
+	}
+
+	private int allocateSlot() {
+		if ( numberOfFreeSlots > 0 )
+			return freeSlots[ --numberOfFreeSlots ];
+		if ( numberOfSlots == indexOfSlot.length ) {
+			int newCapacity = 2 * indexOfSlot.length;
+			indexOfSlot = Arrays.copyOf( indexOfSlot, newCapacity );
+			generationOfSlot = Arrays.copyOf( generationOfSlot, newCapacity );
+		}
+		if ( numberOfSlots > SLOT_MASK )
+			throw new IllegalStateException( "too many boxes (at most " + ( SLOT_MASK + 1 ) + " slots)" );
+		generationOfSlot[ numberOfSlots ] = 1;
+		return numberOfSlots++;
+	}
+
+	// A slot whose generation has reached MAX_GENERATION is retired rather
+	// than freed: wrapping around to generation 1 would make the handles
+	// of its first box valid again.  (Its generation stays the same, but
+	// since it maps to no entry, indexOf() rejects the handles to it.)
+	private void freeSlot( int slot ) {
+		indexOfSlot[ slot ] = -1;
+		if ( generationOfSlot[ slot ] == MAX_GENERATION )
+			return;
+		++generationOfSlot[ slot ];
+		if ( numberOfFreeSlots == freeSlots.length )
+			freeSlots = Arrays.copyOf( freeSlots, 2 * freeSlots.length );
+		freeSlots[ numberOfFreeSlots++ ] = slot;
+	}
+
+	// Appends a box, and returns its handle.
+	// The box's index is size()-1.
+	public int add(
+		float x0, float y0, float z0,
+		float x1, float y1, float z1,
+		int color
+	) {
+		assert x0 <= x1 && y0 <= y1 && z0 <= z1 : "bounds error";
+		// (first, since it may throw)
+		int slot = allocateSlot();
+		ensureCapacity( size + 1 );
+		int i = size++;
+		minX[i] = x0; minY[i] = y0; minZ[i] = z0;
+		maxX[i] = x1; maxY[i] = y1; maxZ[i] = z1;
+		rgba[i] = color;
+		aliveBits[ i >> 6 ] |= 1L << i;
+
+		indexOfSlot[ slot ] = i;
+		slotOfIndex[ i ] = slot;
+		++modificationCount;
+		return ( generationOfSlot[ slot ] << SLOT_BITS ) | slot;
+	}
+
+	// Returns the index of the box with the given handle,
+	// or -1 if the handle is NO_BOX or stale.
+	public int indexOf( int handle ) {
+		if ( handle < 0 )
+			return -1;
+		int slot = handle & SLOT_MASK;
+		if ( slot >= numberOfSlots || generationOfSlot[ slot ] != ( handle >>> SLOT_BITS ) )
+			return -1;
+		return indexOfSlot[ slot ];
+	}
+
+	public boolean isValid( int handle ) { return indexOf( handle ) >= 0; }
+
+	// Returns the handle of the (live) box at the given index.
+	public int handleAt( int index ) {
+		int slot = slotOfIndex[ index ];
+		return ( generationOfSlot[ slot ] << SLOT_BITS ) | slot;
+	}
+
+	// Slot numbers are small integers, which remain the same for the
+	// lifetime of a box (unlike its index), but which are reused once
+	// the box is removed.  They are meant for indexing per-box data
+	// stored outside of the store (e.g. a SelectionSet).
+	public int slotAt( int index ) { return slotOfIndex[ index ]; }
+
+	// Returns the slot of the box with the given handle, or -1 if the handle is stale.
+	public int slotOf( int handle ) {
+		return indexOf( handle ) >= 0 ? handle & SLOT_MASK : -1;
+	}
+
+	// Returns the handle of the box in the given (used) slot.
+	public int handleOfSlot( int slot ) {
+		return ( generationOfSlot[ slot ] << SLOT_BITS ) | slot;
+	}
+
+	public int indexOfSlot( int slot ) { return indexOfSlot[ slot ]; }
+
+	public boolean isAlive( int index ) {
+		return ( aliveBits[ index >> 6 ] & ( 1L << index ) ) != 0;
+	}
+
+	// Removes the box at the given index, in constant time.
+	// The entry stays in the arrays, marked as dead, until compact() is called.
+	public void remove( int index ) {
+		assert 0 <= index && index < size && isAlive( index );
+		aliveBits[ index >> 6 ] &= ~( 1L << index );
+		freeSlot( slotOfIndex[ index ] );
+		++numberOfDeadEntries;
+		++modificationCount;
+	}
+
+	public void clear() {
+		for ( int i = 0; i < size; ++i )
+			if ( isAlive( i ) )
+				freeSlot( slotOfIndex[ i ] );
+		size = 0;
+		numberOfDeadEntries = 0;
+		Arrays.fill( aliveBits, 0L );
+		++modificationCount;
+	}
+
+	// Removes the dead entries from the arrays, preserving the order of
+	// the remaining boxes (whose handles remain valid).
+	// Returns an array mapping each old index to the corresponding new
+	// index, or to -1 for dead entries; or returns null if there were
+	// no dead entries.
+	public int [] compact() {
+		if ( numberOfDeadEntries == 0 )
+			return null;
+		int [] newIndexOfOldIndex = new int[ size ];
+		int j = 0;
+		for ( int i = 0; i < size; ++i ) {
+			if ( ! isAlive( i ) ) {
+				newIndexOfOldIndex[i] = -1;
+				continue;
+			}
+			newIndexOfOldIndex[i] = j;
+			if ( i != j ) {
+				minX[j] = minX[i]; minY[j] = minY[i]; minZ[j] = minZ[i];
+				maxX[j] = maxX[i]; maxY[j] = maxY[i]; maxZ[j] = maxZ[i];
+				rgba[j] = rgba[i];
+				slotOfIndex[j] = slotOfIndex[i];
+				indexOfSlot[ slotOfIndex[j] ] = j;
+			}
+			++j;
+		}
+		Arrays.fill( aliveBits, 0L );
+		for ( int i = 0; i < j; ++i )
+			aliveBits[ i >> 6 ] |= 1L << i;
+		size = j;
+		numberOfDeadEntries = 0;
+		++modificationCount;
+		return newIndexOfOldIndex;
+	}
+
+	// Compaction can also be done out of place, in three steps, so that
+	// the copying can be done by a background thread:
+	// prepareCompaction() and applyCompaction() must be called by the
+	// thread that owns the store, and run() may be called by any thread
+	// in between.  If the store was modified in the meantime,
+	// applyCompaction() has no effect, and returns null.
+	public class Compaction implements Runnable {
+		private final int expectedModificationCount = modificationCount;
+		private final int oldSize = size;
+		private final int newSize = size - numberOfDeadEntries;
+		private final float [] oldMinX = minX, oldMinY = minY, oldMinZ = minZ;
+		private final float [] oldMaxX = maxX, oldMaxY = maxY, oldMaxZ = maxZ;
+		private final int [] oldRgba = rgba;
+		private final int [] oldSlotOfIndex = slotOfIndex;
+		private final long [] oldAliveBits = aliveBits;
+
+		private float [] newMinX, newMinY, newMinZ, newMaxX, newMaxY, newMaxZ;
+		private int [] newRgba, newSlotOfIndex;
+		private long [] newAliveBits;
+		private int [] newIndexOfOldIndex;
+		private boolean isDone = false;
+
+		public void run() {
+			int capacity = Math.max( INITIAL_CAPACITY, newSize + (newSize >> 1) );
+			newMinX = new float[ capacity ]; newMinY = new float[ capacity ]; newMinZ = new float[ capacity ];
+			newMaxX = new float[ capacity ]; newMaxY = new float[ capacity ]; newMaxZ = new float[ capacity ];
+			newRgba = new int[ capacity ];
+			newSlotOfIndex = new int[ capacity ];
+			newAliveBits = new long[ (capacity + 63) >> 6 ];
+			newIndexOfOldIndex = new int[ oldSize ];
+			int j = 0;
+			for ( int i = 0; i < oldSize; ++i ) {
+				if ( ( oldAliveBits[ i >> 6 ] & ( 1L << i ) ) == 0 ) {
+					newIndexOfOldIndex[i] = -1;
+					continue;
+				}
+				newIndexOfOldIndex[i] = j;
+				newMinX[j] = oldMinX[i]; newMinY[j] = oldMinY[i]; newMinZ[j] = oldMinZ[i];
+				newMaxX[j] = oldMaxX[i]; newMaxY[j] = oldMaxY[i]; newMaxZ[j] = oldMaxZ[i];
+				newRgba[j] = oldRgba[i];
+				newSlotOfIndex[j] = oldSlotOfIndex[i];
+				newAliveBits[ j >> 6 ] |= 1L << j;
+				++j;
+			}
+			isDone = true;
+		}
+	}
+
+	// Returns a copy of the store, in which every entry (live or dead)
+	// has the same index and handle, e.g. for a background thread to read
+	// while this store is modified.
+	public BoxStore copy() {
+		BoxStore s = new BoxStore();
+		s.size = size;
+		s.numberOfDeadEntries = numberOfDeadEntries;
+		s.modificationCount = modificationCount;
+		s.minX = minX.clone(); s.minY = minY.clone(); s.minZ = minZ.clone();
+		s.maxX = maxX.clone(); s.maxY = maxY.clone(); s.maxZ = maxZ.clone();
+		s.rgba = rgba.clone();
+		s.slotOfIndex = slotOfIndex.clone();
+		s.aliveBits = aliveBits.clone();
+		s.indexOfSlot = indexOfSlot.clone();
+		s.generationOfSlot = generationOfSlot.clone();
+		s.numberOfSlots = numberOfSlots;
+		s.freeSlots = freeSlots.clone();
+		s.numberOfFreeSlots = numberOfFreeSlots;
+		return s;
+	}
+
+	public Compaction prepareCompaction() {
+		return new Compaction();
+	}
+
+	// Returns the same kind of array as compact(), or null if
+	// the compaction is out of date.
+	public int [] applyCompaction( Compaction c ) {
+		if ( ! c.isDone || c.expectedModificationCount != modificationCount )
+			return null;
+		minX = c.newMinX; minY = c.newMinY; minZ = c.newMinZ;
+		maxX = c.newMaxX; maxY = c.newMaxY; maxZ = c.newMaxZ;
+		rgba = c.newRgba;
+		slotOfIndex = c.newSlotOfIndex;
+		aliveBits = c.newAliveBits;
+		size = c.newSize;
+		numberOfDeadEntries = 0;
+		for ( int j = 0; j < size; ++j )
+			indexOfSlot[ slotOfIndex[j] ] = j;
+		++modificationCount;
+		return c.newIndexOfOldIndex;
+	}
+
+	public void setBounds(
+		int index,
+		float x0, float y0, float z0,
+		float x1, float y1, float z1
+	) {
+		assert x0 <= x1 && y0 <= y1 && z0 <= z1 : "bounds error";
+		minX[index] = x0; minY[index] = y0; minZ[index] = z0;
+		maxX[index] = x1; maxY[index] = y1; maxZ[index] = z1;
+		++modificationCount;
+	}
+
+	public void translate( int index, float dx, float dy, float dz ) {
+		minX[index] += dx; minY[index] += dy; minZ[index] += dz;
+		maxX[index] += dx; maxY[index] += dy; maxZ[index] += dz;
+		++modificationCount;
+	}
+
+	// Copies the bounds of the given box into the given (caller-allocated) box,
+	// and returns it.
+	public AlignedBox3D getBox( int index, AlignedBox3D box ) {
+		box.set(
+			minX[index], minY[index], minZ[index],
+			maxX[index], maxY[index], maxZ[index]
+		);
+		return box;
+	}
+
+	// Returns the given coordinate of the given corner of a box.
+	// The corner index is interpreted as in AlignedBox3D.getCorner().
+	public float getCornerX( int index, int corner ) { return (corner & 1) != 0 ? maxX[index] : minX[index]; }
+	public float getCornerY( int index, int corner ) { return (corner & 2) != 0 ? maxY[index] : minY[index]; }
+	public float getCornerZ( int index, int corner ) { return (corner & 4) != 0 ? maxZ[index] : minZ[index]; }
+
+	// Color components, each in [0,1], are quantized to 8 bits.
+	public static int packColor( float r, float g, float b, float a ) {
+		return ( quantize( r ) << 24 ) | ( quantize( g ) << 16 ) | ( quantize( b ) << 8 ) | quantize( a );
+	}
+	private static int quantize( float x ) {
+		if ( x <= 0 ) return 0;
+		if ( x >= 1 ) return 255;
+		return Math.round( x * 255 );
+	}
+
+	public static float unpackRed( int color )   { return ( (color >>> 24)        ) / 255.0f; }
+	public static float unpackGreen( int color ) { return ( (color >>> 16) & 0xFF ) / 255.0f; }
+	public static float unpackBlue( int color )  { return ( (color >>>  8) & 0xFF ) / 255.0f; }
+	public static float unpackAlpha( int color ) { return ( (color       ) & 0xFF ) / 255.0f; }
+
+	public float getRed( int index )   { return unpackRed( rgba[index] ); }
+	public float getGreen( int index ) { return unpackGreen( rgba[index] ); }
+	public float getBlue( int index )  { return unpackBlue( rgba[index] ); }
+	public float getAlpha( int index ) { return unpackAlpha( rgba[index] ); }
+
+	public void setColor( int index, float r, float g, float b ) {
+		rgba[index] = ( packColor( r, g, b, 0 ) & 0xFFFFFF00 ) | ( rgba[index] & 0xFF );
+		++modificationCount;
+	}
+	public void setAlpha( int index, float a ) {
+		rgba[index] = ( rgba[index] & 0xFFFFFF00 ) | quantize( a );
+		++modificationCount;
+	}
+
+}
+
@@ -67,7 +67,9 @@ public class Camera3D {
 		sceneRadius = radius;
 	}
 
-	public void transform( GL gl ) {
+	// Computes the extents of the view frustum on the near plane,
+	// as passed to glFrustum(): left, right, bottom, top.
+	private void computeFrustum( float [] extents ) {
 		float tangent = (float)Math.tan( fieldOfViewInDegrees/2 / 180 * (float)Math.PI );
 		float viewportRadius = nearPlane * tangent;
 		float viewportWidth, viewportHeight;
@@ -80,9 +82,18 @@ public class Camera3D {
 			viewportWidth = viewportHeight
 				* viewportWidthInPixels / (float)viewportHeightInPixels;
 		}
+		extents[0] = - 0.5f * viewportWidth;
+		extents[1] = 0.5f * viewportWidth;
+		extents[2] = - 0.5f * viewportHeight;
+		extents[3] = 0.5f * viewportHeight;
+	}
+
+	public void transform( GL gl ) {
+		float [] f = new float[ 4 ];
+		computeFrustum( f );
 		gl.glFrustum(
-			- 0.5f * viewportWidth,  0.5f * viewportWidth,    // left, right
-			- 0.5f * viewportHeight, 0.5f * viewportHeight,   // bottom, top
+			f[0], f[1],   // left, right
+			f[2], f[3],   // bottom, top
 			nearPlane, farPlane
 		);
 
@@ -94,9 +105,30 @@ public class Camera3D {
 		//	farPlane
 		//);
 
+		gl.glMultMatrixf( computeViewMatrix().m, 0 );
+	}
+
+	// Returns the matrix that transform() sets up with glFrustum(),
+	// which maps camera space to clip space.
+	public Matrix4x4 computeProjectionMatrix() {
+		float [] f = new float[ 4 ];
+		computeFrustum( f );
+		float l = f[0], r = f[1], b = f[2], t = f[3];
+		float n = nearPlane, fa = farPlane;
+		Matrix4x4 M = new Matrix4x4();
+		M.m[ 0] = 2*n/(r-l); M.m[ 4] = 0;         M.m[ 8] = (r+l)/(r-l);    M.m[12] = 0;
+		M.m[ 1] = 0;         M.m[ 5] = 2*n/(t-b); M.m[ 9] = (t+b)/(t-b);    M.m[13] = 0;
+		M.m[ 2] = 0;         M.m[ 6] = 0;         M.m[10] = -(fa+n)/(fa-n); M.m[14] = -2*fa*n/(fa-n);
+		M.m[ 3] = 0;         M.m[ 7] = 0;         M.m[11] = -1;             M.m[15] = 0;
+		return M;
+	}
+
+	// Returns the matrix that transform() multiplies by after glFrustum(),
+	// which maps world space to camera space.
+	public Matrix4x4 computeViewMatrix() {
 		Matrix4x4 M = new Matrix4x4();
 		M.setToLookAt(position, target, up, false);
-		gl.glMultMatrixf(M.m, 0);
+		return M;
 	}
 
 	// Causes the camera to "orbit" around the target point.
@@ -243,7 +275,7 @@ public class Camera3D {
 
 		return pixelLength
 			// The below is world space units per pixel
-			* z * tangent / (float)viewportRadiusInPixels;
+			* z * tangent / viewportRadiusInPixels;
 
 	}
 
@@ -282,16 +314,51 @@ public class Camera3D {
 		float viewportCenterX = (viewportWidthInPixels-1)*0.5f;
 		float viewportCenterY = (viewportHeightInPixels-1)*0.5f;
 
-		// The +0.5f here is for rounding.
-		pixel_coordinates[0] = (int)(
-			k*viewportRadiusInPixels*x/viewportRadius + viewportCenterX + 0.5f
+		// Math.round() rather than a cast, which would
+		// truncate negative coordinates toward zero.
+		pixel_coordinates[0] = Math.round(
+			k*viewportRadiusInPixels*x/viewportRadius + viewportCenterX
 		);
-		pixel_coordinates[1] = (int)(
-			viewportCenterY - k*viewportRadiusInPixels*y/viewportRadius + 0.5f
+		pixel_coordinates[1] = Math.round(
+			viewportCenterY - k*viewportRadiusInPixels*y/viewportRadius
 		);
 		return z;
 	}
 
+	// Computes the pixels covering n points, as computePixel() would,
+	// but with the camera's basis computed once for all of them.
+	// The points are given as (x,y,z) triples; the pixels are returned as
+	// (x,y) pairs, and the z-distances (in camera space) in depths.
+	public void computePixels(
+		float [] points, int n, // input
+		int [] pixel_coordinates, // output; caller must pass in a 2n-element array
+		float [] depths // output; caller must pass in an n-element array
+	) {
+		Vector3D direction = (Point3D.diff(target, position)).normalized();
+		Vector3D right = Vector3D.cross(direction, up);
+		float rx = right.x(), ry = right.y(), rz = right.z();
+		float ux = up.x(), uy = up.y(), uz = up.z();
+		float dx = direction.x(), dy = direction.y(), dz = direction.z();
+		float px = position.x(), py = position.y(), pz = position.z();
+
+		float tangent = (float)Math.tan( fieldOfViewInDegrees/2 / 180 * (float)Math.PI );
+		float viewportRadius = nearPlane * tangent;
+		float viewportCenterX = (viewportWidthInPixels-1)*0.5f;
+		float viewportCenterY = (viewportHeightInPixels-1)*0.5f;
+		float scale = nearPlane * viewportRadiusInPixels / viewportRadius;
+
+		for ( int i = 0; i < n; ++i ) {
+			float vx = points[3*i] - px, vy = points[3*i+1] - py, vz = points[3*i+2] - pz;
+			float x = vx*rx + vy*ry + vz*rz;
+			float y = vx*ux + vy*uy + vz*uz;
+			float z = vx*dx + vy*dy + vz*dz;
+			float k = scale / z;
+			pixel_coordinates[2*i] = Math.round( k*x + viewportCenterX );
+			pixel_coordinates[2*i+1] = Math.round( viewportCenterY - k*y );
+			depths[i] = z;
+		}
+	}
+
 }
 
 
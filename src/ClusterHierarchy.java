@@ -0,0 +1,340 @@
+import java.util.Arrays;
+
+// A hierarchy of clusters of nearby boxes, used to draw distant parts
+// of the scene with fewer boxes (level of detail).
+//
+// Each cluster (node of the tree) has a proxy: the bounds of its boxes,
+// and their average color.  Every frame, select() walks down the tree,
+// culling clusters outside the view frustum, and stops at clusters
+// whose projection is smaller than a given number of pixels, which are
+// then drawn as a single box (their proxy) rather than as all of their boxes.
+// So, once the scene is zoomed out, the number of boxes drawn depends
+// on the size of the viewport rather than on the size of the scene.
+//
+// The tree is built by splitting the boxes at the median of their
+// centers along the longest axis, down to leaves of a few boxes.
+// When boxes are edited, the proxies of the affected leaf and its
+// ancestors are recomputed, without changing the tree's topology;
+// boxes appended after the last build are selected individually until
+// there are enough of them to justify a rebuild.
+public class ClusterHierarchy {
+
+	private static final int MAX_ITEMS_PER_LEAF = 8;
+
+	// Minimum number of boxes appended to the store before the tree is rebuilt
+	private static final int MIN_PENDING_ITEMS_BEFORE_REBUILD = 64;
+
+	private final BoxStore boxes;
+
+	private boolean isDirty = true;
+
+	// Boxes with indices in [0,numberOfIndexedItems) are in the tree.
+	private int numberOfIndexedItems = 0;
+
+	// Clusters whose projection is smaller than this, in pixels, are drawn as their proxy
+	// (A cluster of 8 boxes spans about 3 boxes, so its boxes are then a few pixels each.)
+	private float pixelThreshold = 16;
+
+	// The nodes, stored as parallel arrays; node 0 is the root.
+	// An interior node has two children, in nodeLeft and nodeLeft+1;
+	// a leaf has nodeLeft == -1, and contains the items
+	// items[nodeFirst],...,items[nodeFirst+nodeCount-1].
+	// The bounds, color sums and nodeLiveCount only account for live boxes.
+	private int numberOfNodes = 0;
+	private float [] nodeMinX = new float[0], nodeMinY = new float[0], nodeMinZ = new float[0];
+	private float [] nodeMaxX = new float[0], nodeMaxY = new float[0], nodeMaxZ = new float[0];
+	private float [] nodeSumRed = new float[0], nodeSumGreen = new float[0], nodeSumBlue = new float[0], nodeSumAlpha = new float[0];
+	private int [] nodeLiveCount = new int[0];
+	private int [] nodeLeft = new int[0];
+	private int [] nodeParent = new int[0];
+	private int [] nodeFirst = new int[0];
+	private int [] nodeCount = new int[0];
+
+	// indices of boxes, ordered so that each leaf's items are contiguous
+	private int [] items = new int[0];
+	// maps a box index to the leaf containing it
+	private int [] leafOfItem = new int[0];
+
+	// centers of the boxes along one axis, only used during a build
+	private float [] keys = new float[0];
+
+	// Results of the last call to select()
+	private int [] selectedBoxes = new int[0];
+	private int numberOfSelectedBoxes = 0;
+	private int [] selectedClusters = new int[0];
+	private int numberOfSelectedClusters = 0;
+	private int numberOfBoxesInSelectedClusters = 0;
+	private int numberOfCulledItems = 0;
+
+	private int [] stack = new int[ 64 ];
+
+	public ClusterHierarchy( BoxStore boxes ) {
+		this.boxes = boxes;
+	}
+
+	public void setPixelThreshold( float pixels ) { pixelThreshold = pixels; }
+	public float getPixelThreshold() { return pixelThreshold; }
+
+	public int getNumberOfNodes() { return numberOfNodes; }
+
+	// Forces a rebuild at the next selection.
+	public void invalidate() {
+		isDirty = true;
+	}
+
+	// Must be called after a box has been added, removed, moved or resized,
+	// or after its color has changed.
+	public void boxChanged( int index ) {
+		if ( isDirty )
+			return;
+		if ( index >= numberOfIndexedItems ) {
+			if ( boxes.size() - numberOfIndexedItems > Math.max( MIN_PENDING_ITEMS_BEFORE_REBUILD, numberOfIndexedItems / 8 ) )
+				isDirty = true;
+			return;
+		}
+		int node = leafOfItem[ index ];
+		computeLeaf( node );
+		for ( node = nodeParent[node]; node >= 0; node = nodeParent[node] )
+			computeInteriorNode( node );
+	}
+
+	private void computeLeaf( int node ) {
+		float x0 = Float.POSITIVE_INFINITY, y0 = Float.POSITIVE_INFINITY, z0 = Float.POSITIVE_INFINITY;
+		float x1 = Float.NEGATIVE_INFINITY, y1 = Float.NEGATIVE_INFINITY, z1 = Float.NEGATIVE_INFINITY;
+		float r = 0, g = 0, b = 0, a = 0;
+		int liveCount = 0;
+		int end = nodeFirst[node] + nodeCount[node];
+		for ( int k = nodeFirst[node]; k < end; ++k ) {
+			int i = items[k];
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			++liveCount;
+			x0 = Math.min( x0, boxes.minX[i] ); y0 = Math.min( y0, boxes.minY[i] ); z0 = Math.min( z0, boxes.minZ[i] );
+			x1 = Math.max( x1, boxes.maxX[i] ); y1 = Math.max( y1, boxes.maxY[i] ); z1 = Math.max( z1, boxes.maxZ[i] );
+			int c = boxes.rgba[i];
+			r += BoxStore.unpackRed( c ); g += BoxStore.unpackGreen( c );
+			b += BoxStore.unpackBlue( c ); a += BoxStore.unpackAlpha( c );
+		}
+		nodeMinX[node] = x0; nodeMinY[node] = y0; nodeMinZ[node] = z0;
+		nodeMaxX[node] = x1; nodeMaxY[node] = y1; nodeMaxZ[node] = z1;
+		nodeSumRed[node] = r; nodeSumGreen[node] = g; nodeSumBlue[node] = b; nodeSumAlpha[node] = a;
+		nodeLiveCount[node] = liveCount;
+	}
+
+	private void computeInteriorNode( int node ) {
+		int a = nodeLeft[node], b = a + 1;
+		nodeMinX[node] = Math.min( nodeMinX[a], nodeMinX[b] );
+		nodeMinY[node] = Math.min( nodeMinY[a], nodeMinY[b] );
+		nodeMinZ[node] = Math.min( nodeMinZ[a], nodeMinZ[b] );
+		nodeMaxX[node] = Math.max( nodeMaxX[a], nodeMaxX[b] );
+		nodeMaxY[node] = Math.max( nodeMaxY[a], nodeMaxY[b] );
+		nodeMaxZ[node] = Math.max( nodeMaxZ[a], nodeMaxZ[b] );
+		nodeSumRed[node] = nodeSumRed[a] + nodeSumRed[b];
+		nodeSumGreen[node] = nodeSumGreen[a] + nodeSumGreen[b];
+		nodeSumBlue[node] = nodeSumBlue[a] + nodeSumBlue[b];
+		nodeSumAlpha[node] = nodeSumAlpha[a] + nodeSumAlpha[b];
+		nodeLiveCount[node] = nodeLiveCount[a] + nodeLiveCount[b];
+	}
+
+	public void build() {
+		isDirty = false;
+		int n = boxes.getNumberOfBoxes();
+		// Only nodes with more than MAX_ITEMS_PER_LEAF items are split in two halves,
+		// so leaves have at least MAX_ITEMS_PER_LEAF/2 items (except for a lone root).
+		int maxNodes = 2 * ( n / ( MAX_ITEMS_PER_LEAF / 2 ) + 1 );
+		if ( nodeLeft.length < maxNodes ) {
+			nodeMinX = new float[ maxNodes ]; nodeMinY = new float[ maxNodes ]; nodeMinZ = new float[ maxNodes ];
+			nodeMaxX = new float[ maxNodes ]; nodeMaxY = new float[ maxNodes ]; nodeMaxZ = new float[ maxNodes ];
+			nodeSumRed = new float[ maxNodes ]; nodeSumGreen = new float[ maxNodes ];
+			nodeSumBlue = new float[ maxNodes ]; nodeSumAlpha = new float[ maxNodes ];
+			nodeLiveCount = new int[ maxNodes ];
+			nodeLeft = new int[ maxNodes ];
+			nodeParent = new int[ maxNodes ];
+			nodeFirst = new int[ maxNodes ];
+			nodeCount = new int[ maxNodes ];
+		}
+		if ( items.length < n ) {
+			items = new int[ n ];
+			keys = new float[ n ];
+		}
+		if ( leafOfItem.length < boxes.size() )
+			leafOfItem = new int[ boxes.capacity() ];
+		int k = 0;
+		for ( int i = 0; i < boxes.size(); ++i )
+			if ( boxes.isAlive( i ) )
+				items[ k++ ] = i;
+		numberOfIndexedItems = boxes.size();
+
+		numberOfNodes = 1;
+		buildNode( 0, 0, n, -1 );
+	}
+
+	private void buildNode( int node, int start, int end, int parent ) {
+		nodeParent[node] = parent;
+		nodeFirst[node] = start;
+		nodeCount[node] = end - start;
+		if ( end - start <= MAX_ITEMS_PER_LEAF ) {
+			nodeLeft[node] = -1;
+			for ( int k = start; k < end; ++k )
+				leafOfItem[ items[k] ] = node;
+			computeLeaf( node );
+			return;
+		}
+
+		// split at the median of the centers, along the longest axis of the centers' bounds
+		float x0 = Float.POSITIVE_INFINITY, y0 = Float.POSITIVE_INFINITY, z0 = Float.POSITIVE_INFINITY;
+		float x1 = Float.NEGATIVE_INFINITY, y1 = Float.NEGATIVE_INFINITY, z1 = Float.NEGATIVE_INFINITY;
+		for ( int k = start; k < end; ++k ) {
+			int i = items[k];
+			float cx = boxes.minX[i] + boxes.maxX[i], cy = boxes.minY[i] + boxes.maxY[i], cz = boxes.minZ[i] + boxes.maxZ[i];
+			x0 = Math.min( x0, cx ); y0 = Math.min( y0, cy ); z0 = Math.min( z0, cz );
+			x1 = Math.max( x1, cx ); y1 = Math.max( y1, cy ); z1 = Math.max( z1, cz );
+		}
+		float [] min, max;
+		if ( x1 - x0 >= y1 - y0 && x1 - x0 >= z1 - z0 ) { min = boxes.minX; max = boxes.maxX; }
+		else if ( y1 - y0 >= z1 - z0 ) { min = boxes.minY; max = boxes.maxY; }
+		else { min = boxes.minZ; max = boxes.maxZ; }
+		for ( int k = start; k < end; ++k )
+			keys[k] = min[ items[k] ] + max[ items[k] ];
+		int mid = ( start + end ) / 2;
+		quickselect( start, end - 1, mid );
+
+		int left = numberOfNodes;
+		numberOfNodes += 2;
+		nodeLeft[node] = left;
+		buildNode( left, start, mid, node );
+		buildNode( left + 1, mid, end, node );
+		computeInteriorNode( node );
+	}
+
+	// Partially sorts items[first..last] (and keys[]) so that the k-th
+	// item is where it would be if they were sorted by key (quickselect).
+	private void quickselect( int first, int last, int k ) {
+		while ( first < last ) {
+			float pivot = keys[ ( first + last ) >>> 1 ];
+			int i = first, j = last;
+			while ( i <= j ) {
+				while ( keys[i] < pivot ) ++i;
+				while ( keys[j] > pivot ) --j;
+				if ( i <= j ) {
+					float key = keys[i]; keys[i] = keys[j]; keys[j] = key;
+					int item = items[i]; items[i] = items[j]; items[j] = item;
+					++i; --j;
+				}
+			}
+			if ( k <= j ) last = j;
+			else if ( k >= i ) first = i;
+			else return;
+		}
+	}
+
+	// Chooses what to draw for the given camera: the boxes returned by
+	// getSelectedBoxes(), and the proxies of the clusters returned by
+	// getSelectedClusters().
+	public void select( Camera3D camera, Frustum frustum ) {
+		if ( isDirty )
+			build();
+		if ( selectedBoxes.length < boxes.size() )
+			selectedBoxes = new int[ boxes.capacity() ];
+		numberOfSelectedBoxes = 0;
+		numberOfSelectedClusters = 0;
+		numberOfBoxesInSelectedClusters = 0;
+		numberOfCulledItems = 0;
+
+		// The size, in world units, of a pixel at a distance of 1 in front of the camera
+		Vector3D direction = Point3D.diff( camera.target, camera.position ).normalized();
+		float unitsPerPixel = camera.convertPixelLength( Point3D.sum( camera.position, direction ), 1 );
+		float px = camera.position.x(), py = camera.position.y(), pz = camera.position.z();
+		float dx = direction.x(), dy = direction.y(), dz = direction.z();
+
+		int stackSize = 0;
+		if ( numberOfNodes > 0 )
+			stack[ stackSize++ ] = 0;
+		while ( stackSize > 0 ) {
+			// a node is encoded as ~node if it is known to be entirely inside the frustum
+			int entry = stack[ --stackSize ];
+			boolean isInside = entry < 0;
+			int node = isInside ? ~entry : entry;
+			if ( nodeLiveCount[node] == 0 )
+				continue;
+			float x0 = nodeMinX[node], y0 = nodeMinY[node], z0 = nodeMinZ[node];
+			float x1 = nodeMaxX[node], y1 = nodeMaxY[node], z1 = nodeMaxZ[node];
+			if ( ! isInside ) {
+				int classification = frustum.classifyBox( x0, y0, z0, x1, y1, z1 );
+				if ( classification == Frustum.OUTSIDE ) {
+					numberOfCulledItems += nodeLiveCount[node];
+					continue;
+				}
+				isInside = classification == Frustum.INSIDE;
+			}
+			// The projected size of the cluster, using the distance to its nearest point along the line of sight
+			float ex = x1 - x0, ey = y1 - y0, ez = z1 - z0;
+			float diagonal = (float)Math.sqrt( ex*ex + ey*ey + ez*ez );
+			float distance = ( 0.5f*( x0 + x1 ) - px ) * dx + ( 0.5f*( y0 + y1 ) - py ) * dy + ( 0.5f*( z0 + z1 ) - pz ) * dz
+				- 0.5f * diagonal;
+			if ( distance > Camera3D.nearPlane && diagonal < pixelThreshold * distance * unitsPerPixel ) {
+				if ( numberOfSelectedClusters == selectedClusters.length )
+					selectedClusters = Arrays.copyOf( selectedClusters, Math.max( 64, 2 * selectedClusters.length ) );
+				selectedClusters[ numberOfSelectedClusters++ ] = node;
+				numberOfBoxesInSelectedClusters += nodeLiveCount[node];
+				continue;
+			}
+			if ( nodeLeft[node] < 0 ) {
+				int end = nodeFirst[node] + nodeCount[node];
+				for ( int k = nodeFirst[node]; k < end; ++k ) {
+					int i = items[k];
+					if ( ! boxes.isAlive( i ) )
+						continue;
+					if ( isInside || frustum.intersectsBox( boxes.minX[i], boxes.minY[i], boxes.minZ[i], boxes.maxX[i], boxes.maxY[i], boxes.maxZ[i] ) )
+						selectedBoxes[ numberOfSelectedBoxes++ ] = i;
+					else
+						++numberOfCulledItems;
+				}
+				continue;
+			}
+			if ( stackSize + 2 > stack.length )
+				stack = Arrays.copyOf( stack, 2 * stack.length );
+			int left = nodeLeft[node];
+			stack[ stackSize++ ] = isInside ? ~( left + 1 ) : left + 1;
+			stack[ stackSize++ ] = isInside ? ~left : left;
+		}
+
+		// boxes appended since the last build
+		for ( int i = numberOfIndexedItems; i < boxes.size(); ++i ) {
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			if ( frustum.intersectsBox( boxes.minX[i], boxes.minY[i], boxes.minZ[i], boxes.maxX[i], boxes.maxY[i], boxes.maxZ[i] ) )
+				selectedBoxes[ numberOfSelectedBoxes++ ] = i;
+			else
+				++numberOfCulledItems;
+		}
+	}
+
+	// The indices of the boxes selected by the last call to select().
+	// Only the first getNumberOfSelectedBoxes() elements are valid.
+	public int [] getSelectedBoxes() { return selectedBoxes; }
+	public int getNumberOfSelectedBoxes() { return numberOfSelectedBoxes; }
+
+	// The clusters selected by the last call to select(), whose proxies
+	// are to be drawn.  Only the first getNumberOfSelectedClusters()
+	// elements are valid.
+	public int [] getSelectedClusters() { return selectedClusters; }
+	public int getNumberOfSelectedClusters() { return numberOfSelectedClusters; }
+	// Number of boxes represented by the proxies of the selected clusters
+	public int getNumberOfBoxesInSelectedClusters() { return numberOfBoxesInSelectedClusters; }
+	public int getNumberOfCulledItems() { return numberOfCulledItems; }
+
+	// The proxy of a cluster
+	public float getMinX( int node ) { return nodeMinX[node]; }
+	public float getMinY( int node ) { return nodeMinY[node]; }
+	public float getMinZ( int node ) { return nodeMinZ[node]; }
+	public float getMaxX( int node ) { return nodeMaxX[node]; }
+	public float getMaxY( int node ) { return nodeMaxY[node]; }
+	public float getMaxZ( int node ) { return nodeMaxZ[node]; }
+	// Each of these returns the average of a component, in [0,1], over the live boxes of the cluster
+	public float getRed( int node ) { return nodeSumRed[node] / nodeLiveCount[node]; }
+	public float getGreen( int node ) { return nodeSumGreen[node] / nodeLiveCount[node]; }
+	public float getBlue( int node ) { return nodeSumBlue[node] / nodeLiveCount[node]; }
+	public float getAlpha( int node ) { return nodeSumAlpha[node] / nodeLiveCount[node]; }
+
+}
@@ -0,0 +1,7 @@
+class ColoredBox {
+	public static final float DEFAULT_SIZE = 0.5f;
+	public static final float DEFAULT_ALPHA = 0.5f;
+
+	// The boxes themselves, with their color, alpha and
+	// selection state, are stored in a BoxStore.
+}
@@ -0,0 +1,157 @@
+import java.util.Arrays;
+
+// Keeps the boxes of a BoxStore sorted from back to front, by distance
+// from the eye, for drawing transparent boxes with over-compositing.
+//
+// The order is kept from one frame to the next.  Since the camera only
+// moves slightly between frames, the previous order is nearly sorted,
+// and an insertion sort brings it up to date in close to linear time.
+// If the insertion sort has to move too many boxes (e.g. after the camera
+// jumped to a saved view), it gives up and the order is radix sorted
+// instead, which is also linear, but with a larger constant.
+//
+// Boxes appended to the store are appended to the order; removed boxes
+// stay in the order (and are skipped by the caller) until the store is
+// compacted, which requires calling invalidate().
+public class DepthSorter {
+
+	// The insertion sort is skipped if more than 1 in this many
+	// consecutive pairs of boxes are out of order, and it gives up
+	// after this many moves per box.
+	private static final int MIN_BOXES_PER_INVERSION = 8;
+	private static final int MAX_MOVES_PER_BOX = 4;
+
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX_BUCKETS = 1 << RADIX_BITS;
+
+	private final BoxStore boxes;
+
+	// Indices of the boxes, from back to front, and their sort keys
+	private int [] order = new int[ 0 ];
+	private int [] keys = new int[ 0 ];
+	private int numberOfSortedBoxes = 0;
+	private int [] keyOfBox = new int[ 0 ];
+
+	// Temporary arrays for the radix sort
+	private int [] tempOrder = new int[ 0 ];
+	private int [] tempKeys = new int[ 0 ];
+	private int [] bucketStart = new int[ RADIX_BUCKETS ];
+
+	// statistics about the last call to sort()
+	private int numberOfMoves = 0;
+	private boolean wasRadixSorted = false;
+
+	public DepthSorter( BoxStore boxes ) {
+		this.boxes = boxes;
+	}
+
+	// Must be called when the indices of the boxes have changed
+	// (e.g. after compacting the store).
+	public void invalidate() {
+		numberOfSortedBoxes = 0;
+	}
+
+	// Sorts the boxes from back to front, as seen from the given eye.
+	// Afterward, the order is available through getOrder().
+	public void sort( Point3D eye ) {
+		int n = boxes.size();
+		if ( n < numberOfSortedBoxes )
+			numberOfSortedBoxes = 0; // the store was cleared without calling invalidate()
+		if ( order.length < n ) {
+			int capacity = Math.max( n, 2 * order.length );
+			order = Arrays.copyOf( order, capacity );
+			keys = new int[ capacity ];
+			keyOfBox = new int[ capacity ];
+			tempOrder = new int[ capacity ];
+			tempKeys = new int[ capacity ];
+		}
+		// new boxes are appended, and the sort moves them into place
+		for ( int i = numberOfSortedBoxes; i < n; ++i )
+			order[i] = i;
+		numberOfSortedBoxes = n;
+
+		// The keys are such that sorting them in increasing order sorts
+		// the boxes by decreasing distance.  The bits of a non-negative
+		// float compare like the float itself.  They are computed in the
+		// order of the store (which is faster), then gathered.
+		float ex = eye.x(), ey = eye.y(), ez = eye.z();
+		for ( int i = 0; i < n; ++i ) {
+			float dx = 0.5f*(boxes.minX[i]+boxes.maxX[i]) - ex;
+			float dy = 0.5f*(boxes.minY[i]+boxes.maxY[i]) - ey;
+			float dz = 0.5f*(boxes.minZ[i]+boxes.maxZ[i]) - ez;
+			keyOfBox[i] = ~Float.floatToRawIntBits( dx*dx + dy*dy + dz*dz ) & 0x7fffffff;
+		}
+		int numberOfInversions = 0;
+		for ( int k = 0; k < n; ++k ) {
+			keys[k] = keyOfBox[ order[k] ];
+			if ( k > 0 && keys[k-1] > keys[k] )
+				++numberOfInversions;
+		}
+
+		numberOfMoves = 0;
+		wasRadixSorted = false;
+		if ( numberOfInversions > n / MIN_BOXES_PER_INVERSION ) {
+			radixSort( n );
+			wasRadixSorted = true;
+			return;
+		}
+		long maxMoves = (long)MAX_MOVES_PER_BOX * n;
+		for ( int k = 1; k < n; ++k ) {
+			int key = keys[k];
+			if ( keys[k-1] <= key )
+				continue;
+			int box = order[k];
+			int j = k - 1;
+			do {
+				keys[j+1] = keys[j];
+				order[j+1] = order[j];
+				--j;
+			} while ( j >= 0 && keys[j] > key );
+			keys[j+1] = key;
+			order[j+1] = box;
+			numberOfMoves += k - 1 - j;
+			if ( numberOfMoves > maxMoves ) {
+				radixSort( n );
+				wasRadixSorted = true;
+				return;
+			}
+		}
+	}
+
+	// Sorts order[0,n) by keys, RADIX_BITS bits at a time.
+	// Digits that are the same for all keys (typically in the exponent
+	// of the distances) are skipped.
+	private void radixSort( int n ) {
+		for ( int shift = 0; shift < 31; shift += RADIX_BITS ) {
+			Arrays.fill( bucketStart, 0 );
+			for ( int k = 0; k < n; ++k )
+				++ bucketStart[ ( keys[k] >>> shift ) & ( RADIX_BUCKETS - 1 ) ];
+			if ( bucketStart[ ( keys[0] >>> shift ) & ( RADIX_BUCKETS - 1 ) ] == n )
+				continue;
+			int sum = 0;
+			for ( int b = 0; b < RADIX_BUCKETS; ++b ) {
+				int count = bucketStart[b];
+				bucketStart[b] = sum;
+				sum += count;
+			}
+			for ( int k = 0; k < n; ++k ) {
+				int position = bucketStart[ ( keys[k] >>> shift ) & ( RADIX_BUCKETS - 1 ) ]++;
+				tempKeys[ position ] = keys[k];
+				tempOrder[ position ] = order[k];
+			}
+			int [] swap = keys; keys = tempKeys; tempKeys = swap;
+			swap = order; order = tempOrder; tempOrder = swap;
+		}
+	}
+
+	// The indices of the boxes, from back to front, as of the last call
+	// to sort().  Only the first getNumberOfSortedBoxes() elements are
+	// valid, and some may refer to removed boxes.
+	public int [] getOrder() { return order; }
+	public int getNumberOfSortedBoxes() { return numberOfSortedBoxes; }
+
+	// Number of positions by which boxes were moved by the last call to
+	// sort(), and whether it had to fall back to a radix sort.
+	public int getNumberOfMoves() { return numberOfMoves; }
+	public boolean wasRadixSorted() { return wasRadixSorted; }
+}
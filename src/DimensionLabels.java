@@ -0,0 +1,280 @@
+import java.util.Arrays;
+import javax.media.opengl.GL;
+import com.sun.opengl.util.GLUT;
+
+// Labels the boxes of a BoxStore with their dimensions (the components of
+// their diagonal, as returned by AlignedBox3D.getDiagonal()), drawn as 2D
+// text centered on the pixel of each box's center.
+//
+// To keep the labels legible with thousands of boxes, labels that would
+// overlap a label already placed are dropped.  The boxes are considered
+// from the nearest to the farthest (approximately: they are bucketed by
+// depth), and the space taken by the placed labels is recorded in a
+// coarse occupancy grid over the viewport, so that placing or dropping a
+// label only tests the few cells it covers.
+//
+// The centers of the boxes are projected all at once with
+// Camera3D.computePixels(), and the layout is only recomputed when the
+// camera or the store has changed since the last call to update().
+public class DimensionLabels {
+
+	public static final float TEXT_HEIGHT = 10; // in pixels
+	private static final int MARGIN = 2; // between labels, in pixels
+
+	// Cells are about as high as a label, and 4 times as wide
+	private static final int CELL_WIDTH = 4 * ( (int)TEXT_HEIGHT + MARGIN );
+	private static final int CELL_HEIGHT = (int)TEXT_HEIGHT + MARGIN;
+
+	private static final int NUMBER_OF_DEPTH_BUCKETS = 64;
+
+	private final BoxStore boxes;
+
+	// the state for which the labels were last laid out
+	private boolean isValid = false;
+	private int modificationCountOfBoxes = 0;
+	private float [] cameraState = new float[ 11 ];
+	private float [] currentCameraState = new float[ 11 ];
+
+	// The centers of the boxes, their pixels and their depths
+	private float [] centers = new float[ 0 ];
+	private int [] pixels = new int[ 0 ];
+	private float [] depths = new float[ 0 ];
+	private int [] indexOfCenter = new int[ 0 ];
+
+	// The pixels and the indices of the boxes, bucketed by depth
+	private int [] sortedPixels = new int[ 0 ];
+	private int [] sortedIndices = new int[ 0 ];
+	private int [] bucketOfCenter = new int[ 0 ];
+	private int [] bucketStart = new int[ NUMBER_OF_DEPTH_BUCKETS + 1 ];
+
+	// The occupancy grid: a cell is occupied if it holds the layout's stamp.
+	// A cell is also marked in rejectionStampOfCell once a label centered
+	// in it has been dropped, so that later ones are dropped right away.
+	private int gridWidth = 0, gridHeight = 0;
+	private int [] stampOfCell = new int[ 0 ];
+	private int [] rejectionStampOfCell = new int[ 0 ];
+	private int stamp = 0;
+
+	// The placed labels: their text, and the pixel of their lower left corner
+	private int numberOfLabels = 0;
+	private String [] textOfLabel = new String[ 0 ];
+	private int [] labelX = new int[ 0 ], labelY = new int[ 0 ];
+
+	// Text of each box (by index), made when first needed since the store
+	// last changed
+	private String [] textOfBox = new String[ 0 ];
+	private StringBuilder builder = new StringBuilder();
+
+	// statistics about the last call to update()
+	private boolean wasLaidOut = false;
+	private int numberOfCandidates = 0; // boxes in front of the camera and on screen
+	private float layoutTime = 0; // in milliseconds
+
+	public DimensionLabels( BoxStore boxes ) {
+		this.boxes = boxes;
+	}
+
+	public void invalidate() {
+		isValid = false;
+	}
+
+	private static void getCameraState( Camera3D camera, float [] state ) {
+		state[0] = camera.position.x(); state[1] = camera.position.y(); state[2] = camera.position.z();
+		state[3] = camera.target.x(); state[4] = camera.target.y(); state[5] = camera.target.z();
+		state[6] = camera.up.x(); state[7] = camera.up.y(); state[8] = camera.up.z();
+		state[9] = camera.getViewportWidth();
+		state[10] = camera.getViewportHeight();
+	}
+
+	// Lays out the labels for the given camera, unless neither the camera
+	// nor the boxes have changed since the last layout.
+	public void update( Camera3D camera ) {
+		getCameraState( camera, currentCameraState );
+		boolean haveBoxesChanged = boxes.getModificationCount() != modificationCountOfBoxes;
+		wasLaidOut = false;
+		if ( isValid && ! haveBoxesChanged ) {
+			boolean hasCameraMoved = false;
+			for ( int i = 0; i < cameraState.length; ++i ) {
+				if ( cameraState[i] != currentCameraState[i] ) {
+					hasCameraMoved = true;
+					break;
+				}
+			}
+			if ( ! hasCameraMoved )
+				return;
+		}
+		long startTime = System.nanoTime();
+		float [] swap = cameraState; cameraState = currentCameraState; currentCameraState = swap;
+		modificationCountOfBoxes = boxes.getModificationCount();
+		if ( textOfBox.length < boxes.size() )
+			textOfBox = new String[ Math.max( boxes.size(), 2 * textOfBox.length ) ];
+		else if ( haveBoxesChanged || ! isValid )
+			Arrays.fill( textOfBox, null );
+		layout( camera );
+		isValid = true;
+		wasLaidOut = true;
+		layoutTime = ( System.nanoTime() - startTime ) * 1e-6f;
+	}
+
+	private void layout( Camera3D camera ) {
+		int n = boxes.size();
+		if ( indexOfCenter.length < n ) {
+			int capacity = Math.max( n, 2 * indexOfCenter.length );
+			centers = new float[ 3 * capacity ];
+			pixels = new int[ 2 * capacity ];
+			depths = new float[ capacity ];
+			indexOfCenter = new int[ capacity ];
+			sortedPixels = new int[ 2 * capacity ];
+			sortedIndices = new int[ capacity ];
+			bucketOfCenter = new int[ capacity ];
+		}
+
+		// project the centers of the live boxes
+		int m = 0;
+		for ( int i = 0; i < n; ++i ) {
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			centers[3*m  ] = 0.5f*( boxes.minX[i] + boxes.maxX[i] );
+			centers[3*m+1] = 0.5f*( boxes.minY[i] + boxes.maxY[i] );
+			centers[3*m+2] = 0.5f*( boxes.minZ[i] + boxes.maxZ[i] );
+			indexOfCenter[m] = i;
+			++m;
+		}
+		camera.computePixels( centers, m, pixels, depths );
+
+		// keep those in front of the camera and on screen,
+		// and bucket them by depth
+		int width = camera.getViewportWidth(), height = camera.getViewportHeight();
+		float minDepth = Float.MAX_VALUE, maxDepth = Camera3D.nearPlane;
+		int k = 0;
+		for ( int c = 0; c < m; ++c ) {
+			float z = depths[c];
+			int x = pixels[2*c], y = pixels[2*c+1];
+			if ( z < Camera3D.nearPlane || x < 0 || x >= width || y < 0 || y >= height )
+				continue;
+			if ( z < minDepth ) minDepth = z;
+			if ( z > maxDepth ) maxDepth = z;
+			pixels[2*k] = x;
+			pixels[2*k+1] = y;
+			depths[k] = z;
+			indexOfCenter[k] = indexOfCenter[c];
+			++k;
+		}
+		numberOfCandidates = k;
+		float bucketsPerUnit = NUMBER_OF_DEPTH_BUCKETS / Math.max( maxDepth - minDepth, 1e-6f ) * 0.9999f;
+		Arrays.fill( bucketStart, 0 );
+		for ( int c = 0; c < k; ++c ) {
+			int bucket = (int)( ( depths[c] - minDepth ) * bucketsPerUnit );
+			bucketOfCenter[c] = bucket;
+			++ bucketStart[ 1 + bucket ];
+		}
+		for ( int b = 1; b <= NUMBER_OF_DEPTH_BUCKETS; ++b )
+			bucketStart[b] += bucketStart[b-1];
+		// (the pixels and indices are moved along, so that the loop
+		// below reads them in order)
+		for ( int c = 0; c < k; ++c ) {
+			int position = bucketStart[ bucketOfCenter[c] ]++;
+			sortedPixels[ 2*position ] = pixels[ 2*c ];
+			sortedPixels[ 2*position+1 ] = pixels[ 2*c+1 ];
+			sortedIndices[ position ] = indexOfCenter[c];
+		}
+
+		// place the labels, nearest first
+		gridWidth = ( width + CELL_WIDTH - 1 ) / CELL_WIDTH;
+		gridHeight = ( height + CELL_HEIGHT - 1 ) / CELL_HEIGHT;
+		if ( stampOfCell.length < gridWidth * gridHeight ) {
+			stampOfCell = new int[ gridWidth * gridHeight ];
+			rejectionStampOfCell = new int[ gridWidth * gridHeight ];
+			stamp = 0;
+		}
+		++stamp;
+		numberOfLabels = 0;
+		for ( int s = 0; s < k; ++s ) {
+			int x = sortedPixels[2*s], y = sortedPixels[2*s+1];
+			// quick rejection, before making the text
+			int cell = ( y / CELL_HEIGHT ) * gridWidth + x / CELL_WIDTH;
+			if ( stampOfCell[ cell ] == stamp || rejectionStampOfCell[ cell ] == stamp )
+				continue;
+			String text = getText( sortedIndices[s] );
+			int w = Math.round( OpenGL2DInterface.stringWidthInPixels( text, TEXT_HEIGHT, OpenGL2DInterface.FONT_ASCENT ) );
+			int x0 = x - w/2, y0 = y - (int)TEXT_HEIGHT/2; // top left corner
+			int cx0 = Math.max( 0, ( x0 - MARGIN ) / CELL_WIDTH );
+			int cx1 = Math.min( gridWidth - 1, ( x0 + w + MARGIN ) / CELL_WIDTH );
+			int cy0 = Math.max( 0, ( y0 - MARGIN ) / CELL_HEIGHT );
+			int cy1 = Math.min( gridHeight - 1, ( y0 + (int)TEXT_HEIGHT + MARGIN ) / CELL_HEIGHT );
+			boolean isFree = true;
+			for ( int cy = cy0; cy <= cy1 && isFree; ++cy )
+				for ( int cx = cx0; cx <= cx1; ++cx )
+					if ( stampOfCell[ cy * gridWidth + cx ] == stamp ) {
+						isFree = false;
+						break;
+					}
+			if ( ! isFree ) {
+				// labels centered in the same cell would (almost always)
+				// overlap as well
+				rejectionStampOfCell[ cell ] = stamp;
+				continue;
+			}
+			for ( int cy = cy0; cy <= cy1; ++cy )
+				for ( int cx = cx0; cx <= cx1; ++cx )
+					stampOfCell[ cy * gridWidth + cx ] = stamp;
+			addLabel( text, x0, y0 + (int)TEXT_HEIGHT );
+		}
+	}
+
+	private void addLabel( String text, int x, int y ) {
+		if ( numberOfLabels == textOfLabel.length ) {
+			int capacity = Math.max( 64, 2 * numberOfLabels );
+			textOfLabel = Arrays.copyOf( textOfLabel, capacity );
+			labelX = Arrays.copyOf( labelX, capacity );
+			labelY = Arrays.copyOf( labelY, capacity );
+		}
+		textOfLabel[ numberOfLabels ] = text;
+		labelX[ numberOfLabels ] = x;
+		labelY[ numberOfLabels ] = y;
+		++numberOfLabels;
+	}
+
+	// Returns the dimensions of the box with the given index, as "w x h x d"
+	private String getText( int index ) {
+		String text = textOfBox[ index ];
+		if ( text == null ) {
+			builder.setLength( 0 );
+			appendLength( boxes.maxX[index] - boxes.minX[index] );
+			builder.append( " x " );
+			appendLength( boxes.maxY[index] - boxes.minY[index] );
+			builder.append( " x " );
+			appendLength( boxes.maxZ[index] - boxes.minZ[index] );
+			text = textOfBox[ index ] = builder.toString();
+		}
+		return text;
+	}
+
+	// Appends a (non-negative) length with 2 decimals
+	private void appendLength( float length ) {
+		long hundredths = Math.round( length * 100.0 );
+		builder.append( hundredths / 100 ).append( '.' );
+		long fraction = hundredths % 100;
+		if ( fraction < 10 )
+			builder.append( '0' );
+		builder.append( fraction );
+	}
+
+	// Draws the labels laid out by the last call to update(), with the
+	// current color, in the pixel coordinates of g (whose origin is at
+	// the top left of the camera's viewport).
+	// There can be more labels than StrokeText caches strings, and they
+	// change with the camera, so they call the lists of their glyphs.
+	public void draw( GL gl, GLUT glut, OpenGL2DInterface g ) {
+		StrokeText strokeText = OpenGL2DInterface.getStrokeText();
+		strokeText.beginUncachedStrings( gl, glut );
+		for ( int i = 0; i < numberOfLabels; ++i )
+			g.drawString( gl, glut, labelX[i], labelY[i], textOfLabel[i], TEXT_HEIGHT, OpenGL2DInterface.FONT_ASCENT );
+		strokeText.endUncachedStrings();
+	}
+
+	public int getNumberOfLabels() { return numberOfLabels; }
+	public int getNumberOfCandidates() { return numberOfCandidates; }
+	public boolean wasLaidOut() { return wasLaidOut; }
+	public float getLayoutTime() { return layoutTime; }
+}
@@ -0,0 +1,176 @@
+import java.awt.DisplayMode;
+import java.awt.GraphicsEnvironment;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.Timer;
+
+// Coalesces requests to update and redraw a view into at most one frame
+// per frame interval (by default, the refresh interval of the display).
+//
+// Input handlers call requestUpdate() for work that only depends on the
+// latest input (e.g. picking under the mouse), mergeUpdate() for input
+// that the client accumulates until its next update (e.g. the motions of
+// a drag), and requestRedraw() when the view must be drawn again.  At the next tick of a Swing timer, the
+// client's update() is called once if requested, then its draw() once if
+// requested, however many requests were made in between.  The timer stops
+// when a tick finds nothing to do, so nothing runs while the view is idle,
+// unless the scheduler is in continuous mode, where every tick draws a
+// frame (e.g. for measuring the frame rate).
+//
+// All methods must be called on the Swing event dispatch thread.
+public class FrameScheduler implements ActionListener {
+
+	public interface Client {
+		// Processes the latest input; may call requestRedraw().
+		public void update();
+		// Draws the view.
+		public void draw();
+	}
+
+	private static final int DEFAULT_REFRESH_RATE = 60; // in Hz
+
+	private final Client client;
+	private final Timer timer;
+	private int frameInterval; // in milliseconds
+
+	private boolean isUpdatePending = false;
+	private boolean isRedrawPending = false;
+	private boolean isContinuous = false;
+	private long timeOfLastTick = 0; // in nanoseconds
+
+	// statistics, since the last call to resetStatistics()
+	private int numberOfRedrawRequests = 0;
+	private int numberOfCoalescedRedraws = 0; // requests merged into a pending frame
+	private int numberOfUpdateRequests = 0;
+	private int numberOfDroppedUpdates = 0; // requests superseded by a later one
+	private int numberOfMergedUpdates = 0; // requests merged into a pending update
+	private int numberOfFramesDrawn = 0;
+
+	// frames drawn in the current second, and in the previous one
+	private long startOfSecond = 0; // in nanoseconds
+	private int framesThisSecond = 0, framesLastSecond = 0;
+
+	public FrameScheduler( Client client ) {
+		this.client = client;
+		frameInterval = getDisplayRefreshInterval();
+		timer = new Timer( frameInterval, this );
+		timer.setCoalesce( true );
+	}
+
+	// Returns the refresh interval of the default screen, in milliseconds,
+	// or that of a 60 Hz display if it is unknown.
+	public static int getDisplayRefreshInterval() {
+		int refreshRate = DisplayMode.REFRESH_RATE_UNKNOWN;
+		if ( ! GraphicsEnvironment.isHeadless() ) {
+			try {
+				refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment()
+					.getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+			}
+			catch ( Exception e ) {
+				// keep the default
+			}
+		}
+		if ( refreshRate <= 0 )
+			refreshRate = DEFAULT_REFRESH_RATE;
+		return Math.max( 1, Math.round( 1000f / refreshRate ) );
+	}
+
+	public int getFrameInterval() { return frameInterval; }
+
+	public void setFrameInterval( int milliseconds ) {
+		frameInterval = Math.max( 1, milliseconds );
+		timer.setDelay( frameInterval );
+	}
+
+	public boolean isContinuous() { return isContinuous; }
+
+	// In continuous mode, a frame is drawn at every tick,
+	// whether or not it was requested.
+	public void setContinuous( boolean flag ) {
+		isContinuous = flag;
+		if ( isContinuous )
+			start();
+	}
+
+	public void requestRedraw() {
+		++numberOfRedrawRequests;
+		if ( isRedrawPending )
+			++numberOfCoalescedRedraws;
+		isRedrawPending = true;
+		start();
+	}
+
+	public void requestUpdate() {
+		++numberOfUpdateRequests;
+		if ( isUpdatePending )
+			++numberOfDroppedUpdates;
+		isUpdatePending = true;
+		start();
+	}
+
+	// Like requestUpdate(), for input that adds up to the pending one
+	// rather than replacing it.
+	public void mergeUpdate() {
+		++numberOfUpdateRequests;
+		if ( isUpdatePending )
+			++numberOfMergedUpdates;
+		isUpdatePending = true;
+		start();
+	}
+
+	// Starts the timer if needed, so that the next tick comes one frame
+	// interval after the previous one (or right away, if that is past).
+	private void start() {
+		if ( timer.isRunning() )
+			return;
+		long elapsed = ( System.nanoTime() - timeOfLastTick ) / 1000000;
+		timer.setInitialDelay( (int)Math.max( 0, Math.min( frameInterval, frameInterval - elapsed ) ) );
+		timer.start();
+	}
+
+	public void actionPerformed( ActionEvent e ) {
+		timeOfLastTick = System.nanoTime();
+		if ( isUpdatePending ) {
+			isUpdatePending = false;
+			client.update();
+		}
+		if ( isRedrawPending || isContinuous ) {
+			isRedrawPending = false;
+			client.draw();
+			++numberOfFramesDrawn;
+			if ( timeOfLastTick - startOfSecond >= 1000000000L ) {
+				// the previous second only counts if it was the last one
+				framesLastSecond = timeOfLastTick - startOfSecond < 2000000000L ? framesThisSecond : 0;
+				framesThisSecond = 0;
+				startOfSecond = timeOfLastTick;
+			}
+			++framesThisSecond;
+		}
+		else
+			timer.stop();
+	}
+
+	public boolean isIdle() { return ! timer.isRunning(); }
+
+	public int getNumberOfRedrawRequests() { return numberOfRedrawRequests; }
+	public int getNumberOfCoalescedRedraws() { return numberOfCoalescedRedraws; }
+	public int getNumberOfUpdateRequests() { return numberOfUpdateRequests; }
+	public int getNumberOfDroppedUpdates() { return numberOfDroppedUpdates; }
+	public int getNumberOfMergedUpdates() { return numberOfMergedUpdates; }
+	public int getNumberOfFramesDrawn() { return numberOfFramesDrawn; }
+
+	// Number of frames drawn during the last second
+	// (roughly: 0 once no frame has been drawn for a while)
+	public int getFramesPerSecond() {
+		return System.nanoTime() - startOfSecond < 2000000000L ? framesLastSecond : 0;
+	}
+
+	public void resetStatistics() {
+		numberOfRedrawRequests = 0;
+		numberOfCoalescedRedraws = 0;
+		numberOfUpdateRequests = 0;
+		numberOfDroppedUpdates = 0;
+		numberOfMergedUpdates = 0;
+		numberOfFramesDrawn = 0;
+	}
+}
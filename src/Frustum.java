@@ -0,0 +1,100 @@
+
+// The view frustum of a Camera3D, stored as six planes in world space.
+// Used to cull boxes that cannot be visible.
+public class Frustum {
+
+	// Results of classifying a box against the frustum
+	public static final int OUTSIDE = 0;
+	public static final int INTERSECTING = 1;
+	public static final int INSIDE = 2;
+
+	private static final int NEAR = 0, FAR = 1, LEFT = 2, RIGHT = 3, BOTTOM = 4, TOP = 5;
+
+	// Each plane is stored as (a,b,c,d), such that a point (x,y,z)
+	// is on the inner side of the plane if ax+by+cz+d >= 0
+	public float [] planes = new float[ 6*4 ];
+
+	public Frustum() { }
+
+	public Frustum( Camera3D camera ) {
+		setFromCamera( camera );
+	}
+
+	// Computes the planes of the frustum set up by Camera3D.transform()
+	public void setFromCamera( Camera3D camera ) {
+		// Compute the extent of the viewport on the near plane,
+		// the same way as Camera3D.transform()
+		float tangent = (float)Math.tan( Camera3D.fieldOfViewInDegrees/2 / 180 * (float)Math.PI );
+		float viewportRadius = Camera3D.nearPlane * tangent;
+		int w = camera.getViewportWidth(), h = camera.getViewportHeight();
+		float halfWidth, halfHeight;
+		if ( w < h ) {
+			halfWidth = viewportRadius;
+			halfHeight = halfWidth * h / (float)w;
+		} else {
+			halfHeight = viewportRadius;
+			halfWidth = halfHeight * w / (float)h;
+		}
+
+		// (direction, right, up) form an orthonormal basis for camera space
+		Vector3D direction = Point3D.diff( camera.target, camera.position ).normalized();
+		Vector3D right = Vector3D.cross( direction, camera.up ).normalized();
+		Vector3D up = Vector3D.cross( right, direction );
+		Point3D eye = camera.position;
+		float near = Camera3D.nearPlane;
+
+		setPlane( NEAR, direction, Point3D.sum( eye, Vector3D.mult( direction, near ) ) );
+		setPlane( FAR, direction.negated(), Point3D.sum( eye, Vector3D.mult( direction, Camera3D.farPlane ) ) );
+
+		// Each side plane passes through the eye, and contains an edge of
+		// the viewport on the near plane.
+		setPlane( LEFT,   Vector3D.sum( Vector3D.mult( direction, halfWidth ),  Vector3D.mult( right, near ) ), eye );
+		setPlane( RIGHT,  Vector3D.diff( Vector3D.mult( direction, halfWidth ), Vector3D.mult( right, near ) ), eye );
+		setPlane( BOTTOM, Vector3D.sum( Vector3D.mult( direction, halfHeight ), Vector3D.mult( up, near ) ), eye );
+		setPlane( TOP,    Vector3D.diff( Vector3D.mult( direction, halfHeight ), Vector3D.mult( up, near ) ), eye );
+	}
+
+	private void setPlane( int plane, Vector3D normal, Point3D p ) {
+		Vector3D n = normal.normalized();
+		planes[ 4*plane     ] = n.x();
+		planes[ 4*plane + 1 ] = n.y();
+		planes[ 4*plane + 2 ] = n.z();
+		planes[ 4*plane + 3 ] = - n.x()*p.x() - n.y()*p.y() - n.z()*p.z();
+	}
+
+	// Classifies the box (x0,y0,z0)-(x1,y1,z1) as being
+	// entirely OUTSIDE, entirely INSIDE, or INTERSECTING the frustum.
+	// (Boxes near the frustum's corners may be conservatively
+	// reported as INTERSECTING even though they are outside.)
+	public int classifyBox(
+		float x0, float y0, float z0,
+		float x1, float y1, float z1
+	) {
+		int result = INSIDE;
+		for ( int i = 0; i < 24; i += 4 ) {
+			float a = planes[i], b = planes[i+1], c = planes[i+2], d = planes[i+3];
+			// the corner furthest along the plane's normal ...
+			float far = a * ( a > 0 ? x1 : x0 ) + b * ( b > 0 ? y1 : y0 ) + c * ( c > 0 ? z1 : z0 ) + d;
+			if ( far < 0 )
+				return OUTSIDE;
+			// ... and the corner furthest in the opposite direction
+			float near = a * ( a > 0 ? x0 : x1 ) + b * ( b > 0 ? y0 : y1 ) + c * ( c > 0 ? z0 : z1 ) + d;
+			if ( near < 0 )
+				result = INTERSECTING;
+		}
+		return result;
+	}
+
+	public boolean intersectsBox(
+		float x0, float y0, float z0,
+		float x1, float y1, float z1
+	) {
+		for ( int i = 0; i < 24; i += 4 ) {
+			float a = planes[i], b = planes[i+1], c = planes[i+2], d = planes[i+3];
+			if ( a * ( a > 0 ? x1 : x0 ) + b * ( b > 0 ? y1 : y0 ) + c * ( c > 0 ? z1 : z0 ) + d < 0 )
+				return false;
+		}
+		return true;
+	}
+}
+
@@ -0,0 +1,213 @@
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import javax.media.opengl.GL;
+
+// Counts the OpenGL calls made through a GL object, frame by frame.
+//
+// getGL() returns a GL that forwards every call to the wrapped GL
+// (it is a java.lang.reflect.Proxy implementing the GL interface),
+// after counting it.  If there is no wrapped GL, calls go nowhere, and
+// methods that return a value return 0 (or true, or null), except that
+// glGen*() and glCreate*() return 1, and glGen*() and glGet*() fill their
+// int array arguments with 1 (so that objects are created, and shaders
+// compile, as far as the caller can tell); this allows rendering code
+// to be exercised without an OpenGL context or a GPU, e.g. to check how
+// many calls a change to the rendering code saves.
+//
+// Usage:
+//    counter.beginFrame();
+//    ... draw with counter.getGL() ...
+//    counter.endFrame();
+//    ... counter.getNumberOfVertices(), etc. report on that frame ...
+public class GLCallCounter implements InvocationHandler {
+
+	// Categories of calls
+	public static final int CALLS = 0; // all calls
+	public static final int BEGIN_END_PAIRS = 1; // glBegin()
+	public static final int DRAW_CALLS = 2; // glBegin(), glDrawArrays(), glDrawElements(), glCallList(), etc.
+	public static final int VERTICES = 3; // glVertex*(), and vertices drawn from arrays (times the number of instances)
+	public static final int MATRIX_OPERATIONS = 4; // glMatrixMode(), glLoadIdentity(), glPushMatrix(), glTranslatef(), etc.
+	public static final int STATE_TOGGLES = 5; // glEnable(), glDisable(), and their client state counterparts
+	public static final int BUFFER_UPLOADS = 6; // glBufferData(), glBufferSubData()
+	private static final int NUMBER_OF_CATEGORIES = 7;
+
+	private static final String [] NAMES_OF_CATEGORIES = {
+		"calls", "glBegin/glEnd", "draw calls", "vertices", "matrix ops", "enable/disable", "buffer uploads"
+	};
+
+	private final GL target; // null for none
+	private final GL proxy;
+
+	// counts for the current frame, and for the last completed frame
+	private long [] counts = new long[ NUMBER_OF_CATEGORIES ];
+	private long [] countsOfLastFrame = new long[ NUMBER_OF_CATEGORIES ];
+	private int numberOfFrames = 0;
+
+	// The category of each method is looked up once, then cached by method.
+	private HashMap<Method,Integer> categoryOfMethod = new HashMap<Method,Integer>();
+
+	// If recording, the names of the methods called during the current frame
+	private boolean isRecording = false;
+	private List<String> recordedCalls = new ArrayList<String>();
+
+	// Wraps the given GL, or creates a stub GL if gl is null.
+	public GLCallCounter( GL gl ) {
+		target = gl;
+		proxy = (GL)Proxy.newProxyInstance(
+			GL.class.getClassLoader(), new Class<?>[] { GL.class }, this
+		);
+	}
+
+	// Returns a GL that counts calls before forwarding them to the wrapped GL.
+	public GL getGL() { return proxy; }
+
+	// Returns the wrapped GL (null for a stub).
+	public GL getTarget() { return target; }
+
+	public void setRecording( boolean flag ) { isRecording = flag; }
+
+	// The names of the methods called since beginFrame(), in order, if recording.
+	public List<String> getRecordedCalls() { return recordedCalls; }
+
+	public void beginFrame() {
+		java.util.Arrays.fill( counts, 0 );
+		recordedCalls.clear();
+	}
+
+	public void endFrame() {
+		System.arraycopy( counts, 0, countsOfLastFrame, 0, NUMBER_OF_CATEGORIES );
+		++numberOfFrames;
+	}
+
+	public int getNumberOfFrames() { return numberOfFrames; }
+
+	// Returns the number of calls of the given category in the last frame
+	public long getCount( int category ) { return countsOfLastFrame[ category ]; }
+
+	public long getNumberOfCalls() { return getCount( CALLS ); }
+	public long getNumberOfBeginEndPairs() { return getCount( BEGIN_END_PAIRS ); }
+	public long getNumberOfDrawCalls() { return getCount( DRAW_CALLS ); }
+	public long getNumberOfVertices() { return getCount( VERTICES ); }
+	public long getNumberOfMatrixOperations() { return getCount( MATRIX_OPERATIONS ); }
+	public long getNumberOfStateToggles() { return getCount( STATE_TOGGLES ); }
+
+	// Returns one line per category, describing the last frame.
+	public String [] getSummary() {
+		String [] lines = new String[ NUMBER_OF_CATEGORIES ];
+		for ( int c = 0; c < NUMBER_OF_CATEGORIES; ++c )
+			lines[c] = NAMES_OF_CATEGORIES[c] + ": " + countsOfLastFrame[c];
+		return lines;
+	}
+
+	private static final int NO_CATEGORY = -1;
+	private static final int VERTEX = -2, DRAW_ARRAYS = -3, DRAW_ELEMENTS = -4;
+	private static final int DRAW_ARRAYS_INSTANCED = -5, DRAW_ELEMENTS_INSTANCED = -6;
+
+	private static int categorize( String name ) {
+		if ( name.equals( "glBegin" ) ) return BEGIN_END_PAIRS;
+		if ( name.startsWith( "glVertex" ) && ! name.startsWith( "glVertexPointer" ) && ! name.startsWith( "glVertexAttrib" ) ) return VERTEX;
+		if ( name.equals( "glDrawArrays" ) ) return DRAW_ARRAYS;
+		if ( name.equals( "glDrawElements" ) ) return DRAW_ELEMENTS;
+		if ( name.startsWith( "glDrawArraysInstanced" ) ) return DRAW_ARRAYS_INSTANCED;
+		if ( name.startsWith( "glDrawElementsInstanced" ) ) return DRAW_ELEMENTS_INSTANCED;
+		if ( name.startsWith( "glCallList" ) ) return DRAW_CALLS;
+		if (
+			name.equals( "glMatrixMode" ) || name.equals( "glLoadIdentity" )
+			|| name.equals( "glPushMatrix" ) || name.equals( "glPopMatrix" )
+			|| name.startsWith( "glLoadMatrix" ) || name.startsWith( "glMultMatrix" )
+			|| name.startsWith( "glTranslate" ) || name.startsWith( "glRotate" ) || name.startsWith( "glScale" )
+			|| name.equals( "glFrustum" ) || name.equals( "glOrtho" )
+		) return MATRIX_OPERATIONS;
+		if (
+			name.equals( "glEnable" ) || name.equals( "glDisable" )
+			|| name.equals( "glEnableClientState" ) || name.equals( "glDisableClientState" )
+		) return STATE_TOGGLES;
+		if ( name.equals( "glBufferData" ) || name.equals( "glBufferSubData" ) ) return BUFFER_UPLOADS;
+		return NO_CATEGORY;
+	}
+
+	public Object invoke( Object proxy, Method method, Object [] args ) throws Throwable {
+		if ( method.getDeclaringClass() == Object.class ) {
+			// equals(), hashCode(), toString()
+			if ( method.getName().equals( "equals" ) )
+				return Boolean.valueOf( proxy == args[0] );
+			if ( method.getName().equals( "hashCode" ) )
+				return Integer.valueOf( System.identityHashCode( proxy ) );
+			return "GLCallCounter(" + target + ")";
+		}
+
+		Integer category = categoryOfMethod.get( method );
+		if ( category == null ) {
+			category = Integer.valueOf( categorize( method.getName() ) );
+			categoryOfMethod.put( method, category );
+		}
+		++counts[ CALLS ];
+		switch ( category.intValue() ) {
+			case NO_CATEGORY :
+				break;
+			case VERTEX :
+				++counts[ VERTICES ];
+				break;
+			case BEGIN_END_PAIRS :
+				++counts[ BEGIN_END_PAIRS ];
+				++counts[ DRAW_CALLS ];
+				break;
+			case DRAW_ARRAYS : // glDrawArrays( mode, first, count )
+				++counts[ DRAW_CALLS ];
+				counts[ VERTICES ] += ((Integer)args[2]).intValue();
+				break;
+			case DRAW_ELEMENTS : // glDrawElements( mode, count, type, indices )
+				++counts[ DRAW_CALLS ];
+				counts[ VERTICES ] += ((Integer)args[1]).intValue();
+				break;
+			case DRAW_ARRAYS_INSTANCED : // glDrawArraysInstanced( mode, first, count, primcount )
+				++counts[ DRAW_CALLS ];
+				counts[ VERTICES ] += (long)((Integer)args[2]).intValue() * ((Integer)args[3]).intValue();
+				break;
+			case DRAW_ELEMENTS_INSTANCED : // glDrawElementsInstanced( mode, count, type, indices, primcount )
+				++counts[ DRAW_CALLS ];
+				counts[ VERTICES ] += (long)((Integer)args[1]).intValue() * ((Integer)args[4]).intValue();
+				break;
+			default :
+				++counts[ category.intValue() ];
+				break;
+		}
+		if ( isRecording )
+			recordedCalls.add( method.getName() );
+
+		if ( target != null ) {
+			try {
+				return method.invoke( target, args );
+			}
+			catch ( InvocationTargetException e ) {
+				throw e.getCause();
+			}
+		}
+		// stub: return a default value
+		String name = method.getName();
+		if ( args != null && ( name.startsWith( "glGen" ) || name.startsWith( "glGet" ) ) ) {
+			for ( int k = 0; k < args.length; ++k )
+				if ( args[k] instanceof int[] )
+					java.util.Arrays.fill( (int[])args[k], 1 );
+		}
+		Class<?> type = method.getReturnType();
+		if ( type == boolean.class ) return Boolean.TRUE; // e.g. isFunctionAvailable()
+		if ( type == int.class )
+			return Integer.valueOf( name.startsWith( "glGen" ) || name.startsWith( "glCreate" ) ? 1 : 0 );
+		if ( type == long.class ) return Long.valueOf( 0 );
+		if ( type == float.class ) return Float.valueOf( 0 );
+		if ( type == double.class ) return Double.valueOf( 0 );
+		if ( type == byte.class ) return Byte.valueOf( (byte)0 );
+		if ( type == short.class ) return Short.valueOf( (short)0 );
+		if ( type == char.class ) return Character.valueOf( (char)0 );
+		return null;
+	}
+
+}
+
@@ -0,0 +1,366 @@
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import javax.media.opengl.GL;
+import com.sun.opengl.util.BufferUtil;
+
+// Draws all the boxes of a BoxStore with a single instanced draw call.
+//
+// Every box is a unit cube, scaled and translated to span its min and max
+// corners, so a single mesh of 8 vertices is shared by all the boxes
+// (the instances), and only the bounds and the color of each box are
+// stored: 36 bytes per box, instead of 8 complete vertices and 48 indices
+// in BoxRenderer.
+//
+// The vertex shader uses gl_InstanceID (EXT_draw_instanced) to fetch the
+// bounds and the color of its box from two texture buffers
+// (EXT_texture_buffer_object): one with two RGBA32F texels per box,
+// (minX,minY,minZ,0) and (maxX,maxY,maxZ,0), and one with an RGBA8 texel
+// per box.  (Per-instance vertex attributes, as in ARB_instanced_arrays,
+// are not available in this version of JOGL.)  A removed box has
+// min = max = 0, so it is collapsed to a point.
+//
+// As in BoxRenderer, when boxes change, only the range of boxes between
+// the first and the last changed box is uploaded before the next draw.
+// When the extensions are unavailable, isSupported() returns false,
+// and BoxRenderer should be used instead.
+public class InstancedBoxRenderer {
+
+	private static final int FLOATS_PER_BOX = 8;
+	private static final int BYTES_PER_COLOR = 4;
+
+	// The corners of the unit cube, numbered as in AlignedBox3D.getCorner()
+	private static final float [] CUBE_CORNERS = {
+		0, 0, 0,
+		1, 0, 0,
+		0, 1, 0,
+		1, 1, 0,
+		0, 0, 1,
+		1, 0, 1,
+		0, 1, 1,
+		1, 1, 1
+	};
+
+	// The 6 faces, as quads, counterclockwise when seen from outside,
+	// and the 12 edges; the same as in BoxRenderer.
+	private static final byte [] FACE_CORNERS = {
+		0, 1, 5, 4,
+		4, 5, 7, 6,
+		6, 7, 3, 2,
+		2, 3, 1, 0,
+		1, 3, 7, 5,
+		0, 4, 6, 2
+	};
+	private static final byte [] EDGE_CORNERS = {
+		0, 1,  2, 3,  4, 5,  6, 7,
+		0, 2,  1, 3,  4, 6,  5, 7,
+		0, 4,  1, 5,  2, 6,  3, 7
+	};
+
+	private static final String VERTEX_SHADER_SOURCE =
+		"#version 120\n" +
+		"#extension GL_EXT_gpu_shader4 : require\n" +
+		"uniform samplerBuffer bounds;\n" +
+		"uniform samplerBuffer colors;\n" +
+		"void main() {\n" +
+		"	vec3 minCorner = texelFetchBuffer( bounds, 2*gl_InstanceID ).xyz;\n" +
+		"	vec3 maxCorner = texelFetchBuffer( bounds, 2*gl_InstanceID+1 ).xyz;\n" +
+		"	gl_Position = gl_ModelViewProjectionMatrix * vec4( mix( minCorner, maxCorner, gl_Vertex.xyz ), 1.0 );\n" +
+		"	gl_FrontColor = texelFetchBuffer( colors, gl_InstanceID );\n" +
+		"}\n";
+	private static final String FRAGMENT_SHADER_SOURCE =
+		"void main() {\n" +
+		"	gl_FragColor = gl_Color;\n" +
+		"}\n";
+
+	// indices into bufferIds and textureIds
+	private static final int BOUNDS = 0, COLORS = 1;
+
+	private final BoxStore boxes;
+
+	// number of boxes that the buffers can hold
+	private int capacity = 0;
+
+	// copies of the per-instance data, from which the buffers are updated
+	private FloatBuffer bounds;
+	private ByteBuffer colors; // RGBA, one byte per component
+	private FloatBuffer cubeVertices = BufferUtil.newFloatBuffer( CUBE_CORNERS.length );
+	private ByteBuffer faceIndices = BufferUtil.newByteBuffer( FACE_CORNERS.length );
+	private ByteBuffer edgeIndices = BufferUtil.newByteBuffer( EDGE_CORNERS.length );
+
+	// Ranges of boxes [start,end) whose bounds or colors must be uploaded
+	private int dirtyBoundsStart = 0, dirtyBoundsEnd = 0;
+	private int dirtyColorsStart = 0, dirtyColorsEnd = 0;
+
+	private boolean isSupported = false;
+	// true once the buffers have been allocated with the current capacity
+	private boolean areBuffersAllocated = false;
+	private int [] bufferIds = new int[ 2 ];
+	private int [] textureIds = new int[ 2 ];
+	private int program = 0;
+
+	// statistics about the last call to draw()
+	private int numberOfBoxesUploaded = 0;
+	private int numberOfBoxesDrawn = 0;
+
+	public InstancedBoxRenderer( BoxStore boxes ) {
+		this.boxes = boxes;
+		cubeVertices.put( CUBE_CORNERS ).rewind();
+		faceIndices.put( FACE_CORNERS ).rewind();
+		edgeIndices.put( EDGE_CORNERS ).rewind();
+	}
+
+	// Must be called after the bounds of a box have changed,
+	// or after it has been added or removed.
+	public void boxChanged( int index ) {
+		if ( dirtyBoundsStart == dirtyBoundsEnd ) {
+			dirtyBoundsStart = index;
+			dirtyBoundsEnd = index + 1;
+		}
+		else {
+			dirtyBoundsStart = Math.min( dirtyBoundsStart, index );
+			dirtyBoundsEnd = Math.max( dirtyBoundsEnd, index + 1 );
+		}
+		colorChanged( index );
+	}
+
+	// Must be called after the color of a box has changed.
+	public void colorChanged( int index ) {
+		if ( dirtyColorsStart == dirtyColorsEnd ) {
+			dirtyColorsStart = index;
+			dirtyColorsEnd = index + 1;
+		}
+		else {
+			dirtyColorsStart = Math.min( dirtyColorsStart, index );
+			dirtyColorsEnd = Math.max( dirtyColorsEnd, index + 1 );
+		}
+	}
+
+	// Must be called when many boxes have changed
+	// (e.g. after compacting the store).
+	public void invalidate() {
+		dirtyBoundsStart = dirtyColorsStart = 0;
+		dirtyBoundsEnd = dirtyColorsEnd = Math.max( 1, boxes.size() );
+	}
+
+	// Must be called when the OpenGL context has been (re)created,
+	// since the buffers, textures and shaders belonged to the old context.
+	public void contextCreated( GL gl ) {
+		isSupported = false;
+		areBuffersAllocated = false;
+		bufferIds = new int[ 2 ];
+		textureIds = new int[ 2 ];
+		program = 0;
+		invalidate();
+		if (
+			! gl.isExtensionAvailable( "GL_EXT_draw_instanced" )
+			|| ! gl.isExtensionAvailable( "GL_EXT_texture_buffer_object" )
+			|| ! gl.isExtensionAvailable( "GL_EXT_gpu_shader4" )
+			|| ! gl.isFunctionAvailable( "glDrawElementsInstancedEXT" )
+			|| ! gl.isFunctionAvailable( "glTexBufferEXT" )
+			|| ! gl.isFunctionAvailable( "glCreateProgram" )
+			|| ! gl.isFunctionAvailable( "glGenBuffers" )
+		) {
+			return;
+		}
+		program = createProgram( gl );
+		isSupported = program != 0;
+	}
+
+	// Returns true if the boxes can be drawn with this renderer,
+	// as determined by the last call to contextCreated().
+	public boolean isSupported() { return isSupported; }
+	public int getNumberOfBoxesUploaded() { return numberOfBoxesUploaded; }
+	public int getNumberOfBoxesDrawn() { return numberOfBoxesDrawn; }
+
+	private static int compileShader( GL gl, int type, String source ) {
+		int shader = gl.glCreateShader( type );
+		gl.glShaderSource( shader, 1, new String[] { source }, new int[] { source.length() }, 0 );
+		gl.glCompileShader( shader );
+		int [] status = new int[ 1 ];
+		gl.glGetShaderiv( shader, GL.GL_COMPILE_STATUS, status, 0 );
+		if ( status[0] == 0 ) {
+			gl.glDeleteShader( shader );
+			return 0;
+		}
+		return shader;
+	}
+
+	// Returns 0 if the shaders cannot be compiled or linked
+	private static int createProgram( GL gl ) {
+		int vertexShader = compileShader( gl, GL.GL_VERTEX_SHADER, VERTEX_SHADER_SOURCE );
+		int fragmentShader = compileShader( gl, GL.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_SOURCE );
+		if ( vertexShader == 0 || fragmentShader == 0 ) {
+			if ( vertexShader != 0 ) gl.glDeleteShader( vertexShader );
+			if ( fragmentShader != 0 ) gl.glDeleteShader( fragmentShader );
+			return 0;
+		}
+		int program = gl.glCreateProgram();
+		gl.glAttachShader( program, vertexShader );
+		gl.glAttachShader( program, fragmentShader );
+		gl.glLinkProgram( program );
+		// the shaders are freed along with the program
+		gl.glDeleteShader( vertexShader );
+		gl.glDeleteShader( fragmentShader );
+		int [] status = new int[ 1 ];
+		gl.glGetProgramiv( program, GL.GL_LINK_STATUS, status, 0 );
+		if ( status[0] == 0 ) {
+			gl.glDeleteProgram( program );
+			return 0;
+		}
+		gl.glUseProgram( program );
+		gl.glUniform1i( gl.glGetUniformLocation( program, "bounds" ), BOUNDS );
+		gl.glUniform1i( gl.glGetUniformLocation( program, "colors" ), COLORS );
+		gl.glUseProgram( 0 );
+		return program;
+	}
+
+	private void allocate( int newCapacity ) {
+		capacity = newCapacity;
+		bounds = BufferUtil.newFloatBuffer( capacity * FLOATS_PER_BOX );
+		colors = BufferUtil.newByteBuffer( capacity * BYTES_PER_COLOR );
+		areBuffersAllocated = false;
+		invalidate();
+	}
+
+	// Copies the bounds of boxes [start,end) into the bounds array
+	private void fillBounds( int start, int end ) {
+		int position = start * FLOATS_PER_BOX;
+		for ( int i = start; i < end; ++i ) {
+			if ( i >= boxes.size() || ! boxes.isAlive( i ) ) {
+				for ( int k = 0; k < FLOATS_PER_BOX; ++k )
+					bounds.put( position++, 0 );
+				continue;
+			}
+			bounds.put( position++, boxes.minX[i] );
+			bounds.put( position++, boxes.minY[i] );
+			bounds.put( position++, boxes.minZ[i] );
+			bounds.put( position++, 0 );
+			bounds.put( position++, boxes.maxX[i] );
+			bounds.put( position++, boxes.maxY[i] );
+			bounds.put( position++, boxes.maxZ[i] );
+			bounds.put( position++, 0 );
+		}
+	}
+
+	private void fillColors( int start, int end ) {
+		int position = start * BYTES_PER_COLOR;
+		for ( int i = start; i < end; ++i ) {
+			int c = i < boxes.size() ? boxes.rgba[i] : 0;
+			colors.put( position++, (byte)( c >>> 24 ) );
+			colors.put( position++, (byte)( c >>> 16 ) );
+			colors.put( position++, (byte)( c >>> 8 ) );
+			colors.put( position++, (byte)c );
+		}
+	}
+
+	// Brings the buffers up to date with the store.
+	private void update( GL gl ) {
+		if ( boxes.size() > capacity )
+			allocate( Math.max( 1024, Math.max( boxes.size(), 2 * capacity ) ) );
+
+		int boundsStart = dirtyBoundsStart, boundsEnd = Math.min( dirtyBoundsEnd, capacity );
+		int colorStart = dirtyColorsStart, colorEnd = Math.min( dirtyColorsEnd, capacity );
+		if ( boundsStart < boundsEnd )
+			fillBounds( boundsStart, boundsEnd );
+		if ( colorStart < colorEnd )
+			fillColors( colorStart, colorEnd );
+		dirtyBoundsStart = dirtyBoundsEnd = 0;
+		dirtyColorsStart = dirtyColorsEnd = 0;
+
+		numberOfBoxesUploaded = 0;
+		if ( ! areBuffersAllocated ) {
+			if ( bufferIds[0] == 0 ) {
+				gl.glGenBuffers( 2, bufferIds, 0 );
+				gl.glGenTextures( 2, textureIds, 0 );
+			}
+			gl.glBindBuffer( GL.GL_TEXTURE_BUFFER_EXT, bufferIds[ BOUNDS ] );
+			gl.glBufferData( GL.GL_TEXTURE_BUFFER_EXT, bounds.capacity() * BufferUtil.SIZEOF_FLOAT, bounds, GL.GL_DYNAMIC_DRAW );
+			gl.glBindBuffer( GL.GL_TEXTURE_BUFFER_EXT, bufferIds[ COLORS ] );
+			gl.glBufferData( GL.GL_TEXTURE_BUFFER_EXT, colors.capacity(), colors, GL.GL_DYNAMIC_DRAW );
+			gl.glBindBuffer( GL.GL_TEXTURE_BUFFER_EXT, 0 );
+			// attach the buffers to the textures read by the shader
+			gl.glBindTexture( GL.GL_TEXTURE_BUFFER_EXT, textureIds[ BOUNDS ] );
+			gl.glTexBufferEXT( GL.GL_TEXTURE_BUFFER_EXT, GL.GL_RGBA32F_ARB, bufferIds[ BOUNDS ] );
+			gl.glBindTexture( GL.GL_TEXTURE_BUFFER_EXT, textureIds[ COLORS ] );
+			gl.glTexBufferEXT( GL.GL_TEXTURE_BUFFER_EXT, GL.GL_RGBA8, bufferIds[ COLORS ] );
+			gl.glBindTexture( GL.GL_TEXTURE_BUFFER_EXT, 0 );
+			areBuffersAllocated = true;
+			numberOfBoxesUploaded = capacity;
+			return;
+		}
+		if ( boundsStart < boundsEnd ) {
+			gl.glBindBuffer( GL.GL_TEXTURE_BUFFER_EXT, bufferIds[ BOUNDS ] );
+			bounds.position( boundsStart * FLOATS_PER_BOX );
+			gl.glBufferSubData(
+				GL.GL_TEXTURE_BUFFER_EXT,
+				boundsStart * FLOATS_PER_BOX * BufferUtil.SIZEOF_FLOAT,
+				( boundsEnd - boundsStart ) * FLOATS_PER_BOX * BufferUtil.SIZEOF_FLOAT,
+				bounds
+			);
+			bounds.rewind();
+			numberOfBoxesUploaded = boundsEnd - boundsStart;
+		}
+		if ( colorStart < colorEnd ) {
+			gl.glBindBuffer( GL.GL_TEXTURE_BUFFER_EXT, bufferIds[ COLORS ] );
+			colors.position( colorStart * BYTES_PER_COLOR );
+			gl.glBufferSubData(
+				GL.GL_TEXTURE_BUFFER_EXT,
+				colorStart * BYTES_PER_COLOR,
+				( colorEnd - colorStart ) * BYTES_PER_COLOR,
+				colors
+			);
+			colors.rewind();
+			numberOfBoxesUploaded = Math.max( numberOfBoxesUploaded, colorEnd - colorStart );
+		}
+		gl.glBindBuffer( GL.GL_TEXTURE_BUFFER_EXT, 0 );
+	}
+
+	// Draws all the boxes, as solid boxes or as wireframes,
+	// with the current blending and depth state.
+	// Must only be called if isSupported() returns true.
+	public void draw( GL gl, boolean drawAsWireframe ) {
+		update( gl );
+		numberOfBoxesDrawn = boxes.getNumberOfBoxes();
+		int numberOfInstances = boxes.size();
+		if ( numberOfInstances == 0 )
+			return;
+
+		gl.glUseProgram( program );
+		gl.glActiveTexture( GL.GL_TEXTURE0 + BOUNDS );
+		gl.glBindTexture( GL.GL_TEXTURE_BUFFER_EXT, textureIds[ BOUNDS ] );
+		gl.glActiveTexture( GL.GL_TEXTURE0 + COLORS );
+		gl.glBindTexture( GL.GL_TEXTURE_BUFFER_EXT, textureIds[ COLORS ] );
+
+		gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
+		gl.glVertexPointer( 3, GL.GL_FLOAT, 0, cubeVertices );
+		if ( drawAsWireframe )
+			gl.glDrawElementsInstancedEXT( GL.GL_LINES, EDGE_CORNERS.length, GL.GL_UNSIGNED_BYTE, edgeIndices, numberOfInstances );
+		else
+			gl.glDrawElementsInstancedEXT( GL.GL_QUADS, FACE_CORNERS.length, GL.GL_UNSIGNED_BYTE, faceIndices, numberOfInstances );
+		gl.glDisableClientState( GL.GL_VERTEX_ARRAY );
+
+		gl.glBindTexture( GL.GL_TEXTURE_BUFFER_EXT, 0 );
+		gl.glActiveTexture( GL.GL_TEXTURE0 + BOUNDS );
+		gl.glBindTexture( GL.GL_TEXTURE_BUFFER_EXT, 0 );
+		gl.glUseProgram( 0 );
+	}
+
+	// Frees the buffers, textures and shaders; contextCreated() must be
+	// called before the renderer can be used again.
+	public void dispose( GL gl ) {
+		if ( bufferIds[0] != 0 ) {
+			gl.glDeleteTextures( 2, textureIds, 0 );
+			gl.glDeleteBuffers( 2, bufferIds, 0 );
+			bufferIds = new int[ 2 ];
+			textureIds = new int[ 2 ];
+		}
+		if ( program != 0 ) {
+			gl.glDeleteProgram( program );
+			program = 0;
+		}
+		isSupported = false;
+		areBuffersAllocated = false;
+		invalidate();
+	}
+
+}
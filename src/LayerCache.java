@@ -0,0 +1,211 @@
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import javax.media.opengl.GL;
+import com.sun.opengl.util.BufferUtil;
+
+// A copy of the color and depth buffers, taken after drawing the
+// parts of a scene that do not change for a while (e.g. the boxes that
+// are not being dragged), so that later frames can start from that copy
+// instead of drawing those parts again.
+//
+// The copy is kept in a framebuffer object (GL_EXT_framebuffer_object),
+// with a texture for the colors and a renderbuffer for the depths, and
+// both copies are done by glBlitFramebufferEXT (GL_EXT_framebuffer_blit),
+// without leaving the GPU.  Without these extensions, or if a blit fails
+// (e.g. because the window's depth buffer has another format than the
+// renderbuffer's), the buffers are read back into memory instead, and
+// written back with glDrawPixels.
+//
+// The copy is only valid for the camera with which it was captured;
+// matches() tells whether the camera has moved since.
+public class LayerCache {
+
+	private int width = 0, height = 0;
+	private boolean isValid = false;
+
+	// The camera's position, target, up vector and viewport at capture time
+	private float [] cameraState = new float[ 11 ];
+	private float [] currentCameraState = new float[ 11 ];
+
+	// The framebuffer object and its attachments, if the extensions are
+	// available (which is checked on the first capture); their size is
+	// 0 by 0 until they are created
+	private boolean isFramebufferSupportChecked = false;
+	private boolean useFramebuffer = false;
+	private int [] framebuffer = new int[ 1 ];
+	private int [] colorTexture = new int[ 1 ];
+	private int [] depthRenderbuffer = new int[ 1 ];
+	private int framebufferWidth = 0, framebufferHeight = 0;
+
+	// The copy read back into memory, without a framebuffer object
+	private ByteBuffer colors; // RGBA, one byte per component
+	private FloatBuffer depths;
+
+	public boolean isValid() { return isValid; }
+
+	// Must be called when the cached parts of the scene have changed.
+	public void invalidate() {
+		isValid = false;
+	}
+
+	// Must be called when a new OpenGL context is created
+	// (the objects of the previous one are gone with it).
+	public void contextCreated( GL gl ) {
+		isValid = false;
+		isFramebufferSupportChecked = false;
+		framebufferWidth = framebufferHeight = 0;
+	}
+
+	// Returns true if the copy is valid and was captured with the
+	// same view as the given camera's.
+	public boolean matches( Camera3D camera ) {
+		if ( ! isValid )
+			return false;
+		getCameraState( camera, currentCameraState );
+		for ( int i = 0; i < cameraState.length; ++i )
+			if ( cameraState[i] != currentCameraState[i] )
+				return false;
+		return true;
+	}
+
+	private static void getCameraState( Camera3D camera, float [] state ) {
+		state[0] = camera.position.x(); state[1] = camera.position.y(); state[2] = camera.position.z();
+		state[3] = camera.target.x(); state[4] = camera.target.y(); state[5] = camera.target.z();
+		state[6] = camera.up.x(); state[7] = camera.up.y(); state[8] = camera.up.z();
+		state[9] = camera.getViewportWidth();
+		state[10] = camera.getViewportHeight();
+	}
+
+	// Copies the color and depth buffers, which must hold
+	// what was drawn with the given camera.
+	public void capture( GL gl, Camera3D camera ) {
+		width = camera.getViewportWidth();
+		height = camera.getViewportHeight();
+		getCameraState( camera, cameraState );
+		isValid = true;
+
+		if ( ! isFramebufferSupportChecked ) {
+			isFramebufferSupportChecked = true;
+			useFramebuffer = gl.isExtensionAvailable( "GL_EXT_framebuffer_object" )
+				&& gl.isExtensionAvailable( "GL_EXT_framebuffer_blit" );
+		}
+		if ( useFramebuffer ) {
+			if ( prepareFramebuffer( gl ) && blit( gl, 0, framebuffer[0] ) )
+				return;
+			useFramebuffer = false;
+			deleteFramebuffer( gl );
+		}
+
+		if ( colors == null || colors.capacity() < 4 * width * height ) {
+			colors = BufferUtil.newByteBuffer( 4 * width * height );
+			depths = BufferUtil.newFloatBuffer( width * height );
+		}
+		colors.rewind();
+		depths.rewind();
+		gl.glPixelStorei( GL.GL_PACK_ALIGNMENT, 1 );
+		gl.glReadPixels( 0, 0, width, height, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, colors );
+		gl.glReadPixels( 0, 0, width, height, GL.GL_DEPTH_COMPONENT, GL.GL_FLOAT, depths );
+	}
+
+	// Writes the copy back into the color and depth buffers
+	// (which need not be cleared beforehand), and returns true.
+	// Returns false, leaving the buffers unchanged, if there is no valid
+	// copy or if it is lost; the caller must then draw the cached parts
+	// of the scene itself (and may capture them again).
+	public boolean restore( GL gl ) {
+		if ( ! isValid )
+			return false;
+		if ( useFramebuffer ) {
+			if ( blit( gl, framebuffer[0], 0 ) )
+				return true;
+			useFramebuffer = false;
+			deleteFramebuffer( gl );
+			isValid = false;
+			return false;
+		}
+
+		colors.rewind();
+		depths.rewind();
+		gl.glPushAttrib( GL.GL_ENABLE_BIT | GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT );
+		gl.glDisable( GL.GL_BLEND );
+		gl.glPixelStorei( GL.GL_UNPACK_ALIGNMENT, 1 );
+		gl.glWindowPos2i( 0, 0 );
+
+		// depth values are only written with the depth test enabled
+		gl.glEnable( GL.GL_DEPTH_TEST );
+		gl.glDepthFunc( GL.GL_ALWAYS );
+		gl.glDepthMask( true );
+		gl.glColorMask( false, false, false, false );
+		gl.glDrawPixels( width, height, GL.GL_DEPTH_COMPONENT, GL.GL_FLOAT, depths );
+
+		gl.glColorMask( true, true, true, true );
+		gl.glDisable( GL.GL_DEPTH_TEST );
+		gl.glDrawPixels( width, height, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, colors );
+		gl.glPopAttrib();
+		return true;
+	}
+
+	// Copies the colors and depths of the width by height pixels at the
+	// bottom left from one framebuffer to the other (0 being the window's),
+	// and returns false if OpenGL reports an error.
+	private boolean blit( GL gl, int source, int destination ) {
+		// clear the errors of earlier calls (a few flags at most)
+		for ( int k = 0; k < 8 && gl.glGetError() != GL.GL_NO_ERROR; ++k ) {
+		}
+		gl.glPushAttrib( GL.GL_ENABLE_BIT | GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT );
+		gl.glDisable( GL.GL_SCISSOR_TEST );
+		gl.glColorMask( true, true, true, true );
+		gl.glDepthMask( true );
+		gl.glBindFramebufferEXT( GL.GL_READ_FRAMEBUFFER_EXT, source );
+		gl.glBindFramebufferEXT( GL.GL_DRAW_FRAMEBUFFER_EXT, destination );
+		gl.glBlitFramebufferEXT(
+			0, 0, width, height, 0, 0, width, height,
+			GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT, GL.GL_NEAREST
+		);
+		gl.glBindFramebufferEXT( GL.GL_FRAMEBUFFER_EXT, 0 );
+		gl.glPopAttrib();
+		return gl.glGetError() == GL.GL_NO_ERROR;
+	}
+
+	// Creates the framebuffer object, or recreates it if it is smaller than
+	// the copy, and returns false if it cannot be completed.
+	private boolean prepareFramebuffer( GL gl ) {
+		if ( framebufferWidth >= width && framebufferHeight >= height )
+			return true;
+		int w = Math.max( width, framebufferWidth ), h = Math.max( height, framebufferHeight );
+		deleteFramebuffer( gl );
+
+		gl.glGenTextures( 1, colorTexture, 0 );
+		gl.glBindTexture( GL.GL_TEXTURE_2D, colorTexture[0] );
+		gl.glTexParameteri( GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST );
+		gl.glTexParameteri( GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_NEAREST );
+		gl.glTexImage2D( GL.GL_TEXTURE_2D, 0, GL.GL_RGBA8, w, h, 0, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, null );
+		gl.glBindTexture( GL.GL_TEXTURE_2D, 0 );
+
+		gl.glGenRenderbuffersEXT( 1, depthRenderbuffer, 0 );
+		gl.glBindRenderbufferEXT( GL.GL_RENDERBUFFER_EXT, depthRenderbuffer[0] );
+		gl.glRenderbufferStorageEXT( GL.GL_RENDERBUFFER_EXT, GL.GL_DEPTH_COMPONENT24, w, h );
+		gl.glBindRenderbufferEXT( GL.GL_RENDERBUFFER_EXT, 0 );
+
+		gl.glGenFramebuffersEXT( 1, framebuffer, 0 );
+		gl.glBindFramebufferEXT( GL.GL_FRAMEBUFFER_EXT, framebuffer[0] );
+		gl.glFramebufferTexture2DEXT( GL.GL_FRAMEBUFFER_EXT, GL.GL_COLOR_ATTACHMENT0_EXT, GL.GL_TEXTURE_2D, colorTexture[0], 0 );
+		gl.glFramebufferRenderbufferEXT( GL.GL_FRAMEBUFFER_EXT, GL.GL_DEPTH_ATTACHMENT_EXT, GL.GL_RENDERBUFFER_EXT, depthRenderbuffer[0] );
+		int status = gl.glCheckFramebufferStatusEXT( GL.GL_FRAMEBUFFER_EXT );
+		gl.glBindFramebufferEXT( GL.GL_FRAMEBUFFER_EXT, 0 );
+
+		framebufferWidth = w;
+		framebufferHeight = h;
+		return status == GL.GL_FRAMEBUFFER_COMPLETE_EXT;
+	}
+
+	private void deleteFramebuffer( GL gl ) {
+		if ( framebufferWidth == 0 )
+			return;
+		gl.glDeleteFramebuffersEXT( 1, framebuffer, 0 );
+		gl.glDeleteRenderbuffersEXT( 1, depthRenderbuffer, 0 );
+		gl.glDeleteTextures( 1, colorTexture, 0 );
+		framebufferWidth = framebufferHeight = 0;
+	}
+
+}
@@ -0,0 +1,415 @@
+
+import java.util.Arrays;
+
+// A "loose" octree over the boxes of a BoxStore, used to quickly find
+// the boxes that may be visible in a view frustum.
+//
+// Each node covers a cubic cell, but the boxes stored in a node are only
+// required to fit within the cell enlarged by a factor of 2 (the node's
+// "loose" bounds).  Hence a box can always be stored in the node whose
+// cell contains the box's center, at the deepest level where the cell is
+// at least as large as the box, and moving a box only requires unlinking
+// it from one node and linking it into another, in O(depth) time.
+//
+// Boxes whose center lies outside of the root's cell are kept in
+// a separate list, and tested individually.  When that list gets too
+// long, the octree is rebuilt (lazily, at the next query) around the
+// current bounds of the scene.
+//
+// As for BoundingVolumeHierarchy, boxes must be indexed in the order
+// they are appended to the store, and compacting the store requires
+// calling remap().
+public class LooseOctree {
+
+	private static final int MAX_DEPTH = 10;
+
+	// Subdividing further than needed to hold a few boxes per
+	// leaf only adds nodes to visit, so at build time we choose a
+	// maximum depth based on the number of boxes.
+	private static final int TARGET_ITEMS_PER_LEAF = 16;
+	private int maxDepth = MAX_DEPTH;
+
+	// A pseudo-node holding the boxes that are outside of the root's cell.
+	private static final int OUTSIDE_NODE = 0;
+	private static final int ROOT = 1;
+
+	private final BoxStore boxes;
+
+	private boolean isDirty = true;
+
+	// Boxes with indices in [0,numberOfIndexedItems) are in the octree.
+	private int numberOfIndexedItems = 0;
+
+	// The nodes, stored as parallel arrays.
+	// The 8 children of a node are stored contiguously,
+	// starting at nodeFirstChild (which is -1 for a leaf).
+	private int numberOfNodes = 0;
+	private float [] nodeCenterX = new float[0], nodeCenterY = new float[0], nodeCenterZ = new float[0];
+	private float [] nodeHalfSize = new float[0]; // of the cell, not of the loose bounds
+	private int [] nodeDepth = new int[0];
+	private int [] nodeParent = new int[0];
+	private int [] nodeFirstChild = new int[0];
+	private int [] nodeFirstItem = new int[0]; // head of a doubly linked list of boxes, or -1
+	private int [] nodeSubtreeCount = new int[0]; // number of boxes in the node and its descendants
+
+	// For each box: the node containing it, and the next and previous
+	// boxes in that node's list.
+	private int [] itemNode = new int[0];
+	private int [] itemNext = new int[0];
+	private int [] itemPrev = new int[0];
+
+	// Results of the last call to cull()
+	private int [] visibleItems = new int[0];
+	private int numberOfVisibleItems = 0;
+	private int numberOfCulledItems = 0;
+	private int numberOfNodesVisited = 0;
+
+	// State of the traversal, so that it can be resumed by cullMore()
+	private int [] stack = new int[ 8*MAX_DEPTH + 16 ];
+	private int stackSize = 0;
+	private Frustum cullFrustum = null;
+	private boolean isFrontToBack = false;
+	private float eyeX, eyeY, eyeZ;
+
+	public LooseOctree( BoxStore boxes ) {
+		this.boxes = boxes;
+	}
+
+	public int getNumberOfNodes() { return numberOfNodes; }
+
+	// Forces a rebuild at the next query.
+	public void invalidate() {
+		isDirty = true;
+	}
+
+	// Must be called after a box has been appended to the store.
+	public void boxAdded( int index ) {
+		if ( isDirty )
+			return;
+		if ( index != numberOfIndexedItems ) {
+			isDirty = true;
+			return;
+		}
+		ensureItemCapacity( index + 1 );
+		link( index, findNode( index ) );
+		numberOfIndexedItems = index + 1;
+		checkOutsideNode();
+	}
+
+	// Must be called after a box has been removed from the store.
+	public void boxRemoved( int index ) {
+		if ( isDirty || index >= numberOfIndexedItems )
+			return;
+		unlink( index );
+		itemNode[ index ] = -1;
+	}
+
+	// Must be called after the store has been compacted,
+	// with the array returned by BoxStore.compact().
+	public void remap( int [] newIndexOfOldIndex ) {
+		if ( newIndexOfOldIndex == null || isDirty )
+			return;
+		// Removed boxes have already been unlinked, so the lists
+		// only refer to boxes that are still in the store.
+		int n = 0;
+		for ( int i = 0; i < numberOfIndexedItems; ++i ) {
+			int j = newIndexOfOldIndex[i];
+			if ( j < 0 )
+				continue;
+			// j <= i, so entries are moved down without clobbering
+			itemNode[j] = itemNode[i];
+			itemNext[j] = itemNext[i] >= 0 ? newIndexOfOldIndex[ itemNext[i] ] : -1;
+			itemPrev[j] = itemPrev[i] >= 0 ? newIndexOfOldIndex[ itemPrev[i] ] : -1;
+			++n;
+		}
+		for ( int node = 0; node < numberOfNodes; ++node )
+			if ( nodeFirstItem[node] >= 0 )
+				nodeFirstItem[node] = newIndexOfOldIndex[ nodeFirstItem[node] ];
+		numberOfIndexedItems = n;
+	}
+
+	// Must be called after the bounds of a box have changed.
+	public void boxMoved( int index ) {
+		if ( isDirty || index >= numberOfIndexedItems )
+			return;
+		int node = findNode( index );
+		if ( node != itemNode[ index ] ) {
+			unlink( index );
+			link( index, node );
+			checkOutsideNode();
+		}
+	}
+
+	private void checkOutsideNode() {
+		if ( nodeSubtreeCount[ OUTSIDE_NODE ] > Math.max( 64, numberOfIndexedItems / 8 ) )
+			isDirty = true;
+	}
+
+	private void ensureItemCapacity( int capacity ) {
+		if ( itemNode.length < capacity ) {
+			int newCapacity = Math.max( capacity, itemNode.length + (itemNode.length >> 1) );
+			itemNode = Arrays.copyOf( itemNode, newCapacity );
+			itemNext = Arrays.copyOf( itemNext, newCapacity );
+			itemPrev = Arrays.copyOf( itemPrev, newCapacity );
+		}
+	}
+
+	private int allocateNodes( int count ) {
+		if ( numberOfNodes + count > nodeCenterX.length ) {
+			int newCapacity = Math.max( numberOfNodes + count, 2*nodeCenterX.length );
+			nodeCenterX = Arrays.copyOf( nodeCenterX, newCapacity );
+			nodeCenterY = Arrays.copyOf( nodeCenterY, newCapacity );
+			nodeCenterZ = Arrays.copyOf( nodeCenterZ, newCapacity );
+			nodeHalfSize = Arrays.copyOf( nodeHalfSize, newCapacity );
+			nodeDepth = Arrays.copyOf( nodeDepth, newCapacity );
+			nodeParent = Arrays.copyOf( nodeParent, newCapacity );
+			nodeFirstChild = Arrays.copyOf( nodeFirstChild, newCapacity );
+			nodeFirstItem = Arrays.copyOf( nodeFirstItem, newCapacity );
+			nodeSubtreeCount = Arrays.copyOf( nodeSubtreeCount, newCapacity );
+		}
+		int first = numberOfNodes;
+		numberOfNodes += count;
+		for ( int node = first; node < numberOfNodes; ++node ) {
+			nodeFirstChild[node] = -1;
+			nodeFirstItem[node] = -1;
+			nodeSubtreeCount[node] = 0;
+		}
+		return first;
+	}
+
+	public void build() {
+		int n = boxes.size();
+
+		// The root's cell is the cube enclosing the scene
+		float x0 = Float.POSITIVE_INFINITY, y0 = Float.POSITIVE_INFINITY, z0 = Float.POSITIVE_INFINITY;
+		float x1 = Float.NEGATIVE_INFINITY, y1 = Float.NEGATIVE_INFINITY, z1 = Float.NEGATIVE_INFINITY;
+		int numberOfBoxes = 0;
+		for ( int i = 0; i < n; ++i ) {
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			++numberOfBoxes;
+			x0 = Math.min( x0, boxes.minX[i] ); y0 = Math.min( y0, boxes.minY[i] ); z0 = Math.min( z0, boxes.minZ[i] );
+			x1 = Math.max( x1, boxes.maxX[i] ); y1 = Math.max( y1, boxes.maxY[i] ); z1 = Math.max( z1, boxes.maxZ[i] );
+		}
+		if ( numberOfBoxes == 0 ) {
+			x0 = y0 = z0 = -1;
+			x1 = y1 = z1 = 1;
+		}
+
+		maxDepth = 1;
+		while ( maxDepth < MAX_DEPTH && Math.pow( 8, maxDepth ) * TARGET_ITEMS_PER_LEAF < numberOfBoxes )
+			++maxDepth;
+
+		numberOfNodes = 0;
+		allocateNodes( 2 );
+		nodeParent[ OUTSIDE_NODE ] = -1;
+		nodeDepth[ OUTSIDE_NODE ] = 0;
+		nodeParent[ ROOT ] = -1;
+		nodeDepth[ ROOT ] = 0;
+		nodeCenterX[ ROOT ] = 0.5f*( x0 + x1 );
+		nodeCenterY[ ROOT ] = 0.5f*( y0 + y1 );
+		nodeCenterZ[ ROOT ] = 0.5f*( z0 + z1 );
+		// Leave some room for boxes to move before they leave the root
+		nodeHalfSize[ ROOT ] = 0.5f * Math.max( x1-x0, Math.max( y1-y0, z1-z0 ) ) * 1.25f + 1;
+
+		ensureItemCapacity( n );
+		for ( int i = 0; i < n; ++i ) {
+			if ( boxes.isAlive( i ) )
+				link( i, findNode( i ) );
+			else
+				itemNode[i] = -1;
+		}
+		numberOfIndexedItems = n;
+		isDirty = false;
+	}
+
+	// Returns the node where the given box belongs,
+	// creating nodes as necessary.
+	private int findNode( int i ) {
+		float cx = 0.5f*( boxes.minX[i] + boxes.maxX[i] );
+		float cy = 0.5f*( boxes.minY[i] + boxes.maxY[i] );
+		float cz = 0.5f*( boxes.minZ[i] + boxes.maxZ[i] );
+		float halfExtent = 0.5f * Math.max(
+			boxes.maxX[i] - boxes.minX[i],
+			Math.max( boxes.maxY[i] - boxes.minY[i], boxes.maxZ[i] - boxes.minZ[i] )
+		);
+		float h = nodeHalfSize[ ROOT ];
+		if (
+			Math.abs( cx - nodeCenterX[ ROOT ] ) > h
+			|| Math.abs( cy - nodeCenterY[ ROOT ] ) > h
+			|| Math.abs( cz - nodeCenterZ[ ROOT ] ) > h
+			|| halfExtent > h
+		)
+			return OUTSIDE_NODE;
+
+		int node = ROOT;
+		while ( nodeDepth[node] < maxDepth ) {
+			float childHalfSize = 0.5f * nodeHalfSize[node];
+			// The box fits in a child's loose bounds if its center is
+			// in the child's cell, and it is no larger than the cell.
+			if ( halfExtent > childHalfSize )
+				break;
+			if ( nodeFirstChild[node] < 0 ) {
+				int first = allocateNodes( 8 );
+				for ( int k = 0; k < 8; ++k ) {
+					int child = first + k;
+					nodeParent[child] = node;
+					nodeDepth[child] = nodeDepth[node] + 1;
+					nodeHalfSize[child] = childHalfSize;
+					nodeCenterX[child] = nodeCenterX[node] + ( (k & 1) != 0 ? childHalfSize : -childHalfSize );
+					nodeCenterY[child] = nodeCenterY[node] + ( (k & 2) != 0 ? childHalfSize : -childHalfSize );
+					nodeCenterZ[child] = nodeCenterZ[node] + ( (k & 4) != 0 ? childHalfSize : -childHalfSize );
+				}
+				nodeFirstChild[node] = first;
+			}
+			node = nodeFirstChild[node]
+				+ ( cx >= nodeCenterX[node] ? 1 : 0 )
+				+ ( cy >= nodeCenterY[node] ? 2 : 0 )
+				+ ( cz >= nodeCenterZ[node] ? 4 : 0 );
+		}
+		return node;
+	}
+
+	private void link( int i, int node ) {
+		itemNode[i] = node;
+		itemPrev[i] = -1;
+		itemNext[i] = nodeFirstItem[node];
+		if ( itemNext[i] >= 0 )
+			itemPrev[ itemNext[i] ] = i;
+		nodeFirstItem[node] = i;
+		for ( int n = node; n >= 0; n = nodeParent[n] )
+			++nodeSubtreeCount[n];
+	}
+
+	private void unlink( int i ) {
+		int node = itemNode[i];
+		if ( itemPrev[i] >= 0 )
+			itemNext[ itemPrev[i] ] = itemNext[i];
+		else
+			nodeFirstItem[node] = itemNext[i];
+		if ( itemNext[i] >= 0 )
+			itemPrev[ itemNext[i] ] = itemPrev[i];
+		for ( int n = node; n >= 0; n = nodeParent[n] )
+			--nodeSubtreeCount[n];
+	}
+
+	// Finds the boxes that intersect the given frustum.
+	// Afterward, the results are available through getVisibleItems()
+	// and getNumberOfVisibleItems().
+	public void cull( Frustum frustum ) {
+		startCull( frustum );
+		cullMore( Integer.MAX_VALUE );
+	}
+
+	// Starts finding the boxes that intersect the given frustum, roughly
+	// from front to back as seen from the given eye: the children of each
+	// node are visited from the nearest to the farthest.  The boxes are
+	// found by calling cullMore(), which allows the caller to stop early.
+	public void startCullFrontToBack( Frustum frustum, Point3D eye ) {
+		startCull( frustum );
+		isFrontToBack = true;
+		eyeX = eye.x();
+		eyeY = eye.y();
+		eyeZ = eye.z();
+	}
+
+	private void startCull( Frustum frustum ) {
+		if ( isDirty )
+			build();
+		if ( visibleItems.length < boxes.size() )
+			visibleItems = new int[ boxes.capacity() ];
+		numberOfVisibleItems = 0;
+		numberOfCulledItems = 0;
+		numberOfNodesVisited = 0;
+		cullFrustum = frustum;
+		isFrontToBack = false;
+
+		// boxes outside of the root's cell
+		for ( int i = nodeFirstItem[ OUTSIDE_NODE ]; i >= 0; i = itemNext[i] ) {
+			if ( frustum.intersectsBox( boxes.minX[i], boxes.minY[i], boxes.minZ[i], boxes.maxX[i], boxes.maxY[i], boxes.maxZ[i] ) )
+				visibleItems[ numberOfVisibleItems++ ] = i;
+			else
+				++numberOfCulledItems;
+		}
+
+		stackSize = 0;
+		stack[ stackSize++ ] = ROOT;
+	}
+
+	// Continues the traversal started by startCullFrontToBack(), until at
+	// least maxItems more visible boxes are found or all nodes are visited.
+	// Returns false if the traversal is over.
+	public boolean cullMore( int maxItems ) {
+		Frustum frustum = cullFrustum;
+		int target = maxItems > Integer.MAX_VALUE - numberOfVisibleItems ? Integer.MAX_VALUE : numberOfVisibleItems + maxItems;
+		// On the stack, a node is encoded as ~node if it is known
+		// to be entirely inside the frustum.
+		while ( stackSize > 0 && numberOfVisibleItems < target ) {
+			int entry = stack[ --stackSize ];
+			boolean isInside = entry < 0;
+			int node = isInside ? ~entry : entry;
+			if ( nodeSubtreeCount[node] == 0 )
+				continue;
+			++numberOfNodesVisited;
+
+			if ( ! isInside ) {
+				float loose = 2 * nodeHalfSize[node];
+				int classification = frustum.classifyBox(
+					nodeCenterX[node] - loose, nodeCenterY[node] - loose, nodeCenterZ[node] - loose,
+					nodeCenterX[node] + loose, nodeCenterY[node] + loose, nodeCenterZ[node] + loose
+				);
+				if ( classification == Frustum.OUTSIDE ) {
+					numberOfCulledItems += nodeSubtreeCount[node];
+					continue;
+				}
+				isInside = classification == Frustum.INSIDE;
+			}
+
+			for ( int i = nodeFirstItem[node]; i >= 0; i = itemNext[i] ) {
+				if (
+					isInside
+					|| frustum.intersectsBox( boxes.minX[i], boxes.minY[i], boxes.minZ[i], boxes.maxX[i], boxes.maxY[i], boxes.maxZ[i] )
+				)
+					visibleItems[ numberOfVisibleItems++ ] = i;
+				else
+					++numberOfCulledItems;
+			}
+			int firstChild = nodeFirstChild[node];
+			if ( firstChild >= 0 ) {
+				if ( stackSize + 8 > stack.length )
+					stack = Arrays.copyOf( stack, 2*stack.length );
+				// The child on the eye's side in all 3 dimensions is pushed
+				// last (so visited first), and the farthest child first.
+				int nearest = 0;
+				if ( isFrontToBack ) {
+					if ( eyeX >= nodeCenterX[node] ) nearest |= 1;
+					if ( eyeY >= nodeCenterY[node] ) nearest |= 2;
+					if ( eyeZ >= nodeCenterZ[node] ) nearest |= 4;
+				}
+				for ( int k = 7; k >= 0; --k ) {
+					int child = firstChild + ( k ^ nearest );
+					stack[ stackSize++ ] = isInside ? ~child : child;
+				}
+			}
+		}
+		return stackSize > 0;
+	}
+
+	// Number of boxes in the nodes not visited yet by the traversal
+	// (some of which may be outside the frustum).
+	public int getNumberOfUnvisitedItems() {
+		int n = 0;
+		for ( int k = 0; k < stackSize; ++k )
+			n += nodeSubtreeCount[ stack[k] < 0 ? ~stack[k] : stack[k] ];
+		return n;
+	}
+
+	// The indices of the boxes found by the last call to cull().
+	// Only the first getNumberOfVisibleItems() elements are valid.
+	public int [] getVisibleItems() { return visibleItems; }
+	public int getNumberOfVisibleItems() { return numberOfVisibleItems; }
+	public int getNumberOfCulledItems() { return numberOfCulledItems; }
+	public int getNumberOfNodesVisited() { return numberOfNodesVisited; }
+
+}
+
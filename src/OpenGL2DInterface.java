@@ -1,6 +1,10 @@
 
 import java.lang.Math;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
 import javax.media.opengl.GL;
+import com.sun.opengl.util.BufferUtil;
 import com.sun.opengl.util.GLUT;
 
 public class OpenGL2DInterface {
@@ -32,6 +36,84 @@ public class OpenGL2DInterface {
 	// and uses 1 row of pixels in every character bitmap for vertical spacing.
 	private static final float G_FONT_VERTICAL_SPACE = (1.0f/17)*(G_FONT_ASCENT+G_FONT_DESCENT);
 
+	// Strings are drawn from display lists, shared by all the instances
+	// (which are all used with the same OpenGL context).
+	private static final StrokeText strokeText = new StrokeText();
+
+	public static StrokeText getStrokeText() { return strokeText; }
+
+	// The points of a unit circle, as (cos,sin) pairs, for angles
+	// i*2*pi/numSides with i in [0,numSides], keyed by numSides.
+	// Circles of the same radius (e.g. those of a radial menu, drawn at
+	// every frame) share the same table.
+	private static final HashMap<Integer,float[]> unitCircles = new HashMap<Integer,float[]>();
+
+	// the last table used by this object, to skip the lookup
+	// when circles of the same radius are drawn one after the other
+	private float [] lastUnitCircle = null;
+	private int lastNumSides = 0;
+
+	private float [] getLastUnitCircle( int numSides ) {
+		if ( lastUnitCircle == null || lastNumSides != numSides ) {
+			lastUnitCircle = getUnitCircle( numSides );
+			lastNumSides = numSides;
+		}
+		return lastUnitCircle;
+	}
+
+	private static synchronized float [] getUnitCircle( int numSides ) {
+		Integer key = Integer.valueOf( numSides );
+		float [] table = unitCircles.get( key );
+		if ( table == null ) {
+			table = new float[ 2*(numSides+1) ];
+			double deltaAngle = 2 * Math.PI / numSides;
+			for ( int i = 0; i <= numSides; ++i ) {
+				table[2*i  ] = (float)Math.cos( i * deltaAngle );
+				table[2*i+1] = (float)Math.sin( i * deltaAngle );
+			}
+			unitCircles.put( key, table );
+		}
+		return table;
+	}
+
+	// Vertices (and their colors) accumulated in batch mode,
+	// for one kind of primitive.
+	private static class VertexArray {
+		public final int mode; // GL_POINTS, GL_LINES or GL_TRIANGLES
+		public int count = 0;
+		public float [] xy = new float[ 2*256 ];
+		public float [] rgba = new float[ 4*256 ];
+		// copies of the arrays for OpenGL, grown as needed
+		public FloatBuffer xyBuffer, rgbaBuffer;
+
+		public VertexArray( int mode ) { this.mode = mode; }
+
+		public void add( float x, float y, float [] color ) {
+			if ( count == xy.length / 2 ) {
+				xy = Arrays.copyOf( xy, 2 * xy.length );
+				rgba = Arrays.copyOf( rgba, 2 * rgba.length );
+			}
+			xy[2*count] = x;
+			xy[2*count+1] = y;
+			int i = 4*count;
+			rgba[i] = color[0]; rgba[i+1] = color[1]; rgba[i+2] = color[2]; rgba[i+3] = color[3];
+			++count;
+		}
+	}
+
+	// In batch mode, drawing methods append to these arrays instead of
+	// calling OpenGL, and the arrays are drawn by flush().
+	private boolean isBatching = false;
+	private float [] batchColor = { 1, 1, 1, 1 };
+	private final VertexArray batchedTriangles = new VertexArray( GL.GL_TRIANGLES );
+	private final VertexArray batchedLines = new VertexArray( GL.GL_LINES );
+	private final VertexArray batchedPoints = new VertexArray( GL.GL_POINTS );
+
+	// statistics, since the last call to resetStatistics()
+	private int numberOfPrimitives = 0; // calls to the drawing methods
+	private int numberOfDrawCalls = 0; // glBegin(), glRecti() or glDrawArrays() calls
+	private int numberOfFlushes = 0;
+
 
 
 	// For all of these methods, any pixel coordinates passed
@@ -80,6 +162,96 @@ public class OpenGL2DInterface {
 		gl.glPopMatrix();
 	}
 
+	// Between beginBatch() and endBatch(), the drawing methods (except
+	// drawString()) append their vertices to arrays instead of drawing
+	// right away, and the arrays are drawn with one glDrawArrays() per
+	// kind of primitive when the batch is flushed: filled shapes first,
+	// then lines, then points, each in the order they were added.
+	// Since the vertices carry their own color, the color must be set
+	// with setColor() rather than glColor*() while batching.
+	// drawString() flushes the batch, so that text is drawn over the
+	// shapes added before it.
+	public void beginBatch( GL gl ) {
+		isBatching = true;
+	}
+
+	public void endBatch( GL gl ) {
+		flush( gl );
+		isBatching = false;
+	}
+
+	public boolean isBatching() { return isBatching; }
+
+	public void setColor( GL gl, float r, float g, float b, float a ) {
+		if ( isBatching ) {
+			batchColor[0] = r; batchColor[1] = g; batchColor[2] = b; batchColor[3] = a;
+		}
+		else
+			gl.glColor4f( r, g, b, a );
+	}
+
+	public void setColor( GL gl, float r, float g, float b ) {
+		setColor( gl, r, g, b, 1 );
+	}
+
+	// Draws what has been batched so far.
+	public void flush( GL gl ) {
+		if ( batchedTriangles.count + batchedLines.count + batchedPoints.count == 0 )
+			return;
+		++numberOfFlushes;
+		gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
+		gl.glEnableClientState( GL.GL_COLOR_ARRAY );
+		drawBatch( gl, batchedTriangles );
+		drawBatch( gl, batchedLines );
+		drawBatch( gl, batchedPoints );
+		gl.glDisableClientState( GL.GL_COLOR_ARRAY );
+		gl.glDisableClientState( GL.GL_VERTEX_ARRAY );
+	}
+
+	private void drawBatch( GL gl, VertexArray array ) {
+		int n = array.count;
+		if ( n == 0 )
+			return;
+		if ( array.xyBuffer == null || array.xyBuffer.capacity() < 2*n ) {
+			array.xyBuffer = BufferUtil.newFloatBuffer( array.xy.length );
+			array.rgbaBuffer = BufferUtil.newFloatBuffer( array.rgba.length );
+		}
+		array.xyBuffer.clear();
+		array.xyBuffer.put( array.xy, 0, 2*n ).rewind();
+		array.rgbaBuffer.clear();
+		array.rgbaBuffer.put( array.rgba, 0, 4*n ).rewind();
+		gl.glVertexPointer( 2, GL.GL_FLOAT, 0, array.xyBuffer );
+		gl.glColorPointer( 4, GL.GL_FLOAT, 0, array.rgbaBuffer );
+		gl.glDrawArrays( array.mode, 0, n );
+		++numberOfDrawCalls;
+		array.count = 0;
+	}
+
+	private void batchPoint( float x, float y ) {
+		batchedPoints.add( x, y, batchColor );
+	}
+
+	private void batchLine( float x1, float y1, float x2, float y2 ) {
+		batchedLines.add( x1, y1, batchColor );
+		batchedLines.add( x2, y2, batchColor );
+	}
+
+	private void batchTriangle( float x1, float y1, float x2, float y2, float x3, float y3 ) {
+		batchedTriangles.add( x1, y1, batchColor );
+		batchedTriangles.add( x2, y2, batchColor );
+		batchedTriangles.add( x3, y3, batchColor );
+	}
+
+	public int getNumberOfPrimitives() { return numberOfPrimitives; }
+	public int getNumberOfDrawCalls() { return numberOfDrawCalls; }
+	public int getNumberOfFlushes() { return numberOfFlushes; }
+
+	public void resetStatistics() {
+		numberOfPrimitives = 0;
+		numberOfDrawCalls = 0;
+		numberOfFlushes = 0;
+	}
+
 	// These can be used if glVertex*() must be called directly,
 	// e.g.
 	//    OpenGL2DInterface g;
@@ -96,6 +268,12 @@ public class OpenGL2DInterface {
 
 	public void plotPixel( GL gl, int x, int y ) {
 		y = _window_height - y - 1;
+		++numberOfPrimitives;
+		if ( isBatching ) {
+			batchPoint( x+0.5f, y+0.5f );
+			return;
+		}
+		++numberOfDrawCalls;
 		gl.glBegin( GL.GL_POINTS );
 			gl.glVertex2f( x+0.5f, y+0.5f );
 		gl.glEnd();
@@ -104,6 +282,13 @@ public class OpenGL2DInterface {
 	public void drawLine( GL gl, int x1, int y1, int x2, int y2 ) {
 		y1 = _window_height - y1 - 1;
 		y2 = _window_height - y2 - 1;
+		++numberOfPrimitives;
+		if ( isBatching ) {
+			batchLine( x1+0.5f, y1+0.5f, x2+0.5f, y2+0.5f );
+			batchPoint( x2+0.5f, y2+0.5f );
+			return;
+		}
+		numberOfDrawCalls += 2;
 		gl.glBegin( GL.GL_LINES );
 			gl.glVertex2f( x1+0.5f, y1+0.5f );
 			gl.glVertex2f( x2+0.5f, y2+0.5f );
@@ -117,6 +302,17 @@ public class OpenGL2DInterface {
 		y = _window_height - y - h;
 		--w;
 		--h;
+		++numberOfPrimitives;
+		if ( isBatching ) {
+			// the segments of the loop, in the same order
+			float x0 = x+0.5f, y0 = y+0.5f, x1 = x+w+0.5f, y1 = y+h+0.5f;
+			batchLine( x0, y0, x1, y0 );
+			batchLine( x1, y0, x1, y1 );
+			batchLine( x1, y1, x0, y1 );
+			batchLine( x0, y1, x0, y0 );
+			return;
+		}
+		++numberOfDrawCalls;
 		gl.glBegin( GL.GL_LINE_LOOP );
 			gl.glVertex2f( x+0.5f, y+0.5f );
 			gl.glVertex2f( x+w+0.5f, y+0.5f );
@@ -127,6 +323,13 @@ public class OpenGL2DInterface {
 
 	public void fillRect( GL gl, int x, int y, int w, int h ) {
 		y = _window_height - y - h;
+		++numberOfPrimitives;
+		if ( isBatching ) {
+			batchTriangle( x, y, x+w, y, x+w, y+h );
+			batchTriangle( x, y, x+w, y+h, x, y+h );
+			return;
+		}
+		++numberOfDrawCalls;
 		gl.glRecti( x, y, x+w, y+h );
 	}
 
@@ -139,14 +342,27 @@ public class OpenGL2DInterface {
 
 	public void drawCircle( GL gl, int x, int y, int radius, boolean filled ) {
 		y = _window_height - y - 1;
+		int numSides = (int)( 2 * Math.PI * radius + 1 );
+		float [] unitCircle = getLastUnitCircle( numSides );
+		float cx = x+0.5f, cy = y+0.5f;
+		++numberOfPrimitives;
+		if ( isBatching ) {
+			for ( int i = 0; i < numSides; ++i ) {
+				float ax = cx+radius*unitCircle[2*i], ay = cy+radius*unitCircle[2*i+1];
+				float bx = cx+radius*unitCircle[2*i+2], by = cy+radius*unitCircle[2*i+3];
+				if ( filled )
+					batchTriangle( cx, cy, ax, ay, bx, by );
+				else
+					batchLine( ax, ay, bx, by );
+			}
+			return;
+		}
+		++numberOfDrawCalls;
 		if ( filled ) {
 			gl.glBegin( GL.GL_TRIANGLE_FAN );
-			gl.glVertex2f( x+0.5f, y+0.5f );
+			gl.glVertex2f( cx, cy );
 		}
 		else gl.glBegin( GL.GL_LINE_LOOP );
-			int numSides = (int)( 2 * Math.PI * radius + 1 );
-			float deltaAngle = 2 * (float)Math.PI / numSides;
-
 			// Note: I used to loop up to "< numSides",
 			// and indeed I think this is okay for the
 			// non-filled case (because of the GL_LINE_LOOP),
@@ -155,8 +371,7 @@ public class OpenGL2DInterface {
 			// we have a 1-pixel-wide sliver missing.
 			// Using "<=" fixes this.
 			for ( int i = 0; i <= numSides; ++i ) {
-				float angle = i * deltaAngle;
-				gl.glVertex2f( x+radius*(float)Math.cos(angle)+0.5f, y+radius*(float)Math.sin(angle)+0.5f );
+				gl.glVertex2f( cx+radius*unitCircle[2*i], cy+radius*unitCircle[2*i+1] );
 			}
 		gl.glEnd();
 	}
@@ -173,24 +388,53 @@ public class OpenGL2DInterface {
 		float arrowHeadLength
 	) {
 		y = _window_height - y - 1;
-		if ( filled ) {
-			if ( arcAngle < 0 )
-				gl.glFrontFace( GL.GL_CW );
-			gl.glBegin( GL.GL_TRIANGLE_FAN );
-			gl.glVertex2f( x+0.5f, y+0.5f );
+		int numSides = (int)( Math.abs(arcAngle) * radius + 1 );
+		float deltaAngle = arcAngle / numSides;
+		float cx = x+0.5f, cy = y+0.5f;
+		++numberOfPrimitives;
+
+		// The points of the arc are rotated from one to the next,
+		// rather than computed with cos() and sin() each.
+		float cosDelta = (float)Math.cos( deltaAngle ), sinDelta = (float)Math.sin( deltaAngle );
+		float c = (float)Math.cos( startAngle ), s = (float)Math.sin( startAngle );
+		if ( isBatching ) {
+			float px = cx+radius*c, py = cy+radius*s;
+			for ( int i = 1; i <= numSides; ++i ) {
+				float tmp = c*cosDelta - s*sinDelta;
+				s = s*cosDelta + c*sinDelta;
+				c = tmp;
+				float qx = cx+radius*c, qy = cy+radius*s;
+				if ( ! filled )
+					batchLine( px, py, qx, qy );
+				else if ( arcAngle < 0 )
+					// keep the triangles counterclockwise
+					batchTriangle( cx, cy, qx, qy, px, py );
+				else
+					batchTriangle( cx, cy, px, py, qx, qy );
+				px = qx;
+				py = qy;
+			}
 		}
-		else gl.glBegin( GL.GL_LINE_STRIP );
-			int numSides = (int)( Math.abs(arcAngle) * radius + 1 );
-			float deltaAngle = arcAngle / numSides;
-
-			for ( int i = 0; i <= numSides; ++i ) {
-				float angle = startAngle + i * deltaAngle;
-				gl.glVertex2f( x+radius*(float)Math.cos(angle)+0.5f, y+radius*(float)Math.sin(angle)+0.5f );
+		else {
+			++numberOfDrawCalls;
+			if ( filled ) {
+				if ( arcAngle < 0 )
+					gl.glFrontFace( GL.GL_CW );
+				gl.glBegin( GL.GL_TRIANGLE_FAN );
+				gl.glVertex2f( cx, cy );
 			}
-		gl.glEnd();
-
-		if ( filled && arcAngle < 0 )
-			gl.glFrontFace( GL.GL_CCW );
+			else gl.glBegin( GL.GL_LINE_STRIP );
+				for ( int i = 0; i <= numSides; ++i ) {
+					gl.glVertex2f( cx+radius*c, cy+radius*s );
+					float tmp = c*cosDelta - s*sinDelta;
+					s = s*cosDelta + c*sinDelta;
+					c = tmp;
+				}
+			gl.glEnd();
+
+			if ( filled && arcAngle < 0 )
+				gl.glFrontFace( GL.GL_CCW );
+		}
 
 		if ( isArrowHeadAtStart || isArrowHeadAtEnd ) {
 
@@ -222,19 +466,15 @@ public class OpenGL2DInterface {
 			}
 			if ( isArrowHeadAtStart ) {
 				float theta = - startAngle;
-				float c = (float)Math.cos( theta );
-				float s = (float)Math.sin( theta );
+				c = (float)Math.cos( theta );
+				s = (float)Math.sin( theta );
 				float Px_prime =  c*Px + s*Py;
 				float Py_prime = -s*Px + c*Py;
 				float Ax_prime =  c*Ax + s*Ay;
 				float Ay_prime = -s*Ax + c*Ay;
 				float Bx_prime =  c*Bx + s*By;
 				float By_prime = -s*Bx + c*By;
-				gl.glBegin( GL.GL_LINE_STRIP );
-					gl.glVertex2f( x+Ax_prime+0.5f, y+Ay_prime+0.5f );
-					gl.glVertex2f( x+Px_prime+0.5f, y+Py_prime+0.5f );
-					gl.glVertex2f( x+Bx_prime+0.5f, y+By_prime+0.5f );
-				gl.glEnd();
+				drawArrowHead( gl, x, y, Ax_prime, Ay_prime, Px_prime, Py_prime, Bx_prime, By_prime );
 			}
 
 			// Draw arrow head at other end.
@@ -245,24 +485,40 @@ public class OpenGL2DInterface {
 
 			if ( isArrowHeadAtEnd ) {
 				float theta = - ( startAngle + arcAngle );
-				float c = (float)Math.cos( theta );
-				float s = (float)Math.sin( theta );
+				c = (float)Math.cos( theta );
+				s = (float)Math.sin( theta );
 				float Px_prime =  c*Px + s*Py;
 				float Py_prime = -s*Px + c*Py;
 				float Ax_prime =  c*Ax + s*Ay;
 				float Ay_prime = -s*Ax + c*Ay;
 				float Bx_prime =  c*Bx + s*By;
 				float By_prime = -s*Bx + c*By;
-				gl.glBegin( GL.GL_LINE_STRIP );
-					gl.glVertex2f( x+Ax_prime+0.5f, y+Ay_prime+0.5f );
-					gl.glVertex2f( x+Px_prime+0.5f, y+Py_prime+0.5f );
-					gl.glVertex2f( x+Bx_prime+0.5f, y+By_prime+0.5f );
-				gl.glEnd();
+				drawArrowHead( gl, x, y, Ax_prime, Ay_prime, Px_prime, Py_prime, Bx_prime, By_prime );
 			}
 		}
 	}
 
+	// Draws the line strip A, P, B, relative to (x,y).
+	private void drawArrowHead(
+		GL gl, int x, int y,
+		float Ax, float Ay, float Px, float Py, float Bx, float By
+	) {
+		if ( isBatching ) {
+			batchLine( x+Ax+0.5f, y+Ay+0.5f, x+Px+0.5f, y+Py+0.5f );
+			batchLine( x+Px+0.5f, y+Py+0.5f, x+Bx+0.5f, y+By+0.5f );
+			return;
+		}
+		++numberOfDrawCalls;
+		gl.glBegin( GL.GL_LINE_STRIP );
+			gl.glVertex2f( x+Ax+0.5f, y+Ay+0.5f );
+			gl.glVertex2f( x+Px+0.5f, y+Py+0.5f );
+			gl.glVertex2f( x+Bx+0.5f, y+By+0.5f );
+		gl.glEnd();
+	}
+
 	// returns the width of a string given the desired height
+	// (all the glyphs of the font have the same width, including those
+	// drawn from the display lists of strokeText)
 	public static float stringWidthInPixels(
 		String s,
 		float height,   // string is scaled to be this high, in pixels
@@ -298,6 +554,13 @@ public class OpenGL2DInterface {
 	) {
 		if ( s.length() == 0 ) return;
 
+		if ( isBatching ) {
+			// draw the string over what was batched before it,
+			// with the color last set with setColor()
+			flush( gl );
+			gl.glColor4f( batchColor[0], batchColor[1], batchColor[2], batchColor[3] );
+		}
+
 		y = _window_height - y - 1;
 
 		float ascent; // in pixels
@@ -323,9 +586,7 @@ public class OpenGL2DInterface {
 
 			// We scale the text to make its height that desired by the caller.
 			float sf = ascent / G_FONT_ASCENT; // scale factor
-			gl.glScalef( sf, sf, 1 );
-			for ( int j = 0; j < s.length(); ++j )
-				glut.glutStrokeCharacter( GLUT.STROKE_MONO_ROMAN, s.charAt(j) );
+			strokeText.draw( gl, glut, s, sf );
 
 		gl.glPopMatrix();
 	}
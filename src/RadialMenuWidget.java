@@ -1,5 +1,6 @@
 
 
+import java.util.ArrayList;
 import javax.media.opengl.GL;
 import com.sun.opengl.util.GLUT;
 
@@ -55,6 +56,28 @@ public class RadialMenuWidget extends CustomWidget {
 	private float backgroundGreen = 0.0f; // in [0,1]
 	private float backgroundBlue  = 0.0f; // in [0,1]
 
+	private OpenGL2DInterface ogl2D = new OpenGL2DInterface();
+
+	// The layout of the items, relative to the center of the menu,
+	// computed when the labels change rather than at every frame.
+	private boolean isLayoutDirty = true;
+	private boolean [] isItemShown = new boolean[ N + 1 ];
+	private int [] itemLeft = new int[ N + 1 ], itemTop = new int[ N + 1 ], itemWidth = new int[ N + 1 ];
+	private int [] labelX = new int[ N + 1 ], labelY = new int[ N + 1 ];
+
+	// The item selected by dragging in each of NUMBER_OF_SECTORS equal
+	// angular sectors, clockwise from straight up.  The boundaries
+	// between items, and between the closest enabled items (used when the
+	// item under the mouse is empty or disabled), are all multiples of
+	// pi/8, so they fall on boundaries between sectors.
+	private static final int NUMBER_OF_SECTORS = 64;
+	private int [] itemOfSector = new int[ NUMBER_OF_SECTORS ];
+
+	// A display list of the whole menu (relative to its center) for each
+	// selected item, compiled the first time it is drawn, or 0.
+	private int [] listOfSelectedItem = new int[ N + 1 ];
+	private ArrayList<Integer> listsToDelete = new ArrayList<Integer>();
+
 	public RadialMenuWidget() {
 		for (int i = 0; i <= N; ++i) {
 			label[i] = new String("");
@@ -69,11 +92,37 @@ public class RadialMenuWidget extends CustomWidget {
 		if ( 0 <= index && index <= N ) {
 			label[index] = s;
 			itemID[index] = id;
+			invalidateLayout();
 		}
 	}
 	public void setItemLabel( int index, String s ) {
 		if ( 0 <= index && index <= N ) {
 			label[index] = s;
+			invalidateLayout();
+		}
+	}
+	public void setItemEnabled( int index, boolean flag ) {
+		if ( 0 <= index && index <= N && isEnabled[index] != flag ) {
+			isEnabled[index] = flag;
+			invalidateLayout();
+		}
+	}
+
+	// Must be called when a new OpenGL context is created,
+	// since the display lists belonged to the previous one.
+	public void contextCreated( GL gl ) {
+		for ( int i = 0; i <= N; ++i )
+			listOfSelectedItem[i] = 0;
+		listsToDelete.clear();
+	}
+
+	private void invalidateLayout() {
+		isLayoutDirty = true;
+		for ( int i = 0; i <= N; ++i ) {
+			if ( listOfSelectedItem[i] != 0 ) {
+				listsToDelete.add( Integer.valueOf( listOfSelectedItem[i] ) );
+				listOfSelectedItem[i] = 0;
+			}
 		}
 	}
 	public int getItemID( int index ) {
@@ -123,49 +172,18 @@ public class RadialMenuWidget extends CustomWidget {
 		mouse_y = y;
 		int dx = mouse_x - x0;
 		int dy = mouse_y - y0;
-		float radius = (float)Math.sqrt( dx*dx + dy*dy );
 
 		int newlySelectedItem = CENTRAL_ITEM;
 
-		if ( radius > radiusOfNeutralZone ) {
-			float theta = (float)Math.asin( dy / radius );
-			if ( dx < 0 ) theta = (float)Math.PI - theta;
-
-			// theta is now relative to the +x axis, which points right,
-			// and increases clockwise (because y+ points down).
-			// If we added pi/2 radians, it would be relative to the -y
-			// axis (which points up).
-			// However, what we really want is for it to be relative to
-			// the radial line that divides item 1 from item 8.
-			// So we must add pi/2 + pi/8 radians.
-
-			theta += 5 * (float)Math.PI / 8;
+		if ( dx*dx + dy*dy > radiusOfNeutralZone*radiusOfNeutralZone ) {
+			if ( isLayoutDirty )
+				computeLayout();
 
-			// Ensure it's in [0,2*pi]
-			assert theta > 0;
-			if ( theta > 2*Math.PI ) theta -= 2*(float)Math.PI;
-
-			newlySelectedItem = 1 + (int)( theta / ((float)Math.PI / 4) );
-			assert 1 <= newlySelectedItem && newlySelectedItem <= N;
-
-			if ( label[ newlySelectedItem ].length() == 0 || ! isEnabled[ newlySelectedItem ] ) {
-				// loop over all items, looking for the closest one
-				float minDifference = 4*(float)Math.PI;
-				int itemWithMinDifference = CENTRAL_ITEM;
-				for ( int candidateItem = 1; candidateItem <= N; ++candidateItem ) {
-					if ( label[ candidateItem ].length() > 0 && isEnabled[ candidateItem ] ) {
-						float candidateItemTheta = (candidateItem-1) * ((float)Math.PI/4) + (float)Math.PI/8;
-						float candidateDifference = Math.abs( candidateItemTheta - theta );
-						if ( candidateDifference > Math.PI )
-							candidateDifference = 2*(float)Math.PI - candidateDifference;
-						if ( candidateDifference < minDifference ) {
-							minDifference = candidateDifference;
-							itemWithMinDifference = candidateItem;
-						}
-					}
-				}
-				newlySelectedItem = itemWithMinDifference;
-			}
+			// The angle is measured clockwise from the -y axis (which
+			// points up, since y+ points down), in [-pi,pi].
+			double theta = Math.atan2( dx, -dy );
+			int sector = (int)Math.floor( theta * ( NUMBER_OF_SECTORS / ( 2*Math.PI ) ) );
+			newlySelectedItem = itemOfSector[ ( sector + NUMBER_OF_SECTORS ) % NUMBER_OF_SECTORS ];
 		}
 
 		if ( newlySelectedItem != selectedItem ) {
@@ -176,44 +194,9 @@ public class RadialMenuWidget extends CustomWidget {
 		return S_DONT_REDRAW;
 	}
 
-	public void draw(
-		GL gl, GLUT glut,
-		int window_width_in_pixels,
-		int window_height_in_pixels
-	) {
-		if ( ! isVisible )
-			return;
-
-		gl.glPushAttrib(GL.GL_COLOR_BUFFER_BIT | GL.GL_CURRENT_BIT | GL.GL_ENABLE_BIT | GL.GL_DEPTH_BUFFER_BIT);
-		gl.glDisable(GL.GL_LIGHTING);
-		gl.glDisable(GL.GL_DEPTH_TEST);
-		gl.glDepthMask(false);
-
-		// The caller may have an arbitrary (2D or 3D)
-		// projection already setup.
-		// Since we can't know what projection is already setup,
-		// we *push* our own projection based on pixel coordinates.
-		OpenGL2DInterface ogl2D = new OpenGL2DInterface();
-		ogl2D.pushProjection( gl, window_width_in_pixels, window_height_in_pixels );
-
-		// draw stuff
-		gl.glEnable( GL.GL_LINE_SMOOTH );
-		gl.glBlendFunc( GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA );
-		gl.glEnable( GL.GL_BLEND );
-
-		final float alpha = 0.6f;
-
-		if ( isItemHilited( CENTRAL_ITEM ) )
-			gl.glColor4f( foregroundRed, foregroundGreen, foregroundBlue, alpha );
-		else
-			gl.glColor4f( backgroundRed, backgroundGreen, backgroundBlue, alpha );
-		ogl2D.drawCircle( gl, x0, y0, radiusOfNeutralZone, true );
-		if ( ! isItemHilited( CENTRAL_ITEM ) )
-			gl.glColor4f( foregroundRed, foregroundGreen, foregroundBlue, 1.0f );
-		else
-			gl.glColor4f( backgroundRed, backgroundGreen, backgroundBlue, 1.0f );
-		ogl2D.drawCircle( gl, x0, y0, radiusOfNeutralZone, false );
-
+	// Computes the positions of the items relative to the center of the
+	// menu, and which item each sector selects.
+	private void computeLayout() {
 		/*
 			Below we have the upper right quadrant of the radial menu.
 				+---------+              \
@@ -246,83 +229,195 @@ public class RadialMenuWidget extends CustomWidget {
 		float radiusPrime = radius / (float)Math.sqrt(2.0f);
 
 		for ( int i = 1; i <= N; ++i ) {
-			if ( label[i].length() > 0 && isEnabled[i] ) {
-				float theta = (float)( (i-1)*Math.PI/4 - Math.PI/2 );
-				// compute center of ith label
-				float x = ( (i%2)==1 ? radius : radiusPrime ) * (float)Math.cos( theta ) + x0;
-				float y = ( (i%2)==1 ? radius : radiusPrime ) * (float)Math.sin( theta ) + y0;
-
-				if ( i == 1 && label[2].length() == 0 && label[8].length() == 0 ) {
-					y = -radius/2 + y0;
-				}
-				else if ( i == 5 && label[4].length() == 0 && label[6].length() == 0 ) {
-					y = radius/2 + y0;
-				}
+			isItemShown[i] = label[i].length() > 0 && isEnabled[i];
+			if ( ! isItemShown[i] )
+				continue;
+
+			float theta = (float)( (i-1)*Math.PI/4 - Math.PI/2 );
+			// compute center of ith label, relative to the menu's center
+			float x = ( (i%2)==1 ? radius : radiusPrime ) * (float)Math.cos( theta );
+			float y = ( (i%2)==1 ? radius : radiusPrime ) * (float)Math.sin( theta );
+
+			if ( i == 1 && label[2].length() == 0 && label[8].length() == 0 ) {
+				y = -radius/2;
+			}
+			else if ( i == 5 && label[4].length() == 0 && label[6].length() == 0 ) {
+				y = radius/2;
+			}
+
+			float stringWidth = OpenGL2DInterface.stringWidthInPixels(
+				label[i], textHeight, OpenGL2DInterface.FONT_ASCENT_PLUS_DESCENT
+			);
+			float widthOfItem = stringWidth + 2*marginAroundText;
 
-				float stringWidth = OpenGL2DInterface.stringWidthInPixels(
-					label[i], textHeight, OpenGL2DInterface.FONT_ASCENT_PLUS_DESCENT
+			// We want items that appear side-by-side to have the same width,
+			// so that the menu is symmetrical about a vertical axis.
+			if ( i!=1 && i!=5 && label[N+2-i].length() > 0 ) {
+				float otherStringWidth = OpenGL2DInterface.stringWidthInPixels(
+					label[N+2-i], textHeight, OpenGL2DInterface.FONT_ASCENT_PLUS_DESCENT
 				);
-				float widthOfItem = stringWidth + 2*marginAroundText;
-
-				// We want items that appear side-by-side to have the same width,
-				// so that the menu is symmetrical about a vertical axis.
-				if ( i!=1 && i!=5 && label[N+2-i].length() > 0 ) {
-					float otherStringWidth = OpenGL2DInterface.stringWidthInPixels(
-						label[N+2-i], textHeight, OpenGL2DInterface.FONT_ASCENT_PLUS_DESCENT
-					);
-					if ( otherStringWidth > stringWidth )
-						widthOfItem = otherStringWidth + 2*marginAroundText;
-				}
+				if ( otherStringWidth > stringWidth )
+					widthOfItem = otherStringWidth + 2*marginAroundText;
+			}
 
-				if ( 2 == i || 4 == i ) {
-					if ( x - widthOfItem/2 <= x0 + marginBetweenItems )
-						// item is too far to the left; shift it to the right
-						x = x0 + marginBetweenItems + widthOfItem/2;
-				}
-				else if ( 3 == i ) {
-					if ( x - widthOfItem/2 <= x0 + radiusOfNeutralZone + marginBetweenItems )
-						// item is too far to the left; shift it to the right
-						x = x0 + radiusOfNeutralZone + marginBetweenItems + widthOfItem/2;
-				}
-				else if ( 6 == i || 8 == i ) {
-					if ( x + widthOfItem/2 >= x0 - marginBetweenItems )
-						// item is too far to the right; shift it to the left
-						x = x0 - marginBetweenItems - widthOfItem/2;
-				}
-				else if ( 7 == i ) {
-					if ( x + widthOfItem/2 >= x0 - radiusOfNeutralZone - marginBetweenItems )
-						// item is too far to the right; shift it to the left
-						x = x0 - radiusOfNeutralZone - marginBetweenItems - widthOfItem/2;
+			if ( 2 == i || 4 == i ) {
+				if ( x - widthOfItem/2 <= marginBetweenItems )
+					// item is too far to the left; shift it to the right
+					x = marginBetweenItems + widthOfItem/2;
+			}
+			else if ( 3 == i ) {
+				if ( x - widthOfItem/2 <= radiusOfNeutralZone + marginBetweenItems )
+					// item is too far to the left; shift it to the right
+					x = radiusOfNeutralZone + marginBetweenItems + widthOfItem/2;
+			}
+			else if ( 6 == i || 8 == i ) {
+				if ( x + widthOfItem/2 >= - marginBetweenItems )
+					// item is too far to the right; shift it to the left
+					x = - marginBetweenItems - widthOfItem/2;
+			}
+			else if ( 7 == i ) {
+				if ( x + widthOfItem/2 >= - radiusOfNeutralZone - marginBetweenItems )
+					// item is too far to the right; shift it to the left
+					x = - radiusOfNeutralZone - marginBetweenItems - widthOfItem/2;
+			}
+
+			// (the center of the menu has integer coordinates,
+			// so rounding relative to it gives the same pixels)
+			itemLeft[i] = Math.round( x - widthOfItem/2 );
+			itemTop[i] = Math.round( y - heightOfItem/2 );
+			itemWidth[i] = Math.round( widthOfItem );
+			labelX[i] = Math.round( x - stringWidth/2 );
+			labelY[i] = Math.round( y + textHeight/2 );
+		}
+
+		// Item i is centered on the angle (i-1)*pi/4 (clockwise from up).
+		// A sector selects the item it falls in if that item is shown,
+		// and otherwise the shown item whose center is closest.
+		for ( int sector = 0; sector < NUMBER_OF_SECTORS; ++sector ) {
+			float theta = ( sector + 0.5f ) * 2*(float)Math.PI / NUMBER_OF_SECTORS;
+			int item = 1 + (int)( ( theta + (float)Math.PI/8 ) / ((float)Math.PI/4) ) % N;
+			if ( ! isItemShown[ item ] ) {
+				float minDifference = 4*(float)Math.PI;
+				int itemWithMinDifference = CENTRAL_ITEM;
+				for ( int candidateItem = 1; candidateItem <= N; ++candidateItem ) {
+					if ( isItemShown[ candidateItem ] ) {
+						float candidateItemTheta = (candidateItem-1) * ((float)Math.PI/4);
+						float candidateDifference = Math.abs( candidateItemTheta - theta );
+						if ( candidateDifference > Math.PI )
+							candidateDifference = 2*(float)Math.PI - candidateDifference;
+						if ( candidateDifference < minDifference ) {
+							minDifference = candidateDifference;
+							itemWithMinDifference = candidateItem;
+						}
+					}
 				}
+				item = itemWithMinDifference;
+			}
+			itemOfSector[ sector ] = item;
+		}
+		isLayoutDirty = false;
+	}
+
+	// Draws the menu centered at (cx,cy), in the pixel coordinates of ogl2D.
+	private void drawItems( GL gl, GLUT glut, int cx, int cy ) {
+		final float alpha = 0.6f;
+		int heightOfItem = textHeight + 2*marginAroundText;
 
+		// The shapes are batched, and the labels drawn over them afterward.
+		ogl2D.beginBatch( gl );
+		if ( isItemHilited( CENTRAL_ITEM ) )
+			ogl2D.setColor( gl, foregroundRed, foregroundGreen, foregroundBlue, alpha );
+		else
+			ogl2D.setColor( gl, backgroundRed, backgroundGreen, backgroundBlue, alpha );
+		ogl2D.drawCircle( gl, cx, cy, radiusOfNeutralZone, true );
+		if ( ! isItemHilited( CENTRAL_ITEM ) )
+			ogl2D.setColor( gl, foregroundRed, foregroundGreen, foregroundBlue, 1.0f );
+		else
+			ogl2D.setColor( gl, backgroundRed, backgroundGreen, backgroundBlue, 1.0f );
+		ogl2D.drawCircle( gl, cx, cy, radiusOfNeutralZone, false );
+
+		for ( int i = 1; i <= N; ++i ) {
+			if ( isItemShown[i] ) {
 				if ( isItemHilited( i ) )
-					gl.glColor4f( foregroundRed, foregroundGreen, foregroundBlue, alpha );
+					ogl2D.setColor( gl, foregroundRed, foregroundGreen, foregroundBlue, alpha );
 				else
-					gl.glColor4f( backgroundRed, backgroundGreen, backgroundBlue, alpha );
-				ogl2D.fillRect(
-					gl,
-					Math.round( x - widthOfItem/2 ), Math.round( y - heightOfItem/2 ),
-					Math.round( widthOfItem ), heightOfItem
-				);
+					ogl2D.setColor( gl, backgroundRed, backgroundGreen, backgroundBlue, alpha );
+				ogl2D.fillRect( gl, cx + itemLeft[i], cy + itemTop[i], itemWidth[i], heightOfItem );
+				if ( ! isItemHilited( i ) )
+					ogl2D.setColor( gl, foregroundRed, foregroundGreen, foregroundBlue, 1.0f );
+				else
+					ogl2D.setColor( gl, backgroundRed, backgroundGreen, backgroundBlue, 1.0f );
+				ogl2D.drawRect( gl, cx + itemLeft[i], cy + itemTop[i], itemWidth[i], heightOfItem );
+			}
+		}
+		ogl2D.endBatch( gl );
+
+		// The labels have the same color as the outline of their item.
+		for ( int i = 1; i <= N; ++i ) {
+			if ( isItemShown[i] ) {
 				if ( ! isItemHilited( i ) )
 					gl.glColor4f( foregroundRed, foregroundGreen, foregroundBlue, 1.0f );
 				else
 					gl.glColor4f( backgroundRed, backgroundGreen, backgroundBlue, 1.0f );
-				ogl2D.drawRect(
-					gl,
-					Math.round( x - widthOfItem/2 ), Math.round( y - heightOfItem/2 ),
-					Math.round( widthOfItem ), heightOfItem
-				);
 				ogl2D.drawString(
 					gl, glut,
-					Math.round( x - stringWidth/2 ),
-					Math.round( y + textHeight/2 ),
+					cx + labelX[i], cy + labelY[i],
 					label[i],
 					textHeight,
 					OpenGL2DInterface.FONT_ASCENT_PLUS_DESCENT
 				);
 			}
 		}
+	}
+
+	public void draw(
+		GL gl, GLUT glut,
+		int window_width_in_pixels,
+		int window_height_in_pixels
+	) {
+		if ( ! isVisible )
+			return;
+
+		if ( isLayoutDirty )
+			computeLayout();
+		for ( int i = 0; i < listsToDelete.size(); ++i )
+			gl.glDeleteLists( listsToDelete.get( i ).intValue(), 1 );
+		listsToDelete.clear();
+
+		gl.glPushAttrib(GL.GL_COLOR_BUFFER_BIT | GL.GL_CURRENT_BIT | GL.GL_ENABLE_BIT | GL.GL_DEPTH_BUFFER_BIT);
+		gl.glDisable(GL.GL_LIGHTING);
+		gl.glDisable(GL.GL_DEPTH_TEST);
+		gl.glDepthMask(false);
+
+		// The caller may have an arbitrary (2D or 3D)
+		// projection already setup.
+		// Since we can't know what projection is already setup,
+		// we *push* our own projection based on pixel coordinates.
+		ogl2D.pushProjection( gl, window_width_in_pixels, window_height_in_pixels );
+
+		// draw stuff
+		gl.glEnable( GL.GL_LINE_SMOOTH );
+		gl.glBlendFunc( GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA );
+		gl.glEnable( GL.GL_BLEND );
+
+		// The menu is compiled as if centered at the pixel whose center
+		// ogl2D puts at (0.5,0.5), then translated to its actual center.
+		gl.glTranslatef( x0, window_height_in_pixels - 1 - y0, 0 );
+		int list = listOfSelectedItem[ selectedItem ];
+		if ( list != 0 )
+			gl.glCallList( list );
+		else {
+			// display lists cannot be nested, so the labels call
+			// the lists of their glyphs directly
+			StrokeText strokeText = OpenGL2DInterface.getStrokeText();
+			strokeText.beginOuterList( gl, glut );
+			list = gl.glGenLists( 1 );
+			gl.glNewList( list, GL.GL_COMPILE_AND_EXECUTE );
+				drawItems( gl, glut, 0, window_height_in_pixels - 1 );
+			gl.glEndList();
+			strokeText.endOuterList();
+			listOfSelectedItem[ selectedItem ] = list;
+		}
 
 		ogl2D.popProjection( gl );
 		gl.glDepthMask(true);
@@ -3,10 +3,26 @@ public class Ray3D {
 	public Point3D origin = new Point3D();
 	public Vector3D direction = new Vector3D();
 
-	public Ray3D() { }
+	// The reciprocals of the components of ``direction'',
+	// used by AlignedBox3D.intersectSlab().
+	// Clients that modify ``direction'' directly must
+	// call updateInverseDirection() afterward.
+	public float [] inverseDirection = new float[3];
+
+	public Ray3D() {
+		updateInverseDirection();
+	}
 	public Ray3D(Point3D o, Vector3D d) {
 		origin.copy( o );
 		direction.copy( d.normalized() );
+		updateInverseDirection();
+	}
+
+	// A zero component (even -0) gives +infinity.
+	public void updateInverseDirection() {
+		inverseDirection[0] = direction.x() == 0 ? Float.POSITIVE_INFINITY : 1 / direction.x();
+		inverseDirection[1] = direction.y() == 0 ? Float.POSITIVE_INFINITY : 1 / direction.y();
+		inverseDirection[2] = direction.z() == 0 ? Float.POSITIVE_INFINITY : 1 / direction.z();
 	}
 
 	public Point3D point( float t ) {
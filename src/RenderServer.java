@@ -0,0 +1,432 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+// Serves PNG snapshots of the scenes saved (see SceneFile) in a directory,
+// over HTTP on the loopback interface only, without the Swing UI or OpenGL:
+// the images are drawn by a SoftwareRenderer.
+//
+//    GET /render?scene=NAME&width=W&height=H&position=X,Y,Z&target=X,Y,Z&up=X,Y,Z&ao=1
+//
+// returns the scene in the file NAME (relative to the directory) as seen by
+// a Camera3D with the given viewport, position, target and up vector.  All
+// parameters but the scene are optional: by default, the image is 640x480
+// pixels, and the camera looks at the center of the scene from where
+// SceneViewer.resetCamera() would put it.  With ao=1, the faces are shaded
+// with ambient occlusion.
+//
+//    GET /stats
+//
+// returns the number of requests served so far, their mean latency, and
+// the number of scenes loaded and found in the cache.
+//
+// Each exchange is handled in its own virtual thread when the JVM has them
+// (Java 21 and later), or else in a thread of a cached pool.  The renders
+// themselves run on a fork/join pool with a thread per processor, shared
+// by all the renderers, so that concurrent requests split the processors
+// between them rather than oversubscribing them.
+//
+// The scenes most recently used are kept in memory (with their renderers
+// and ambient occlusion), so that repeated requests skip parsing; a scene
+// is loaded again if its file was modified since.  Scenes in the cache are
+// never modified, so any number of requests may render the same scene at
+// the same time, each with its own renderer.
+public class RenderServer {
+
+	public static final int DEFAULT_PORT = 8745;
+	public static final int DEFAULT_CACHE_SIZE = 8;
+	public static final int DEFAULT_WIDTH = 640, DEFAULT_HEIGHT = 480;
+	public static final int MAX_VIEWPORT_SIZE = 4096;
+
+	// Renderers kept for later requests, per scene, and the largest
+	// depth buffer (in pixels) that an idle renderer keeps: at 4096x4096,
+	// a depth buffer takes 64 MB
+	private static final int MAX_IDLE_RENDERERS = Runtime.getRuntime().availableProcessors();
+	private static final int MAX_IDLE_PIXELS = 1024 * 1024;
+
+	// A scene loaded from a file.  The scene is loaded, and its ambient
+	// occlusion baked, by the first request that needs them; concurrent
+	// requests wait for that one (in FutureTask.get(), which, unlike
+	// entering a monitor, does not pin a virtual thread to its carrier).
+	private class CachedScene {
+		final File file;
+		final long lastModified, length;
+		final FutureTask<Scene> scene;
+		final FutureTask<AmbientOcclusion> ambientOcclusion;
+		final ArrayBlockingQueue<SoftwareRenderer> idleRenderers = new ArrayBlockingQueue<SoftwareRenderer>( MAX_IDLE_RENDERERS );
+
+		CachedScene( File f ) {
+			file = f;
+			lastModified = f.lastModified();
+			length = f.length();
+			scene = new FutureTask<Scene>( new Callable<Scene>() {
+				public Scene call() throws IOException {
+					numberOfScenesLoaded.incrementAndGet();
+					return SceneFile.load( file );
+				}
+			} );
+			ambientOcclusion = new FutureTask<AmbientOcclusion>( new Callable<AmbientOcclusion>() {
+				public AmbientOcclusion call() throws Exception {
+					AmbientOcclusion ao = getScene().ambientOcclusion;
+					AmbientOcclusion.Bake bake = ao.prepareBake();
+					bake.run();
+					ao.applyBake( bake );
+					return ao;
+				}
+			} );
+		}
+
+		boolean isUpToDate() {
+			return file.lastModified() == lastModified && file.length() == length;
+		}
+
+		Scene getScene() throws Exception {
+			return get( scene );
+		}
+
+		AmbientOcclusion getAmbientOcclusion() throws Exception {
+			return get( ambientOcclusion );
+		}
+
+		private <T> T get( FutureTask<T> task ) throws Exception {
+			// the first caller runs the task; run() does nothing for the others
+			task.run();
+			try {
+				return task.get();
+			}
+			catch ( ExecutionException e ) {
+				throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+			}
+		}
+	}
+
+	// Thrown to answer a request with an error
+	private static class RequestException extends Exception {
+		private static final long serialVersionUID = 1L;
+		final int status;
+		RequestException( int status, String message ) {
+			super( message );
+			this.status = status;
+		}
+	}
+
+	private final File directory;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final boolean isUsingVirtualThreads;
+	private final ForkJoinPool renderPool;
+
+	// Least recently used first; guarded by itself
+	private final LinkedHashMap<File,CachedScene> cache;
+
+	// statistics
+	private final AtomicLong numberOfRequests = new AtomicLong();
+	private final AtomicLong numberOfErrors = new AtomicLong();
+	private final AtomicLong numberOfScenesLoaded = new AtomicLong();
+	private final AtomicLong numberOfCacheHits = new AtomicLong();
+	private final AtomicLong totalLatency = new AtomicLong(); // in nanoseconds
+
+	// Serves the scenes of the given directory on the given port of the
+	// loopback interface (or on a free port, if it is 0), keeping up to
+	// cacheSize scenes in memory.  The server must then be started.
+	public RenderServer( File directory, int port, final int cacheSize ) throws IOException {
+		this.directory = directory.getCanonicalFile();
+		if ( ! this.directory.isDirectory() )
+			throw new IOException( directory + " is not a directory" );
+		cache = new LinkedHashMap<File,CachedScene>( 16, 0.75f, true ) {
+			protected boolean removeEldestEntry( Map.Entry<File,CachedScene> eldest ) {
+				return size() > cacheSize;
+			}
+		};
+		renderPool = new ForkJoinPool( Runtime.getRuntime().availableProcessors() );
+
+		ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+		isUsingVirtualThreads = virtualThreads != null;
+		executor = isUsingVirtualThreads ? virtualThreads : Executors.newCachedThreadPool();
+
+		server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+		server.setExecutor( executor );
+		server.createContext( "/render", new HttpHandler() {
+			public void handle( HttpExchange exchange ) throws IOException {
+				handleRender( exchange );
+			}
+		} );
+		server.createContext( "/stats", new HttpHandler() {
+			public void handle( HttpExchange exchange ) throws IOException {
+				handleStats( exchange );
+			}
+		} );
+	}
+
+	// The code is compiled for JVMs older than Java 21,
+	// so Executors.newVirtualThreadPerTaskExecutor() is looked up at run time.
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method m = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+			return (ExecutorService)m.invoke( null );
+		}
+		catch ( Exception e ) {
+			return null;
+		}
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	// Waits up to the given number of seconds for the exchanges in progress to finish.
+	public void stop( int delayInSeconds ) {
+		server.stop( delayInSeconds );
+		executor.shutdown();
+		renderPool.shutdown();
+	}
+
+	public int getPort() { return server.getAddress().getPort(); }
+	public boolean isUsingVirtualThreads() { return isUsingVirtualThreads; }
+
+	public long getNumberOfRequests() { return numberOfRequests.get(); }
+	public long getNumberOfErrors() { return numberOfErrors.get(); }
+	public long getNumberOfScenesLoaded() { return numberOfScenesLoaded.get(); }
+	public long getNumberOfCacheHits() { return numberOfCacheHits.get(); }
+	// Mean time to answer a request, from parsing it to writing the image, in nanoseconds
+	public long getMeanLatency() {
+		long n = numberOfRequests.get();
+		return n == 0 ? 0 : totalLatency.get() / n;
+	}
+
+	private void handleRender( HttpExchange exchange ) throws IOException {
+		long startTime = System.nanoTime();
+		try {
+			if ( ! exchange.getRequestMethod().equals( "GET" ) )
+				throw new RequestException( 405, "only GET is supported" );
+			Map<String,String> parameters = parseQuery( exchange.getRequestURI().getRawQuery() );
+			String name = parameters.get( "scene" );
+			if ( name == null )
+				throw new RequestException( 400, "missing scene parameter" );
+			CachedScene cachedScene = getCachedScene( name );
+			Scene scene;
+			try {
+				scene = cachedScene.getScene();
+			}
+			catch ( IOException e ) {
+				// forget the failure, so that the next request tries again
+				synchronized ( cache ) {
+					cache.remove( cachedScene.file, cachedScene );
+				}
+				throw new RequestException( 422, e.getMessage() );
+			}
+			Camera3D camera = createCamera( scene, parameters );
+
+			boolean useAmbientOcclusion = "1".equals( parameters.get( "ao" ) );
+			AmbientOcclusion ao = useAmbientOcclusion ? cachedScene.getAmbientOcclusion() : null;
+			SoftwareRenderer renderer = cachedScene.idleRenderers.poll();
+			if ( renderer == null )
+				renderer = new SoftwareRenderer( scene, renderPool );
+			BufferedImage image;
+			try {
+				renderer.setAmbientOcclusion( ao );
+				image = renderer.render( camera );
+			}
+			finally {
+				// dropped if enough renderers are idle already
+				renderer.releaseBuffers( MAX_IDLE_PIXELS );
+				cachedScene.idleRenderers.offer( renderer );
+			}
+
+			ByteArrayOutputStream png = new ByteArrayOutputStream( 64 * 1024 );
+			ImageIO.write( image, "png", png );
+			exchange.getResponseHeaders().set( "Content-Type", "image/png" );
+			exchange.sendResponseHeaders( 200, png.size() );
+			OutputStream out = exchange.getResponseBody();
+			png.writeTo( out );
+			out.close();
+		}
+		catch ( RequestException e ) {
+			numberOfErrors.incrementAndGet();
+			sendText( exchange, e.status, e.getMessage() + "\n" );
+		}
+		catch ( IOException e ) {
+			// most likely the client went away
+			numberOfErrors.incrementAndGet();
+			throw e;
+		}
+		catch ( Exception e ) {
+			numberOfErrors.incrementAndGet();
+			sendText( exchange, 500, e + "\n" );
+		}
+		finally {
+			exchange.close();
+			numberOfRequests.incrementAndGet();
+			totalLatency.addAndGet( System.nanoTime() - startTime );
+		}
+	}
+
+	private void handleStats( HttpExchange exchange ) throws IOException {
+		try {
+			sendText( exchange, 200, String.format(
+				"requests %d%nerrors %d%nmean latency %.2f ms%nscenes loaded %d%ncache hits %d%nvirtual threads %b%n",
+				getNumberOfRequests(), getNumberOfErrors(), getMeanLatency() * 1e-6,
+				getNumberOfScenesLoaded(), getNumberOfCacheHits(), isUsingVirtualThreads
+			) );
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	private static void sendText( HttpExchange exchange, int status, String text ) throws IOException {
+		byte [] bytes = text.getBytes( "UTF-8" );
+		exchange.getResponseHeaders().set( "Content-Type", "text/plain; charset=utf-8" );
+		exchange.sendResponseHeaders( status, bytes.length );
+		OutputStream out = exchange.getResponseBody();
+		out.write( bytes );
+		out.close();
+	}
+
+	// Returns the cache's entry for the scene with the given name,
+	// after checking that the file is within the served directory.
+	private CachedScene getCachedScene( String name ) throws IOException, RequestException {
+		File file = new File( directory, name ).getCanonicalFile();
+		if ( ! file.getPath().startsWith( directory.getPath() + File.separator ) )
+			throw new RequestException( 403, name + " is outside of the served directory" );
+		if ( ! file.isFile() )
+			throw new RequestException( 404, name + " not found" );
+		synchronized ( cache ) {
+			CachedScene cachedScene = cache.get( file );
+			if ( cachedScene != null && cachedScene.isUpToDate() ) {
+				numberOfCacheHits.incrementAndGet();
+				return cachedScene;
+			}
+			cachedScene = new CachedScene( file );
+			cache.put( file, cachedScene );
+			return cachedScene;
+		}
+	}
+
+	private static Camera3D createCamera( Scene scene, Map<String,String> parameters ) throws RequestException {
+		int width = parseInt( parameters, "width", DEFAULT_WIDTH );
+		int height = parseInt( parameters, "height", DEFAULT_HEIGHT );
+		if ( width < 1 || height < 1 || width > MAX_VIEWPORT_SIZE || height > MAX_VIEWPORT_SIZE )
+			throw new RequestException( 400, "the viewport must be between 1x1 and " + MAX_VIEWPORT_SIZE + "x" + MAX_VIEWPORT_SIZE + " pixels" );
+
+		// by default, frame the scene as SceneViewer.resetCamera() does
+		// (into a box of this request's own, since the scene is shared)
+		AlignedBox3D bounds = scene.getBoundingBoxOfScene( new AlignedBox3D() );
+		Point3D center = bounds.isEmpty() ? new Point3D() : bounds.getCenter();
+		Camera3D camera = new Camera3D();
+		camera.setViewportDimensions( width, height );
+		camera.setSceneRadius( Math.max(
+			5 * ColoredBox.DEFAULT_SIZE,
+			bounds.isEmpty() ? 0 : bounds.getDiagonal().length() * 0.5f
+		) );
+		camera.reset();
+		Point3D target = parsePoint( parameters, "target", center );
+		Point3D position = parsePoint( parameters, "position", Point3D.sum( camera.position, new Vector3D( target ) ) );
+		Vector3D up = new Vector3D( parsePoint( parameters, "up", new Point3D( camera.up ) ) );
+		Vector3D direction = Point3D.diff( target, position );
+		if ( direction.length() == 0 )
+			throw new RequestException( 400, "the position and target must differ" );
+		if ( Vector3D.cross( direction, up ).length() == 0 )
+			throw new RequestException( 400, "the up vector must not be parallel to the line of sight" );
+		camera.position = position;
+		camera.target = target;
+		camera.up = up;
+		return camera;
+	}
+
+	private static int parseInt( Map<String,String> parameters, String name, int defaultValue ) throws RequestException {
+		String value = parameters.get( name );
+		if ( value == null )
+			return defaultValue;
+		try {
+			return Integer.parseInt( value );
+		}
+		catch ( NumberFormatException e ) {
+			throw new RequestException( 400, name + " must be an integer" );
+		}
+	}
+
+	// Parses a parameter of the form x,y,z
+	private static Point3D parsePoint( Map<String,String> parameters, String name, Point3D defaultValue ) throws RequestException {
+		String value = parameters.get( name );
+		if ( value == null )
+			return defaultValue;
+		String [] tokens = value.split( "," );
+		try {
+			if ( tokens.length == 3 ) {
+				float x = Float.parseFloat( tokens[0] ), y = Float.parseFloat( tokens[1] ), z = Float.parseFloat( tokens[2] );
+				if ( ! Float.isNaN( x + y + z ) && ! Float.isInfinite( x + y + z ) )
+					return new Point3D( x, y, z );
+			}
+		}
+		catch ( NumberFormatException e ) {
+		}
+		throw new RequestException( 400, name + " must be given as x,y,z" );
+	}
+
+	private static Map<String,String> parseQuery( String query ) throws RequestException {
+		Map<String,String> parameters = new HashMap<String,String>();
+		if ( query == null )
+			return parameters;
+		for ( String pair : query.split( "&" ) ) {
+			if ( pair.length() == 0 )
+				continue;
+			int equals = pair.indexOf( '=' );
+			try {
+				if ( equals < 0 )
+					parameters.put( URLDecoder.decode( pair, "UTF-8" ), "" );
+				else
+					parameters.put( URLDecoder.decode( pair.substring( 0, equals ), "UTF-8" ), URLDecoder.decode( pair.substring( equals + 1 ), "UTF-8" ) );
+			}
+			catch ( IllegalArgumentException e ) {
+				throw new RequestException( 400, "malformed query" );
+			}
+			catch ( UnsupportedEncodingException e ) {
+				throw new RuntimeException( e );
+			}
+		}
+		return parameters;
+	}
+
+	// Arguments: the directory of the scenes, and optionally the port and the
+	// number of scenes to keep in memory.
+	public static void main( String[] args ) throws IOException {
+		System.setProperty( "java.awt.headless", "true" );
+		if ( args.length < 1 ) {
+			System.err.println( "usage: RenderServer directory [port [cacheSize]]" );
+			System.exit( 1 );
+		}
+		File directory = new File( args[0] );
+		int port = args.length > 1 ? Integer.parseInt( args[1] ) : DEFAULT_PORT;
+		int cacheSize = args.length > 2 ? Integer.parseInt( args[2] ) : DEFAULT_CACHE_SIZE;
+		RenderServer server = new RenderServer( directory, port, cacheSize );
+		server.start();
+		System.out.println(
+			"Serving the scenes of " + server.directory + " at http://localhost:" + server.getPort() + "/render"
+			+ ( server.isUsingVirtualThreads() ? " (on virtual threads)" : "" )
+		);
+	}
+}
@@ -0,0 +1,1132 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+import javax.swing.SwingUtilities;
+import javax.media.opengl.GL;
+
+class Scene {
+	public BoxStore boxes = new BoxStore();
+
+	// Draws the visible boxes from vertex buffers, when useRetainedMode is
+	// true; or all boxes, unculled, with a single instanced draw call if
+	// useInstancing is also true and the OpenGL implementation supports it
+	// (which is off by default, so that the view frustum culling, the time
+	// budget and the culling per view apply)
+	BoxRenderer renderer = new BoxRenderer( boxes );
+	InstancedBoxRenderer instancedRenderer = new InstancedBoxRenderer( boxes );
+	boolean useRetainedMode = true;
+	boolean useInstancing = false;
+
+	// Draws only the visible faces of the boxes, merged into larger quads,
+	// when useRetainedMode and useSurfaceMesh are true (and boxes are solid)
+	SurfaceMesh surfaceMesh = new SurfaceMesh( boxes );
+	boolean useSurfaceMesh = false;
+
+	// Darkens the faces of the boxes by how much nearby boxes occlude them,
+	// when useAmbientOcclusion is true (for solid boxes drawn by the
+	// BoxRenderer or in immediate mode, so instancing and merged faces are
+	// then not used).  The shades are baked in a background thread, and
+	// only the faces near the boxes that changed are rebaked.
+	AmbientOcclusion ambientOcclusion = new AmbientOcclusion( boxes );
+	private boolean useAmbientOcclusion = false;
+	private boolean isBakePending = false;
+	// Called on the Swing event dispatch thread after new shades are applied
+	private Runnable ambientOcclusionListener = null;
+
+	// Keeps the boxes sorted from back to front, to composite them
+	// in that order when alpha blending is on
+	DepthSorter depthSorter = new DepthSorter( boxes );
+
+	// Maintains the bounds of the scene as boxes change
+	BoundsTree boundsTree = new BoundsTree( boxes );
+	AlignedBox3D boundingBoxOfScene = new AlignedBox3D();
+	boolean drawWireframeBoxes = false;
+
+	// Used to accelerate picking
+	BoundingVolumeHierarchy boundingVolumeHierarchy = new BoundingVolumeHierarchy( boxes );
+
+	// Used to cull boxes outside the view frustum
+	LooseOctree octree = new LooseOctree( boxes );
+
+	// Used to draw distant clusters of boxes as single boxes,
+	// when useLevelOfDetail is true
+	ClusterHierarchy clusters = new ClusterHierarchy( boxes );
+	boolean useLevelOfDetail = false;
+	private Frustum frustum = new Frustum();
+
+	// The selected boxes, and the bounds of the selection
+	// (which are only recomputed after boxes are removed from the selection)
+	private SelectionSet selection = new SelectionSet();
+	private AlignedBox3D boundingBoxOfSelection = new AlignedBox3D();
+	private boolean isBoundingBoxOfSelectionDirty = false;
+	private HashMap<String,SelectionSet> namedSelections = new HashMap<String,SelectionSet>();
+
+	// The store is compacted once this many entries (or a quarter
+	// of all entries) are dead.
+	private static final int MIN_DEAD_ENTRIES_BEFORE_COMPACTION = 1024;
+	private boolean isCompactionPending = false;
+
+	// Statistics about the last call to drawScene()
+	private int numberOfBoxesDrawn = 0;
+	private int numberOfBoxesCulled = 0;
+	private int numberOfClustersDrawn = 0;
+	private int numberOfBoxesDeferred = 0;
+
+	// Used to draw the visible boxes from front to back within a time budget:
+	// the octree is traversed from front to back as boxes are drawn, or the
+	// boxes selected by the clusters are sorted by distance (bucket sorted,
+	// so the order is only approximate within a bucket).
+	// The clock is checked every few boxes.
+	// Also used to draw the visible boxes from back to front, in the order
+	// kept by depthSorter, marking the visible boxes with the frame number.
+	private static final int NUMBER_OF_DISTANCE_BUCKETS = 1024;
+	private static final int BOXES_BETWEEN_CLOCK_CHECKS = 64;
+	// In retained mode, the boxes are drawn (and the clock checked)
+	// in chunks of this many boxes
+	private static final int BOXES_PER_CHUNK = 1024;
+	// ... and when fewer than 1 in this many boxes are culled, all boxes
+	// are drawn (from the renderer's static indices) rather than the visible ones
+	private static final int MIN_FRACTION_CULLED_FOR_INDEX_LIST = 4;
+	private int [] drawOrder = new int[ 0 ];
+	private int [] frameOfVisibleBox = new int[ 0 ];
+	private int frameNumber = 0;
+	private int [] bucketOfBox = new int[ 0 ];
+	private float [] distanceOfBox = new float[ 0 ];
+	private int [] bucketStart = new int[ NUMBER_OF_DISTANCE_BUCKETS + 1 ];
+
+
+	public Scene() {
+	}
+
+	public int getNumberOfBoxes() { return boxes.getNumberOfBoxes(); }
+
+	public AlignedBox3D getBoundingBoxOfScene() {
+		return boundsTree.getBounds( boundingBoxOfScene );
+	}
+
+	// Copies the bounds of the scene into the given box, and returns it.
+	// Unlike getBoundingBoxOfScene(), this writes nothing in the scene,
+	// so several threads may call it on a scene that is not modified.
+	public AlignedBox3D getBoundingBoxOfScene( AlignedBox3D box ) {
+		return boundsTree.getBounds( box );
+	}
+
+	// Returns the handle of the new box.
+	public int addColoredBox(
+		AlignedBox3D box,
+		float red, float green, float blue,
+		float alpha
+	) {
+		Point3D min = box.getMin();
+		Point3D max = box.getMax();
+		int handle = boxes.add(
+			min.x(), min.y(), min.z(),
+			max.x(), max.y(), max.z(),
+			BoxStore.packColor( red, green, blue, alpha )
+		);
+		int index = boxes.size() - 1;
+		boundingVolumeHierarchy.boxAdded( index );
+		octree.boxAdded( index );
+		boundsTree.boxChanged( index );
+		boxChangedInRenderers( index );
+		return handle;
+	}
+
+	// Returns the handle of the box closest to the ray's origin
+	// that the ray intersects, or BoxStore.NO_BOX if there is none.
+	public int getIntersectedBox(
+		Ray3D ray, // input
+		Point3D intersectionPoint, // output
+		Vector3D normalAtIntersection // output
+	) {
+		int index = boundingVolumeHierarchy.intersect( ray, intersectionPoint, normalAtIntersection );
+		return index >= 0 ? boxes.handleAt( index ) : BoxStore.NO_BOX;
+	}
+
+	// Boxes are identified by the handles returned by addColoredBox().
+	// Methods given a stale handle (to a deleted box) do nothing.
+	public boolean isValid( int box ) { return boxes.isValid( box ); }
+
+	// Returns a copy of the given box; modifying it has no effect on the scene.
+	public AlignedBox3D getBox( int box ) {
+		int index = boxes.indexOf( box );
+		if ( index >= 0 )
+			return boxes.getBox( index, new AlignedBox3D() );
+		return null;
+	}
+
+	// The selection is stored as a set of slots (see BoxStore.slotOf()),
+	// which, unlike indices, are not changed by compaction.
+	public boolean getSelectionStateOfBox( int box ) {
+		int slot = boxes.slotOf( box );
+		return slot >= 0 && selection.contains( slot );
+	}
+	public void setSelectionStateOfBox( int box, boolean state ) {
+		int slot = boxes.slotOf( box );
+		if ( slot < 0 )
+			return;
+		if ( state ) {
+			if ( selection.add( slot ) && ! isBoundingBoxOfSelectionDirty ) {
+				int index = boxes.indexOfSlot( slot );
+				boundingBoxOfSelection.bound( boxes.minX[index], boxes.minY[index], boxes.minZ[index] );
+				boundingBoxOfSelection.bound( boxes.maxX[index], boxes.maxY[index], boxes.maxZ[index] );
+			}
+		}
+		else if ( selection.remove( slot ) ) {
+			isBoundingBoxOfSelectionDirty = true;
+		}
+	}
+	public void toggleSelectionStateOfBox( int box ) {
+		setSelectionStateOfBox( box, ! getSelectionStateOfBox( box ) );
+	}
+
+	public void clearSelection() {
+		selection.clear();
+		boundingBoxOfSelection.clear();
+		isBoundingBoxOfSelectionDirty = false;
+	}
+
+	public int getNumberOfSelectedBoxes() { return selection.size(); }
+
+	// Returns the handles of the selected boxes.
+	public int [] getSelectedBoxes() {
+		int [] handles = selection.toArray();
+		for ( int k = 0; k < handles.length; ++k )
+			handles[k] = boxes.handleOfSlot( handles[k] );
+		return handles;
+	}
+
+	public AlignedBox3D getBoundingBoxOfSelection() {
+		if ( isBoundingBoxOfSelectionDirty ) {
+			boundingBoxOfSelection.clear();
+			for ( int slot = selection.next( 0 ); slot >= 0; slot = selection.next( slot+1 ) ) {
+				int index = boxes.indexOfSlot( slot );
+				boundingBoxOfSelection.bound( boxes.minX[index], boxes.minY[index], boxes.minZ[index] );
+				boundingBoxOfSelection.bound( boxes.maxX[index], boxes.maxY[index], boxes.maxZ[index] );
+			}
+			isBoundingBoxOfSelectionDirty = false;
+		}
+		return boundingBoxOfSelection;
+	}
+
+	public void translateSelection( Vector3D translation ) {
+		for ( int slot = selection.next( 0 ); slot >= 0; slot = selection.next( slot+1 ) ) {
+			int index = boxes.indexOfSlot( slot );
+			// the faces the box occluded at its old position must be rebaked too
+			if ( useAmbientOcclusion )
+				ambientOcclusion.boxChanged( index );
+			boxes.translate( index, translation.x(), translation.y(), translation.z() );
+			boxMoved( index );
+		}
+		if ( ! isBoundingBoxOfSelectionDirty && ! boundingBoxOfSelection.isEmpty() ) {
+			Point3D min = boundingBoxOfSelection.getMin();
+			Point3D max = boundingBoxOfSelection.getMax();
+			boundingBoxOfSelection.set(
+				min.x() + translation.x(), min.y() + translation.y(), min.z() + translation.z(),
+				max.x() + translation.x(), max.y() + translation.y(), max.z() + translation.z()
+			);
+		}
+	}
+
+	// Named selection sets, which can be recalled, or combined with the
+	// current selection.  Like the selection, they forget deleted boxes.
+	public void saveSelection( String name ) {
+		namedSelections.put( name, new SelectionSet( selection ) );
+	}
+	public Set<String> getNamesOfSavedSelections() {
+		return namedSelections.keySet();
+	}
+	public void forgetSavedSelection( String name ) {
+		namedSelections.remove( name );
+	}
+	// Replaces the selection with the given saved selection
+	public void restoreSelection( String name ) {
+		SelectionSet set = namedSelections.get( name );
+		if ( set != null ) {
+			selection.copy( set );
+			isBoundingBoxOfSelectionDirty = true;
+		}
+	}
+	// Adds the given saved selection to the selection
+	public void addToSelection( String name ) {
+		SelectionSet set = namedSelections.get( name );
+		if ( set != null ) {
+			selection.or( set );
+			isBoundingBoxOfSelectionDirty = true;
+		}
+	}
+	// Keeps only the selected boxes that are also in the given saved selection
+	public void intersectSelection( String name ) {
+		SelectionSet set = namedSelections.get( name );
+		if ( set != null ) {
+			selection.and( set );
+			isBoundingBoxOfSelectionDirty = true;
+		}
+	}
+	// Removes the boxes in the given saved selection from the selection
+	public void subtractFromSelection( String name ) {
+		SelectionSet set = namedSelections.get( name );
+		if ( set != null ) {
+			selection.andNot( set );
+			isBoundingBoxOfSelectionDirty = true;
+		}
+	}
+	
+	public void setDrawWireframeBoxes(boolean drawWireframeBoxes){
+		this.drawWireframeBoxes = drawWireframeBoxes;
+	}
+
+	// Each of these returns a component in [0,1]
+	public float getRedOfBox( int box ) { return boxes.getRed( boxes.indexOf( box ) ); }
+	public float getGreenOfBox( int box ) { return boxes.getGreen( boxes.indexOf( box ) ); }
+	public float getBlueOfBox( int box ) { return boxes.getBlue( boxes.indexOf( box ) ); }
+	public float getAlphaOfBox( int box ) { return boxes.getAlpha( boxes.indexOf( box ) ); }
+
+	public void setColorOfBox( int box, float r, float g, float b ) {
+		int index = boxes.indexOf( box );
+		if ( index >= 0 ) {
+			boxes.setColor( index, r, g, b );
+			colorChangedInRenderers( index );
+		}
+	}
+	public void setAlphaOfBox( int box, float a ) {
+		int index = boxes.indexOf( box );
+		if ( index >= 0 ) {
+			boxes.setAlpha( index, a );
+			colorChangedInRenderers( index );
+			
+		}
+	}
+
+	public void translateBox( int box, Vector3D translation ) {
+		int index = boxes.indexOf( box );
+		if ( index >= 0 ) {
+			if ( useAmbientOcclusion )
+				ambientOcclusion.boxChanged( index );
+			boxes.translate( index, translation.x(), translation.y(), translation.z() );
+			boxMoved( index );
+			if ( selection.contains( boxes.slotAt( index ) ) )
+				isBoundingBoxOfSelectionDirty = true;
+		}
+	}
+
+	public void resizeBox(
+		int box, int indexOfCornerToResize, Vector3D translation
+	) {
+		int indexOfBox = boxes.indexOf( box );
+		if ( indexOfBox >= 0 ) {
+			// One corner of the new box will be the corner of the old
+			// box that is diagonally opposite the corner being resized ...
+			int oppositeCorner = indexOfCornerToResize ^ 7;
+			float ax = boxes.getCornerX( indexOfBox, oppositeCorner );
+			float ay = boxes.getCornerY( indexOfBox, oppositeCorner );
+			float az = boxes.getCornerZ( indexOfBox, oppositeCorner );
+
+			// ... and the other corner of the new box will be the
+			// corner being resized, after translation.
+			float bx = boxes.getCornerX( indexOfBox, indexOfCornerToResize ) + translation.x();
+			float by = boxes.getCornerY( indexOfBox, indexOfCornerToResize ) + translation.y();
+			float bz = boxes.getCornerZ( indexOfBox, indexOfCornerToResize ) + translation.z();
+
+			if ( useAmbientOcclusion )
+				ambientOcclusion.boxChanged( indexOfBox );
+			boxes.setBounds(
+				indexOfBox,
+				Math.min( ax, bx ), Math.min( ay, by ), Math.min( az, bz ),
+				Math.max( ax, bx ), Math.max( ay, by ), Math.max( az, bz )
+			);
+			boxMoved( indexOfBox );
+
+			if ( selection.contains( boxes.slotAt( indexOfBox ) ) )
+				isBoundingBoxOfSelectionDirty = true;
+		}
+	}
+
+	// Deleting a box takes constant time: its entry in the store is only
+	// marked as dead.  Once enough entries are dead, the store is
+	// compacted in the background (see compactInBackground()).
+	public void deleteBox( int box ) {
+		int index = boxes.indexOf( box );
+		if ( index >= 0 ) {
+			forgetSlot( boxes.slotAt( index ) );
+			boxes.remove( index );
+			octree.boxRemoved( index );
+			boundsTree.boxChanged( index );
+			boxChangedInRenderers( index );
+			if ( boxes.getNumberOfDeadEntries() > Math.max( MIN_DEAD_ENTRIES_BEFORE_COMPACTION, boxes.size() / 4 ) )
+				compactInBackground();
+		}
+	}
+
+	// Deletes the given boxes (ignoring stale handles), then compacts the
+	// store in a single linear pass.  Handles to the remaining boxes stay
+	// valid; the returned array maps each old index in the store to the
+	// corresponding new index (or to -1 for deleted boxes), or is null if
+	// the store was already compact.
+	public int [] deleteBoxes( int [] handles ) {
+		SelectionSet deletedSlots = new SelectionSet();
+		for ( int k = 0; k < handles.length; ++k ) {
+			int index = boxes.indexOf( handles[k] );
+			if ( index >= 0 ) {
+				if ( useAmbientOcclusion )
+					ambientOcclusion.boxChanged( index );
+				deletedSlots.add( boxes.slotAt( index ) );
+				boxes.remove( index );
+				octree.boxRemoved( index );
+			}
+		}
+		// The slots will be reused, so they must be removed from the selections
+		selection.andNot( deletedSlots );
+		for ( SelectionSet set : namedSelections.values() )
+			set.andNot( deletedSlots );
+		isBoundingBoxOfSelectionDirty = true;
+		int [] newIndexOfOldIndex = compact();
+		bakeInBackground();
+		return newIndexOfOldIndex;
+	}
+
+	// Deletes the selected boxes
+	public void deleteSelection() {
+		deleteBoxes( getSelectedBoxes() );
+	}
+
+	// Removes a slot that is about to be freed from the selections
+	private void forgetSlot( int slot ) {
+		if ( selection.remove( slot ) )
+			isBoundingBoxOfSelectionDirty = true;
+		for ( SelectionSet set : namedSelections.values() )
+			set.remove( slot );
+	}
+
+	public void deleteAllBoxes() {
+		clearSelection();
+		namedSelections.clear();
+		boxes.clear();
+		boundingVolumeHierarchy.invalidate();
+		octree.invalidate();
+		boundsTree.rebuild();
+		invalidateRenderers();
+		ambientOcclusion.clear();
+	}
+
+	// Must be called after a box has been added, removed, moved or resized
+	private void boxChangedInRenderers( int index ) {
+		renderer.boxChanged( index );
+		instancedRenderer.boxChanged( index );
+		surfaceMesh.boxChanged( index );
+		clusters.boxChanged( index );
+		if ( useAmbientOcclusion ) {
+			ambientOcclusion.boxChanged( index );
+			bakeInBackground();
+		}
+	}
+
+	// Must be called after the color of a box has changed
+	private void colorChangedInRenderers( int index ) {
+		renderer.colorChanged( index );
+		instancedRenderer.colorChanged( index );
+		surfaceMesh.colorChanged( index );
+		clusters.boxChanged( index );
+	}
+
+	private void invalidateRenderers() {
+		renderer.invalidate();
+		instancedRenderer.invalidate();
+		surfaceMesh.invalidate();
+		clusters.invalidate();
+		depthSorter.invalidate();
+	}
+
+	// Updates the acceleration structures after a box has been moved or resized.
+	private void boxMoved( int index ) {
+		boundingVolumeHierarchy.boxMoved( index );
+		octree.boxMoved( index );
+		boundsTree.boxChanged( index );
+		boxChangedInRenderers( index );
+	}
+
+	// Updates the acceleration structures after the store has been compacted
+	// (newIndexOfOldIndex is null if nothing changed).
+	private void storeCompacted( int [] newIndexOfOldIndex ) {
+		if ( newIndexOfOldIndex == null )
+			return;
+		boundingVolumeHierarchy.remap( newIndexOfOldIndex );
+		octree.remap( newIndexOfOldIndex );
+		ambientOcclusion.remap( newIndexOfOldIndex );
+		boundsTree.rebuild();
+		invalidateRenderers();
+	}
+
+	// Removes the dead entries from the store right away.
+	public int [] compact() {
+		int [] newIndexOfOldIndex = boxes.compact();
+		storeCompacted( newIndexOfOldIndex );
+		return newIndexOfOldIndex;
+	}
+
+	// Copies the live entries of the store to new arrays in a background
+	// thread, then swaps them in on the Swing event dispatch thread
+	// (which is assumed to own the scene), unless the scene was modified
+	// in the meantime.  Handles remain valid throughout.
+	public void compactInBackground() {
+		if ( isCompactionPending )
+			return;
+		isCompactionPending = true;
+		final BoxStore.Compaction compaction = boxes.prepareCompaction();
+		Thread thread = new Thread( new Runnable() {
+			public void run() {
+				compaction.run();
+				SwingUtilities.invokeLater( new Runnable() {
+					public void run() {
+						isCompactionPending = false;
+						storeCompacted( boxes.applyCompaction( compaction ) );
+					}
+				} );
+			}
+		}, "BoxStore compaction" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	public boolean isUsingAmbientOcclusion() { return useAmbientOcclusion; }
+
+	public void setUseAmbientOcclusion( boolean flag ) {
+		if ( flag == useAmbientOcclusion )
+			return;
+		useAmbientOcclusion = flag;
+		renderer.setAmbientOcclusion( flag ? ambientOcclusion : null );
+		if ( flag ) {
+			// changes made in the meantime were not tracked
+			ambientOcclusion.invalidate();
+			bakeInBackground();
+		}
+	}
+
+	// Returns true if the shades are up to date with the boxes (no bake
+	// is running or needed).  Like the bakes, must be called on the Swing
+	// event dispatch thread.
+	public boolean isAmbientOcclusionUpToDate() {
+		return ! isBakePending && ! ambientOcclusion.isDirty();
+	}
+
+	public void setAmbientOcclusionListener( Runnable listener ) {
+		ambientOcclusionListener = listener;
+	}
+
+	// Rebakes the ambient occlusion of the faces near the changes in a
+	// background thread, then applies the new shades on the Swing event
+	// dispatch thread (which is assumed to own the scene), and starts
+	// over if more changes were made in the meantime.
+	private void bakeInBackground() {
+		if ( isBakePending || ! useAmbientOcclusion || ! ambientOcclusion.isDirty() )
+			return;
+		isBakePending = true;
+		final AmbientOcclusion.Bake bake = ambientOcclusion.prepareBake();
+		Thread thread = new Thread( new Runnable() {
+			public void run() {
+				bake.run();
+				SwingUtilities.invokeLater( new Runnable() {
+					public void run() {
+						isBakePending = false;
+						if ( ambientOcclusion.applyBake( bake ) && useAmbientOcclusion ) {
+							int start = ambientOcclusion.getChangedBoxesStart();
+							int end = ambientOcclusion.getChangedBoxesEnd();
+							if ( start < end ) {
+								renderer.colorChanged( start );
+								renderer.colorChanged( end - 1 );
+								if ( ambientOcclusionListener != null )
+									ambientOcclusionListener.run();
+							}
+						}
+						bakeInBackground();
+					}
+				} );
+			}
+		}, "Ambient occlusion bake" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+
+	static public void drawBox(
+		GL gl,
+		AlignedBox3D box,
+		boolean expand,
+		boolean drawAsWireframe,
+		boolean cornersOnly
+	) {
+		Point3D min = box.getMin();
+		Point3D max = box.getMax();
+		drawBox(
+			gl,
+			min.x(), min.y(), min.z(), max.x(), max.y(), max.z(),
+			expand, drawAsWireframe, cornersOnly
+		);
+	}
+
+	// Emits the given corner of the box (x0,y0,z0)-(x1,y1,z1),
+	// after adding ``offset'' to its coordinate along dimension ``dim''.
+	// The corner index is interpreted as in AlignedBox3D.getCorner().
+	static private void corner(
+		GL gl, int i,
+		float x0, float y0, float z0,
+		float x1, float y1, float z1,
+		int dim, float offset
+	) {
+		gl.glVertex3f(
+			( (i & 1)!=0 ? x1 : x0 ) + ( dim == 0 ? offset : 0 ),
+			( (i & 2)!=0 ? y1 : y0 ) + ( dim == 1 ? offset : 0 ),
+			( (i & 4)!=0 ? z1 : z0 ) + ( dim == 2 ? offset : 0 )
+		);
+	}
+	static private void corner(
+		GL gl, int i,
+		float x0, float y0, float z0,
+		float x1, float y1, float z1
+	) {
+		gl.glVertex3f(
+			(i & 1)!=0 ? x1 : x0,
+			(i & 2)!=0 ? y1 : y0,
+			(i & 4)!=0 ? z1 : z0
+		);
+	}
+
+	// Same as above, but the box is given by its two extreme corners,
+	// so that no temporary objects need to be allocated.
+	static public void drawBox(
+		GL gl,
+		float x0, float y0, float z0,
+		float x1, float y1, float z1,
+		boolean expand,
+		boolean drawAsWireframe,
+		boolean cornersOnly
+	) {
+		if ( expand ) {
+			float dx = x1-x0, dy = y1-y0, dz = z1-z0;
+			float diagonal = (float)Math.sqrt( dx*dx + dy*dy + dz*dz );
+			diagonal /= 20;
+			x0 -= diagonal; y0 -= diagonal; z0 -= diagonal;
+			x1 += diagonal; y1 += diagonal; z1 += diagonal;
+		}
+		if ( drawAsWireframe ) {
+			if ( cornersOnly ) {
+				gl.glBegin( GL.GL_LINES );
+				for ( int dim = 0; dim < 3; ++dim ) {
+					float v = 0.1f * ( dim == 0 ? x1-x0 : ( dim == 1 ? y1-y0 : z1-z0 ) );
+					for ( int a = 0; a < 2; ++a ) {
+						for ( int b = 0; b < 2; ++b ) {
+							int i = (a << ((dim+1)%3)) | (b << ((dim+2)%3));
+							corner( gl, i, x0, y0, z0, x1, y1, z1 );
+							corner( gl, i, x0, y0, z0, x1, y1, z1, dim, v );
+							i |= 1 << dim;
+							corner( gl, i, x0, y0, z0, x1, y1, z1 );
+							corner( gl, i, x0, y0, z0, x1, y1, z1, dim, -v );
+						}
+					}
+				}
+				gl.glEnd();
+			}
+			else {
+				gl.glBegin( GL.GL_LINE_STRIP );
+					corner( gl, 0, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 1, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 3, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 2, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 6, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 7, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 5, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 4, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 0, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 2, x0, y0, z0, x1, y1, z1 );
+				gl.glEnd();
+				gl.glBegin( GL.GL_LINES );
+					corner( gl, 1, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 5, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 3, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 7, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 4, x0, y0, z0, x1, y1, z1 );
+					corner( gl, 6, x0, y0, z0, x1, y1, z1 );
+				gl.glEnd();
+			}
+		}
+		else {
+			gl.glBegin( GL.GL_QUAD_STRIP );
+				corner( gl, 0, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 1, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 4, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 5, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 6, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 7, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 2, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 3, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 0, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 1, x0, y0, z0, x1, y1, z1 );
+			gl.glEnd();
+
+			gl.glBegin( GL.GL_QUADS );
+				corner( gl, 1, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 3, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 7, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 5, x0, y0, z0, x1, y1, z1 );
+
+				corner( gl, 0, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 4, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 6, x0, y0, z0, x1, y1, z1 );
+				corner( gl, 2, x0, y0, z0, x1, y1, z1 );
+			gl.glEnd();
+		}
+	}
+
+	// Draws the box with the given index, without allocating anything.
+	private void drawBox(
+		GL gl,
+		int index,
+		boolean expand,
+		boolean drawAsWireframe,
+		boolean cornersOnly
+	) {
+		drawBox(
+			gl,
+			boxes.minX[index], boxes.minY[index], boxes.minZ[index],
+			boxes.maxX[index], boxes.maxY[index], boxes.maxZ[index],
+			expand, drawAsWireframe, cornersOnly
+		);
+	}
+
+
+	// Stores the given boxes in drawOrder, sorted by the distance
+	// of their centers from the given point.
+	private void sortFrontToBack( Point3D eye, int [] indices, int n ) {
+		if ( drawOrder.length < n )
+			drawOrder = new int[ Math.max( n, 2 * drawOrder.length ) ];
+		if ( bucketOfBox.length < n ) {
+			bucketOfBox = new int[ drawOrder.length ];
+			distanceOfBox = new float[ drawOrder.length ];
+		}
+		float ex = eye.x(), ey = eye.y(), ez = eye.z();
+		float minDistance = Float.MAX_VALUE, maxDistance = 0;
+		for ( int k = 0; k < n; ++k ) {
+			int i = indices[k];
+			float dx = 0.5f*(boxes.minX[i]+boxes.maxX[i]) - ex;
+			float dy = 0.5f*(boxes.minY[i]+boxes.maxY[i]) - ey;
+			float dz = 0.5f*(boxes.minZ[i]+boxes.maxZ[i]) - ez;
+			float d = (float)Math.sqrt( dx*dx + dy*dy + dz*dz );
+			distanceOfBox[k] = d;
+			if ( d < minDistance ) minDistance = d;
+			if ( d > maxDistance ) maxDistance = d;
+		}
+		float scale = maxDistance > minDistance ? ( NUMBER_OF_DISTANCE_BUCKETS - 1 ) / ( maxDistance - minDistance ) : 0;
+		Arrays.fill( bucketStart, 0 );
+		for ( int k = 0; k < n; ++k ) {
+			int b = (int)( ( distanceOfBox[k] - minDistance ) * scale );
+			bucketOfBox[k] = b;
+			++ bucketStart[ b+1 ];
+		}
+		for ( int b = 0; b < NUMBER_OF_DISTANCE_BUCKETS; ++b )
+			bucketStart[ b+1 ] += bucketStart[ b ];
+		for ( int k = 0; k < n; ++k )
+			drawOrder[ bucketStart[ bucketOfBox[k] ]++ ] = indices[k];
+	}
+
+	// Stores the given boxes in drawOrder, from back to front,
+	// in the order kept by depthSorter (which must be up to date).
+	private void sortBackToFront( int [] indices, int n ) {
+		if ( drawOrder.length < n )
+			drawOrder = new int[ Math.max( n, 2 * drawOrder.length ) ];
+		if ( frameOfVisibleBox.length < boxes.size() )
+			frameOfVisibleBox = new int[ boxes.capacity() ];
+		++frameNumber;
+		for ( int k = 0; k < n; ++k )
+			frameOfVisibleBox[ indices[k] ] = frameNumber;
+		int [] order = depthSorter.getOrder();
+		int numberOfSortedBoxes = depthSorter.getNumberOfSortedBoxes();
+		int m = 0;
+		for ( int k = 0; k < numberOfSortedBoxes && m < n; ++k ) {
+			if ( frameOfVisibleBox[ order[k] ] == frameNumber )
+				drawOrder[ m++ ] = order[k];
+		}
+	}
+
+	// Draws the boxes that are within the given camera's view frustum.
+	// If the camera is null, all boxes are drawn.
+	// In retained mode, the visible boxes are drawn from vertex buffers by
+	// the BoxRenderer; but the surface mesh and the InstancedBoxRenderer,
+	// when used, draw all boxes, without culling.
+	// With level of detail, clusters of boxes that cover only a few
+	// pixels are drawn as a single box, in immediate mode.
+	public void drawScene(
+		GL gl,
+		Camera3D camera,
+		int hilitedBox, // BoxStore.NO_BOX for none
+		boolean useAlphaBlending
+	) {
+		drawScene( gl, camera, hilitedBox, useAlphaBlending, 0 );
+	}
+
+	// If budgetInMilliseconds is positive, the visible boxes are drawn
+	// roughly from front to back (by distance from camera.position) until
+	// the budget is spent; the remaining boxes are skipped, and the bounds
+	// of the scene are outlined instead.  In retained mode, the boxes are
+	// drawn in chunks, with a draw call each.  The budget is ignored when
+	// the surface mesh or the InstancedBoxRenderer draws the whole scene,
+	// and when there is no camera.
+	// Boxes drawn within a budget are opaque, even if useAlphaBlending is
+	// true: compositing them with "over" is only correct from back to front.
+	public void drawScene(
+		GL gl,
+		Camera3D camera,
+		int hilitedBox, // BoxStore.NO_BOX for none
+		boolean useAlphaBlending,
+		float budgetInMilliseconds
+	) {
+		long startTime = System.nanoTime();
+		int [] visibleBoxes = null;
+		int numberOfVisibleBoxes = boxes.size();
+		numberOfBoxesCulled = 0;
+		numberOfClustersDrawn = 0;
+		numberOfBoxesDeferred = 0;
+		boolean useClusters = useLevelOfDetail && camera != null;
+		boolean useRenderer = useRetainedMode && ! useClusters;
+		// Without sorting (which needs the BoxRenderer), the surface mesh or
+		// the InstancedBoxRenderer may draw the whole scene at once
+		boolean isSortingNeeded = useAlphaBlending && camera != null;
+		boolean drawSurfaceMesh = useRenderer && ! isSortingNeeded
+			&& useSurfaceMesh && ! drawWireframeBoxes && ! useAmbientOcclusion;
+		boolean drawInstances = useRenderer && ! isSortingNeeded && ! drawSurfaceMesh
+			&& useInstancing && instancedRenderer.isSupported() && ! useAmbientOcclusion;
+		boolean drawsWholeScene = drawSurfaceMesh || drawInstances;
+		boolean useBudget = budgetInMilliseconds > 0 && camera != null && ! drawsWholeScene;
+		long deadline = startTime + (long)( budgetInMilliseconds * 1e6f );
+		if ( useClusters ) {
+			frustum.setFromCamera( camera );
+			clusters.select( camera, frustum );
+			visibleBoxes = clusters.getSelectedBoxes();
+			numberOfVisibleBoxes = clusters.getNumberOfSelectedBoxes();
+			numberOfBoxesCulled = clusters.getNumberOfCulledItems();
+			numberOfClustersDrawn = clusters.getNumberOfSelectedClusters();
+			if ( useBudget ) {
+				sortFrontToBack( camera.position, visibleBoxes, numberOfVisibleBoxes );
+				visibleBoxes = drawOrder;
+			}
+		}
+		else if ( useBudget ) {
+			// the boxes are found as they are drawn
+			frustum.setFromCamera( camera );
+			octree.startCullFrontToBack( frustum, camera.position );
+			visibleBoxes = octree.getVisibleItems();
+			numberOfVisibleBoxes = octree.getNumberOfVisibleItems();
+		}
+		else if ( camera != null && ! drawsWholeScene ) {
+			frustum.setFromCamera( camera );
+			octree.cull( frustum );
+			visibleBoxes = octree.getVisibleItems();
+			numberOfVisibleBoxes = octree.getNumberOfVisibleItems();
+			numberOfBoxesCulled = octree.getNumberOfCulledItems();
+		}
+		numberOfBoxesDrawn = visibleBoxes == null ? boxes.getNumberOfBoxes() : numberOfVisibleBoxes;
+
+		// Transparent boxes are composited over each other from back to
+		// front, so a budget (which draws from front to back) makes them opaque
+		if ( useBudget )
+			useAlphaBlending = false;
+		boolean sortBackToFront = useAlphaBlending && camera != null;
+		if ( sortBackToFront ) {
+			depthSorter.sort( camera.position );
+			if ( visibleBoxes != null ) {
+				sortBackToFront( visibleBoxes, numberOfVisibleBoxes );
+				visibleBoxes = drawOrder;
+			}
+		}
+
+		if ( useAlphaBlending )
+			beginBlending( gl );
+		if ( drawSurfaceMesh )
+			surfaceMesh.draw( gl );
+		else if ( drawInstances )
+			instancedRenderer.draw( gl, drawWireframeBoxes );
+		else if ( useRenderer && ( visibleBoxes == null || ( ! useBudget && ! sortBackToFront
+			&& numberOfBoxesCulled < boxes.getNumberOfBoxes() / MIN_FRACTION_CULLED_FOR_INDEX_LIST ) ) ) {
+			// when few boxes are culled, drawing all of them with the
+			// renderer's static indices costs less than listing the visible ones
+			renderer.draw( gl, drawWireframeBoxes );
+		}
+		else {
+			// the proxies of the distant clusters (drawn first, since
+			// they are usually behind the boxes)
+			int [] selectedClusters = clusters.getSelectedClusters();
+			for ( int k = 0; k < numberOfClustersDrawn; ++k ) {
+				int node = selectedClusters[k];
+				if ( useAlphaBlending )
+					gl.glColor4f( clusters.getRed( node ), clusters.getGreen( node ), clusters.getBlue( node ), clusters.getAlpha( node ) );
+				else
+					gl.glColor3f( clusters.getRed( node ), clusters.getGreen( node ), clusters.getBlue( node ) );
+				drawBox(
+					gl,
+					clusters.getMinX( node ), clusters.getMinY( node ), clusters.getMinZ( node ),
+					clusters.getMaxX( node ), clusters.getMaxY( node ), clusters.getMaxZ( node ),
+					false, drawWireframeBoxes, false
+				);
+			}
+
+			// Within a budget, the boxes are drawn a chunk at a time (with
+			// a draw call each in retained mode) and, without clusters,
+			// found as they are drawn
+			boolean isCullingIncremental = useBudget && ! useClusters;
+			int boxesPerChunk = useRenderer ? BOXES_PER_CHUNK : BOXES_BETWEEN_CLOCK_CHECKS;
+			for ( int k = 0; ; ) {
+				if ( k == numberOfVisibleBoxes && isCullingIncremental ) {
+					octree.cullMore( boxesPerChunk );
+					numberOfVisibleBoxes = octree.getNumberOfVisibleItems();
+				}
+				if ( k == numberOfVisibleBoxes )
+					break;
+				if ( useBudget && k > 0 && System.nanoTime() > deadline ) {
+					deferRemainingBoxes( gl, k, numberOfVisibleBoxes, isCullingIncremental );
+					break;
+				}
+				int end = useBudget ? Math.min( numberOfVisibleBoxes, k + boxesPerChunk ) : numberOfVisibleBoxes;
+				if ( useRenderer )
+					renderer.drawInOrder( gl, drawWireframeBoxes, visibleBoxes, k, end );
+				else
+					drawBoxes( gl, visibleBoxes, k, end, useAlphaBlending );
+				k = end;
+			}
+			if ( isCullingIncremental ) {
+				numberOfBoxesCulled = octree.getNumberOfCulledItems();
+				if ( numberOfBoxesDeferred == 0 )
+					numberOfBoxesDrawn = numberOfVisibleBoxes;
+			}
+		}
+		if ( useAlphaBlending )
+			endBlending( gl );
+
+		drawOutlines( gl, camera, hilitedBox );
+	}
+
+	// Called when the budget is spent after drawing the first k of the
+	// visible boxes: the others are skipped, and the bounds of the scene
+	// are outlined instead.
+	private void deferRemainingBoxes( GL gl, int k, int numberOfVisibleBoxes, boolean isCullingIncremental ) {
+		numberOfBoxesDrawn = k;
+		numberOfBoxesDeferred = numberOfVisibleBoxes - k;
+		if ( isCullingIncremental )
+			numberOfBoxesDeferred += octree.getNumberOfUnvisitedItems();
+		gl.glColor3f( 0.5f, 0.5f, 0.5f );
+		drawBoundingBoxOfScene( gl );
+	}
+
+	private void beginBlending( GL gl ) {
+		gl.glDisable(GL.GL_DEPTH_TEST);
+		gl.glDepthMask(false);
+		gl.glBlendFunc( GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA );
+		gl.glEnable( GL.GL_BLEND );
+	}
+
+	private void endBlending( GL gl ) {
+		gl.glDisable( GL.GL_BLEND );
+		gl.glDepthMask(true);
+		gl.glEnable(GL.GL_DEPTH_TEST);
+	}
+
+	// Draws the boxes of the given list (skipping removed boxes)
+	// in immediate mode, in their own colors.
+	private void drawBoxes( GL gl, int [] indices, int n, boolean useAlphaBlending ) {
+		drawBoxes( gl, indices, 0, n, useAlphaBlending );
+	}
+
+	// Same as above, for indices[start] to indices[end-1],
+	// or for the boxes from start to end-1 if indices is null.
+	private void drawBoxes( GL gl, int [] indices, int start, int end, boolean useAlphaBlending ) {
+		if ( useAmbientOcclusion && ! drawWireframeBoxes ) {
+			// the shaded faces of all the boxes are quads, in one glBegin()/glEnd()
+			gl.glBegin( GL.GL_QUADS );
+			for ( int k = start; k < end; ++k ) {
+				int i = indices == null ? k : indices[k];
+				if ( boxes.isAlive( i ) )
+					drawShadedBox( gl, i, useAlphaBlending );
+			}
+			gl.glEnd();
+			return;
+		}
+		for ( int k = start; k < end; ++k ) {
+			int i = indices == null ? k : indices[k];
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			int c = boxes.rgba[i];
+			if ( useAlphaBlending )
+				gl.glColor4f( BoxStore.unpackRed(c), BoxStore.unpackGreen(c), BoxStore.unpackBlue(c), BoxStore.unpackAlpha(c) );
+			else
+				gl.glColor3f( BoxStore.unpackRed(c), BoxStore.unpackGreen(c), BoxStore.unpackBlue(c) );
+			drawBox( gl, i, false, drawWireframeBoxes, false );
+		}
+	}
+
+	// Draws the box with the given index as a solid box, in immediate mode,
+	// with each face in the box's color multiplied by the face's shade.
+	// Must be called between glBegin( GL_QUADS ) and glEnd().
+	private void drawShadedBox( GL gl, int index, boolean useAlphaBlending ) {
+		float x0 = boxes.minX[index], y0 = boxes.minY[index], z0 = boxes.minZ[index];
+		float x1 = boxes.maxX[index], y1 = boxes.maxY[index], z1 = boxes.maxZ[index];
+		int c = boxes.rgba[index];
+		for ( int f = 0; f < AmbientOcclusion.FACES_PER_BOX; ++f ) {
+			int rgb = AmbientOcclusion.shadeColor( c >>> 8, ambientOcclusion.getShade( index, f ) );
+			if ( useAlphaBlending )
+				gl.glColor4ub( (byte)( rgb >>> 16 ), (byte)( rgb >>> 8 ), (byte)rgb, (byte)c );
+			else
+				gl.glColor3ub( (byte)( rgb >>> 16 ), (byte)( rgb >>> 8 ), (byte)rgb );
+			for ( int k = 0; k < 4; ++k )
+				corner( gl, AmbientOcclusion.FACE_CORNERS[ 4*f + k ], x0, y0, z0, x1, y1, z1 );
+		}
+	}
+
+	// Returns true if drawUnselectedBoxes() and drawSelectedBoxes() together
+	// draw the same image as drawScene(), so that the first layer can be
+	// cached while the selection is dragged.  This needs opaque boxes (with
+	// blending, the selected boxes would have to be sorted among the others)
+	// and no level of detail (whose clusters include the selected boxes).
+	public boolean canDrawInLayers( boolean useAlphaBlending ) {
+		return ! useAlphaBlending && ! useLevelOfDetail;
+	}
+
+	// Draws the boxes that are not selected, without outlines.
+	// This is done once per drag, so the boxes are not culled, and are
+	// drawn in immediate mode unless useRetainedMode is true (by the
+	// BoxRenderer even when drawScene() would use the surface mesh or the
+	// InstancedBoxRenderer, which also hold the selected boxes).
+	public void drawUnselectedBoxes( GL gl, Camera3D camera, boolean useAlphaBlending ) {
+		int n = boxes.size();
+		int [] order = null;
+		if ( useAlphaBlending && camera != null ) {
+			depthSorter.sort( camera.position );
+			order = depthSorter.getOrder();
+		}
+		if ( drawOrder.length < n )
+			drawOrder = new int[ Math.max( n, 2 * drawOrder.length ) ];
+		int m = 0;
+		for ( int k = 0; k < n; ++k ) {
+			int i = order == null ? k : order[k];
+			if ( boxes.isAlive( i ) && ! selection.contains( boxes.slotAt( i ) ) )
+				drawOrder[ m++ ] = i;
+		}
+		numberOfBoxesDrawn = m;
+		numberOfBoxesCulled = 0;
+		numberOfClustersDrawn = 0;
+		numberOfBoxesDeferred = 0;
+
+		if ( useAlphaBlending )
+			beginBlending( gl );
+		if ( useRetainedMode )
+			renderer.drawInOrder( gl, drawWireframeBoxes, drawOrder, m );
+		else
+			drawBoxes( gl, drawOrder, m, useAlphaBlending );
+		if ( useAlphaBlending )
+			endBlending( gl );
+	}
+
+	// Draws the selected boxes that are within the given camera's view
+	// frustum (all of them if the camera is null), in immediate mode,
+	// and the outlines of the selected boxes and of the hilited box.
+	public void drawSelectedBoxes(
+		GL gl,
+		Camera3D camera,
+		int hilitedBox, // BoxStore.NO_BOX for none
+		boolean useAlphaBlending
+	) {
+		int n = selection.size();
+		if ( drawOrder.length < n )
+			drawOrder = new int[ Math.max( n, 2 * drawOrder.length ) ];
+		if ( camera != null )
+			frustum.setFromCamera( camera );
+		int m = 0;
+		for ( int slot = selection.next( 0 ); slot >= 0; slot = selection.next( slot+1 ) ) {
+			int i = boxes.indexOfSlot( slot );
+			if ( camera == null || frustum.intersectsBox(
+				boxes.minX[i], boxes.minY[i], boxes.minZ[i], boxes.maxX[i], boxes.maxY[i], boxes.maxZ[i]
+			) )
+				drawOrder[ m++ ] = i;
+		}
+		numberOfBoxesDrawn = m;
+		numberOfBoxesCulled = n - m;
+		numberOfClustersDrawn = 0;
+		numberOfBoxesDeferred = 0;
+
+		if ( useAlphaBlending )
+			beginBlending( gl );
+		drawBoxes( gl, drawOrder, m, useAlphaBlending );
+		if ( useAlphaBlending )
+			endBlending( gl );
+
+		drawOutlines( gl, camera, hilitedBox );
+	}
+
+	// Outlines the selected boxes, and the hilited box, skipping those
+	// outside the given camera's view frustum (if the camera is not null)
+	private void drawOutlines( GL gl, Camera3D camera, int hilitedBox ) {
+		if ( camera != null )
+			frustum.setFromCamera( camera );
+		int indexOfHilitedBox = boxes.indexOf( hilitedBox );
+		for ( int slot = selection.next( 0 ); slot >= 0; slot = selection.next( slot+1 ) ) {
+			int i = boxes.indexOfSlot( slot );
+			if ( camera != null && ! isOutlineInFrustum( i ) )
+				continue;
+			if ( indexOfHilitedBox == i )
+				gl.glColor3f( 1, 1, 0 );
+			else
+				gl.glColor3f( 1, 0, 0 );
+			drawBox( gl, i, true, true, true );
+		}
+		if ( indexOfHilitedBox >= 0 && ! selection.contains( boxes.slotAt( indexOfHilitedBox ) ) ) {
+			gl.glColor3f( 0, 1, 0 );
+			drawBox( gl, indexOfHilitedBox, true, true, true );
+		}
+	}
+
+	// Returns true if the outline of the given box (which drawBox()
+	// expands by a twentieth of the box's diagonal) intersects frustum
+	private boolean isOutlineInFrustum( int i ) {
+		float dx = boxes.maxX[i]-boxes.minX[i], dy = boxes.maxY[i]-boxes.minY[i], dz = boxes.maxZ[i]-boxes.minZ[i];
+		float e = (float)Math.sqrt( dx*dx + dy*dy + dz*dz ) / 20;
+		return frustum.intersectsBox(
+			boxes.minX[i]-e, boxes.minY[i]-e, boxes.minZ[i]-e,
+			boxes.maxX[i]+e, boxes.maxY[i]+e, boxes.maxZ[i]+e
+		);
+	}
+
+	public void setUseRetainedMode( boolean useRetainedMode ) {
+		this.useRetainedMode = useRetainedMode;
+	}
+
+	public void setUseInstancing( boolean useInstancing ) {
+		this.useInstancing = useInstancing;
+	}
+
+	public void setUseSurfaceMesh( boolean useSurfaceMesh ) {
+		this.useSurfaceMesh = useSurfaceMesh;
+	}
+
+	public void setUseLevelOfDetail( boolean useLevelOfDetail ) {
+		this.useLevelOfDetail = useLevelOfDetail;
+	}
+
+	// Must be called when the OpenGL context has been (re)created
+	public void contextCreated( GL gl ) {
+		renderer.contextCreated( gl );
+		instancedRenderer.contextCreated( gl );
+		surfaceMesh.contextCreated( gl );
+	}
+
+	public int getNumberOfBoxesDrawn() { return numberOfBoxesDrawn; }
+	// Number of boxes left out by the last call to drawScene() because
+	// its time budget was spent (some of which may be outside the view,
+	// since the culling stops along with the drawing)
+	public int getNumberOfBoxesDeferred() { return numberOfBoxesDeferred; }
+	public int getNumberOfBoxesCulled() { return numberOfBoxesCulled; }
+	// Number of clusters drawn as single boxes by the last call to drawScene()
+	public int getNumberOfClustersDrawn() { return numberOfClustersDrawn; }
+
+	public void drawBoundingBoxOfScene( GL gl ) {
+		AlignedBox3D box = getBoundingBoxOfScene();
+		if ( ! box.isEmpty() )
+			drawBox( gl, box, false, true, false );
+	}
+}
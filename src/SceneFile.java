@@ -0,0 +1,114 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+// Saves the boxes of a scene to a text file, and loads them back.
+//
+// The file starts with a header line, followed by one line per box:
+//
+//    SimpleModeller scene 1
+//    box x0 y0 z0 x1 y1 z1 rrggbbaa
+//
+// where (x0,y0,z0) and (x1,y1,z1) are the minimal and maximal corners
+// of the box, and rrggbbaa its color, packed as in BoxStore, in hex.
+// Blank lines and lines starting with # are ignored.  Only the boxes
+// are saved (not the selection, camera or display settings).
+public class SceneFile {
+
+	public static final String HEADER = "SimpleModeller scene 1";
+
+	public static void save( Scene scene, File file ) throws IOException {
+		BoxStore boxes = scene.boxes;
+		PrintWriter out = new PrintWriter( new BufferedWriter( new FileWriter( file ) ) );
+		try {
+			out.println( HEADER );
+			for ( int i = 0; i < boxes.size(); ++i ) {
+				if ( ! boxes.isAlive( i ) )
+					continue;
+				// Float.toString() gives the shortest string that parses back to the same float
+				out.println(
+					"box " + boxes.minX[i] + " " + boxes.minY[i] + " " + boxes.minZ[i]
+					+ " " + boxes.maxX[i] + " " + boxes.maxY[i] + " " + boxes.maxZ[i]
+					+ " " + String.format( "%08x", boxes.rgba[i] )
+				);
+			}
+			if ( out.checkError() )
+				throw new IOException( "could not write " + file );
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	// Adds the boxes of the given file to the scene.
+	// Throws an IOException, giving the line number, if the file is malformed
+	// (in which case the boxes of the lines before it have been added).
+	public static void load( File file, Scene scene ) throws IOException {
+		BufferedReader in = new BufferedReader( new FileReader( file ) );
+		try {
+			String line = in.readLine();
+			if ( line == null || ! line.trim().equals( HEADER ) )
+				throw new IOException( file + ": not a scene file" );
+			int lineNumber = 1;
+			String [] tokens = new String[ 8 ];
+			while ( ( line = in.readLine() ) != null ) {
+				++lineNumber;
+				line = line.trim();
+				if ( line.length() == 0 || line.startsWith( "#" ) )
+					continue;
+				if ( split( line, tokens ) != 8 || ! tokens[0].equals( "box" ) )
+					throw new IOException( file + ":" + lineNumber + ": expected box x0 y0 z0 x1 y1 z1 rrggbbaa" );
+				try {
+					Point3D min = new Point3D( Float.parseFloat( tokens[1] ), Float.parseFloat( tokens[2] ), Float.parseFloat( tokens[3] ) );
+					Point3D max = new Point3D( Float.parseFloat( tokens[4] ), Float.parseFloat( tokens[5] ), Float.parseFloat( tokens[6] ) );
+					int c = (int)Long.parseLong( tokens[7], 16 );
+					if ( !( min.x() <= max.x() && min.y() <= max.y() && min.z() <= max.z() ) )
+						throw new IOException( file + ":" + lineNumber + ": the minimal corner exceeds the maximal corner" );
+					scene.addColoredBox(
+						new AlignedBox3D( min, max ),
+						BoxStore.unpackRed( c ), BoxStore.unpackGreen( c ), BoxStore.unpackBlue( c ), BoxStore.unpackAlpha( c )
+					);
+				}
+				catch ( NumberFormatException e ) {
+					throw new IOException( file + ":" + lineNumber + ": " + e.getMessage() );
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	// Splits the line at spaces and tabs into the given array (ignoring the
+	// tokens that do not fit), and returns the number of tokens,
+	// several times faster than String.split() with a regular expression.
+	private static int split( String line, String [] tokens ) {
+		int n = 0;
+		int length = line.length();
+		int i = 0;
+		while ( i < length ) {
+			while ( i < length && ( line.charAt( i ) == ' ' || line.charAt( i ) == '\t' ) )
+				++i;
+			if ( i == length )
+				break;
+			int start = i;
+			while ( i < length && line.charAt( i ) != ' ' && line.charAt( i ) != '\t' )
+				++i;
+			if ( n < tokens.length )
+				tokens[n] = line.substring( start, i );
+			++n;
+		}
+		return n;
+	}
+
+	// Returns a new scene with the boxes of the given file.
+	public static Scene load( File file ) throws IOException {
+		Scene scene = new Scene();
+		load( file, scene );
+		return scene;
+	}
+}
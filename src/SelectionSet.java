@@ -0,0 +1,427 @@
+
+import java.util.Arrays;
+
+// A set of non-negative integers, stored as a compressed bitmap.
+//
+// As in "roaring" bitmaps, the integers are partitioned into chunks of
+// 65536 values, according to their upper 16 bits.  The lower 16 bits
+// of the members of a chunk are stored in a "container", which is
+// either a sorted array (for sparse chunks) or a bitmap of 65536 bits
+// (for dense chunks).  Hence a set costs roughly 2 bytes per member
+// when sparse, and at most 1 bit per possible member when dense;
+// membership tests take constant time in dense chunks, and logarithmic
+// time (over at most 4096 entries) in sparse chunks; and unions,
+// intersections and differences are computed chunk by chunk, mostly
+// with word-wide operations.
+public class SelectionSet {
+
+	// A container switches from an array to a bitmap
+	// when it would hold more than this many values
+	private static final int MAX_ARRAY_SIZE = 4096;
+	private static final int BITMAP_WORDS = 65536 / 64;
+
+	// The containers, sorted by key.
+	// For each container, exactly one of arrays[k] and bitmaps[k] is non-null.
+	private int numberOfContainers = 0;
+	private char [] keys = new char[ 4 ];
+	private char [][] arrays = new char[ 4 ][];
+	private long [][] bitmaps = new long[ 4 ][];
+	private int [] cardinalities = new int[ 4 ];
+
+	private int size = 0;
+
+	public SelectionSet() {
+	}
+
+	public SelectionSet( SelectionSet other ) {
+		copy( other );
+	}
+
+	public int size() { return size; }
+	public boolean isEmpty() { return size == 0; }
+
+	public void clear() {
+		numberOfContainers = 0;
+		Arrays.fill( arrays, null );
+		Arrays.fill( bitmaps, null );
+		size = 0;
+	}
+
+	public void copy( SelectionSet other ) {
+		numberOfContainers = other.numberOfContainers;
+		keys = Arrays.copyOf( other.keys, other.keys.length );
+		cardinalities = Arrays.copyOf( other.cardinalities, other.cardinalities.length );
+		arrays = new char[ other.arrays.length ][];
+		bitmaps = new long[ other.bitmaps.length ][];
+		for ( int k = 0; k < numberOfContainers; ++k ) {
+			if ( other.arrays[k] != null )
+				arrays[k] = Arrays.copyOf( other.arrays[k], other.arrays[k].length );
+			else
+				bitmaps[k] = Arrays.copyOf( other.bitmaps[k], BITMAP_WORDS );
+		}
+		size = other.size;
+	}
+
+	// Returns the position of the container with the given key,
+	// or (-(insertion point) - 1) if there is none.
+	private int findContainer( char key ) {
+		// The last container is checked first, since members are
+		// often added in increasing order.
+		if ( numberOfContainers > 0 && keys[ numberOfContainers-1 ] == key )
+			return numberOfContainers - 1;
+		return Arrays.binarySearch( keys, 0, numberOfContainers, key );
+	}
+
+	private void insertContainer( int k, char key, char [] array, long [] bitmap, int cardinality ) {
+		if ( numberOfContainers == keys.length ) {
+			int newCapacity = 2 * keys.length;
+			keys = Arrays.copyOf( keys, newCapacity );
+			arrays = Arrays.copyOf( arrays, newCapacity );
+			bitmaps = Arrays.copyOf( bitmaps, newCapacity );
+			cardinalities = Arrays.copyOf( cardinalities, newCapacity );
+		}
+		int n = numberOfContainers - k;
+		System.arraycopy( keys, k, keys, k+1, n );
+		System.arraycopy( arrays, k, arrays, k+1, n );
+		System.arraycopy( bitmaps, k, bitmaps, k+1, n );
+		System.arraycopy( cardinalities, k, cardinalities, k+1, n );
+		keys[k] = key;
+		arrays[k] = array;
+		bitmaps[k] = bitmap;
+		cardinalities[k] = cardinality;
+		++numberOfContainers;
+	}
+
+	private void removeContainer( int k ) {
+		int n = numberOfContainers - k - 1;
+		System.arraycopy( keys, k+1, keys, k, n );
+		System.arraycopy( arrays, k+1, arrays, k, n );
+		System.arraycopy( bitmaps, k+1, bitmaps, k, n );
+		System.arraycopy( cardinalities, k+1, cardinalities, k, n );
+		--numberOfContainers;
+		arrays[ numberOfContainers ] = null;
+		bitmaps[ numberOfContainers ] = null;
+	}
+
+	public boolean contains( int x ) {
+		int k = findContainer( (char)( x >>> 16 ) );
+		if ( k < 0 )
+			return false;
+		char low = (char)x;
+		if ( bitmaps[k] != null )
+			return ( bitmaps[k][ low >>> 6 ] & ( 1L << low ) ) != 0;
+		return Arrays.binarySearch( arrays[k], 0, cardinalities[k], low ) >= 0;
+	}
+
+	// Returns true if x was not already in the set.
+	public boolean add( int x ) {
+		assert x >= 0;
+		char key = (char)( x >>> 16 );
+		char low = (char)x;
+		int k = findContainer( key );
+		if ( k < 0 ) {
+			k = -k - 1;
+			insertContainer( k, key, new char[ 4 ], null, 0 );
+		}
+		if ( bitmaps[k] != null ) {
+			long [] bitmap = bitmaps[k];
+			long bit = 1L << low;
+			if ( ( bitmap[ low >>> 6 ] & bit ) != 0 )
+				return false;
+			bitmap[ low >>> 6 ] |= bit;
+		}
+		else {
+			char [] array = arrays[k];
+			int n = cardinalities[k];
+			int position = Arrays.binarySearch( array, 0, n, low );
+			if ( position >= 0 )
+				return false;
+			position = -position - 1;
+			if ( n == MAX_ARRAY_SIZE ) {
+				long [] bitmap = toBitmap( array, n );
+				bitmap[ low >>> 6 ] |= 1L << low;
+				arrays[k] = null;
+				bitmaps[k] = bitmap;
+			}
+			else {
+				if ( n == array.length )
+					arrays[k] = array = Arrays.copyOf( array, Math.min( MAX_ARRAY_SIZE, 2*n ) );
+				System.arraycopy( array, position, array, position+1, n - position );
+				array[ position ] = low;
+			}
+		}
+		++cardinalities[k];
+		++size;
+		return true;
+	}
+
+	// Returns true if x was in the set.
+	public boolean remove( int x ) {
+		int k = findContainer( (char)( x >>> 16 ) );
+		if ( k < 0 )
+			return false;
+		char low = (char)x;
+		if ( bitmaps[k] != null ) {
+			long [] bitmap = bitmaps[k];
+			long bit = 1L << low;
+			if ( ( bitmap[ low >>> 6 ] & bit ) == 0 )
+				return false;
+			bitmap[ low >>> 6 ] &= ~bit;
+		}
+		else {
+			char [] array = arrays[k];
+			int n = cardinalities[k];
+			int position = Arrays.binarySearch( array, 0, n, low );
+			if ( position < 0 )
+				return false;
+			System.arraycopy( array, position+1, array, position, n - position - 1 );
+		}
+		--cardinalities[k];
+		--size;
+		normalize( k );
+		return true;
+	}
+
+	// Removes the container if it is empty, and switches it back to
+	// an array once it becomes sparse enough.
+	private void normalize( int k ) {
+		if ( cardinalities[k] == 0 ) {
+			removeContainer( k );
+		}
+		else if ( bitmaps[k] != null && cardinalities[k] <= MAX_ARRAY_SIZE / 2 ) {
+			arrays[k] = toArray( bitmaps[k], cardinalities[k] );
+			bitmaps[k] = null;
+		}
+	}
+
+	private static long [] toBitmap( char [] array, int n ) {
+		long [] bitmap = new long[ BITMAP_WORDS ];
+		for ( int i = 0; i < n; ++i )
+			bitmap[ array[i] >>> 6 ] |= 1L << array[i];
+		return bitmap;
+	}
+
+	private static char [] toArray( long [] bitmap, int cardinality ) {
+		char [] array = new char[ Math.max( 4, cardinality ) ];
+		int n = 0;
+		for ( int w = 0; w < BITMAP_WORDS; ++w ) {
+			long word = bitmap[w];
+			while ( word != 0 ) {
+				array[ n++ ] = (char)( ( w << 6 ) + Long.numberOfTrailingZeros( word ) );
+				word &= word - 1;
+			}
+		}
+		return array;
+	}
+
+	private static int cardinality( long [] bitmap ) {
+		int n = 0;
+		for ( int w = 0; w < BITMAP_WORDS; ++w )
+			n += Long.bitCount( bitmap[w] );
+		return n;
+	}
+
+	private long [] bitmapOf( int k ) {
+		return bitmaps[k] != null ? bitmaps[k] : toBitmap( arrays[k], cardinalities[k] );
+	}
+
+	private boolean containsLow( int k, char low ) {
+		if ( bitmaps[k] != null )
+			return ( bitmaps[k][ low >>> 6 ] & ( 1L << low ) ) != 0;
+		return Arrays.binarySearch( arrays[k], 0, cardinalities[k], low ) >= 0;
+	}
+
+	// Adds all the members of the other set to this one.
+	public void or( SelectionSet other ) {
+		for ( int j = 0; j < other.numberOfContainers; ++j ) {
+			char key = other.keys[j];
+			int k = findContainer( key );
+			if ( k < 0 ) {
+				k = -k - 1;
+				if ( other.bitmaps[j] != null )
+					insertContainer( k, key, null, Arrays.copyOf( other.bitmaps[j], BITMAP_WORDS ), other.cardinalities[j] );
+				else
+					insertContainer( k, key, Arrays.copyOf( other.arrays[j], Math.max( 4, other.cardinalities[j] ) ), null, other.cardinalities[j] );
+				size += other.cardinalities[j];
+				continue;
+			}
+			size -= cardinalities[k];
+			if ( arrays[k] != null && other.arrays[j] != null
+				&& cardinalities[k] + other.cardinalities[j] <= MAX_ARRAY_SIZE
+			) {
+				// merge the two sorted arrays
+				char [] a = arrays[k], b = other.arrays[j];
+				int na = cardinalities[k], nb = other.cardinalities[j];
+				char [] merged = new char[ Math.max( 4, na + nb ) ];
+				int i = 0, l = 0, n = 0;
+				while ( i < na && l < nb ) {
+					if ( a[i] < b[l] ) merged[ n++ ] = a[ i++ ];
+					else if ( a[i] > b[l] ) merged[ n++ ] = b[ l++ ];
+					else { merged[ n++ ] = a[ i++ ]; ++l; }
+				}
+				while ( i < na ) merged[ n++ ] = a[ i++ ];
+				while ( l < nb ) merged[ n++ ] = b[ l++ ];
+				arrays[k] = merged;
+				cardinalities[k] = n;
+			}
+			else {
+				long [] bitmap = bitmapOf( k );
+				if ( other.bitmaps[j] != null ) {
+					long [] b = other.bitmaps[j];
+					for ( int w = 0; w < BITMAP_WORDS; ++w )
+						bitmap[w] |= b[w];
+				}
+				else {
+					char [] b = other.arrays[j];
+					for ( int i = 0; i < other.cardinalities[j]; ++i )
+						bitmap[ b[i] >>> 6 ] |= 1L << b[i];
+				}
+				arrays[k] = null;
+				bitmaps[k] = bitmap;
+				cardinalities[k] = cardinality( bitmap );
+			}
+			size += cardinalities[k];
+		}
+	}
+
+	// Keeps only the members that are also in the other set.
+	public void and( SelectionSet other ) {
+		for ( int k = numberOfContainers - 1; k >= 0; --k ) {
+			int j = other.findContainer( keys[k] );
+			size -= cardinalities[k];
+			if ( j < 0 ) {
+				removeContainer( k );
+				continue;
+			}
+			if ( bitmaps[k] != null && other.bitmaps[j] != null ) {
+				long [] a = bitmaps[k], b = other.bitmaps[j];
+				for ( int w = 0; w < BITMAP_WORDS; ++w )
+					a[w] &= b[w];
+				cardinalities[k] = cardinality( a );
+			}
+			else if ( arrays[k] != null ) {
+				char [] a = arrays[k];
+				int n = 0;
+				for ( int i = 0; i < cardinalities[k]; ++i )
+					if ( other.containsLow( j, a[i] ) )
+						a[ n++ ] = a[i];
+				cardinalities[k] = n;
+			}
+			else {
+				// this container is a bitmap, the other is an array
+				char [] b = other.arrays[j];
+				char [] a = new char[ Math.max( 4, other.cardinalities[j] ) ];
+				int n = 0;
+				for ( int i = 0; i < other.cardinalities[j]; ++i )
+					if ( containsLow( k, b[i] ) )
+						a[ n++ ] = b[i];
+				bitmaps[k] = null;
+				arrays[k] = a;
+				cardinalities[k] = n;
+			}
+			size += cardinalities[k];
+			normalize( k );
+		}
+	}
+
+	// Removes the members that are in the other set.
+	public void andNot( SelectionSet other ) {
+		for ( int k = numberOfContainers - 1; k >= 0; --k ) {
+			int j = other.findContainer( keys[k] );
+			if ( j < 0 )
+				continue;
+			size -= cardinalities[k];
+			if ( arrays[k] != null ) {
+				char [] a = arrays[k];
+				int n = 0;
+				for ( int i = 0; i < cardinalities[k]; ++i )
+					if ( ! other.containsLow( j, a[i] ) )
+						a[ n++ ] = a[i];
+				cardinalities[k] = n;
+			}
+			else if ( other.bitmaps[j] != null ) {
+				long [] a = bitmaps[k], b = other.bitmaps[j];
+				for ( int w = 0; w < BITMAP_WORDS; ++w )
+					a[w] &= ~b[w];
+				cardinalities[k] = cardinality( a );
+			}
+			else {
+				long [] a = bitmaps[k];
+				char [] b = other.arrays[j];
+				for ( int i = 0; i < other.cardinalities[j]; ++i ) {
+					long bit = 1L << b[i];
+					if ( ( a[ b[i] >>> 6 ] & bit ) != 0 ) {
+						a[ b[i] >>> 6 ] &= ~bit;
+						--cardinalities[k];
+					}
+				}
+			}
+			size += cardinalities[k];
+			normalize( k );
+		}
+	}
+
+	// Returns the smallest member that is >= x, or -1 if there is none.
+	// To iterate over the members in increasing order:
+	//    for ( int x = set.next( 0 ); x >= 0; x = set.next( x+1 ) ) ...
+	public int next( int x ) {
+		if ( x < 0 )
+			return -1;
+		int k = findContainer( (char)( x >>> 16 ) );
+		char low = (char)x;
+		if ( k < 0 ) {
+			k = -k - 1;
+			low = 0;
+		}
+		for ( ; k < numberOfContainers; ++k, low = 0 ) {
+			int high = keys[k] << 16;
+			if ( bitmaps[k] != null ) {
+				long [] bitmap = bitmaps[k];
+				int w = low >>> 6;
+				long word = bitmap[w] & ( -1L << low );
+				while ( true ) {
+					if ( word != 0 )
+						return high | ( ( w << 6 ) + Long.numberOfTrailingZeros( word ) );
+					if ( ++w == BITMAP_WORDS )
+						break;
+					word = bitmap[w];
+				}
+			}
+			else {
+				int position = Arrays.binarySearch( arrays[k], 0, cardinalities[k], low );
+				if ( position < 0 )
+					position = -position - 1;
+				if ( position < cardinalities[k] )
+					return high | arrays[k][ position ];
+			}
+		}
+		return -1;
+	}
+
+	// Returns the members, in increasing order.
+	public int [] toArray() {
+		int [] result = new int[ size ];
+		int n = 0;
+		for ( int k = 0; k < numberOfContainers; ++k ) {
+			int high = keys[k] << 16;
+			if ( bitmaps[k] != null ) {
+				long [] bitmap = bitmaps[k];
+				for ( int w = 0; w < BITMAP_WORDS; ++w ) {
+					long word = bitmap[w];
+					while ( word != 0 ) {
+						result[ n++ ] = high | ( ( w << 6 ) + Long.numberOfTrailingZeros( word ) );
+						word &= word - 1;
+					}
+				}
+			}
+			else {
+				char [] array = arrays[k];
+				for ( int i = 0; i < cardinalities[k]; ++i )
+					result[ n++ ] = high | array[i];
+			}
+		}
+		return result;
+	}
+
+}
+
@@ -1,9 +1,6 @@
 
 import java.lang.Math;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Vector;
+import java.util.Arrays;
 import java.awt.Container;
 import java.awt.Component;
 import java.awt.Dimension;
@@ -28,9 +25,12 @@ import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JCheckBox;
 import javax.swing.JColorChooser;
+import javax.swing.JFileChooser;
+import javax.swing.JComboBox;
 import javax.swing.JButton;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.border.MatteBorder;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
@@ -47,333 +47,17 @@ import javax.media.opengl.GLEventListener;
 import com.sun.opengl.util.GLUT;
 
 
-class ColoredBox {
-	public static final float DEFAULT_SIZE = 0.5f;
-	public static final float DEFAULT_ALPHA = 0.5f;
-
-	public AlignedBox3D box;
-
-	// The color and alpha components, each in [0,1]
-	public float r=1, g=1, b=1, a=1;
-
-	public boolean isSelected = false;
-
-	public ColoredBox(
-		AlignedBox3D alignedBox3D,
-		float red, float green, float blue, float alpha
-	) {
-		box = new AlignedBox3D(
-			alignedBox3D.getMin(),
-			alignedBox3D.getMax()
-		);
-		r = red;
-		g = green;
-		b = blue;
-		a = alpha;
-	}
-
-}
-
-
-class Scene {
-	public Vector< ColoredBox > coloredBoxes = new Vector< ColoredBox >();
-
-	AlignedBox3D boundingBoxOfScene = new AlignedBox3D();
-	boolean isBoundingBoxOfSceneDirty = false;
-	boolean drawWireframeBoxes = false;
-
-
-
-
-	public Scene() {
-	}
-
-	public AlignedBox3D getBoundingBoxOfScene() {
-		if ( isBoundingBoxOfSceneDirty ) {
-			boundingBoxOfScene.clear();
-			for ( int i = 0; i < coloredBoxes.size(); ++i ) {
-				boundingBoxOfScene.bound( coloredBoxes.elementAt(i).box );
-			}
-			isBoundingBoxOfSceneDirty = false;
-		}
-		return boundingBoxOfScene;
-	}
-
-	public void addColoredBox(
-		AlignedBox3D box,
-		float red, float green, float blue,
-		float alpha
-	) {
-		ColoredBox cb = new ColoredBox( box, red, green, blue, alpha );
-		coloredBoxes.addElement( cb );
-		isBoundingBoxOfSceneDirty = true;
-	}
-
-	public int getIndexOfIntersectedBox(
-		Ray3D ray, // input
-		Point3D intersectionPoint, // output
-		Vector3D normalAtIntersection // output
-	) {
-		boolean intersectionDetected = false;
-		int indexOfIntersectedBox = -1;
-		float distanceToIntersection = 0;
-
-		// candidate intersection
-		Point3D candidatePoint = new Point3D();
-		Vector3D candidateNormal = new Vector3D();
-		float candidateDistance;
-
-		for ( int i = 0; i < coloredBoxes.size(); ++i ) {
-			AlignedBox3D box = coloredBoxes.elementAt(i).box;
-			if (box.intersects(ray,candidatePoint,candidateNormal)) {
-				candidateDistance = Point3D.diff(
-					ray.origin, candidatePoint
-				).length();
-				if (
-					! intersectionDetected
-					|| candidateDistance < distanceToIntersection
-				) {
-					// We've found a new, best candidate
-					intersectionDetected = true;
-					indexOfIntersectedBox = i;
-					distanceToIntersection = candidateDistance;
-					intersectionPoint.copy( candidatePoint );
-					normalAtIntersection.copy( candidateNormal );
-				}
-			}
-		}
-		return indexOfIntersectedBox;
-	}
-
-	public AlignedBox3D getBox( int index ) {
-		if ( 0 <= index && index < coloredBoxes.size() )
-			return coloredBoxes.elementAt(index).box;
-		return null;
-	}
-
-	public boolean getSelectionStateOfBox( int index ) {
-		if ( 0 <= index && index < coloredBoxes.size() )
-			return coloredBoxes.elementAt(index).isSelected;
-		return false;
-	}
-	public void setSelectionStateOfBox( int index, boolean state ) {
-		if ( 0 <= index && index < coloredBoxes.size() )
-			coloredBoxes.elementAt(index).isSelected = state;
-	}
-	public void toggleSelectionStateOfBox( int index ) {
-		if ( 0 <= index && index < coloredBoxes.size() ) {
-			ColoredBox cb = coloredBoxes.elementAt(index);
-			cb.isSelected = ! cb.isSelected;
-		}
-	}
-	
-	public void setDrawWireframeBoxes(boolean drawWireframeBoxes){
-		this.drawWireframeBoxes = drawWireframeBoxes;
-	}
-
-	public void setColorOfBox( int index, float r, float g, float b ) {
-		if ( 0 <= index && index < coloredBoxes.size() ) {
-			ColoredBox cb = coloredBoxes.elementAt(index);
-			cb.r = r;
-			cb.g = g;
-			cb.b = b;
-		}
-	}
-	public void setAlphaOfBox( int index, float a ) {
-		if ( 0 <= index && index < coloredBoxes.size() ) {
-			ColoredBox cb = coloredBoxes.elementAt(index);
-			cb.a = a;
-			
-		}
-	}
-
-	public void translateBox( int index, Vector3D translation ) {
-		if ( 0 <= index && index < coloredBoxes.size() ) {
-			ColoredBox cb = coloredBoxes.elementAt(index);
-			AlignedBox3D oldBox = cb.box;
-			cb.box = new AlignedBox3D(
-				Point3D.sum( oldBox.getMin(), translation ),
-				Point3D.sum( oldBox.getMax(), translation )
-			);
-			isBoundingBoxOfSceneDirty = true;
-		}
-	}
-
-	public void resizeBox(
-		int indexOfBox, int indexOfCornerToResize, Vector3D translation
-	) {
-		if ( 0 <= indexOfBox && indexOfBox < coloredBoxes.size() ) {
-			ColoredBox cb = coloredBoxes.elementAt(indexOfBox);
-			AlignedBox3D oldBox = cb.box;
-			cb.box = new AlignedBox3D();
-
-			// One corner of the new box will be the corner of the old
-			// box that is diagonally opposite the corner being resized ...
-			cb.box.bound( oldBox.getCorner( indexOfCornerToResize ^ 7 ) );
-
-			// ... and the other corner of the new box will be the
-			// corner being resized, after translation.
-			cb.box.bound( Point3D.sum( oldBox.getCorner( indexOfCornerToResize ), translation ) );
-
-			isBoundingBoxOfSceneDirty = true;
-		}
-	}
-
-	public void deleteBox( int index ) {
-		if ( 0 <= index && index < coloredBoxes.size() ) {
-			coloredBoxes.removeElementAt( index );
-			isBoundingBoxOfSceneDirty = true;
-		}
-	}
-
-
-	public void deleteAllBoxes() {
-		coloredBoxes.removeAllElements();
-		isBoundingBoxOfSceneDirty = true;
-	}
-
-
-	static public void drawBox(
-		GL gl,
-		AlignedBox3D box,
-		boolean expand,
-		boolean drawAsWireframe,
-		boolean cornersOnly
-	) {
-		if ( expand ) {
-			float diagonal = box.getDiagonal().length();
-			diagonal /= 20;
-			Vector3D v = new Vector3D( diagonal, diagonal, diagonal );
-			box = new AlignedBox3D( Point3D.diff(box.getMin(),v), Point3D.sum(box.getMax(),v) );
-		}
-		if ( drawAsWireframe ) {
-			if ( cornersOnly ) {
-				gl.glBegin( GL.GL_LINES );
-				for ( int dim = 0; dim < 3; ++dim ) {
-					Vector3D v = Vector3D.mult( Point3D.diff(box.getCorner(1<<dim),box.getCorner(0)), 0.1f );
-					for ( int a = 0; a < 2; ++a ) {
-						for ( int b = 0; b < 2; ++b ) {
-							int i = (a << ((dim+1)%3)) | (b << ((dim+2)%3));
-							gl.glVertex3fv( box.getCorner(i).get(), 0 );
-							gl.glVertex3fv( Point3D.sum( box.getCorner(i), v ).get(), 0 );
-							i |= 1 << dim;
-							gl.glVertex3fv( box.getCorner(i).get(), 0 );
-							gl.glVertex3fv( Point3D.diff( box.getCorner(i), v ).get(), 0 );
-						}
-					}
-				}
-				gl.glEnd();
-			}
-			else {
-				gl.glBegin( GL.GL_LINE_STRIP );
-					gl.glVertex3fv( box.getCorner( 0 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 1 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 3 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 2 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 6 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 7 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 5 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 4 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 0 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 2 ).get(), 0 );
-				gl.glEnd();
-				gl.glBegin( GL.GL_LINES );
-					gl.glVertex3fv( box.getCorner( 1 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 5 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 3 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 7 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 4 ).get(), 0 );
-					gl.glVertex3fv( box.getCorner( 6 ).get(), 0 );
-				gl.glEnd();
-			}
-		}
-		else {
-			gl.glBegin( GL.GL_QUAD_STRIP );
-				gl.glVertex3fv( box.getCorner( 0 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 1 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 4 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 5 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 6 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 7 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 2 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 3 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 0 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 1 ).get(), 0 );
-			gl.glEnd();
-
-			gl.glBegin( GL.GL_QUADS );
-				gl.glVertex3fv( box.getCorner( 1 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 3 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 7 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 5 ).get(), 0 );
-
-				gl.glVertex3fv( box.getCorner( 0 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 4 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 6 ).get(), 0 );
-				gl.glVertex3fv( box.getCorner( 2 ).get(), 0 );
-			gl.glEnd();
-		}
-	}
-
-
-	public void drawScene(
-		GL gl,
-		int indexOfHilitedBox, // -1 for none
-		boolean useAlphaBlending
-	) {
-		if ( useAlphaBlending ) {
-			gl.glDisable(GL.GL_DEPTH_TEST);
-			gl.glDepthMask(false);
-			gl.glBlendFunc( GL.GL_SRC_ALPHA, GL.GL_ONE );
-			gl.glEnable( GL.GL_BLEND );
-		}
-		for ( int i = 0; i < coloredBoxes.size(); ++i ) {
-			ColoredBox cb = coloredBoxes.elementAt(i);
-			if ( useAlphaBlending )
-				gl.glColor4f( cb.r, cb.g, cb.b, cb.a );
-			else
-				gl.glColor3f( cb.r, cb.g, cb.b );
-			drawBox( gl, cb.box, false, drawWireframeBoxes, false );
-			
-		}
-		if ( useAlphaBlending ) {
-			gl.glDisable( GL.GL_BLEND );
-			gl.glDepthMask(true);
-			gl.glEnable(GL.GL_DEPTH_TEST);
-		}
-		for ( int i = 0; i < coloredBoxes.size(); ++i ) {
-			ColoredBox cb = coloredBoxes.elementAt(i);
-			if ( cb.isSelected && indexOfHilitedBox == i )
-				gl.glColor3f( 1, 1, 0 );
-			else if ( cb.isSelected )
-				gl.glColor3f( 1, 0, 0 );
-			else if ( indexOfHilitedBox == i )
-				gl.glColor3f( 0, 1, 0 );
-			else continue;
-			drawBox( gl, cb.box, true, true, true );
-		}
-	}
-
-	public void drawBoundingBoxOfScene( GL gl ) {
-		AlignedBox3D box = getBoundingBoxOfScene();
-		if ( ! box.isEmpty() )
-			drawBox( gl, box, false, true, false );
-	}
-}
-
-
-
-
 class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener, GLEventListener {
 
+	private static final long serialVersionUID = 1L;
+
 	GLUT glut;
 
 	public Scene scene = new Scene();
-	public int indexOfSelectedBox = -1; // -1 for none
-	public List<Integer> listIndexOfSelectedBoxes = new ArrayList<Integer>();
+	public int selectedBox = BoxStore.NO_BOX; // a handle, or NO_BOX for none
 	private Point3D selectedPoint = new Point3D();
 	private Vector3D normalAtSelectedPoint = new Vector3D();
-	public int indexOfHilitedBox = -1; // -1 for none
+	public int hilitedBox = BoxStore.NO_BOX; // a handle, or NO_BOX for none
 	private Point3D hilitedPoint = new Point3D();
 	private Vector3D normalAtHilitedPoint = new Vector3D();
 
@@ -390,8 +74,82 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 	public boolean displayWorldAxes = false;
 	public boolean displayCameraTarget = false;
 	public boolean displayBoundingBox = false;
+	public boolean displayDimensionLabels = false;
 	public boolean enableCompositing = false;
 	public boolean drawWireframeBoxesCheckBox = false;
+
+	// Labels with the dimensions of the boxes, in the main view
+	private DimensionLabels dimensionLabels = new DimensionLabels( scene.boxes );
+
+	// Time spent in display(), in milliseconds, averaged over recent frames.
+	// (This is the time taken to issue the OpenGL commands,
+	// which may be executed later.)
+	private float averageFrameTime = 0;
+
+	// If true, the OpenGL calls made by display() are counted, and the
+	// counts for the last frame are displayed over the scene.
+	public boolean countGLCalls = false;
+	private GLCallCounter glCallCounter = null; // wraps the GL of the drawable
+	private OpenGL2DInterface overlay2D = new OpenGL2DInterface();
+
+	// If true, while the camera is being moved, the boxes are drawn from
+	// front to back until frameBudgetInMilliseconds are spent, and the rest
+	// are only outlined.  Full quality is restored once the camera has been
+	// still for CAMERA_IDLE_DELAY milliseconds.
+	public boolean degradeWhileMovingCamera = true;
+	public float frameBudgetInMilliseconds = 30;
+	private static final int CAMERA_IDLE_DELAY = 250;
+	private boolean isCameraMoving = false;
+	private Timer cameraIdleTimer;
+	private boolean wasLastFrameDegraded = false;
+	private float lastFrameTime = 0;
+
+	// If true, while the selection is dragged, the other boxes are drawn
+	// once into staticLayer (when the drag starts, or after the camera
+	// changes), and each frame only draws the selection over a copy of it
+	// (if the scene can be drawn in layers, see Scene.canDrawInLayers()).
+	public boolean cacheStaticLayerWhileDragging = true;
+	private boolean isDraggingSelection = false;
+	private LayerCache staticLayer = new LayerCache();
+	private boolean wasLastFrameLayered = false;
+
+	// The canvas can be split into several views: the main view, seen by
+	// the interactive camera, and up to 3 views seen from the camera
+	// bookmarks (or from fixed directions, for bookmarks not saved yet).
+	// The main view is always at the top left of the canvas, so that mouse
+	// coordinates apply to it unchanged.
+	public static final int LAYOUT_SINGLE = 0;
+	public static final int LAYOUT_2X2 = 1; // 4 views of equal size
+	public static final int LAYOUT_1_PLUS_3 = 2; // a large view, and 3 small ones on its right
+	private static final int MAX_VIEWPORTS = 4;
+	private int viewportLayout = LAYOUT_SINGLE;
+	private int numberOfViewports = 1;
+	// in OpenGL window coordinates (origin at the bottom left)
+	private int [] viewportX = new int[ MAX_VIEWPORTS ], viewportY = new int[ MAX_VIEWPORTS ];
+	private int [] viewportWidth = new int[ MAX_VIEWPORTS ], viewportHeight = new int[ MAX_VIEWPORTS ];
+	private Camera3D [] viewportCameras = new Camera3D[ MAX_VIEWPORTS ]; // [0] is unused: the main view uses camera
+	// statistics about the last frame, per view
+	private float [] viewportFrameTime = new float[ MAX_VIEWPORTS ];
+	private int [] viewportBoxesDrawn = new int[ MAX_VIEWPORTS ];
+	private int [] viewportBoxesCulled = new int[ MAX_VIEWPORTS ];
+
+	// Coalesces redraws, the picking done as the mouse moves, and the
+	// motions of drags, into at most one frame per refresh of the display
+	private FrameScheduler frameScheduler;
+	private boolean isHilitingPending = false;
+
+	// The drag whose motion is not applied yet, and the mouse position
+	// where that motion starts: drag events of the same kind only move
+	// the mouse, and applyPendingDrag() moves the selection or the camera
+	// once, from that position to the latest one.
+	private static final int DRAG_NONE = 0;
+	private static final int DRAG_DOLLY = 1;
+	private static final int DRAG_ORBIT = 2;
+	private static final int DRAG_PAN = 3;
+	private static final int DRAG_TRANSLATE = 4; // the selection
+	private static final int DRAG_RESIZE = 5; // selectedBox
+	private int pendingDrag = DRAG_NONE;
+	private int dragStart_x, dragStart_y;
 	
 	int mouse_x, mouse_y, old_mouse_x, old_mouse_y;
 	
@@ -418,12 +176,178 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 		radialMenu.setItemLabelAndID( 5, "Set Color to Blue", COMMAND_COLOR_BLUE );
 		radialMenu.setItemLabelAndID( 7, "Delete Box", COMMAND_DELETE );
 
-		camera.setSceneRadius( (float)Math.max(
+		camera.setSceneRadius( Math.max(
 			5 * ColoredBox.DEFAULT_SIZE,
 			scene.getBoundingBoxOfScene().getDiagonal().length() * 0.5f
 		) );
 		camera.reset();
 
+		cameraIdleTimer = new Timer( CAMERA_IDLE_DELAY, new ActionListener() {
+			public void actionPerformed( ActionEvent e ) {
+				isCameraMoving = false;
+				if ( wasLastFrameDegraded )
+					requestRedraw();
+			}
+		});
+		cameraIdleTimer.setRepeats( false );
+
+		for ( int v = 1; v < MAX_VIEWPORTS; ++v )
+			viewportCameras[v] = new Camera3D();
+
+		frameScheduler = new FrameScheduler( new FrameScheduler.Client() {
+			public void update() {
+				applyPendingDrag();
+				if ( isHilitingPending ) {
+					isHilitingPending = false;
+					updateHiliting();
+				}
+			}
+			public void draw() {
+				display();
+			}
+		});
+
+		// the shades of the boxes are rebaked in the background
+		scene.setAmbientOcclusionListener( new Runnable() {
+			public void run() {
+				staticLayer.invalidate();
+				requestRedraw();
+			}
+		});
+	}
+
+	// Schedules a redraw at the next frame, rather than right away;
+	// to be used instead of repaint().
+	public void requestRedraw() {
+		frameScheduler.requestRedraw();
+	}
+
+	public int getViewportLayout() { return viewportLayout; }
+
+	public void setViewportLayout( int layout ) {
+		viewportLayout = layout;
+		layoutViewports();
+	}
+
+	// Computes the rectangles of the views, for the current layout and
+	// size of the canvas, and sets the main camera's viewport accordingly.
+	private void layoutViewports() {
+		int w = getWidth(), h = getHeight();
+		if ( viewportLayout == LAYOUT_2X2 ) {
+			int w0 = w / 2, h0 = h / 2;
+			numberOfViewports = 4;
+			setViewport( 0, 0, h-h0, w0, h0 );
+			setViewport( 1, w0, h-h0, w-w0, h0 );
+			setViewport( 2, 0, 0, w0, h-h0 );
+			setViewport( 3, w0, 0, w-w0, h-h0 );
+		}
+		else if ( viewportLayout == LAYOUT_1_PLUS_3 ) {
+			int w0 = w * 2 / 3, h1 = h / 3;
+			numberOfViewports = 4;
+			setViewport( 0, 0, 0, w0, h );
+			setViewport( 1, w0, h-h1, w-w0, h1 );
+			setViewport( 2, w0, h-2*h1, w-w0, h1 );
+			setViewport( 3, w0, 0, w-w0, h-2*h1 );
+		}
+		else {
+			numberOfViewports = 1;
+			setViewport( 0, 0, 0, w, h );
+		}
+		camera.setViewportDimensions( viewportWidth[0], viewportHeight[0] );
+		staticLayer.invalidate();
+	}
+
+	private void setViewport( int v, int x, int y, int width, int height ) {
+		viewportX[v] = x;
+		viewportY[v] = y;
+		viewportWidth[v] = Math.max( 1, width );
+		viewportHeight[v] = Math.max( 1, height );
+	}
+
+	// Points the camera of view v (> 0) as camera bookmark v-1, if it was
+	// saved, or along one of 3 fixed directions toward the center of the scene.
+	private void updateViewportCamera( int v ) {
+		Camera3D c = viewportCameras[v];
+		int bookmark = v - 1;
+		if ( ArrayCameraPosition[bookmark] != null ) {
+			c.position = ArrayCameraPosition[bookmark];
+			c.target = ArrayCameraTarget[bookmark];
+			c.up = ArrayCameraUp[bookmark];
+		}
+		else {
+			AlignedBox3D bounds = scene.getBoundingBoxOfScene();
+			Point3D center = bounds.isEmpty() ? new Point3D() : bounds.getCenter();
+			float radius = Math.max(
+				5 * ColoredBox.DEFAULT_SIZE,
+				bounds.isEmpty() ? 0 : bounds.getDiagonal().length() * 0.5f
+			);
+			float distance = radius / (float)Math.tan( Camera3D.fieldOfViewInDegrees / 2 / 180 * Math.PI );
+			// from the right, from above (tilted a little, since the camera's
+			// up vector is computed from the vertical), and diagonally
+			Vector3D direction =
+				bookmark == 0 ? new Vector3D( 1, 0, 0 )
+				: bookmark == 1 ? new Vector3D( 0, 1, 0.05f ).normalized()
+				: new Vector3D( 1, 1, 1 ).normalized();
+			c.position = Point3D.sum( center, Vector3D.mult( direction, distance ) );
+			c.lookAt( center );
+		}
+		c.setViewportDimensions( viewportWidth[v], viewportHeight[v] );
+	}
+
+	private void drawDimensionLabels( GL gl ) {
+		gl.glPushAttrib( GL.GL_ENABLE_BIT | GL.GL_CURRENT_BIT );
+		gl.glDisable( GL.GL_DEPTH_TEST );
+		gl.glDisable( GL.GL_BLEND );
+		gl.glDisable( GL.GL_LIGHTING );
+		overlay2D.pushProjection( gl, getWidth(), getHeight() );
+		gl.glColor3f( 1, 1, 1 );
+		// the main view is at the top left of the canvas
+		dimensionLabels.draw( gl, glut, overlay2D );
+		overlay2D.popProjection( gl );
+		gl.glPopAttrib();
+	}
+
+	// Labels each view with its statistics for the last frame.
+	private void drawViewportStatistics( GL gl ) {
+		final float textHeight = 12;
+		gl.glPushAttrib( GL.GL_ENABLE_BIT | GL.GL_CURRENT_BIT );
+		gl.glDisable( GL.GL_DEPTH_TEST );
+		gl.glDisable( GL.GL_BLEND );
+		overlay2D.pushProjection( gl, getWidth(), getHeight() );
+		// the outlines are batched, then the labels drawn
+		overlay2D.beginBatch( gl );
+		overlay2D.setColor( gl, 0.3f, 0.3f, 0.3f );
+		for ( int v = 0; v < numberOfViewports; ++v ) {
+			// overlay2D has its origin at the top left
+			overlay2D.drawRect( gl, viewportX[v], getHeight() - viewportY[v] - viewportHeight[v], viewportWidth[v], viewportHeight[v] );
+		}
+		overlay2D.endBatch( gl );
+		gl.glColor3f( 0, 1, 1 );
+		for ( int v = 0; v < numberOfViewports; ++v ) {
+			String label = ( v == 0 ? "Main" : "Cam" + v + ( ArrayCameraPosition[v-1] != null ? "" : " (not saved)" ) )
+				+ String.format( ": %.1f ms, %d drawn, %d culled",
+					viewportFrameTime[v], viewportBoxesDrawn[v], viewportBoxesCulled[v] );
+			overlay2D.drawString(
+				gl, glut,
+				viewportX[v] + 6, getHeight() - viewportY[v] - 6,
+				label,
+				textHeight,
+				OpenGL2DInterface.FONT_ASCENT
+			);
+		}
+		overlay2D.popProjection( gl );
+		gl.glPopAttrib();
+	}
+
+	public FrameScheduler getFrameScheduler() {
+		return frameScheduler;
+	}
+
+	// In continuous mode, frames are drawn at the refresh rate of the
+	// display even when nothing changes (e.g. to measure the frame rate).
+	public void setDrawContinuously( boolean flag ) {
+		frameScheduler.setContinuous( flag );
+		frameScheduler.resetStatistics();
 	}
 	public Dimension getPreferredSize() {
 		return new Dimension( 512, 512 );
@@ -440,32 +364,33 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 			ColoredBox.DEFAULT_SIZE*0.5f,
 			ColoredBox.DEFAULT_SIZE*0.5f
 		);
-		if ( indexOfSelectedBox >= 0 ) {
-			ColoredBox cb = scene.coloredBoxes.elementAt(indexOfSelectedBox);
+		int newBox;
+		if ( selectedBox >= 0 ) {
+			AlignedBox3D boxOfSelection = scene.getBox(selectedBox);
 			Point3D centerOfNewBox = Point3D.sum(
 				Point3D.sum(
-					cb.box.getCenter(),
+					boxOfSelection.getCenter(),
 					Vector3D.mult(
 						normalAtSelectedPoint,
-						0.5f*(float)Math.abs(Vector3D.dot(cb.box.getDiagonal(),normalAtSelectedPoint))
+						0.5f*Math.abs(Vector3D.dot(boxOfSelection.getDiagonal(),normalAtSelectedPoint))
 					)
 				),
 				Vector3D.mult( normalAtSelectedPoint, ColoredBox.DEFAULT_SIZE*0.5f )
 			);
-			scene.addColoredBox(
+			newBox = scene.addColoredBox(
 				new AlignedBox3D(
 					Point3D.diff( centerOfNewBox, halfDiagonalOfNewBox ),
 					Point3D.sum( centerOfNewBox, halfDiagonalOfNewBox )
 				),
-				clamp( cb.r + 0.5f*((float)Math.random()-0.5f), 0, 1 ),
-				clamp( cb.g + 0.5f*((float)Math.random()-0.5f), 0, 1 ),
-				clamp( cb.b + 0.5f*((float)Math.random()-0.5f), 0, 1 ),
-				cb.a
+				clamp( scene.getRedOfBox(selectedBox) + 0.5f*((float)Math.random()-0.5f), 0, 1 ),
+				clamp( scene.getGreenOfBox(selectedBox) + 0.5f*((float)Math.random()-0.5f), 0, 1 ),
+				clamp( scene.getBlueOfBox(selectedBox) + 0.5f*((float)Math.random()-0.5f), 0, 1 ),
+				scene.getAlphaOfBox(selectedBox)
 			);
 		}
 		else {
 			Point3D centerOfNewBox = camera.target;
-			scene.addColoredBox(
+			newBox = scene.addColoredBox(
 				new AlignedBox3D(
 					Point3D.diff( centerOfNewBox, halfDiagonalOfNewBox ),
 					Point3D.sum( centerOfNewBox, halfDiagonalOfNewBox )
@@ -479,52 +404,43 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 		}
 
 		// de-select the old boxes
-		for(int index : listIndexOfSelectedBoxes){
-			scene.setSelectionStateOfBox( index, false );
-		}
-		listIndexOfSelectedBoxes.clear();
+		scene.clearSelection();
 		
-		indexOfSelectedBox = scene.coloredBoxes.size() - 1;
-		scene.setSelectionStateOfBox( indexOfSelectedBox, true );
-		if(!listIndexOfSelectedBoxes.contains(indexOfSelectedBox)){
-			listIndexOfSelectedBoxes.add(indexOfSelectedBox);
-		}
+		selectedBox = newBox;
+		scene.setSelectionStateOfBox( selectedBox, true );
 	}
 
 	public void setColorOfSelection( float r, float g, float b ) {
-		if ( indexOfSelectedBox >= 0 ) {
-			scene.setColorOfBox( indexOfSelectedBox, r, g, b );
+		if ( selectedBox >= 0 ) {
+			scene.setColorOfBox( selectedBox, r, g, b );
 		}
 	}
 	
 	public void setAlphaOfSelection( float a ) {
-		if ( indexOfSelectedBox >= 0 ) {
-			scene.setAlphaOfBox( indexOfSelectedBox, a );
+		if ( selectedBox >= 0 ) {
+			scene.setAlphaOfBox( selectedBox, a );
 		}
 	}
 
 	public void deleteSelection() {
-		if ( listIndexOfSelectedBoxes.size() > 0 ) {
-			Collections.sort(listIndexOfSelectedBoxes);
-			Collections.reverse(listIndexOfSelectedBoxes);
-			for(int index : listIndexOfSelectedBoxes){
-				scene.deleteBox( index );
-			}
-			listIndexOfSelectedBoxes.clear();
-			indexOfSelectedBox = -1;
-			indexOfHilitedBox = -1;
+		if ( scene.getNumberOfSelectedBoxes() > 0 ) {
+			scene.deleteSelection();
+			selectedBox = BoxStore.NO_BOX;
+			// the hilited box survives if it was not selected
+			if ( ! scene.isValid( hilitedBox ) )
+				hilitedBox = BoxStore.NO_BOX;
 		}
 	}
 
 	public void deleteAll() {
 		scene.deleteAllBoxes();
-		indexOfSelectedBox = -1;
-		indexOfHilitedBox = -1;
+		selectedBox = BoxStore.NO_BOX;
+		hilitedBox = BoxStore.NO_BOX;
 	}
 
 	public void lookAtSelection() {
-		if ( indexOfSelectedBox >= 0 ) {
-			Point3D p = scene.getBox( indexOfSelectedBox ).getCenter();
+		if ( scene.getNumberOfSelectedBoxes() > 0 ) {
+			Point3D p = scene.getBoundingBoxOfSelection().getCenter();
 			camera.lookAt(p);
 		}
 	}
@@ -569,6 +485,8 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 			camera.lookAt(ArrayCameraTarget[camIndex]);
 			//Set Camera Up
 			camera.up = ArrayCameraUp[camIndex];
+			// the saved viewport may not fit the current layout
+			layoutViewports();
 			isLoaded = true;
 		}
 		
@@ -577,7 +495,7 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 	}
 	
 	public void resetCamera() {
-		camera.setSceneRadius( (float)Math.max(
+		camera.setSceneRadius( Math.max(
 			5 * ColoredBox.DEFAULT_SIZE,
 			scene.getBoundingBoxOfScene().getDiagonal().length() * 0.5f
 		) );
@@ -587,11 +505,62 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 	public void setDrawWireframeBoxes(boolean drawWireframeBoxes){
 		scene.setDrawWireframeBoxes(drawWireframeBoxes);
 	}
+
+	public void setUseRetainedMode( boolean useRetainedMode ) {
+		scene.setUseRetainedMode( useRetainedMode );
+	}
+
+	public void setUseInstancing( boolean useInstancing ) {
+		scene.setUseInstancing( useInstancing );
+	}
+
+	public void setUseSurfaceMesh( boolean useSurfaceMesh ) {
+		scene.setUseSurfaceMesh( useSurfaceMesh );
+	}
+
+	public void setUseAmbientOcclusion( boolean flag ) {
+		scene.setUseAmbientOcclusion( flag );
+		staticLayer.invalidate();
+	}
+
+	public void setUseLevelOfDetail( boolean useLevelOfDetail ) {
+		scene.setUseLevelOfDetail( useLevelOfDetail );
+	}
+
+	public void setDegradeWhileMovingCamera( boolean flag ) {
+		degradeWhileMovingCamera = flag;
+	}
+
+	public void setFrameBudgetInMilliseconds( float budget ) {
+		frameBudgetInMilliseconds = budget;
+	}
+
+	// Called as the camera is moved by the user: frames are drawn within
+	// the budget until the camera is idle again.
+	private void cameraMoved() {
+		isCameraMoving = true;
+		cameraIdleTimer.restart();
+	}
+
+	public void setCacheStaticLayerWhileDragging( boolean flag ) {
+		cacheStaticLayerWhileDragging = flag;
+		staticLayer.invalidate();
+	}
+
+	public void setCountGLCalls( boolean flag ) {
+		countGLCalls = flag;
+	}
+
+	// Returns the counter of the OpenGL calls made by the last frame
+	// drawn with countGLCalls set, or null if there is none.
+	public GLCallCounter getGLCallCounter() {
+		return glCallCounter;
+	}
 	
 	public void changeBoxColor() {
-		float r = scene.coloredBoxes.elementAt(indexOfSelectedBox).r;
-		float g = scene.coloredBoxes.elementAt(indexOfSelectedBox).g;
-		float b = scene.coloredBoxes.elementAt(indexOfSelectedBox).b;
+		float r = scene.getRedOfBox(selectedBox);
+		float g = scene.getGreenOfBox(selectedBox);
+		float b = scene.getBlueOfBox(selectedBox);
 		Color originalColor = new Color(r, g, b);
 		Color c = JColorChooser.showDialog(null, "Change Box Color", originalColor);
 		if(c != null){
@@ -604,20 +573,52 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 	}
 	
 	public float getAlphaOfSelectedBox(){
-		return scene.coloredBoxes.elementAt(indexOfSelectedBox).a;
+		return scene.getAlphaOfBox(selectedBox);
+	}
+
+	// Returns a summary of the work done to render the last frame.
+	public String getFrameStatistics() {
+		String s = "Boxes drawn: " + scene.getNumberOfBoxesDrawn()
+			+ ", culled: " + scene.getNumberOfBoxesCulled()
+			+ ( scene.useLevelOfDetail ? ", clusters: " + scene.getNumberOfClustersDrawn() : "" )
+			+ String.format( ", frame: %.1f ms", averageFrameTime );
+		if ( wasLastFrameLayered )
+			s += ", over cached layer";
+		s += String.format( ", %d fps, coalesced: %d, dropped: %d, merged: %d",
+			frameScheduler.getFramesPerSecond(),
+			frameScheduler.getNumberOfCoalescedRedraws(),
+			frameScheduler.getNumberOfDroppedUpdates(),
+			frameScheduler.getNumberOfMergedUpdates() );
+		if ( wasLastFrameDegraded )
+			s += String.format( ", moving: %.1f of %.0f ms, deferred: %d",
+				lastFrameTime, frameBudgetInMilliseconds, scene.getNumberOfBoxesDeferred() );
+		if ( countGLCalls && glCallCounter != null )
+			s += ", GL calls: " + glCallCounter.getNumberOfCalls();
+		if ( displayDimensionLabels )
+			s += String.format( ", labels: %d of %d (%.2f ms)",
+				dimensionLabels.getNumberOfLabels(), dimensionLabels.getNumberOfCandidates(), dimensionLabels.getLayoutTime() );
+		if ( numberOfViewports > 1 ) {
+			for ( int v = 0; v < numberOfViewports; ++v )
+				s += String.format( "; view %d: %.1f ms, %d culled", v+1, viewportFrameTime[v], viewportBoxesCulled[v] );
+		}
+		return s;
 	}
 
 	public void init( GLAutoDrawable drawable ) {
 		GL gl = drawable.getGL();
 		gl.glClearColor( 0, 0, 0, 0 );
 		glut = new GLUT();
+		scene.contextCreated( gl );
+		staticLayer.contextCreated( gl );
+		OpenGL2DInterface.getStrokeText().contextCreated( gl );
+		radialMenu.contextCreated( gl );
 	}
 	public void reshape(
 		GLAutoDrawable drawable,
 		int x, int y, int width, int height
 	) {
 		GL gl = drawable.getGL();
-		camera.setViewportDimensions(width, height);
+		layoutViewports();
 
 		// set viewport
 		gl.glViewport(0, 0, width, height);
@@ -630,15 +631,74 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 		// leave this empty
 	}
 	public void display( GLAutoDrawable drawable ) {
+		long startTime = System.nanoTime();
 		GL gl = drawable.getGL();
+		GL uncountedGL = gl;
+		if ( countGLCalls ) {
+			// The drawable's GL may be replaced, e.g. when the context is recreated
+			if ( glCallCounter == null || glCallCounter.getTarget() != uncountedGL )
+				glCallCounter = new GLCallCounter( uncountedGL );
+			glCallCounter.beginFrame();
+			gl = glCallCounter.getGL();
+		}
+		gl.glViewport( 0, 0, getWidth(), getHeight() );
+		gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+		OpenGL2DInterface.getStrokeText().beginFrame();
+
+		wasLastFrameDegraded = isCameraMoving && degradeWhileMovingCamera;
+		// the cached layer covers the whole canvas, so it is only used with a single view
+		wasLastFrameLayered = isDraggingSelection && cacheStaticLayerWhileDragging
+			&& ! wasLastFrameDegraded && numberOfViewports == 1
+			&& scene.canDrawInLayers( enableCompositing );
+		if ( ! wasLastFrameLayered )
+			staticLayer.invalidate();
+
+		// All views draw from the same buffers of the scene,
+		// and each one culls the boxes against its own frustum.
+		for ( int v = 0; v < numberOfViewports; ++v ) {
+			long viewStartTime = System.nanoTime();
+			if ( v > 0 )
+				updateViewportCamera( v );
+			gl.glViewport( viewportX[v], viewportY[v], viewportWidth[v], viewportHeight[v] );
+			drawView( gl, v == 0 ? camera : viewportCameras[v] );
+			viewportFrameTime[v] = ( System.nanoTime() - viewStartTime ) * 1e-6f;
+			viewportBoxesDrawn[v] = scene.getNumberOfBoxesDrawn();
+			viewportBoxesCulled[v] = scene.getNumberOfBoxesCulled();
+		}
+		gl.glViewport( 0, 0, getWidth(), getHeight() );
+		if ( displayDimensionLabels ) {
+			dimensionLabels.update( camera );
+			drawDimensionLabels( gl );
+		}
+		if ( numberOfViewports > 1 )
+			drawViewportStatistics( uncountedGL );
+
+		if ( radialMenu.isVisible() ) {
+			radialMenu.draw( gl, glut, getWidth(), getHeight() );
+		}
+
+		if ( countGLCalls ) {
+			glCallCounter.endFrame();
+			// The overlay is drawn with the uncounted GL, so it does not count itself
+			drawGLCallCounts( uncountedGL );
+		}
+
+		// gl.glFlush(); // I don't think this is necessary
+
+		float frameTime = ( System.nanoTime() - startTime ) * 1e-6f;
+		lastFrameTime = frameTime;
+		averageFrameTime = averageFrameTime == 0 ? frameTime : 0.9f * averageFrameTime + 0.1f * frameTime;
+	}
+
+	// Draws the scene (and the selected face, axes, etc.) as seen by the
+	// given camera, in the current viewport, which must be cleared.
+	private void drawView( GL gl, Camera3D viewCamera ) {
 		gl.glMatrixMode( GL.GL_PROJECTION );
 		gl.glLoadIdentity();
-		camera.transform( gl );
+		viewCamera.transform( gl );
 		gl.glMatrixMode( GL.GL_MODELVIEW );
 		gl.glLoadIdentity();
 
-		gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
-
 		gl.glDepthFunc( GL.GL_LEQUAL );
 		gl.glEnable( GL.GL_DEPTH_TEST );
 		gl.glEnable( GL.GL_CULL_FACE );
@@ -646,17 +706,33 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 		gl.glDisable( GL.GL_LIGHTING );
 		gl.glShadeModel( GL.GL_FLAT );
 
-		scene.drawScene( gl, indexOfHilitedBox, enableCompositing );
+		if ( wasLastFrameLayered ) {
+			// if the copy cannot be restored, the frame is drawn in full
+			// rather than left without the unselected boxes
+			if ( ! ( staticLayer.matches( viewCamera ) && staticLayer.restore( gl ) ) ) {
+				scene.drawUnselectedBoxes( gl, viewCamera, enableCompositing );
+				staticLayer.capture( gl, viewCamera );
+			}
+			scene.drawSelectedBoxes( gl, viewCamera, hilitedBox, enableCompositing );
+		}
+		else {
+			// the budget of a frame is shared by the views
+			scene.drawScene(
+				gl, viewCamera, hilitedBox, enableCompositing,
+				wasLastFrameDegraded ? frameBudgetInMilliseconds / numberOfViewports : 0
+			);
+		}
 
 		//create a line for showing the direction of the selected face of the selected box
-		if ( indexOfSelectedBox >= 0 ) {
+		if ( selectedBox >= 0 ) {
+			Point3D centerOfSelectedBox = scene.getBox(selectedBox).getCenter();
 			gl.glBegin( GL.GL_LINES );
 			//white color
 			gl.glColor3f( 1, 1, 1 );
 			//first point is the center of the selected box
-			gl.glVertex3f(scene.coloredBoxes.elementAt(indexOfSelectedBox).box.getCenter().x(),scene.coloredBoxes.elementAt(indexOfSelectedBox).box.getCenter().y(),scene.coloredBoxes.elementAt(indexOfSelectedBox).box.getCenter().z());
+			gl.glVertex3f(centerOfSelectedBox.x(),centerOfSelectedBox.y(),centerOfSelectedBox.z());
 			//second point is the center of the box + the normal at the selected point
-			gl.glVertex3f(scene.coloredBoxes.elementAt(indexOfSelectedBox).box.getCenter().x()+normalAtSelectedPoint.v[0],scene.coloredBoxes.elementAt(indexOfSelectedBox).box.getCenter().y()+normalAtSelectedPoint.v[1],scene.coloredBoxes.elementAt(indexOfSelectedBox).box.getCenter().z()+normalAtSelectedPoint.v[2]);
+			gl.glVertex3f(centerOfSelectedBox.x()+normalAtSelectedPoint.v[0],centerOfSelectedBox.y()+normalAtSelectedPoint.v[1],centerOfSelectedBox.z()+normalAtSelectedPoint.v[2]);
 			gl.glEnd();
 		}
 		if ( displayWorldAxes ) {
@@ -675,38 +751,53 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 		if ( displayCameraTarget ) {
 			gl.glBegin( GL.GL_LINES );
 				gl.glColor3f( 1, 1, 1 );
-				gl.glVertex3fv( Point3D.sum( camera.target, new Vector3D(-0.5f,    0,    0) ).get(), 0 );
-				gl.glVertex3fv( Point3D.sum( camera.target, new Vector3D( 0.5f,    0,    0) ).get(), 0 );
-				gl.glVertex3fv( Point3D.sum( camera.target, new Vector3D(    0,-0.5f,    0) ).get(), 0 );
-				gl.glVertex3fv( Point3D.sum( camera.target, new Vector3D(    0, 0.5f,    0) ).get(), 0 );
-				gl.glVertex3fv( Point3D.sum( camera.target, new Vector3D(    0,    0,-0.5f) ).get(), 0 );
-				gl.glVertex3fv( Point3D.sum( camera.target, new Vector3D(    0,    0, 0.5f) ).get(), 0 );
+				gl.glVertex3fv( Point3D.sum( viewCamera.target, new Vector3D(-0.5f,    0,    0) ).get(), 0 );
+				gl.glVertex3fv( Point3D.sum( viewCamera.target, new Vector3D( 0.5f,    0,    0) ).get(), 0 );
+				gl.glVertex3fv( Point3D.sum( viewCamera.target, new Vector3D(    0,-0.5f,    0) ).get(), 0 );
+				gl.glVertex3fv( Point3D.sum( viewCamera.target, new Vector3D(    0, 0.5f,    0) ).get(), 0 );
+				gl.glVertex3fv( Point3D.sum( viewCamera.target, new Vector3D(    0,    0,-0.5f) ).get(), 0 );
+				gl.glVertex3fv( Point3D.sum( viewCamera.target, new Vector3D(    0,    0, 0.5f) ).get(), 0 );
 			gl.glEnd();
 		}
 		if ( displayBoundingBox ) {
 			gl.glColor3f( 0.5f, 0.5f, 0.5f );
 			scene.drawBoundingBoxOfScene( gl );
 		}
+	}
 
-		if ( radialMenu.isVisible() ) {
-			radialMenu.draw( gl, glut, getWidth(), getHeight() );
+	private void drawGLCallCounts( GL gl ) {
+		final float textHeight = 14;
+		String [] lines = glCallCounter.getSummary();
+		gl.glPushAttrib( GL.GL_ENABLE_BIT | GL.GL_CURRENT_BIT );
+		gl.glDisable( GL.GL_DEPTH_TEST );
+		gl.glDisable( GL.GL_BLEND );
+		overlay2D.pushProjection( gl, getWidth(), getHeight() );
+		gl.glColor3f( 1, 1, 0 );
+		for ( int i = 0; i < lines.length; ++i ) {
+			overlay2D.drawString(
+				gl, glut,
+				10, Math.round( (i+1)*textHeight*1.5f ),
+				lines[i],
+				textHeight,
+				OpenGL2DInterface.FONT_ASCENT
+			);
 		}
-
-		// gl.glFlush(); // I don't think this is necessary
+		overlay2D.popProjection( gl );
+		gl.glPopAttrib();
 	}
 
 	private void updateHiliting() {
 		Ray3D ray = camera.computeRay(mouse_x,mouse_y);
 		Point3D newIntersectionPoint = new Point3D();
 		Vector3D newNormalAtIntersection = new Vector3D();
-		int newIndexOfHilitedBox = scene.getIndexOfIntersectedBox(
+		int newHilitedBox = scene.getIntersectedBox(
 			ray, newIntersectionPoint, newNormalAtIntersection
 		);
 		hilitedPoint.copy( newIntersectionPoint );
 		normalAtHilitedPoint.copy( newNormalAtIntersection );
-		if ( newIndexOfHilitedBox != indexOfHilitedBox ) {
-			indexOfHilitedBox = newIndexOfHilitedBox;
-			repaint();
+		if ( newHilitedBox != hilitedBox ) {
+			hilitedBox = newHilitedBox;
+			requestRedraw();
 		}
 	}
 
@@ -723,7 +814,7 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 		if ( radialMenu.isVisible() || (SwingUtilities.isRightMouseButton(e) && !e.isShiftDown() && !e.isControlDown()) ) {
 			int returnValue = radialMenu.pressEvent( mouse_x, mouse_y );
 			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
+				requestRedraw();
 			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
 				return;
 		}
@@ -731,25 +822,19 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 		updateHiliting();
 
 		if ( SwingUtilities.isLeftMouseButton(e) && !e.isControlDown()) {
-			if ( listIndexOfSelectedBoxes.size() > 0){
+			if ( scene.getNumberOfSelectedBoxes() > 0){
 				if(hilitedPoint.x() == 0 && hilitedPoint.y() == 0 && hilitedPoint.z() == 0){
 					// de-select the old boxes
-					for(int index : listIndexOfSelectedBoxes){
-						scene.setSelectionStateOfBox( index, false );
-					}
-					listIndexOfSelectedBoxes.clear();
+					scene.clearSelection();
 				}
 			}
-			indexOfSelectedBox = indexOfHilitedBox;
+			selectedBox = hilitedBox;
 			selectedPoint.copy( hilitedPoint );
 			normalAtSelectedPoint.copy( normalAtHilitedPoint );
-			if ( indexOfSelectedBox >= 0 ) {
-				scene.setSelectionStateOfBox( indexOfSelectedBox, true );
-				if(!listIndexOfSelectedBoxes.contains(indexOfSelectedBox)){
-					listIndexOfSelectedBoxes.add(indexOfSelectedBox);
-				}
+			if ( selectedBox >= 0 ) {
+				scene.setSelectionStateOfBox( selectedBox, true );
 			}
-			repaint();
+			requestRedraw();
 		}
 	}
 
@@ -759,6 +844,13 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 		mouse_x = e.getX();
 		mouse_y = e.getY();
 
+		// the end of the drag is not left for the next frame
+		applyPendingDrag();
+		if ( isDraggingSelection ) {
+			isDraggingSelection = false;
+			staticLayer.invalidate();
+		}
+
 		if ( radialMenu.isVisible() ) {
 			int returnValue = radialMenu.releaseEvent( mouse_x, mouse_y );
 
@@ -784,7 +876,7 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 				break;
 			}
 
-			repaint();
+			requestRedraw();
 
 			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
 				return;
@@ -801,12 +893,14 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 		if ( radialMenu.isVisible() ) {
 			int returnValue = radialMenu.moveEvent( mouse_x, mouse_y );
 			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
+				requestRedraw();
 			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
 				return;
 		}
 
-		updateHiliting();
+		// picking only needs the latest position, once per frame
+		isHilitingPending = true;
+		frameScheduler.requestUpdate();
 	}
 
 	public void mouseDragged( MouseEvent e ) {
@@ -814,12 +908,11 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 		old_mouse_y = mouse_y;
 		mouse_x = e.getX();
 		mouse_y = e.getY();
-		int delta_x = mouse_x - old_mouse_x;
-		int delta_y = old_mouse_y - mouse_y;
+		int drag = DRAG_NONE;
 		if ( radialMenu.isVisible() ) {
 			int returnValue = radialMenu.dragEvent( mouse_x, mouse_y );
 			if ( returnValue == CustomWidget.S_REDRAW )
-				repaint();
+				requestRedraw();
 			if ( returnValue != CustomWidget.S_EVENT_NOT_CONSUMED )
 				return;
 		}
@@ -827,69 +920,103 @@ class SceneViewer extends GLCanvas implements MouseListener, MouseMotionListener
 			if (
 				SwingUtilities.isLeftMouseButton(e)
 				&& SwingUtilities.isRightMouseButton(e)
-			) {
+			)
+				drag = DRAG_DOLLY;
+			else if ( SwingUtilities.isLeftMouseButton(e) )
+				drag = DRAG_ORBIT;
+			else
+				drag = DRAG_PAN;
+		}
+		else if ( SwingUtilities.isLeftMouseButton(e) && selectedBox >= 0 )
+			drag = e.isShiftDown() ? DRAG_RESIZE : DRAG_TRANSLATE;
+		if ( drag == DRAG_NONE )
+			return;
+
+		// the motion is applied at the next frame,
+		// with the others of the same kind until then
+		if ( drag != pendingDrag ) {
+			applyPendingDrag();
+			pendingDrag = drag;
+			dragStart_x = old_mouse_x;
+			dragStart_y = old_mouse_y;
+		}
+		frameScheduler.mergeUpdate();
+	}
+
+	// Moves the camera, or translates the selection or resizes selectedBox,
+	// by the motion of the mouse since the pending drag started.
+	private void applyPendingDrag() {
+		int drag = pendingDrag;
+		pendingDrag = DRAG_NONE;
+		int delta_x = mouse_x - dragStart_x;
+		int delta_y = dragStart_y - mouse_y;
+		if ( drag == DRAG_NONE || ( delta_x == 0 && delta_y == 0 ) )
+			return;
+
+		if ( drag == DRAG_DOLLY || drag == DRAG_ORBIT || drag == DRAG_PAN ) {
+			if ( drag == DRAG_DOLLY ) {
 				camera.dollyCameraForward(
 					(float)(3*(delta_x+delta_y)), false
 				);
 			}
-			else if ( SwingUtilities.isLeftMouseButton(e) ) {
-				camera.orbit(old_mouse_x,old_mouse_y,mouse_x,mouse_y);
+			else if ( drag == DRAG_ORBIT ) {
+				camera.orbit(dragStart_x,dragStart_y,mouse_x,mouse_y);
 			}
 			else {
 				camera.translateSceneRightAndUp(
 					(float)(delta_x), (float)(delta_y)
 				);
 			}
-			repaint();
+			cameraMoved();
+			requestRedraw();
 		}
-		else if (
-			SwingUtilities.isLeftMouseButton(e) && !e.isControlDown()
-			&& indexOfSelectedBox >= 0
-		) {
-			if ( !e.isShiftDown() ) {
-				// translate a box
-
-				Ray3D ray1 = camera.computeRay( old_mouse_x, old_mouse_y );
-				Ray3D ray2 = camera.computeRay( mouse_x, mouse_y );
-				Point3D intersection1 = new Point3D();
-				Point3D intersection2 = new Point3D();
-				Plane plane = new Plane( normalAtSelectedPoint, selectedPoint );
-				if (
-					plane.intersects( ray1, intersection1, true )
-					&& plane.intersects( ray2, intersection2, true )
-				) {
-					Vector3D translation = Point3D.diff( intersection2, intersection1 );
-					for(int index : listIndexOfSelectedBoxes){
-						scene.translateBox( index, translation );
-					}
-					repaint();
-				}
+		else if ( selectedBox < 0 ) {
+			// the box was deleted since the drag started
+		}
+		else if ( drag == DRAG_TRANSLATE ) {
+			// translate a box
+
+			Ray3D ray1 = camera.computeRay( dragStart_x, dragStart_y );
+			Ray3D ray2 = camera.computeRay( mouse_x, mouse_y );
+			Point3D intersection1 = new Point3D();
+			Point3D intersection2 = new Point3D();
+			Plane plane = new Plane( normalAtSelectedPoint, selectedPoint );
+			if (
+				plane.intersects( ray1, intersection1, true )
+				&& plane.intersects( ray2, intersection2, true )
+			) {
+				Vector3D translation = Point3D.diff( intersection2, intersection1 );
+				scene.translateSelection( translation );
+				isDraggingSelection = true;
+				requestRedraw();
 			}
-			else {
-				// resize a box
-
-				Ray3D ray1 = camera.computeRay( old_mouse_x, old_mouse_y );
-				Ray3D ray2 = camera.computeRay( mouse_x, mouse_y );
-				Point3D intersection1 = new Point3D();
-				Point3D intersection2 = new Point3D();
-				Vector3D v1 = Vector3D.cross( normalAtSelectedPoint, ray1.direction );
-				Vector3D v2 = Vector3D.cross( normalAtSelectedPoint, v1 );
-				Plane plane = new Plane( v2, selectedPoint );
-				if (
-					plane.intersects( ray1, intersection1, true )
-					&& plane.intersects( ray2, intersection2, true )
-				) {
-					Vector3D translation = Point3D.diff( intersection2, intersection1 );
-
-					// project the translation onto the normal, so that it is only along one axis
-					translation = Vector3D.mult( normalAtSelectedPoint, Vector3D.dot( normalAtSelectedPoint, translation ) );
-					scene.resizeBox(
-						indexOfSelectedBox,
-						scene.coloredBoxes.elementAt(indexOfSelectedBox).box.getIndexOfExtremeCorner(normalAtSelectedPoint),
-						translation
-					);
-					repaint();
-				}
+		}
+		else {
+			// resize a box
+
+			Ray3D ray1 = camera.computeRay( dragStart_x, dragStart_y );
+			Ray3D ray2 = camera.computeRay( mouse_x, mouse_y );
+			Point3D intersection1 = new Point3D();
+			Point3D intersection2 = new Point3D();
+			Vector3D v1 = Vector3D.cross( normalAtSelectedPoint, ray1.direction );
+			Vector3D v2 = Vector3D.cross( normalAtSelectedPoint, v1 );
+			Plane plane = new Plane( v2, selectedPoint );
+			if (
+				plane.intersects( ray1, intersection1, true )
+				&& plane.intersects( ray2, intersection2, true )
+			) {
+				Vector3D translation = Point3D.diff( intersection2, intersection1 );
+
+				// project the translation onto the normal, so that it is only along one axis
+				translation = Vector3D.mult( normalAtSelectedPoint, Vector3D.dot( normalAtSelectedPoint, translation ) );
+				scene.resizeBox(
+					selectedBox,
+					scene.getBox(selectedBox).getIndexOfExtremeCorner(normalAtSelectedPoint),
+					translation
+				);
+				// the static layer only leaves out the selected boxes
+				isDraggingSelection = scene.getSelectionStateOfBox( selectedBox );
+				requestRedraw();
 			}
 		}
 	}
@@ -900,10 +1027,15 @@ public class SimpleModeller implements ActionListener {
 	static final String applicationName = "Simple Modeller";
 
 	JFrame frame;
+	// where Open Scene and Save Scene start browsing
+	java.io.File sceneDirectory = null;
 	Container toolPanel;
 	SceneViewer sceneViewer;
 
+	JMenuItem openSceneMenuItem, saveSceneMenuItem;
 	JMenuItem deleteAllMenuItem, quitMenuItem, aboutMenuItem;
+	JMenuItem saveSelectionMenuItem, restoreSelectionMenuItem;
+	JMenuItem addToSelectionMenuItem, intersectSelectionMenuItem, subtractFromSelectionMenuItem;
 	JButton createBoxButton;
 	JButton deleteSelectionButton;
 	JButton lookAtSelectionButton;
@@ -911,13 +1043,28 @@ public class SimpleModeller implements ActionListener {
 	JCheckBox displayWorldAxesCheckBox;
 	JCheckBox displayCameraTargetCheckBox;
 	JCheckBox displayBoundingBoxCheckBox;
+	JCheckBox displayDimensionLabelsCheckBox;
 	JCheckBox enableCompositingCheckBox;
 	JCheckBox drawWireframeBoxesCheckBox;
+	JCheckBox useRetainedModeCheckBox;
+	JCheckBox useInstancingCheckBox;
+	JCheckBox useSurfaceMeshCheckBox;
+	JCheckBox useAmbientOcclusionCheckBox;
+	JCheckBox useLevelOfDetailCheckBox;
+	JCheckBox countGLCallsCheckBox;
+	JCheckBox degradeWhileMovingCameraCheckBox;
+	JCheckBox cacheStaticLayerCheckBox;
+	JCheckBox drawContinuouslyCheckBox;
+	JComboBox<String> viewportLayoutComboBox;
+	JLabel frameBudgetLabel;
+	JSlider frameBudgetSlider;
 	JLabel cameraOptionsArea;
 	JButton changeBoxColorButton;
 	JLabel alphaLabel;
 	JSlider alphaSlider;
 	JPanel colorChangePanel;
+	JLabel frameStatisticsLabel;
+	Timer frameStatisticsTimer;
 	
 	//Camera Bookmark Options
 	JPanel 	cameraPanel;
@@ -945,7 +1092,44 @@ public class SimpleModeller implements ActionListener {
 
 			if (response == JOptionPane.YES_OPTION) {
 				sceneViewer.deleteAll();
-				sceneViewer.repaint();
+				sceneViewer.requestRedraw();
+			}
+		}
+		else if ( source == openSceneMenuItem ) {
+			JFileChooser chooser = new JFileChooser( sceneDirectory );
+			if ( chooser.showOpenDialog( frame ) == JFileChooser.APPROVE_OPTION ) {
+				sceneDirectory = chooser.getCurrentDirectory();
+				try {
+					// load into a new scene first, so that a malformed file leaves the current one alone
+					BoxStore loaded = SceneFile.load( chooser.getSelectedFile() ).boxes;
+					sceneViewer.deleteAll();
+					for ( int i = 0; i < loaded.size(); ++i ) {
+						sceneViewer.scene.addColoredBox(
+							new AlignedBox3D(
+								new Point3D( loaded.minX[i], loaded.minY[i], loaded.minZ[i] ),
+								new Point3D( loaded.maxX[i], loaded.maxY[i], loaded.maxZ[i] )
+							),
+							loaded.getRed( i ), loaded.getGreen( i ), loaded.getBlue( i ), loaded.getAlpha( i )
+						);
+					}
+					sceneViewer.resetCamera();
+				}
+				catch ( java.io.IOException ex ) {
+					JOptionPane.showMessageDialog( frame, ex.getMessage(), "Open Scene", JOptionPane.ERROR_MESSAGE );
+				}
+				sceneViewer.requestRedraw();
+			}
+		}
+		else if ( source == saveSceneMenuItem ) {
+			JFileChooser chooser = new JFileChooser( sceneDirectory );
+			if ( chooser.showSaveDialog( frame ) == JFileChooser.APPROVE_OPTION ) {
+				sceneDirectory = chooser.getCurrentDirectory();
+				try {
+					SceneFile.save( sceneViewer.scene, chooser.getSelectedFile() );
+				}
+				catch ( java.io.IOException ex ) {
+					JOptionPane.showMessageDialog( frame, ex.getMessage(), "Save Scene", JOptionPane.ERROR_MESSAGE );
+				}
 			}
 		}
 		else if ( source == quitMenuItem ) {
@@ -969,45 +1153,123 @@ public class SimpleModeller implements ActionListener {
 				JOptionPane.INFORMATION_MESSAGE
 			);
 		}
+		else if ( source == saveSelectionMenuItem ) {
+			String name = JOptionPane.showInputDialog(
+				frame, "Name of the saved selection:", "Save Selection", JOptionPane.QUESTION_MESSAGE
+			);
+			if ( name != null && name.length() > 0 )
+				sceneViewer.scene.saveSelection( name );
+		}
+		else if (
+			source == restoreSelectionMenuItem
+			|| source == addToSelectionMenuItem
+			|| source == intersectSelectionMenuItem
+			|| source == subtractFromSelectionMenuItem
+		) {
+			Object [] names = sceneViewer.scene.getNamesOfSavedSelections().toArray();
+			if ( names.length == 0 ) {
+				JOptionPane.showMessageDialog( frame, "No selection has been saved.", "Selection", JOptionPane.INFORMATION_MESSAGE );
+				return;
+			}
+			String name = (String)JOptionPane.showInputDialog(
+				frame, "Saved selection:", ((JMenuItem)source).getText(),
+				JOptionPane.QUESTION_MESSAGE, null, names, names[0]
+			);
+			if ( name == null )
+				return;
+			if ( source == restoreSelectionMenuItem )
+				sceneViewer.scene.restoreSelection( name );
+			else if ( source == addToSelectionMenuItem )
+				sceneViewer.scene.addToSelection( name );
+			else if ( source == intersectSelectionMenuItem )
+				sceneViewer.scene.intersectSelection( name );
+			else
+				sceneViewer.scene.subtractFromSelection( name );
+			sceneViewer.selectedBox = BoxStore.NO_BOX;
+			colorChangePanel.setVisible( false );
+			sceneViewer.requestRedraw();
+		}
 		else if ( source == createBoxButton ) {
 			sceneViewer.createNewBox();
 			colorChangePanel.setVisible(true);
-			sceneViewer.repaint();
+			sceneViewer.requestRedraw();
 		}
 		else if ( source == deleteSelectionButton ) {
 			sceneViewer.deleteSelection();
-			sceneViewer.repaint();
+			sceneViewer.requestRedraw();
 		}
 		else if ( source == lookAtSelectionButton ) {
 			sceneViewer.lookAtSelection();
-			sceneViewer.repaint();
+			sceneViewer.requestRedraw();
 		}
 		else if ( source == resetCameraButton ) {
 			sceneViewer.resetCamera();
-			sceneViewer.repaint();
+			sceneViewer.requestRedraw();
 		}
 		else if ( source == displayWorldAxesCheckBox ) {
 			sceneViewer.displayWorldAxes = ! sceneViewer.displayWorldAxes;
-			sceneViewer.repaint();
+			sceneViewer.requestRedraw();
 		}
 		else if ( source == displayCameraTargetCheckBox ) {
 			sceneViewer.displayCameraTarget = ! sceneViewer.displayCameraTarget;
-			sceneViewer.repaint();
+			sceneViewer.requestRedraw();
 		}
 		else if ( source == displayBoundingBoxCheckBox ) {
 			sceneViewer.displayBoundingBox = ! sceneViewer.displayBoundingBox;
-			sceneViewer.repaint();
+			sceneViewer.requestRedraw();
+		}
+		else if ( source == displayDimensionLabelsCheckBox ) {
+			sceneViewer.displayDimensionLabels = ! sceneViewer.displayDimensionLabels;
+			sceneViewer.requestRedraw();
 		}
 		else if ( source == enableCompositingCheckBox ) {
 			sceneViewer.enableCompositing = ! sceneViewer.enableCompositing;
 			alphaLabel.setEnabled(sceneViewer.enableCompositing);
 			alphaSlider.setEnabled(sceneViewer.enableCompositing);
-			sceneViewer.repaint();
+			sceneViewer.requestRedraw();
 		}
 		else if ( source == drawWireframeBoxesCheckBox ) {
 //			sceneViewer.drawWireframeBoxesCheckBox = ! sceneViewer.drawWireframeBoxesCheckBox;
 			sceneViewer.setDrawWireframeBoxes(drawWireframeBoxesCheckBox.isSelected());
-			sceneViewer.repaint();
+			sceneViewer.requestRedraw();
+		}
+		else if ( source == useRetainedModeCheckBox ) {
+			sceneViewer.setUseRetainedMode( useRetainedModeCheckBox.isSelected() );
+			sceneViewer.requestRedraw();
+		}
+		else if ( source == useInstancingCheckBox ) {
+			sceneViewer.setUseInstancing( useInstancingCheckBox.isSelected() );
+			sceneViewer.requestRedraw();
+		}
+		else if ( source == useSurfaceMeshCheckBox ) {
+			sceneViewer.setUseSurfaceMesh( useSurfaceMeshCheckBox.isSelected() );
+			sceneViewer.requestRedraw();
+		}
+		else if ( source == useAmbientOcclusionCheckBox ) {
+			sceneViewer.setUseAmbientOcclusion( useAmbientOcclusionCheckBox.isSelected() );
+			sceneViewer.requestRedraw();
+		}
+		else if ( source == useLevelOfDetailCheckBox ) {
+			sceneViewer.setUseLevelOfDetail( useLevelOfDetailCheckBox.isSelected() );
+			sceneViewer.requestRedraw();
+		}
+		else if ( source == degradeWhileMovingCameraCheckBox ) {
+			sceneViewer.setDegradeWhileMovingCamera( degradeWhileMovingCameraCheckBox.isSelected() );
+			frameBudgetSlider.setEnabled( degradeWhileMovingCameraCheckBox.isSelected() );
+		}
+		else if ( source == cacheStaticLayerCheckBox ) {
+			sceneViewer.setCacheStaticLayerWhileDragging( cacheStaticLayerCheckBox.isSelected() );
+		}
+		else if ( source == viewportLayoutComboBox ) {
+			sceneViewer.setViewportLayout( viewportLayoutComboBox.getSelectedIndex() );
+			sceneViewer.requestRedraw();
+		}
+		else if ( source == drawContinuouslyCheckBox ) {
+			sceneViewer.setDrawContinuously( drawContinuouslyCheckBox.isSelected() );
+		}
+		else if ( source == countGLCallsCheckBox ) {
+			sceneViewer.setCountGLCalls( countGLCallsCheckBox.isSelected() );
+			sceneViewer.requestRedraw();
 		}
 		else if( source == camera1Snap){
 			
@@ -1036,16 +1298,16 @@ public class SimpleModeller implements ActionListener {
 			}
 			
 			if(isLoaded){
-				sceneViewer.repaint();
+				sceneViewer.requestRedraw();
 				JOptionPane.showMessageDialog(null, "Camera Loaded", "Camera Feature: Load", JOptionPane.INFORMATION_MESSAGE);
 			}else{
-				sceneViewer.repaint();
+				sceneViewer.requestRedraw();
 				JOptionPane.showMessageDialog(null, "Camera not setted - Unable to Load", "Camera Feature: Load", JOptionPane.INFORMATION_MESSAGE);
 			}
 
 		}else if ( source == changeBoxColorButton ) {
 			sceneViewer.changeBoxColor();
-			sceneViewer.repaint();
+			sceneViewer.requestRedraw();
 		}
 		
 		
@@ -1067,6 +1329,16 @@ public class SimpleModeller implements ActionListener {
 
 		JMenuBar menuBar = new JMenuBar();
 			JMenu menu = new JMenu("File");
+				openSceneMenuItem = new JMenuItem("Open Scene...");
+				openSceneMenuItem.addActionListener(this);
+				menu.add(openSceneMenuItem);
+
+				saveSceneMenuItem = new JMenuItem("Save Scene...");
+				saveSceneMenuItem.addActionListener(this);
+				menu.add(saveSceneMenuItem);
+
+				menu.addSeparator();
+
 				deleteAllMenuItem = new JMenuItem("Delete All");
 				deleteAllMenuItem.addActionListener(this);
 				menu.add(deleteAllMenuItem);
@@ -1077,6 +1349,29 @@ public class SimpleModeller implements ActionListener {
 				quitMenuItem.addActionListener(this);
 				menu.add(quitMenuItem);
 			menuBar.add(menu);
+			menu = new JMenu("Selection");
+				saveSelectionMenuItem = new JMenuItem("Save Selection...");
+				saveSelectionMenuItem.addActionListener(this);
+				menu.add(saveSelectionMenuItem);
+
+				restoreSelectionMenuItem = new JMenuItem("Restore Saved Selection...");
+				restoreSelectionMenuItem.addActionListener(this);
+				menu.add(restoreSelectionMenuItem);
+
+				menu.addSeparator();
+
+				addToSelectionMenuItem = new JMenuItem("Add Saved Selection...");
+				addToSelectionMenuItem.addActionListener(this);
+				menu.add(addToSelectionMenuItem);
+
+				intersectSelectionMenuItem = new JMenuItem("Intersect With Saved Selection...");
+				intersectSelectionMenuItem.addActionListener(this);
+				menu.add(intersectSelectionMenuItem);
+
+				subtractFromSelectionMenuItem = new JMenuItem("Subtract Saved Selection...");
+				subtractFromSelectionMenuItem.addActionListener(this);
+				menu.add(subtractFromSelectionMenuItem);
+			menuBar.add(menu);
 			menu = new JMenu("Help");
 				aboutMenuItem = new JMenuItem("About");
 				aboutMenuItem.addActionListener(this);
@@ -1105,7 +1400,7 @@ public class SimpleModeller implements ActionListener {
 		sceneViewer.addMouseListener(new MouseAdapter() { 
 	          public void mousePressed(MouseEvent me) { 
 	        	  //ONE box must be selected to display color change menu
-	        	  if(sceneViewer.listIndexOfSelectedBoxes.size() == 1){
+	        	  if(sceneViewer.scene.getNumberOfSelectedBoxes() == 1){
 	        		  if(enableCompositingCheckBox.isSelected()){
 	        			  alphaSlider.setValue((int) (sceneViewer.getAlphaOfSelectedBox()*10000));
 	        		  }
@@ -1159,6 +1454,11 @@ public class SimpleModeller implements ActionListener {
 		displayBoundingBoxCheckBox.addActionListener(this);
 		toolPanel.add( displayBoundingBoxCheckBox );
 
+		displayDimensionLabelsCheckBox = new JCheckBox("Display Dimensions", sceneViewer.displayDimensionLabels );
+		displayDimensionLabelsCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		displayDimensionLabelsCheckBox.addActionListener(this);
+		toolPanel.add( displayDimensionLabelsCheckBox );
+
 		enableCompositingCheckBox = new JCheckBox("Enable Compositing", sceneViewer.enableCompositing );
 		enableCompositingCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
 		enableCompositingCheckBox.addActionListener(this);
@@ -1168,6 +1468,74 @@ public class SimpleModeller implements ActionListener {
 		drawWireframeBoxesCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
 		drawWireframeBoxesCheckBox.addActionListener(this);
 		toolPanel.add( drawWireframeBoxesCheckBox );
+
+		useRetainedModeCheckBox = new JCheckBox("Use Vertex Buffers", sceneViewer.scene.useRetainedMode );
+		useRetainedModeCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		useRetainedModeCheckBox.addActionListener(this);
+		toolPanel.add( useRetainedModeCheckBox );
+
+		useInstancingCheckBox = new JCheckBox("Use Instancing", sceneViewer.scene.useInstancing );
+		useInstancingCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		useInstancingCheckBox.addActionListener(this);
+		toolPanel.add( useInstancingCheckBox );
+
+		useSurfaceMeshCheckBox = new JCheckBox("Merge Faces", sceneViewer.scene.useSurfaceMesh );
+		useSurfaceMeshCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		useSurfaceMeshCheckBox.addActionListener(this);
+		toolPanel.add( useSurfaceMeshCheckBox );
+
+		useAmbientOcclusionCheckBox = new JCheckBox("Ambient Occlusion", sceneViewer.scene.isUsingAmbientOcclusion() );
+		useAmbientOcclusionCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		useAmbientOcclusionCheckBox.addActionListener(this);
+		toolPanel.add( useAmbientOcclusionCheckBox );
+
+		useLevelOfDetailCheckBox = new JCheckBox("Level of Detail", sceneViewer.scene.useLevelOfDetail );
+		useLevelOfDetailCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		useLevelOfDetailCheckBox.addActionListener(this);
+		toolPanel.add( useLevelOfDetailCheckBox );
+
+		degradeWhileMovingCameraCheckBox = new JCheckBox("Degrade While Moving Camera", sceneViewer.degradeWhileMovingCamera );
+		degradeWhileMovingCameraCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		degradeWhileMovingCameraCheckBox.addActionListener(this);
+		toolPanel.add( degradeWhileMovingCameraCheckBox );
+
+		frameBudgetLabel = new JLabel( "Frame Budget: " + Math.round( sceneViewer.frameBudgetInMilliseconds ) + " ms" );
+		frameBudgetLabel.setAlignmentX( Component.LEFT_ALIGNMENT );
+		toolPanel.add( frameBudgetLabel );
+		frameBudgetSlider = new JSlider( 5, 100, Math.round( sceneViewer.frameBudgetInMilliseconds ) );
+		frameBudgetSlider.setAlignmentX( Component.LEFT_ALIGNMENT );
+		frameBudgetSlider.setPreferredSize(new Dimension( 30, 30 ));
+		frameBudgetSlider.setEnabled( sceneViewer.degradeWhileMovingCamera );
+		frameBudgetSlider.addChangeListener( new ChangeListener() {
+			public void stateChanged( ChangeEvent e ) {
+				sceneViewer.setFrameBudgetInMilliseconds( frameBudgetSlider.getValue() );
+				frameBudgetLabel.setText( "Frame Budget: " + frameBudgetSlider.getValue() + " ms" );
+			}
+		});
+		toolPanel.add( frameBudgetSlider );
+
+		cacheStaticLayerCheckBox = new JCheckBox("Cache Scene While Dragging", sceneViewer.cacheStaticLayerWhileDragging );
+		cacheStaticLayerCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		cacheStaticLayerCheckBox.addActionListener(this);
+		toolPanel.add( cacheStaticLayerCheckBox );
+
+		// in the order of the SceneViewer.LAYOUT_* constants
+		viewportLayoutComboBox = new JComboBox<String>( new String[] { "Single View", "2x2 Views", "1+3 Views" } );
+		viewportLayoutComboBox.setSelectedIndex( sceneViewer.getViewportLayout() );
+		viewportLayoutComboBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		viewportLayoutComboBox.setMaximumSize( viewportLayoutComboBox.getPreferredSize() );
+		viewportLayoutComboBox.addActionListener(this);
+		toolPanel.add( viewportLayoutComboBox );
+
+		drawContinuouslyCheckBox = new JCheckBox("Draw Continuously", sceneViewer.getFrameScheduler().isContinuous() );
+		drawContinuouslyCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		drawContinuouslyCheckBox.addActionListener(this);
+		toolPanel.add( drawContinuouslyCheckBox );
+
+		countGLCallsCheckBox = new JCheckBox("Count OpenGL Calls", sceneViewer.countGLCalls );
+		countGLCallsCheckBox.setAlignmentX( Component.LEFT_ALIGNMENT );
+		countGLCallsCheckBox.addActionListener(this);
+		toolPanel.add( countGLCallsCheckBox );
 		
 		changeBoxColorButton = new JButton("Change Box Color");
 		changeBoxColorButton.setAlignmentX( Component.LEFT_ALIGNMENT );
@@ -1190,7 +1558,7 @@ public class SimpleModeller implements ActionListener {
 				sceneViewer.enableCompositing = true;
 				float a = (float) (alphaSlider.getValue()/10000.0);
 				sceneViewer.setAlphaOfSelection(a);
-				sceneViewer.repaint();
+				sceneViewer.requestRedraw();
 			}
 		});
 		
@@ -1199,6 +1567,17 @@ public class SimpleModeller implements ActionListener {
 		colorChangePanel.add(alphaSlider);
 		colorChangePanel.setVisible(false); //Only show when ONE box is selected
 		toolPanel.add( colorChangePanel );
+
+		frameStatisticsLabel = new JLabel( " " );
+		frameStatisticsLabel.setAlignmentX( Component.LEFT_ALIGNMENT );
+		toolPanel.add( frameStatisticsLabel );
+		// Refresh the statistics a few times per second, rather than every frame
+		frameStatisticsTimer = new Timer( 250, new ActionListener() {
+			public void actionPerformed( ActionEvent e ) {
+				frameStatisticsLabel.setText( sceneViewer.getFrameStatistics() );
+			}
+		});
+		frameStatisticsTimer.start();
 		
 		//Camera Radio Buttons
 	    radio1 = new JRadioButton("Cam1");
@@ -1241,7 +1620,13 @@ public class SimpleModeller implements ActionListener {
 		frame.setVisible( true );
 	}
 
-	public static void main( String[] args ) {
+	// With --serve, runs a RenderServer instead of the UI:
+	//    SimpleModeller --serve directory [port [cacheSize]]
+	public static void main( String[] args ) throws java.io.IOException {
+		if ( args.length > 0 && args[0].equals( "--serve" ) ) {
+			RenderServer.main( Arrays.copyOfRange( args, 1, args.length ) );
+			return;
+		}
 		// Schedule the creation of the UI for the event-dispatching thread.
 		javax.swing.SwingUtilities.invokeLater(
 			new Runnable() {
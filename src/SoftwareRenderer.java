@@ -0,0 +1,452 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Renders the boxes of a scene into an image without OpenGL, e.g. on
+// machines that have no GPU or display, with a z-buffer rasterizer
+// written in plain Java.
+//
+// The boxes are projected as Camera3D.transform() projects them for
+// OpenGL (see Camera3D.computeProjectionMatrix() and computeViewMatrix()),
+// and drawn as the GL path draws solid boxes: unlit, each in its color,
+// without their back faces, with a depth test of GL_LEQUAL and on a black
+// background.  Transparency is ignored (every box is opaque), and nothing
+// else of a SceneViewer's frame (wireframes, highlighting, widgets) is
+// drawn.
+//
+// A frame is drawn in two passes, each run on a fork/join pool:
+// - the boxes are split into chunks; for each box of a chunk, the faces
+//   that face the camera are transformed to clip space, clipped against
+//   the near plane, split into triangles, and appended to the bins of the
+//   tiles (squares of TILE_SIZE pixels) that the triangles overlap;
+// - each tile then draws the triangles of its bins, from the chunks in
+//   order, into its own part of the color and depth buffers, so that no
+//   two tasks ever write to the same pixel.
+public class SoftwareRenderer {
+
+	public static final int TILE_SIZE = 64;
+	private static final int BOXES_PER_CHUNK = 2048;
+
+	// The corners of a box are numbered so that bit 0, 1 and 2 of a corner
+	// tell whether it has the maximal x, y and z coordinate, respectively.
+	// Faces are given in the order -x, +x, -y, +y, -z, +z.
+	private static final int [] FACE_CORNERS = {
+		0, 2, 6, 4,
+		1, 3, 7, 5,
+		0, 1, 5, 4,
+		2, 3, 7, 6,
+		0, 1, 3, 2,
+		4, 5, 7, 6
+	};
+
+	// Triangles produced by one chunk of boxes,
+	// and the bins into which they were sorted.
+	private static class Chunk {
+		public int firstBox, endBox; // the boxes [firstBox,endBox)
+
+		// screen x, screen y and window depth of the 3 vertices of each triangle
+		public float [] vertices = new float[ 9 * 1024 ];
+		public int [] colors = new int[ 1024 ];
+		public int numberOfTriangles = 0;
+
+		// indices of the triangles overlapping each tile
+		public int [][] trianglesOfTile = new int[ 0 ][];
+		public int [] numberOfTrianglesOfTile = new int[ 0 ];
+
+		// the 8 corners of the current box, in clip space (x,y,z,w)
+		public float [] corners = new float[ 32 ];
+		// a face clipped against the near plane (at most 5 vertices),
+		// and its vertices in screen space
+		public float [] polygon = new float[ 4 * 8 ];
+		public float [] clipped = new float[ 4 * 8 ];
+		public float [] screen = new float[ 3 * 8 ];
+
+		public void reset( int numberOfTiles ) {
+			if ( trianglesOfTile.length < numberOfTiles ) {
+				trianglesOfTile = new int[ numberOfTiles ][];
+				numberOfTrianglesOfTile = new int[ numberOfTiles ];
+			}
+			else
+				Arrays.fill( numberOfTrianglesOfTile, 0, numberOfTiles, 0 );
+			numberOfTriangles = 0;
+		}
+
+		public int addTriangle( float [] s, int a, int b, int c, int rgb ) {
+			if ( 9 * ( numberOfTriangles + 1 ) > vertices.length ) {
+				vertices = Arrays.copyOf( vertices, 2 * vertices.length );
+				colors = Arrays.copyOf( colors, 2 * colors.length );
+			}
+			int o = 9 * numberOfTriangles;
+			vertices[o  ] = s[3*a]; vertices[o+1] = s[3*a+1]; vertices[o+2] = s[3*a+2];
+			vertices[o+3] = s[3*b]; vertices[o+4] = s[3*b+1]; vertices[o+5] = s[3*b+2];
+			vertices[o+6] = s[3*c]; vertices[o+7] = s[3*c+1]; vertices[o+8] = s[3*c+2];
+			colors[ numberOfTriangles ] = rgb;
+			return numberOfTriangles++;
+		}
+
+		public void addToTile( int tile, int triangle ) {
+			int [] bin = trianglesOfTile[ tile ];
+			int n = numberOfTrianglesOfTile[ tile ];
+			if ( bin == null )
+				bin = trianglesOfTile[ tile ] = new int[ 64 ];
+			else if ( n == bin.length )
+				bin = trianglesOfTile[ tile ] = Arrays.copyOf( bin, 2 * n );
+			bin[ n ] = triangle;
+			numberOfTrianglesOfTile[ tile ] = n + 1;
+		}
+	}
+
+	private final Scene scene;
+	private final ForkJoinPool pool;
+	private AmbientOcclusion ambientOcclusion = null;
+	private ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+	private int numberOfChunks = 0;
+
+	// state of the frame being drawn
+	private int width, height;
+	private int tilesAcross, tilesDown;
+	private int [] colorBuffer; // the image's pixels, as 0xRRGGBB
+	private float [] depthBuffer = new float[ 0 ];
+	private float [] clipMatrix = new float[ 16 ]; // projection * view, column-major
+	private float eyeX, eyeY, eyeZ;
+
+	// statistics about the last frame
+	private int numberOfTriangles = 0;
+	private long setupTime = 0, rasterTime = 0; // in nanoseconds
+
+	// Draws with as many threads as there are processors.
+	public SoftwareRenderer( Scene scene ) {
+		this( scene, Runtime.getRuntime().availableProcessors() );
+	}
+
+	public SoftwareRenderer( Scene scene, int numberOfThreads ) {
+		this( scene, new ForkJoinPool( Math.max( 1, numberOfThreads ) ) );
+	}
+
+	// Draws with the threads of the given pool, which may be shared by
+	// several renderers (each of which draws one frame at a time, but
+	// they may draw at the same time, e.g. the same scene for different
+	// clients).
+	public SoftwareRenderer( Scene scene, ForkJoinPool pool ) {
+		this.scene = scene;
+		this.pool = pool;
+	}
+
+	public int getNumberOfThreads() { return pool.getParallelism(); }
+
+	// Shades the faces of the boxes with the given ambient occlusion
+	// (whose faces are numbered in the same order as FACE_CORNERS),
+	// or not at all if it is null.
+	public void setAmbientOcclusion( AmbientOcclusion ao ) {
+		ambientOcclusion = ao;
+	}
+
+	// Draws the scene as seen by the given camera, into an image with the
+	// dimensions of the camera's viewport.  The given image is reused if
+	// it is an image of type TYPE_INT_RGB with those dimensions (e.g. the
+	// one returned by the previous call); otherwise, a new one is created.
+	public BufferedImage render( Camera3D camera, BufferedImage image ) {
+		width = camera.getViewportWidth();
+		height = camera.getViewportHeight();
+		if ( image == null || image.getType() != BufferedImage.TYPE_INT_RGB
+			|| image.getWidth() != width || image.getHeight() != height
+		) {
+			image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+		}
+		colorBuffer = ( (DataBufferInt)image.getRaster().getDataBuffer() ).getData();
+		if ( depthBuffer.length < width * height )
+			depthBuffer = new float[ width * height ];
+		tilesAcross = ( width + TILE_SIZE - 1 ) / TILE_SIZE;
+		tilesDown = ( height + TILE_SIZE - 1 ) / TILE_SIZE;
+
+		Matrix4x4 M = Matrix4x4.mult( camera.computeProjectionMatrix(), camera.computeViewMatrix() );
+		System.arraycopy( M.m, 0, clipMatrix, 0, 16 );
+		eyeX = camera.position.x(); eyeY = camera.position.y(); eyeZ = camera.position.z();
+
+		long t0 = System.nanoTime();
+		int n = scene.boxes.size();
+		numberOfChunks = ( n + BOXES_PER_CHUNK - 1 ) / BOXES_PER_CHUNK;
+		while ( chunks.size() < numberOfChunks )
+			chunks.add( new Chunk() );
+		for ( int c = 0; c < numberOfChunks; ++c ) {
+			Chunk chunk = chunks.get( c );
+			chunk.firstBox = c * BOXES_PER_CHUNK;
+			chunk.endBox = Math.min( n, chunk.firstBox + BOXES_PER_CHUNK );
+		}
+		pool.invoke( new SetupTask( 0, numberOfChunks ) );
+
+		long t1 = System.nanoTime();
+		pool.invoke( new TileTask( 0, tilesAcross * tilesDown ) );
+		long t2 = System.nanoTime();
+
+		numberOfTriangles = 0;
+		for ( int c = 0; c < numberOfChunks; ++c )
+			numberOfTriangles += chunks.get( c ).numberOfTriangles;
+		setupTime = t1 - t0;
+		rasterTime = t2 - t1;
+		colorBuffer = null;
+		return image;
+	}
+
+	public BufferedImage render( Camera3D camera ) {
+		return render( camera, null );
+	}
+
+	// Frees the depth buffer if it has more than maxPixels pixels (e.g.
+	// before keeping the renderer for later frames); render() allocates
+	// it again when needed.
+	public void releaseBuffers( int maxPixels ) {
+		if ( depthBuffer.length > maxPixels )
+			depthBuffer = new float[ 0 ];
+	}
+
+	// Number of triangles drawn in the last frame,
+	// after culling and clipping
+	public int getNumberOfTriangles() { return numberOfTriangles; }
+	// Durations of the two passes of the last frame, in nanoseconds
+	public long getSetupTime() { return setupTime; }
+	public long getRasterTime() { return rasterTime; }
+
+	private class SetupTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final int start, end; // chunks [start,end)
+		SetupTask( int start, int end ) {
+			this.start = start; this.end = end;
+		}
+		protected void compute() {
+			if ( end - start == 1 ) {
+				setupChunk( chunks.get( start ) );
+				return;
+			}
+			int middle = ( start + end ) >>> 1;
+			invokeAll( new SetupTask( start, middle ), new SetupTask( middle, end ) );
+		}
+	}
+
+	private class TileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final int start, end; // tiles [start,end)
+		TileTask( int start, int end ) {
+			this.start = start; this.end = end;
+		}
+		protected void compute() {
+			if ( end - start == 1 ) {
+				drawTile( start );
+				return;
+			}
+			int middle = ( start + end ) >>> 1;
+			invokeAll( new TileTask( start, middle ), new TileTask( middle, end ) );
+		}
+	}
+
+	private void setupChunk( Chunk chunk ) {
+		chunk.reset( tilesAcross * tilesDown );
+		BoxStore boxes = scene.boxes;
+		float [] m = clipMatrix;
+		float [] p = chunk.corners;
+		for ( int i = chunk.firstBox; i < chunk.endBox; ++i ) {
+			if ( ! boxes.isAlive( i ) )
+				continue;
+			float x0 = boxes.minX[i], y0 = boxes.minY[i], z0 = boxes.minZ[i];
+			float x1 = boxes.maxX[i], y1 = boxes.maxY[i], z1 = boxes.maxZ[i];
+
+			// Only the faces on the camera's side of their plane are front faces.
+			int visibleFaces = 0;
+			if ( eyeX < x0 ) visibleFaces |= 1;
+			if ( eyeX > x1 ) visibleFaces |= 2;
+			if ( eyeY < y0 ) visibleFaces |= 4;
+			if ( eyeY > y1 ) visibleFaces |= 8;
+			if ( eyeZ < z0 ) visibleFaces |= 16;
+			if ( eyeZ > z1 ) visibleFaces |= 32;
+			if ( visibleFaces == 0 )
+				continue;
+
+			// Transform the corners, and skip the box if they are all
+			// outside the same plane of the frustum.
+			int outsideAll = 63, outsideAny = 0;
+			for ( int c = 0; c < 8; ++c ) {
+				float x = ( c & 1 ) == 0 ? x0 : x1;
+				float y = ( c & 2 ) == 0 ? y0 : y1;
+				float z = ( c & 4 ) == 0 ? z0 : z1;
+				float cx = m[0]*x + m[4]*y + m[ 8]*z + m[12];
+				float cy = m[1]*x + m[5]*y + m[ 9]*z + m[13];
+				float cz = m[2]*x + m[6]*y + m[10]*z + m[14];
+				float cw = m[3]*x + m[7]*y + m[11]*z + m[15];
+				p[4*c] = cx; p[4*c+1] = cy; p[4*c+2] = cz; p[4*c+3] = cw;
+				int outside = 0;
+				if ( cx < -cw ) outside |= 1;
+				if ( cx >  cw ) outside |= 2;
+				if ( cy < -cw ) outside |= 4;
+				if ( cy >  cw ) outside |= 8;
+				if ( cz < -cw ) outside |= 16;
+				if ( cz >  cw ) outside |= 32;
+				outsideAll &= outside;
+				outsideAny |= outside;
+			}
+			if ( outsideAll != 0 )
+				continue;
+
+			int rgb = boxes.rgba[i] >>> 8;
+			for ( int f = 0; f < 6; ++f ) {
+				if ( ( visibleFaces & ( 1 << f ) ) == 0 )
+					continue;
+				int faceColor = ambientOcclusion == null ? rgb
+					: AmbientOcclusion.shadeColor( rgb, ambientOcclusion.getShade( i, f ) );
+				setupFace( chunk, f, ( outsideAny & 16 ) != 0, faceColor );
+			}
+		}
+	}
+
+	private void setupFace( Chunk chunk, int face, boolean mustClip, int rgb ) {
+		float [] p = chunk.corners;
+		float [] polygon = chunk.polygon;
+		for ( int k = 0; k < 4; ++k )
+			System.arraycopy( p, 4 * FACE_CORNERS[ 4*face + k ], polygon, 4*k, 4 );
+		int n = 4;
+		if ( mustClip ) {
+			polygon = chunk.clipped;
+			n = clipAgainstNearPlane( chunk.polygon, 4, polygon );
+			if ( n < 3 )
+				return;
+		}
+
+		// perspective division and viewport transformation
+		float [] s = chunk.screen;
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		for ( int k = 0; k < n; ++k ) {
+			float invW = 1 / polygon[4*k+3];
+			float x = ( polygon[4*k] * invW + 1 ) * 0.5f * width;
+			float y = ( 1 - polygon[4*k+1] * invW ) * 0.5f * height;
+			s[3*k] = x;
+			s[3*k+1] = y;
+			s[3*k+2] = ( polygon[4*k+2] * invW + 1 ) * 0.5f;
+			if ( x < minX ) minX = x;
+			if ( x > maxX ) maxX = x;
+			if ( y < minY ) minY = y;
+			if ( y > maxY ) maxY = y;
+		}
+		if ( maxX < 0 || maxY < 0 || minX > width || minY > height )
+			return;
+
+		for ( int k = 2; k < n; ++k ) {
+			int triangle = chunk.addTriangle( s, 0, k-1, k, rgb );
+			float tx0 = Math.min( s[0], Math.min( s[3*(k-1)], s[3*k] ) );
+			float tx1 = Math.max( s[0], Math.max( s[3*(k-1)], s[3*k] ) );
+			float ty0 = Math.min( s[1], Math.min( s[3*(k-1)+1], s[3*k+1] ) );
+			float ty1 = Math.max( s[1], Math.max( s[3*(k-1)+1], s[3*k+1] ) );
+			int firstColumn = Math.max( 0, (int)tx0 / TILE_SIZE );
+			int lastColumn = Math.min( tilesAcross - 1, (int)Math.min( tx1, width ) / TILE_SIZE );
+			int firstRow = Math.max( 0, (int)ty0 / TILE_SIZE );
+			int lastRow = Math.min( tilesDown - 1, (int)Math.min( ty1, height ) / TILE_SIZE );
+			for ( int row = firstRow; row <= lastRow; ++row )
+				for ( int column = firstColumn; column <= lastColumn; ++column )
+					chunk.addToTile( row * tilesAcross + column, triangle );
+		}
+	}
+
+	// Clips a convex polygon of n vertices, given in clip space,
+	// against the near plane (z >= -w).  Returns the number of
+	// vertices of the result, which is written into out.
+	private static int clipAgainstNearPlane( float [] in, int n, float [] out ) {
+		int m = 0;
+		for ( int k = 0; k < n; ++k ) {
+			int a = 4 * k, b = 4 * ( ( k + 1 ) % n );
+			float da = in[a+2] + in[a+3], db = in[b+2] + in[b+3];
+			if ( da >= 0 ) {
+				System.arraycopy( in, a, out, 4*m, 4 );
+				++m;
+			}
+			if ( ( da >= 0 ) != ( db >= 0 ) ) {
+				float t = da / ( da - db );
+				for ( int j = 0; j < 4; ++j )
+					out[4*m+j] = in[a+j] + t * ( in[b+j] - in[a+j] );
+				++m;
+			}
+		}
+		return m;
+	}
+
+	private void drawTile( int tile ) {
+		int x0 = ( tile % tilesAcross ) * TILE_SIZE, y0 = ( tile / tilesAcross ) * TILE_SIZE;
+		int x1 = Math.min( width, x0 + TILE_SIZE ), y1 = Math.min( height, y0 + TILE_SIZE );
+		for ( int y = y0; y < y1; ++y ) {
+			Arrays.fill( colorBuffer, y * width + x0, y * width + x1, 0 );
+			Arrays.fill( depthBuffer, y * width + x0, y * width + x1, 1.0f );
+		}
+		for ( int c = 0; c < numberOfChunks; ++c ) {
+			Chunk chunk = chunks.get( c );
+			int [] bin = chunk.trianglesOfTile[ tile ];
+			int n = chunk.numberOfTrianglesOfTile[ tile ];
+			for ( int k = 0; k < n; ++k ) {
+				int t = bin[k];
+				drawTriangle( chunk.vertices, 9 * t, chunk.colors[t], x0, y0, x1, y1 );
+			}
+		}
+	}
+
+	// Draws the pixels, within [x0,x1) x [y0,y1), whose centers are covered
+	// by the triangle whose vertices start at v[o].  Edge functions are
+	// evaluated in double precision, since the vertices of triangles that
+	// extend far off-screen can have very large coordinates.
+	private void drawTriangle( float [] v, int o, int rgb, int x0, int y0, int x1, int y1 ) {
+		double ax = v[o  ], ay = v[o+1]; float az = v[o+2];
+		double bx = v[o+3], by = v[o+4]; float bz = v[o+5];
+		double cx = v[o+6], cy = v[o+7]; float cz = v[o+8];
+		double area = ( bx - ax ) * ( cy - ay ) - ( by - ay ) * ( cx - ax );
+		if ( area == 0 )
+			return;
+		if ( area < 0 ) {
+			// make the vertices counterclockwise (in these coordinates)
+			double tx = bx, ty = by; float tz = bz;
+			bx = cx; by = cy; bz = cz;
+			cx = tx; cy = ty; cz = tz;
+			area = -area;
+		}
+
+		int minX = Math.max( x0, (int)Math.ceil( Math.min( ax, Math.min( bx, cx ) ) - 0.5 ) );
+		int maxX = Math.min( x1 - 1, (int)Math.floor( Math.max( ax, Math.max( bx, cx ) ) - 0.5 ) );
+		int minY = Math.max( y0, (int)Math.ceil( Math.min( ay, Math.min( by, cy ) ) - 0.5 ) );
+		int maxY = Math.min( y1 - 1, (int)Math.floor( Math.max( ay, Math.max( by, cy ) ) - 0.5 ) );
+		if ( minX > maxX || minY > maxY )
+			return;
+
+		// The edge function of the edge opposite each vertex is positive
+		// inside the triangle, and equal to the area at that vertex.
+		double stepAX = -( cy - by ), stepAY = cx - bx;
+		double stepBX = -( ay - cy ), stepBY = ax - cx;
+		double stepCX = -( by - ay ), stepCY = bx - ax;
+		double px = minX + 0.5, py = minY + 0.5;
+		double rowA = ( cx - bx ) * ( py - by ) - ( cy - by ) * ( px - bx );
+		double rowB = ( ax - cx ) * ( py - cy ) - ( ay - cy ) * ( px - cx );
+		double rowC = ( bx - ax ) * ( py - ay ) - ( by - ay ) * ( px - ax );
+
+		// depth is an affine function of the screen coordinates
+		double invArea = 1 / area;
+		float stepZX = (float)( ( stepAX * az + stepBX * bz + stepCX * cz ) * invArea );
+		float stepZY = (float)( ( stepAY * az + stepBY * bz + stepCY * cz ) * invArea );
+		float rowZ = (float)( ( rowA * az + rowB * bz + rowC * cz ) * invArea );
+
+		int [] color = colorBuffer;
+		float [] depth = depthBuffer;
+		for ( int y = minY; y <= maxY; ++y ) {
+			double ea = rowA, eb = rowB, ec = rowC;
+			float z = rowZ;
+			int index = y * width + minX;
+			for ( int x = minX; x <= maxX; ++x, ++index ) {
+				if ( ea >= 0 && eb >= 0 && ec >= 0 && z <= depth[index] ) {
+					depth[index] = z;
+					color[index] = rgb;
+				}
+				ea += stepAX; eb += stepBX; ec += stepCX;
+				z += stepZX;
+			}
+			rowA += stepAY; rowB += stepBY; rowC += stepCY;
+			rowZ += stepZY;
+		}
+	}
+
+}
@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.media.opengl.GL;
+import com.sun.opengl.util.GLUT;
+
+// Draws strings with GLUT's Mono Roman stroke font from display lists,
+// rather than calling glutStrokeCharacter() (and issuing the line strips
+// of every glyph) for every character at every frame.
+//
+// The geometry of each printable ASCII glyph is compiled once into a
+// display list.  Each string drawn is then compiled into a display list
+// that scales it and calls the lists of its glyphs, and is cached, keyed
+// by the text and the scale factor (which is determined by the height and
+// the type of height given to OpenGL2DInterface.drawString()), so that
+// drawing the same label again is a single glCallList().  The cache keeps
+// the most recently drawn strings.
+//
+// A frame that draws more strings missing from the cache than it can
+// hold would compile each of them, only to evict it before it is drawn
+// again.  So, once there have been more than MAX_CACHED_STRINGS misses
+// since beginFrame() (or during the previous frame), missing strings are
+// drawn from the lists of their glyphs, without being compiled, until a
+// frame has fewer misses.  beginFrame() must be called at every frame.
+//
+// Every glyph of the font advances by the same width, so the width of a
+// string is its number of characters times that width, as computed by
+// OpenGL2DInterface.stringWidthInPixels().
+//
+// Display lists belong to an OpenGL context: contextCreated() must be
+// called when a new context is created (e.g. from GLEventListener.init()).
+public class StrokeText {
+
+	private static final int FIRST_GLYPH = 32, LAST_GLYPH = 126;
+	private static final int MAX_CACHED_STRINGS = 256;
+
+	private static class Key {
+		public final String text;
+		public final float scale;
+		public Key( String text, float scale ) {
+			this.text = text;
+			this.scale = scale;
+		}
+		public boolean equals( Object o ) {
+			if ( ! ( o instanceof Key ) )
+				return false;
+			Key k = (Key)o;
+			return scale == k.scale && text.equals( k.text );
+		}
+		public int hashCode() {
+			return 31 * text.hashCode() + Float.floatToIntBits( scale );
+		}
+	}
+
+	private boolean useCache = true;
+
+	// true while the caller compiles a display list of its own
+	private boolean isInOuterList = false;
+
+	// first of the display lists of the glyphs, or 0 if not yet compiled
+	private int glyphBase = 0;
+
+	// display lists of the strings, from the least to the most recently drawn
+	private LinkedHashMap<Key,Integer> listOfString = new LinkedHashMap<Key,Integer>( 16, 0.75f, true ) {
+		protected boolean removeEldestEntry( Map.Entry<Key,Integer> eldest ) {
+			if ( size() <= MAX_CACHED_STRINGS )
+				return false;
+			// deleted at the next call to draw(), which has a GL
+			listsToDelete.add( eldest.getValue() );
+			return true;
+		}
+	};
+	private ArrayList<Integer> listsToDelete = new ArrayList<Integer>();
+
+	// misses since the last call to beginFrame(), and whether
+	// the previous frame had more than MAX_CACHED_STRINGS
+	private int numberOfMissesInFrame = 0;
+	private boolean isThrashing = false;
+
+	// statistics, since the last call to resetStatistics()
+	private int numberOfStringsCompiled = 0;
+	private int numberOfStringsReplayed = 0;
+	private int numberOfStringsNotCached = 0; // drawn from the glyphs' lists while thrashing
+	private int numberOfGlyphsStroked = 0; // calls to glutStrokeCharacter()
+
+	// Forgets the display lists, which belonged to a previous context.
+	public void contextCreated( GL gl ) {
+		glyphBase = 0;
+		listOfString.clear();
+		listsToDelete.clear();
+		numberOfMissesInFrame = 0;
+		isThrashing = false;
+	}
+
+	public void beginFrame() {
+		isThrashing = numberOfMissesInFrame > MAX_CACHED_STRINGS;
+		numberOfMissesInFrame = 0;
+	}
+
+	public boolean isUsingCache() { return useCache; }
+
+	public void setUseCache( boolean flag ) {
+		useCache = flag;
+	}
+
+	// Must surround the compilation of a display list that draws strings
+	// (e.g. a whole widget), since display lists cannot be nested: in
+	// between, strings are drawn by calling the lists of their glyphs
+	// directly, and are not cached.
+	public void beginOuterList( GL gl, GLUT glut ) {
+		if ( useCache && glyphBase == 0 )
+			compileGlyphs( gl, glut );
+		isInOuterList = true;
+	}
+
+	public void endOuterList() {
+		isInOuterList = false;
+	}
+
+	// Same as above, around strings that are not worth caching (e.g. many
+	// labels that change with the camera), without a display list.
+	public void beginUncachedStrings( GL gl, GLUT glut ) {
+		beginOuterList( gl, glut );
+	}
+
+	public void endUncachedStrings() {
+		endOuterList();
+	}
+
+	// Draws s with its first glyph at the origin, scaled by the given factor.
+	public void draw( GL gl, GLUT glut, String s, float scale ) {
+		if ( isInOuterList && useCache ) {
+			gl.glPushMatrix();
+			gl.glScalef( scale, scale, 1 );
+			drawGlyphs( gl, glut, s );
+			gl.glPopMatrix();
+			return;
+		}
+		if ( ! useCache ) {
+			gl.glPushMatrix();
+			gl.glScalef( scale, scale, 1 );
+			for ( int j = 0; j < s.length(); ++j )
+				glut.glutStrokeCharacter( GLUT.STROKE_MONO_ROMAN, s.charAt(j) );
+			gl.glPopMatrix();
+			numberOfGlyphsStroked += s.length();
+			return;
+		}
+
+		for ( int i = 0; i < listsToDelete.size(); ++i )
+			gl.glDeleteLists( listsToDelete.get( i ).intValue(), 1 );
+		listsToDelete.clear();
+
+		Key key = new Key( s, scale );
+		Integer list = listOfString.get( key );
+		if ( list != null ) {
+			gl.glCallList( list.intValue() );
+			++numberOfStringsReplayed;
+			return;
+		}
+
+		if ( glyphBase == 0 )
+			compileGlyphs( gl, glut );
+		++numberOfMissesInFrame;
+		if ( isThrashing || numberOfMissesInFrame > MAX_CACHED_STRINGS ) {
+			gl.glPushMatrix();
+			gl.glScalef( scale, scale, 1 );
+			drawGlyphs( gl, glut, s );
+			gl.glPopMatrix();
+			++numberOfStringsNotCached;
+			return;
+		}
+		int id = gl.glGenLists( 1 );
+		gl.glNewList( id, GL.GL_COMPILE_AND_EXECUTE );
+			gl.glPushMatrix();
+			gl.glScalef( scale, scale, 1 );
+			drawGlyphs( gl, glut, s );
+			gl.glPopMatrix();
+		gl.glEndList();
+		listOfString.put( key, Integer.valueOf( id ) );
+		++numberOfStringsCompiled;
+	}
+
+	private void drawGlyphs( GL gl, GLUT glut, String s ) {
+		for ( int j = 0; j < s.length(); ++j ) {
+			char c = s.charAt(j);
+			if ( FIRST_GLYPH <= c && c <= LAST_GLYPH )
+				gl.glCallList( glyphBase + c - FIRST_GLYPH );
+			else {
+				glut.glutStrokeCharacter( GLUT.STROKE_MONO_ROMAN, c );
+				++numberOfGlyphsStroked;
+			}
+		}
+	}
+
+	// Each glyph's list draws it and advances to the next glyph,
+	// as glutStrokeCharacter() does.
+	private void compileGlyphs( GL gl, GLUT glut ) {
+		int n = LAST_GLYPH - FIRST_GLYPH + 1;
+		glyphBase = gl.glGenLists( n );
+		for ( int c = FIRST_GLYPH; c <= LAST_GLYPH; ++c ) {
+			gl.glNewList( glyphBase + c - FIRST_GLYPH, GL.GL_COMPILE );
+				glut.glutStrokeCharacter( GLUT.STROKE_MONO_ROMAN, (char)c );
+			gl.glEndList();
+		}
+		numberOfGlyphsStroked += n;
+	}
+
+	public int getNumberOfCachedStrings() { return listOfString.size(); }
+	public int getNumberOfStringsCompiled() { return numberOfStringsCompiled; }
+	public int getNumberOfStringsReplayed() { return numberOfStringsReplayed; }
+	public int getNumberOfStringsNotCached() { return numberOfStringsNotCached; }
+	public int getNumberOfGlyphsStroked() { return numberOfGlyphsStroked; }
+
+	public void resetStatistics() {
+		numberOfStringsCompiled = 0;
+		numberOfStringsReplayed = 0;
+		numberOfStringsNotCached = 0;
+		numberOfGlyphsStroked = 0;
+	}
+}
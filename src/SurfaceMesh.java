@@ -0,0 +1,718 @@
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import javax.media.opengl.GL;
+import com.sun.opengl.util.BufferUtil;
+
+// Builds and draws a mesh of the visible surface of the boxes of a
+// BoxStore, for scenes where boxes are stacked face to face.
+//
+// A face of a box that is covered by the opposite face of a neighboring
+// box (e.g. the top of a box with another box sitting on it) is dropped,
+// and the remaining coplanar faces of the same color are merged greedily
+// into larger quads.  So the number of quads drawn grows with the area
+// of the surface of the scene rather than with the number of boxes.
+//
+// Space is divided into cubic regions, and each box belongs to the region
+// that contains its center.  Each region has its own mesh, made of the
+// visible parts of the faces of its boxes, which is only rebuilt when
+// one of its boxes, or a box touching one of its boxes, changes.
+//
+// To build the mesh of a region, the faces of its boxes and of the boxes
+// touching them are grouped by plane.  The faces in each plane are
+// rasterized into a grid whose rows and columns are the distinct edges of
+// the faces, each cell recording whether it is covered by a face facing
+// forward, by a face facing backward, and the color of the region's face
+// covering it.  Cells covered from both sides are hidden.  Runs of visible
+// cells of the same color are then merged into rectangles.
+//
+// Coordinates within EPSILON of each other are considered equal, so that
+// boxes placed next to each other with floating-point arithmetic (as by
+// SceneViewer.createNewBox()) are considered to touch.
+public class SurfaceMesh {
+
+	private static final float REGION_SIZE = 4;
+	private static final float EPSILON = 1e-4f;
+
+	// Boxes that overlap more regions than this are kept in a separate list,
+	// checked whenever neighbors are looked for.
+	private static final int MAX_REGIONS_PER_BOX = 64;
+
+	// Planes with more cells than this are not merged; their faces are
+	// drawn as they are.
+	private static final int MAX_CELLS_PER_PLANE = 1 << 20;
+
+	private final BoxStore boxes;
+
+	private static class Region {
+		final long key;
+
+		// indices of the boxes that overlap the region
+		int [] members = new int[ 8 ];
+		int numberOfMembers = 0;
+
+		boolean isDirty = false;
+		// true while in emptyRegions
+		boolean isEmptyQueued = false;
+		// position in the list of regions
+		int position;
+
+		// the mesh, as quads, 4 vertices (12 floats) and 4 colors (16 bytes) per quad
+		int numberOfQuads = 0;
+		FloatBuffer vertices;
+		ByteBuffer colors;
+		boolean isUploaded = false;
+		int [] bufferIds = new int[ 2 ];
+
+		Region( long key ) { this.key = key; }
+
+		void addMember( int index ) {
+			if ( numberOfMembers == members.length )
+				members = Arrays.copyOf( members, 2 * members.length );
+			members[ numberOfMembers++ ] = index;
+		}
+		void removeMember( int index ) {
+			for ( int k = 0; k < numberOfMembers; ++k ) {
+				if ( members[k] == index ) {
+					members[k] = members[ --numberOfMembers ];
+					return;
+				}
+			}
+		}
+	}
+
+	private HashMap<Long,Region> regionOfKey = new HashMap<Long,Region>();
+	private ArrayList<Region> regions = new ArrayList<Region>();
+	private ArrayList<Region> dirtyRegions = new ArrayList<Region>();
+	// Regions that lost their last box since the last update(), which drops
+	// them unless boxes have moved back in since (otherwise, dragging boxes
+	// across space would leave an ever longer trail of empty regions)
+	private ArrayList<Region> emptyRegions = new ArrayList<Region>();
+
+	// Boxes that overlap more than MAX_REGIONS_PER_BOX regions
+	private int [] largeBoxes = new int[ 8 ];
+	private int numberOfLargeBoxes = 0;
+
+	// The bounds of each box when it was last registered, so that its
+	// neighbors can be found after it has moved or been removed,
+	// and the key of the region to which it belongs.
+	private boolean [] isRegistered = new boolean[ 0 ];
+	private boolean [] isLarge = new boolean[ 0 ];
+	private float [] minX = new float[ 0 ], minY = new float[ 0 ], minZ = new float[ 0 ];
+	private float [] maxX = new float[ 0 ], maxY = new float[ 0 ], maxZ = new float[ 0 ];
+	private long [] homeKey = new long[ 0 ];
+
+	// true if all boxes must be registered again before the next draw
+	private boolean needsRebuild = true;
+
+	// Used to collect each box at most once when looking for neighbors
+	private int [] stamp = new int[ 0 ];
+	private int currentStamp = 0;
+	private int [] neighbors = new int[ 64 ];
+	private int numberOfNeighbors = 0;
+
+	// Temporary storage used while building the mesh of a region
+	private long [] sortedFaces = new long[ 64 ];
+	private float [] faceCoordinate = new float[ 64 ];
+	private float [] faceU0 = new float[ 64 ], faceV0 = new float[ 64 ], faceU1 = new float[ 64 ], faceV1 = new float[ 64 ];
+	private int [] faceColor = new int[ 64 ];
+	private boolean [] isFaceForward = new boolean[ 64 ];
+	private boolean [] isFaceEmitted = new boolean[ 64 ];
+	private float [] uCoordinates = new float[ 128 ], vCoordinates = new float[ 128 ];
+	private boolean [] isCoveredForward = new boolean[ 64 ], isCoveredBackward = new boolean[ 64 ];
+	private boolean [] isEmittedForward = new boolean[ 64 ], isEmittedBackward = new boolean[ 64 ];
+	private int [] colorForward = new int[ 64 ], colorBackward = new int[ 64 ];
+	private boolean [] isMerged = new boolean[ 64 ];
+	private float [] quadVertices = new float[ 12 * 64 ];
+	private int [] quadColors = new int[ 64 ];
+	private int numberOfQuadsInRegion = 0;
+
+	private boolean useBufferObjects = false;
+	private int [] buffersToDelete = new int[ 8 ];
+	private int numberOfBuffersToDelete = 0;
+
+	// statistics
+	private int numberOfQuads = 0;
+	private int numberOfRegionsRebuilt = 0;
+
+	public SurfaceMesh( BoxStore boxes ) {
+		this.boxes = boxes;
+	}
+
+	// Must be called after the bounds of a box have changed,
+	// or after it has been added or removed.
+	public void boxChanged( int index ) {
+		if ( needsRebuild )
+			return;
+		if ( index < isRegistered.length && isRegistered[index] ) {
+			markNeighborhoodDirty( minX[index], minY[index], minZ[index], maxX[index], maxY[index], maxZ[index] );
+			unregister( index );
+		}
+		if ( index < boxes.size() && boxes.isAlive( index ) ) {
+			register( index );
+			markNeighborhoodDirty( minX[index], minY[index], minZ[index], maxX[index], maxY[index], maxZ[index] );
+		}
+	}
+
+	// Must be called after the color of a box has changed.
+	public void colorChanged( int index ) {
+		if ( needsRebuild )
+			return;
+		if ( index < isRegistered.length && isRegistered[index] )
+			markDirty( regionOfKey.get( homeKey[index] ) );
+	}
+
+	// Must be called when many boxes have changed
+	// (e.g. after compacting the store).
+	public void invalidate() {
+		for ( Region region : regions ) {
+			if ( region.bufferIds[0] != 0 )
+				deleteBuffersLater( region.bufferIds );
+		}
+		regionOfKey.clear();
+		regions.clear();
+		dirtyRegions.clear();
+		emptyRegions.clear();
+		numberOfLargeBoxes = 0;
+		numberOfQuads = 0;
+		Arrays.fill( isRegistered, false );
+		needsRebuild = true;
+	}
+
+	// Must be called when the OpenGL context has been (re)created,
+	// since the buffer objects belonged to the old context.
+	public void contextCreated( GL gl ) {
+		useBufferObjects = gl.isFunctionAvailable( "glGenBuffers" )
+			&& gl.isFunctionAvailable( "glBindBuffer" )
+			&& gl.isFunctionAvailable( "glBufferData" );
+		for ( Region region : regions ) {
+			region.bufferIds = new int[ 2 ];
+			region.isUploaded = false;
+		}
+		numberOfBuffersToDelete = 0;
+	}
+
+	public int getNumberOfQuads() { return numberOfQuads; }
+	public int getNumberOfRegions() { return regions.size(); }
+	// Number of regions whose mesh was rebuilt by the last call to update()
+	public int getNumberOfRegionsRebuilt() { return numberOfRegionsRebuilt; }
+
+	private static int cellOf( float x ) {
+		return (int)Math.floor( x / REGION_SIZE );
+	}
+	private static long keyOf( int ix, int iy, int iz ) {
+		return ( (long)( ix & 0x1FFFFF ) << 42 ) | ( (long)( iy & 0x1FFFFF ) << 21 ) | (long)( iz & 0x1FFFFF );
+	}
+
+	private Region getOrCreateRegion( long key ) {
+		Region region = regionOfKey.get( key );
+		if ( region == null ) {
+			region = new Region( key );
+			regionOfKey.put( key, region );
+			region.position = regions.size();
+			regions.add( region );
+		}
+		return region;
+	}
+
+	private void removeMember( Region region, int index ) {
+		region.removeMember( index );
+		if ( region.numberOfMembers == 0 && ! region.isEmptyQueued ) {
+			region.isEmptyQueued = true;
+			emptyRegions.add( region );
+		}
+	}
+
+	// Drops the given region, which has no boxes left.
+	private void removeRegion( Region region ) {
+		regionOfKey.remove( region.key );
+		Region last = regions.remove( regions.size() - 1 );
+		if ( last != region ) {
+			regions.set( region.position, last );
+			last.position = region.position;
+		}
+		if ( region.bufferIds[0] != 0 )
+			deleteBuffersLater( region.bufferIds );
+		numberOfQuads -= region.numberOfQuads;
+	}
+
+	private void markDirty( Region region ) {
+		if ( region != null && ! region.isDirty ) {
+			region.isDirty = true;
+			dirtyRegions.add( region );
+		}
+	}
+
+	private void deleteBuffersLater( int [] bufferIds ) {
+		if ( numberOfBuffersToDelete + 2 > buffersToDelete.length )
+			buffersToDelete = Arrays.copyOf( buffersToDelete, 2 * buffersToDelete.length );
+		buffersToDelete[ numberOfBuffersToDelete++ ] = bufferIds[0];
+		buffersToDelete[ numberOfBuffersToDelete++ ] = bufferIds[1];
+	}
+
+	private void ensureCapacity( int n ) {
+		if ( n <= isRegistered.length )
+			return;
+		int newLength = Math.max( n, 2 * isRegistered.length );
+		isRegistered = Arrays.copyOf( isRegistered, newLength );
+		isLarge = Arrays.copyOf( isLarge, newLength );
+		minX = Arrays.copyOf( minX, newLength ); minY = Arrays.copyOf( minY, newLength ); minZ = Arrays.copyOf( minZ, newLength );
+		maxX = Arrays.copyOf( maxX, newLength ); maxY = Arrays.copyOf( maxY, newLength ); maxZ = Arrays.copyOf( maxZ, newLength );
+		homeKey = Arrays.copyOf( homeKey, newLength );
+		stamp = Arrays.copyOf( stamp, newLength );
+	}
+
+	private void register( int i ) {
+		ensureCapacity( boxes.size() );
+		isRegistered[i] = true;
+		minX[i] = boxes.minX[i]; minY[i] = boxes.minY[i]; minZ[i] = boxes.minZ[i];
+		maxX[i] = boxes.maxX[i]; maxY[i] = boxes.maxY[i]; maxZ[i] = boxes.maxZ[i];
+		homeKey[i] = keyOf(
+			cellOf( 0.5f*( minX[i] + maxX[i] ) ),
+			cellOf( 0.5f*( minY[i] + maxY[i] ) ),
+			cellOf( 0.5f*( minZ[i] + maxZ[i] ) )
+		);
+		int ix0 = cellOf( minX[i] ), iy0 = cellOf( minY[i] ), iz0 = cellOf( minZ[i] );
+		int ix1 = cellOf( maxX[i] ), iy1 = cellOf( maxY[i] ), iz1 = cellOf( maxZ[i] );
+		long numberOfCells = (long)( ix1 - ix0 + 1 ) * ( iy1 - iy0 + 1 ) * ( iz1 - iz0 + 1 );
+		isLarge[i] = numberOfCells > MAX_REGIONS_PER_BOX;
+		if ( isLarge[i] ) {
+			if ( numberOfLargeBoxes == largeBoxes.length )
+				largeBoxes = Arrays.copyOf( largeBoxes, 2 * largeBoxes.length );
+			largeBoxes[ numberOfLargeBoxes++ ] = i;
+			getOrCreateRegion( homeKey[i] ).addMember( i );
+			return;
+		}
+		for ( int ix = ix0; ix <= ix1; ++ix )
+			for ( int iy = iy0; iy <= iy1; ++iy )
+				for ( int iz = iz0; iz <= iz1; ++iz )
+					getOrCreateRegion( keyOf( ix, iy, iz ) ).addMember( i );
+	}
+
+	private void unregister( int i ) {
+		isRegistered[i] = false;
+		if ( isLarge[i] ) {
+			for ( int k = 0; k < numberOfLargeBoxes; ++k ) {
+				if ( largeBoxes[k] == i ) {
+					largeBoxes[k] = largeBoxes[ --numberOfLargeBoxes ];
+					break;
+				}
+			}
+			removeMember( regionOfKey.get( homeKey[i] ), i );
+			return;
+		}
+		int ix0 = cellOf( minX[i] ), iy0 = cellOf( minY[i] ), iz0 = cellOf( minZ[i] );
+		int ix1 = cellOf( maxX[i] ), iy1 = cellOf( maxY[i] ), iz1 = cellOf( maxZ[i] );
+		for ( int ix = ix0; ix <= ix1; ++ix )
+			for ( int iy = iy0; iy <= iy1; ++iy )
+				for ( int iz = iz0; iz <= iz1; ++iz )
+					removeMember( regionOfKey.get( keyOf( ix, iy, iz ) ), i );
+	}
+
+	private void addNeighbor( int i, float x0, float y0, float z0, float x1, float y1, float z1 ) {
+		if (
+			stamp[i] == currentStamp
+			|| minX[i] > x1 || maxX[i] < x0
+			|| minY[i] > y1 || maxY[i] < y0
+			|| minZ[i] > z1 || maxZ[i] < z0
+		) {
+			return;
+		}
+		stamp[i] = currentStamp;
+		if ( numberOfNeighbors == neighbors.length )
+			neighbors = Arrays.copyOf( neighbors, 2 * neighbors.length );
+		neighbors[ numberOfNeighbors++ ] = i;
+	}
+
+	// Appends to neighbors[] the registered boxes that overlap or touch
+	// the given bounds, skipping those already collected since the stamp
+	// was last incremented.
+	private void collectNeighbors( float x0, float y0, float z0, float x1, float y1, float z1 ) {
+		x0 -= EPSILON; y0 -= EPSILON; z0 -= EPSILON;
+		x1 += EPSILON; y1 += EPSILON; z1 += EPSILON;
+		int ix0 = cellOf( x0 ), iy0 = cellOf( y0 ), iz0 = cellOf( z0 );
+		int ix1 = cellOf( x1 ), iy1 = cellOf( y1 ), iz1 = cellOf( z1 );
+		long numberOfCells = (long)( ix1 - ix0 + 1 ) * ( iy1 - iy0 + 1 ) * ( iz1 - iz0 + 1 );
+		if ( numberOfCells > regions.size() ) {
+			for ( Region region : regions )
+				for ( int k = 0; k < region.numberOfMembers; ++k )
+					addNeighbor( region.members[k], x0, y0, z0, x1, y1, z1 );
+		}
+		else {
+			for ( int ix = ix0; ix <= ix1; ++ix ) {
+				for ( int iy = iy0; iy <= iy1; ++iy ) {
+					for ( int iz = iz0; iz <= iz1; ++iz ) {
+						Region region = regionOfKey.get( keyOf( ix, iy, iz ) );
+						if ( region == null )
+							continue;
+						for ( int k = 0; k < region.numberOfMembers; ++k )
+							addNeighbor( region.members[k], x0, y0, z0, x1, y1, z1 );
+					}
+				}
+			}
+		}
+		for ( int k = 0; k < numberOfLargeBoxes; ++k )
+			addNeighbor( largeBoxes[k], x0, y0, z0, x1, y1, z1 );
+	}
+
+	// Marks the regions of all the boxes overlapping or touching the given bounds
+	private void markNeighborhoodDirty( float x0, float y0, float z0, float x1, float y1, float z1 ) {
+		++currentStamp;
+		numberOfNeighbors = 0;
+		collectNeighbors( x0, y0, z0, x1, y1, z1 );
+		for ( int k = 0; k < numberOfNeighbors; ++k )
+			markDirty( regionOfKey.get( homeKey[ neighbors[k] ] ) );
+	}
+
+	// Registers all the boxes, and marks all the regions as dirty.
+	private void rebuildAll() {
+		needsRebuild = false;
+		ensureCapacity( boxes.size() );
+		for ( int i = 0; i < boxes.size(); ++i )
+			if ( boxes.isAlive( i ) )
+				register( i );
+		for ( Region region : regions )
+			markDirty( region );
+	}
+
+	// Maps a float to an int, such that the ints sort in the same order as the floats
+	private static int sortableBits( float f ) {
+		int bits = Float.floatToIntBits( f + 0.0f ); // + 0.0f turns -0 into +0
+		return bits ^ ( ( bits >> 31 ) & 0x7FFFFFFF );
+	}
+
+	private void growFaces( int n ) {
+		if ( n <= faceCoordinate.length )
+			return;
+		int newLength = Math.max( n, 2 * faceCoordinate.length );
+		sortedFaces = Arrays.copyOf( sortedFaces, newLength );
+		faceCoordinate = Arrays.copyOf( faceCoordinate, newLength );
+		faceU0 = Arrays.copyOf( faceU0, newLength ); faceV0 = Arrays.copyOf( faceV0, newLength );
+		faceU1 = Arrays.copyOf( faceU1, newLength ); faceV1 = Arrays.copyOf( faceV1, newLength );
+		faceColor = Arrays.copyOf( faceColor, newLength );
+		isFaceForward = Arrays.copyOf( isFaceForward, newLength );
+		isFaceEmitted = Arrays.copyOf( isFaceEmitted, newLength );
+		uCoordinates = new float[ 2 * newLength ];
+		vCoordinates = new float[ 2 * newLength ];
+	}
+
+	private void growCells( int n ) {
+		if ( n <= isCoveredForward.length )
+			return;
+		int newLength = Math.max( n, 2 * isCoveredForward.length );
+		isCoveredForward = new boolean[ newLength ]; isCoveredBackward = new boolean[ newLength ];
+		isEmittedForward = new boolean[ newLength ]; isEmittedBackward = new boolean[ newLength ];
+		colorForward = new int[ newLength ]; colorBackward = new int[ newLength ];
+		isMerged = new boolean[ newLength ];
+	}
+
+	// Sorts the first n coordinates, and removes those within EPSILON
+	// of the previous one; returns the number of remaining coordinates.
+	private static int sortAndMerge( float [] coordinates, int n ) {
+		Arrays.sort( coordinates, 0, n );
+		int m = 0;
+		for ( int k = 0; k < n; ++k )
+			if ( m == 0 || coordinates[k] - coordinates[m-1] > EPSILON )
+				coordinates[ m++ ] = coordinates[k];
+		return m;
+	}
+
+	// Returns the index of the coordinate nearest to x
+	private static int find( float [] coordinates, int n, float x ) {
+		int k = Arrays.binarySearch( coordinates, 0, n, x );
+		if ( k >= 0 )
+			return k;
+		k = -k - 1; // insertion point
+		if ( k == n ) return n - 1;
+		if ( k > 0 && x - coordinates[k-1] < coordinates[k] - x ) return k - 1;
+		return k;
+	}
+
+	private void putVertex( int position, int axis, float w, float u, float v ) {
+		// (u,v,w) are (y,z,x), (z,x,y) or (x,y,z), so that u cross v points along the axis
+		quadVertices[ position + axis ] = w;
+		quadVertices[ position + ( axis + 1 ) % 3 ] = u;
+		quadVertices[ position + ( axis + 2 ) % 3 ] = v;
+	}
+
+	// Adds a quad in the plane perpendicular to the given axis,
+	// counterclockwise when seen from the side the face is facing.
+	private void addQuad( int axis, float w, float u0, float v0, float u1, float v1, boolean isForward, int color ) {
+		if ( 12 * ( numberOfQuadsInRegion + 1 ) > quadVertices.length ) {
+			quadVertices = Arrays.copyOf( quadVertices, 2 * quadVertices.length );
+			quadColors = Arrays.copyOf( quadColors, 2 * quadColors.length );
+		}
+		quadColors[ numberOfQuadsInRegion ] = color;
+		int position = 12 * numberOfQuadsInRegion++;
+		putVertex( position, axis, w, u0, v0 );
+		if ( isForward ) {
+			putVertex( position + 3, axis, w, u1, v0 );
+			putVertex( position + 6, axis, w, u1, v1 );
+			putVertex( position + 9, axis, w, u0, v1 );
+		}
+		else {
+			putVertex( position + 3, axis, w, u0, v1 );
+			putVertex( position + 6, axis, w, u1, v1 );
+			putVertex( position + 9, axis, w, u1, v0 );
+		}
+	}
+
+	// Merges the visible cells facing one way into rectangles, and adds them as quads
+	private void mergeCells(
+		int axis, float w, int nu, int nv,
+		boolean [] isEmitted, boolean [] isCoveredByOpposite, int [] color,
+		boolean isForward
+	) {
+		Arrays.fill( isMerged, 0, nu * nv, false );
+		for ( int j = 0; j < nv; ++j ) {
+			for ( int i = 0; i < nu; ++i ) {
+				int cell = j * nu + i;
+				if ( isMerged[cell] || ! isEmitted[cell] || isCoveredByOpposite[cell] )
+					continue;
+				int c = color[cell];
+				// extend along u ...
+				int i1 = i + 1;
+				while ( i1 < nu ) {
+					int other = j * nu + i1;
+					if ( isMerged[other] || ! isEmitted[other] || isCoveredByOpposite[other] || color[other] != c )
+						break;
+					++i1;
+				}
+				// ... then along v, as long as the whole row matches
+				int j1 = j + 1;
+				while ( j1 < nv ) {
+					boolean matches = true;
+					for ( int k = i; k < i1 && matches; ++k ) {
+						int other = j1 * nu + k;
+						matches = ! isMerged[other] && isEmitted[other] && ! isCoveredByOpposite[other] && color[other] == c;
+					}
+					if ( ! matches )
+						break;
+					++j1;
+				}
+				for ( int jj = j; jj < j1; ++jj )
+					for ( int ii = i; ii < i1; ++ii )
+						isMerged[ jj * nu + ii ] = true;
+				addQuad( axis, w, uCoordinates[i], vCoordinates[j], uCoordinates[i1], vCoordinates[j1], isForward, c );
+			}
+		}
+	}
+
+	// Builds the quads for the faces [start,end) of sortedFaces[], which are in the same plane
+	private void buildPlane( int axis, int start, int end ) {
+		boolean hasEmittedFace = false;
+		for ( int k = start; k < end && ! hasEmittedFace; ++k )
+			hasEmittedFace = isFaceEmitted[ (int)sortedFaces[k] ];
+		if ( ! hasEmittedFace )
+			return;
+		float w = faceCoordinate[ (int)sortedFaces[start] ];
+
+		int nu = 0, nv = 0;
+		for ( int k = start; k < end; ++k ) {
+			int f = (int)sortedFaces[k];
+			uCoordinates[ nu++ ] = faceU0[f]; uCoordinates[ nu++ ] = faceU1[f];
+			vCoordinates[ nv++ ] = faceV0[f]; vCoordinates[ nv++ ] = faceV1[f];
+		}
+		nu = sortAndMerge( uCoordinates, nu );
+		nv = sortAndMerge( vCoordinates, nv );
+		int numberOfColumns = nu - 1, numberOfRows = nv - 1;
+		if ( numberOfColumns <= 0 || numberOfRows <= 0 )
+			return;
+		if ( (long)numberOfColumns * numberOfRows > MAX_CELLS_PER_PLANE ) {
+			// too many cells: draw the faces as they are
+			for ( int k = start; k < end; ++k ) {
+				int f = (int)sortedFaces[k];
+				if ( isFaceEmitted[f] )
+					addQuad( axis, w, faceU0[f], faceV0[f], faceU1[f], faceV1[f], isFaceForward[f], faceColor[f] );
+			}
+			return;
+		}
+		int numberOfCells = numberOfColumns * numberOfRows;
+		growCells( numberOfCells );
+		Arrays.fill( isCoveredForward, 0, numberOfCells, false );
+		Arrays.fill( isCoveredBackward, 0, numberOfCells, false );
+		Arrays.fill( isEmittedForward, 0, numberOfCells, false );
+		Arrays.fill( isEmittedBackward, 0, numberOfCells, false );
+
+		for ( int k = start; k < end; ++k ) {
+			int f = (int)sortedFaces[k];
+			int i0 = find( uCoordinates, nu, faceU0[f] ), i1 = find( uCoordinates, nu, faceU1[f] );
+			int j0 = find( vCoordinates, nv, faceV0[f] ), j1 = find( vCoordinates, nv, faceV1[f] );
+			boolean [] isCovered = isFaceForward[f] ? isCoveredForward : isCoveredBackward;
+			boolean [] isEmitted = isFaceForward[f] ? isEmittedForward : isEmittedBackward;
+			int [] color = isFaceForward[f] ? colorForward : colorBackward;
+			for ( int j = j0; j < j1; ++j ) {
+				for ( int i = i0; i < i1; ++i ) {
+					int cell = j * numberOfColumns + i;
+					isCovered[cell] = true;
+					if ( isFaceEmitted[f] ) {
+						isEmitted[cell] = true;
+						color[cell] = faceColor[f];
+					}
+				}
+			}
+		}
+		mergeCells( axis, w, numberOfColumns, numberOfRows, isEmittedForward, isCoveredBackward, colorForward, true );
+		mergeCells( axis, w, numberOfColumns, numberOfRows, isEmittedBackward, isCoveredForward, colorBackward, false );
+	}
+
+	private void rebuildRegion( Region region ) {
+		region.isDirty = false;
+		region.isUploaded = false;
+		numberOfQuads -= region.numberOfQuads;
+		numberOfQuadsInRegion = 0;
+
+		// collect the boxes of the region, and the boxes that may touch them
+		float x0 = Float.POSITIVE_INFINITY, y0 = Float.POSITIVE_INFINITY, z0 = Float.POSITIVE_INFINITY;
+		float x1 = Float.NEGATIVE_INFINITY, y1 = Float.NEGATIVE_INFINITY, z1 = Float.NEGATIVE_INFINITY;
+		for ( int k = 0; k < region.numberOfMembers; ++k ) {
+			int i = region.members[k];
+			if ( homeKey[i] != region.key )
+				continue;
+			x0 = Math.min( x0, minX[i] ); y0 = Math.min( y0, minY[i] ); z0 = Math.min( z0, minZ[i] );
+			x1 = Math.max( x1, maxX[i] ); y1 = Math.max( y1, maxY[i] ); z1 = Math.max( z1, maxZ[i] );
+		}
+		++currentStamp;
+		numberOfNeighbors = 0;
+		if ( x0 <= x1 )
+			collectNeighbors( x0, y0, z0, x1, y1, z1 );
+
+		float [][] min = { minX, minY, minZ }, max = { maxX, maxY, maxZ };
+		for ( int axis = 0; axis < 3; ++axis ) {
+			float [] minU = min[ ( axis + 1 ) % 3 ], maxU = max[ ( axis + 1 ) % 3 ];
+			float [] minV = min[ ( axis + 2 ) % 3 ], maxV = max[ ( axis + 2 ) % 3 ];
+			float [] minW = min[ axis ], maxW = max[ axis ];
+			int numberOfFaces = 0;
+			growFaces( 2 * numberOfNeighbors );
+			for ( int k = 0; k < numberOfNeighbors; ++k ) {
+				int i = neighbors[k];
+				boolean isEmitted = homeKey[i] == region.key;
+				int color = isEmitted ? boxes.rgba[i] : 0;
+				for ( int side = 0; side < 2; ++side ) {
+					int f = numberOfFaces++;
+					faceCoordinate[f] = side == 0 ? minW[i] : maxW[i];
+					faceU0[f] = minU[i]; faceU1[f] = maxU[i];
+					faceV0[f] = minV[i]; faceV1[f] = maxV[i];
+					isFaceForward[f] = side == 1;
+					isFaceEmitted[f] = isEmitted;
+					faceColor[f] = color;
+					sortedFaces[f] = ( (long)sortableBits( faceCoordinate[f] ) << 32 ) | f;
+				}
+			}
+			Arrays.sort( sortedFaces, 0, numberOfFaces );
+			int start = 0;
+			while ( start < numberOfFaces ) {
+				float w = faceCoordinate[ (int)sortedFaces[start] ];
+				int end = start + 1;
+				while ( end < numberOfFaces && faceCoordinate[ (int)sortedFaces[end] ] - w <= EPSILON )
+					++end;
+				buildPlane( axis, start, end );
+				start = end;
+			}
+		}
+
+		region.numberOfQuads = numberOfQuadsInRegion;
+		numberOfQuads += numberOfQuadsInRegion;
+		if ( region.vertices == null || region.vertices.capacity() < 12 * numberOfQuadsInRegion ) {
+			int capacity = Math.max( 16, 12 * numberOfQuadsInRegion );
+			region.vertices = BufferUtil.newFloatBuffer( capacity );
+			region.colors = BufferUtil.newByteBuffer( capacity / 3 * 4 );
+		}
+		region.vertices.clear();
+		region.vertices.put( quadVertices, 0, 12 * numberOfQuadsInRegion );
+		region.vertices.rewind();
+		region.colors.clear();
+		for ( int q = 0; q < numberOfQuadsInRegion; ++q ) {
+			int c = quadColors[q];
+			for ( int corner = 0; corner < 4; ++corner ) {
+				region.colors.put( (byte)( c >>> 24 ) );
+				region.colors.put( (byte)( c >>> 16 ) );
+				region.colors.put( (byte)( c >>> 8 ) );
+				region.colors.put( (byte)c );
+			}
+		}
+		region.colors.rewind();
+	}
+
+	// Rebuilds the meshes of the regions that have changed.
+	public void update() {
+		if ( needsRebuild )
+			rebuildAll();
+		numberOfRegionsRebuilt = dirtyRegions.size();
+		for ( Region region : dirtyRegions )
+			rebuildRegion( region );
+		dirtyRegions.clear();
+		// (a region that lost its last box was marked dirty if it had a
+		// mesh, so its mesh is now empty)
+		for ( Region region : emptyRegions ) {
+			region.isEmptyQueued = false;
+			if ( region.numberOfMembers == 0 )
+				removeRegion( region );
+		}
+		emptyRegions.clear();
+	}
+
+	// Draws the mesh, with the current blending and depth state.
+	public void draw( GL gl ) {
+		update();
+		if ( numberOfBuffersToDelete > 0 ) {
+			if ( useBufferObjects )
+				gl.glDeleteBuffers( numberOfBuffersToDelete, buffersToDelete, 0 );
+			numberOfBuffersToDelete = 0;
+		}
+
+		gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
+		gl.glEnableClientState( GL.GL_COLOR_ARRAY );
+		for ( Region region : regions ) {
+			if ( region.numberOfQuads == 0 )
+				continue;
+			if ( useBufferObjects ) {
+				if ( region.bufferIds[0] == 0 )
+					gl.glGenBuffers( 2, region.bufferIds, 0 );
+				gl.glBindBuffer( GL.GL_ARRAY_BUFFER, region.bufferIds[0] );
+				if ( ! region.isUploaded )
+					gl.glBufferData( GL.GL_ARRAY_BUFFER, 12 * region.numberOfQuads * BufferUtil.SIZEOF_FLOAT, region.vertices, GL.GL_STATIC_DRAW );
+				gl.glVertexPointer( 3, GL.GL_FLOAT, 0, 0L );
+				gl.glBindBuffer( GL.GL_ARRAY_BUFFER, region.bufferIds[1] );
+				if ( ! region.isUploaded )
+					gl.glBufferData( GL.GL_ARRAY_BUFFER, 16 * region.numberOfQuads, region.colors, GL.GL_STATIC_DRAW );
+				gl.glColorPointer( 4, GL.GL_UNSIGNED_BYTE, 0, 0L );
+				region.isUploaded = true;
+			}
+			else {
+				gl.glVertexPointer( 3, GL.GL_FLOAT, 0, region.vertices );
+				gl.glColorPointer( 4, GL.GL_UNSIGNED_BYTE, 0, region.colors );
+			}
+			gl.glDrawArrays( GL.GL_QUADS, 0, 4 * region.numberOfQuads );
+		}
+		if ( useBufferObjects )
+			gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+		gl.glDisableClientState( GL.GL_COLOR_ARRAY );
+		gl.glDisableClientState( GL.GL_VERTEX_ARRAY );
+	}
+
+	// Copies the quads of the mesh into the given arrays (12 floats and
+	// 1 packed color per quad), which must be large enough, after
+	// bringing the mesh up to date.  Returns the number of quads.
+	public int getQuads( float [] vertices, int [] colors ) {
+		update();
+		int q = 0;
+		for ( Region region : regions ) {
+			// (a region that only overlaps boxes of other regions may never have been built)
+			if ( region.numberOfQuads == 0 )
+				continue;
+			for ( int k = 0; k < region.numberOfQuads; ++k, ++q ) {
+				region.vertices.position( 12 * k );
+				region.vertices.get( vertices, 12 * q, 12 );
+				int b = 16 * k;
+				colors[q] = ( ( region.colors.get( b ) & 0xFF ) << 24 ) | ( ( region.colors.get( b+1 ) & 0xFF ) << 16 )
+					| ( ( region.colors.get( b+2 ) & 0xFF ) << 8 ) | ( region.colors.get( b+3 ) & 0xFF );
+			}
+			region.vertices.rewind();
+		}
+		return q;
+	}
+
+}